@@ -0,0 +1,91 @@
+package com.tianpan.mongodbai.benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.tianpan.mongodbai.service.LazyLog;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志级别为INFO时，查询链路上DEBUG/TRACE日志的开销：原先直接调用 toJson() 作为参数与 LazyLog 对比。
+ * <p>
+ * 配合 -prof gc 运行，gc.alloc.rate.norm 为每次调用分配的字节数，LazyLog 各项应为0：
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="LazyLog -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LazyLogBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(LazyLogBenchmark.class);
+
+    private Document document;
+
+    @Setup
+    public void setUp() {
+        ((ch.qos.logback.classic.Logger) logger).setLevel(Level.INFO);
+        document = new Document("alert_id", "ALM-20250630-000123")
+                .append("system_name", "支付核心系统")
+                .append("alarm_type", "business")
+                .append("level", 2)
+                .append("content", "交易成功率低于阈值，当前值 97.3%，阈值 99%")
+                .append("start_time", new Date(1751297444000L))
+                .append("end_time", "2025-06-30 23.30:44.123")
+                .append("reaction_time", "2025-06-30 23.35:10.000")
+                .append("tags", java.util.Arrays.asList("prod", "payment", "sla"));
+    }
+
+    /**
+     * 原写法：级别关闭时也会序列化文档
+     */
+    @Benchmark
+    public void eagerToJson() {
+        logger.debug("查询结果示例: {}", document.toJson());
+    }
+
+    @Benchmark
+    public void lazyJson() {
+        logger.debug("查询结果示例: {}", LazyLog.json(document));
+    }
+
+    @Benchmark
+    public void guardedJson() {
+        LazyLog.debugJson(logger, "查询结果示例: {}", document);
+    }
+
+    /**
+     * 原 getStringValue 中每个字段的日志
+     */
+    @Benchmark
+    public void eagerFieldLogging() {
+        Object value = document.get("content");
+        logger.debug("获取Document字段值 - key: {}, defaultValue: {}", "content", null);
+        logger.debug("字段值类型: {}, 值: {}", value.getClass().getSimpleName(), value);
+        logger.debug("字符串类型，直接返回: {}", value);
+    }
+
+    @Benchmark
+    public void sampledFieldTrace() {
+        Object value = document.get("content");
+        if (logger.isTraceEnabled() && LazyLog.sampled()) {
+            logger.trace("获取Document字段值 - key: {}, 类型: {}, 值: {} -> {}", "content",
+                    value.getClass().getSimpleName(), LazyLog.abbreviate(value), LazyLog.abbreviate(value));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.tianpan.mongodbai.benchmark;
+
+import com.tianpan.mongodbai.service.query.QueryAst;
+import com.tianpan.mongodbai.service.query.QueryCompiler;
+import com.tianpan.mongodbai.service.query.QueryLexer;
+import com.tianpan.mongodbai.service.query.QueryParser;
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import com.tianpan.mongodbai.service.query.QueryPlanCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询语句解析：Dify 工作流生成的典型语句（带条件和排序的find、count、带 $lookup 的aggregate）
+ * 依次轮换，分别测量词法+语法分析、编译为执行计划，以及执行计划缓存命中时的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryParserBenchmark {
+
+    private static final String[] QUERIES = {
+            "db.alarm_info.find({alarm_type: 'business', system_name: '支付核心系统'}).sort({end_time: -1}).limit(20)",
+            "db.alarm_info.find({end_time: {$gte: ISODate('2025-06-30T00:00:00Z'), $lt: ISODate('2025-07-01T00:00:00Z')}, "
+                    + "level: {$in: [1, 2]}}, {alert_id: 1, system_name: 1, content: 1, end_time: 1, _id: 0}).limit(100)",
+            "db.alarm_info.count({alarm_type: 'business', end_time: {$gte: ISODate('2025-06-30T00:00:00Z')}})",
+            "db.alarm_itsc.find({itsc_id: {$in: ['ITSC-20250630-0001', 'ITSC-20250630-0002', 'ITSC-20250630-0003']}})",
+            "db.alarm_info.aggregate([{$match: {alarm_type: 'business', content: {$regex: '^交易成功率'}}}, "
+                    + "{$group: {_id: '$system_name', count: {$sum: 1}, latest: {$max: '$end_time'}}}, "
+                    + "{$sort: {count: -1}}, {$limit: 10}])",
+            "db.alarm_itsc.aggregate([{$match: {itsc_id: 'ITSC-20250630-0001'}}, {$lookup: {from: 'alarm_info', "
+                    + "localField: 'case_exec_id', foreignField: 'alert_id', as: 'alarms'}}, {$unwind: '$alarms'}, "
+                    + "{$project: {_id: 0, itsc_id: 1, 'alarms.system_name': 1, 'alarms.content': 1}}])",
+            "db.alarm_ignore.find({$or: [{alert_id: 'ALM-20250630-000123'}, {system_name: '渠道网关'}]}).limit(10)",
+            "db.alarm_info.estimatedDocumentCount()"
+    };
+
+    private QueryPlanCache cache;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        cache = new QueryPlanCache(1000, Collections.emptyMap());
+        for (String query : QUERIES) {
+            cache.get(query);
+        }
+    }
+
+    private String next() {
+        cursor = (cursor + 1) % QUERIES.length;
+        return QUERIES[cursor];
+    }
+
+    /**
+     * 词法分析和语法分析
+     */
+    @Benchmark
+    public QueryAst parse() {
+        return QueryParser.parse(next());
+    }
+
+    /**
+     * 执行计划缓存未命中：规范化、解析并编译为BSON
+     */
+    @Benchmark
+    public QueryPlan compile() {
+        String query = next();
+        String key = QueryLexer.normalize(query);
+        return QueryCompiler.compile(QueryParser.parse(query), key);
+    }
+
+    /**
+     * 执行计划缓存命中：只规范化语句并查找
+     */
+    @Benchmark
+    public QueryPlan cachedPlan() {
+        return cache.get(next());
+    }
+}
@@ -0,0 +1,107 @@
+package com.tianpan.mongodbai.benchmark;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tianpan.mongodbai.service.BsonJsonTranscoder;
+import com.tianpan.mongodbai.service.MongoService;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /query 结果的序列化：Jackson 将 QueryResult（数据为 Document 列表）写为JSON字符串，
+ * 与 /query/json 直接从原始BSON转码写出对比。rows 为结果文档数，文档结构与 alarm_info 相同。
+ * <p>
+ * 配合 -prof gc 可看到每次序列化分配的字节数：
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="QueryResultSerialization -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryResultSerializationBenchmark {
+
+    private static final String[] SYSTEMS = {"支付核心系统", "渠道网关", "账务系统", "风控平台", "客户中心"};
+
+    @Param({"100", "10000"})
+    private int rows;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private MongoService.QueryResult result;
+    private List<RawBsonDocument> rawDocuments;
+    private ByteArrayOutputStream buffer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Document> documents = new ArrayList<>(rows);
+        rawDocuments = new ArrayList<>(rows);
+        DocumentCodec codec = new DocumentCodec();
+        for (int i = 0; i < rows; i++) {
+            Document document = new Document("_id", new ObjectId(new Date(1751297444000L + i * 1000L), i))
+                    .append("alert_id", String.format("ALM-20250630-%06d", i))
+                    .append("system_name", SYSTEMS[random.nextInt(SYSTEMS.length)])
+                    .append("alarm_type", random.nextInt(4) == 0 ? "infra" : "business")
+                    .append("level", 1 + random.nextInt(3))
+                    .append("content", "交易成功率低于阈值，当前值 " + (90 + random.nextInt(10)) + "." + random.nextInt(10) + "%，阈值 99%")
+                    .append("start_time", new Date(1751297444000L + i * 1000L))
+                    .append("end_time", String.format("2025-06-30 %d.%02d:%02d.%03d",
+                            random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1000)))
+                    .append("tags", Arrays.asList("prod", "payment", "sla"));
+            documents.add(document);
+            rawDocuments.add(new RawBsonDocument(document, codec));
+        }
+        result = new MongoService.QueryResult("find", documents, null);
+        buffer = new ByteArrayOutputStream(rows * 512);
+    }
+
+    /**
+     * /query：QueryResult 经 ObjectMapper 序列化为字符串（同 MongoService 的写法）
+     */
+    @Benchmark
+    public String jacksonQueryResult() throws IOException {
+        return objectMapper.writeValueAsString(result);
+    }
+
+    /**
+     * /query/json：原始BSON逐元素转码，不构造 Document，也不产生中间字符串
+     */
+    @Benchmark
+    public int transcodeRawBson() throws IOException {
+        buffer.reset();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(buffer)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "find");
+            generator.writeArrayFieldStart("data");
+            for (RawBsonDocument document : rawDocuments) {
+                BsonJsonTranscoder.write(document, generator);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return buffer.size();
+    }
+}
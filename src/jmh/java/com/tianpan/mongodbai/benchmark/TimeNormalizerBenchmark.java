@@ -0,0 +1,168 @@
+package com.tianpan.mongodbai.benchmark;
+
+import com.tianpan.mongodbai.service.TimeNormalizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 导出时间格式化：TimeNormalizer 与原 MongoService.formatTimeForExcel / getStringValue 实现对比。
+ * <p>
+ * 输入按导出数据的实际分布生成：以数据库格式 "yyyy-MM-dd H.mm:ss.SSS" 为主，混有其他格式和非时间字符串。
+ * distinct 控制不同取值的个数，取值越少缓存命中越高；65536 时基本不命中，反映纯解析开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeNormalizerBenchmark {
+
+    private static final int INPUTS = 1024;
+
+    @Param({"256", "65536"})
+    private int distinct;
+
+    private String[] timeStrings;
+    private Date[] dates;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        String[] pool = new String[distinct];
+        for (int i = 0; i < distinct; i++) {
+            pool[i] = sample(random);
+        }
+        timeStrings = new String[INPUTS];
+        dates = new Date[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            timeStrings[i] = pool[random.nextInt(distinct)];
+            dates[i] = new Date(1751297444000L + random.nextInt(distinct) * 60_000L);
+        }
+    }
+
+    private String next() {
+        cursor = (cursor + 1) & (INPUTS - 1);
+        return timeStrings[cursor];
+    }
+
+    private Date nextDate() {
+        cursor = (cursor + 1) & (INPUTS - 1);
+        return dates[cursor];
+    }
+
+    @Benchmark
+    public String legacyFormatTimeForExcel() {
+        return legacyFormatTimeForExcel(next());
+    }
+
+    @Benchmark
+    public String normalizerFormatForExcel() {
+        return TimeNormalizer.formatForExcel(next());
+    }
+
+    @Benchmark
+    public void legacyGetStringValue(Blackhole blackhole) {
+        String value = next();
+        blackhole.consume(value.matches(".*\\d{4}[-/]\\d{1,2}[-/]\\d{1,2}.*\\d{1,2}:\\d{2}:\\d{2}.*")
+                ? legacyFormatTimeForExcel(value) : value);
+        blackhole.consume(new SimpleDateFormat("yyyy-MM-dd HH:mm").format(nextDate()));
+    }
+
+    @Benchmark
+    public void normalizerGetStringValue(Blackhole blackhole) {
+        String value = next();
+        blackhole.consume(TimeNormalizer.looksLikeDateTime(value) ? TimeNormalizer.formatForExcel(value) : value);
+        blackhole.consume(TimeNormalizer.formatDate(nextDate()));
+    }
+
+    private static String sample(Random random) {
+        int month = 1 + random.nextInt(12);
+        int day = 1 + random.nextInt(28);
+        int hour = random.nextInt(24);
+        int minute = random.nextInt(60);
+        int second = random.nextInt(60);
+        int millis = random.nextInt(1000);
+        int kind = random.nextInt(20);
+        if (kind < 14) {
+            return String.format("2025-%02d-%02d %d.%02d:%02d.%03d", month, day, hour, minute, second, millis);
+        }
+        if (kind < 16) {
+            return String.format("2025-%02d-%02d %02d:%02d:%02d", month, day, hour, minute, second);
+        }
+        if (kind < 17) {
+            return String.format("2025-%02d-%02d %02d:%02d:%02d.%03d", month, day, hour, minute, second, millis);
+        }
+        if (kind < 18) {
+            return String.format("2025/%d/%d %d:%02d", month, day, hour, minute);
+        }
+        if (kind < 19) {
+            return String.format(Locale.ENGLISH, "%ta %<tb %<td %<tT CST %<tY",
+                    new Date(1735660800000L + random.nextInt(365 * 24 * 3600) * 1000L));
+        }
+        return "未处理-" + random.nextInt(100);
+    }
+
+    /**
+     * 原 MongoService.formatTimeForExcel，去掉了日志
+     */
+    private static String legacyFormatTimeForExcel(String timeStr) {
+        if (timeStr == null || timeStr.trim().isEmpty()) {
+            return "";
+        }
+        try {
+            if (timeStr.matches("\\d{4}/\\d{1,2}/\\d{1,2} \\d{1,2}:\\d{2}$")) {
+                return timeStr;
+            }
+            LocalDateTime dateTime = null;
+            try {
+                dateTime = LocalDateTime.parse(timeStr, DateTimeFormatter.ofPattern("yyyy-MM-dd H.mm:ss.SSS"));
+            } catch (Exception e0) {
+                try {
+                    dateTime = LocalDateTime.parse(timeStr, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS"));
+                } catch (Exception e1) {
+                    try {
+                        dateTime = LocalDateTime.parse(timeStr, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+                    } catch (Exception e2) {
+                        try {
+                            dateTime = LocalDateTime.parse(timeStr, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+                        } catch (Exception e3) {
+                            if (timeStr.contains("CST") || timeStr.contains("GMT") || timeStr.contains("UTC")) {
+                                try {
+                                    SimpleDateFormat inputFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.ENGLISH);
+                                    dateTime = inputFormat.parse(timeStr).toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
+                                } catch (Exception e4) {
+                                    return timeStr;
+                                }
+                            } else {
+                                return timeStr;
+                            }
+                        }
+                    }
+                }
+            }
+            return dateTime.format(DateTimeFormatter.ofPattern("yyyy/M/d H:mm"));
+        } catch (Exception e) {
+            return timeStr;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.tianpan.mongodbai.benchmark.e2e;
+
+import org.bson.BsonArray;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 生成与线上结构相同的告警数据：alarm_info 的 end_time 分布在最近48小时内（今日告警系统查询有数据可取），
+ * 约七成为 business 类型；alarm_itsc 每条关联一条告警；约5%的告警进入 alarm_ignore。
+ * 固定随机种子，同样的参数每次生成同样的数据。
+ */
+public final class AlarmSeed {
+
+    static final String[] SYSTEMS = {"支付核心系统", "渠道网关", "账务系统", "风控平台", "客户中心",
+            "清算系统", "营销平台", "信贷系统", "票据系统", "运维平台"};
+
+    private static final String[] TYPES = {"business", "business", "business", "business", "business",
+            "business", "business", "infra", "infra", "network"};
+
+    private static final long HOURS_48 = 48L * 3600 * 1000;
+
+    private AlarmSeed() {
+    }
+
+    public static void populate(FakeMongoEngine engine, int alarmCount, long nowMillis) {
+        Random random = new Random(42);
+        List<BsonDocument> alarms = new ArrayList<>(alarmCount);
+        List<BsonDocument> itsc = new ArrayList<>(alarmCount);
+        List<BsonDocument> ignored = new ArrayList<>(alarmCount / 20 + 1);
+        for (int i = 0; i < alarmCount; i++) {
+            String alertId = String.format("ALM-%08d", i);
+            long endTime = nowMillis - (long) (random.nextDouble() * HOURS_48);
+            long startTime = endTime - random.nextInt(3600 * 1000);
+            String system = SYSTEMS[random.nextInt(SYSTEMS.length)];
+            alarms.add(new BsonDocument("_id", new BsonObjectId(new ObjectId(new Date(startTime), i)))
+                    .append("alert_id", new BsonString(alertId))
+                    .append("system_name", new BsonString(system))
+                    .append("alarm_type", new BsonString(TYPES[random.nextInt(TYPES.length)]))
+                    .append("level", new BsonInt32(1 + random.nextInt(3)))
+                    .append("content", new BsonString("交易成功率低于阈值，当前值 " + (90 + random.nextInt(10))
+                            + "." + random.nextInt(10) + "%，阈值 99%"))
+                    .append("start_time", new BsonDateTime(startTime))
+                    .append("end_time", new BsonDateTime(endTime))
+                    .append("tags", new BsonArray(Arrays.asList(new BsonString("prod"), new BsonString("sla")))));
+            itsc.add(new BsonDocument("_id", new BsonObjectId(new ObjectId(new Date(endTime), i)))
+                    .append("itsc_id", new BsonString(String.format("ITSC-%08d", i)))
+                    .append("case_exec_id", new BsonString(alertId)));
+            if (random.nextInt(20) == 0) {
+                ignored.add(new BsonDocument("_id", new BsonObjectId(new ObjectId(new Date(endTime), i)))
+                        .append("alert_id", new BsonString(alertId))
+                        .append("system_name", new BsonString(system)));
+            }
+        }
+        engine.insert("alarm_info", alarms);
+        engine.insert("alarm_itsc", itsc);
+        engine.insert("alarm_ignore", ignored);
+    }
+}
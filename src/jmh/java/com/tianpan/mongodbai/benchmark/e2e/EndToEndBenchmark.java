@@ -0,0 +1,177 @@
+package com.tianpan.mongodbai.benchmark.e2e;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tianpan.mongodbai.MongodbAiApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端压测：启动完整的Spring应用，连接进程内的 MongoDB 替身（{@link FakeMongoServer}），
+ * 经HTTP驱动 /api/mongo/query 和 /api/mongo/today-alarm-systems。
+ * <p>
+ * 并发数即 JMH 线程数（-t，默认8）；Throughput 给出吞吐量，SampleTime 给出 p50/p99 延迟，
+ * 配合 -prof gc 给出分配速率（包含替身和HTTP客户端的分配，比较版本时只看相对变化）。
+ * latencyMillis 为替身对每条数据命令附加的延迟，alarms 为 alarm_info 的文档数：
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="EndToEnd -t 32 -p latencyMillis=5 -prof gc"
+ * <p>
+ * 结果缓存和准入控制关闭，每个请求都实际执行到替身；替身只实现基准用到的命令和操作符。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    static {
+        // HttpURLConnection 的 keep-alive 连接池默认每个目标只保留5个连接，高并发下会不断新建连接
+        System.setProperty("http.maxConnections", "256");
+    }
+
+    @Param({"1"})
+    private long latencyMillis;
+
+    @Param({"20000"})
+    private int alarms;
+
+    private FakeMongoServer server;
+    private ConfigurableApplicationContext context;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        FakeMongoEngine engine = new FakeMongoEngine();
+        AlarmSeed.populate(engine, alarms, System.currentTimeMillis());
+        server = new FakeMongoServer(engine, TimeUnit.MILLISECONDS.toMicros(latencyMillis));
+        // 命令行参数优先于 application.properties，builder 的 properties() 只是默认值
+        context = new SpringApplicationBuilder(MongodbAiApplication.class).run(
+                "--spring.data.mongodb.host=127.0.0.1",
+                "--spring.data.mongodb.port=" + server.getPort(),
+                "--spring.data.mongodb.database=detect",
+                "--server.port=0",
+                "--mongo.cache.enabled=false",
+                "--mongo.admission.enabled=false",
+                "--mongo.indexes.bootstrap=false",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN",
+                "--logging.level.com.tianpan.mongodbai=WARN",
+                "--logging.level.org.mongodb.driver=WARN");
+        baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port") + "/api/mongo";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (context != null) {
+            context.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * 每个压测线程独立轮换查询语句：带条件排序的find、count、按系统分组的aggregate、$lookup 关联
+     */
+    @State(Scope.Thread)
+    public static class Queries {
+
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private byte[][] bodies;
+        private int cursor;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            String since = Instant.now().minus(1, ChronoUnit.DAYS).toString();
+            String[] queries = {
+                    "db.alarm_info.find({alarm_type: 'business', system_name: '支付核心系统'}).sort({end_time: -1}).limit(20)",
+                    "db.alarm_info.find({end_time: {$gte: ISODate('" + since + "')}, level: {$in: [1, 2]}}, "
+                            + "{alert_id: 1, system_name: 1, content: 1, end_time: 1, _id: 0}).limit(100)",
+                    "db.alarm_info.count({alarm_type: 'business', end_time: {$gte: ISODate('" + since + "')}})",
+                    "db.alarm_itsc.find({itsc_id: {$in: ['ITSC-00000001', 'ITSC-00000002', 'ITSC-00000003']}})",
+                    "db.alarm_info.aggregate([{$match: {alarm_type: 'business', end_time: {$gte: ISODate('" + since + "')}}}, "
+                            + "{$group: {_id: '$system_name', count: {$sum: 1}, latest: {$max: '$end_time'}}}, "
+                            + "{$sort: {count: -1}}, {$limit: 10}])",
+                    "db.alarm_itsc.aggregate([{$match: {itsc_id: 'ITSC-00000042'}}, {$lookup: {from: 'alarm_info', "
+                            + "localField: 'case_exec_id', foreignField: 'alert_id', as: 'alarms'}}, {$unwind: '$alarms'}, "
+                            + "{$project: {_id: 0, itsc_id: 1, 'alarms.system_name': 1, 'alarms.content': 1}}])",
+                    "db.alarm_ignore.find({$or: [{alert_id: 'ALM-00000123'}, {system_name: '渠道网关'}]}).limit(10)"
+            };
+            bodies = new byte[queries.length][];
+            for (int i = 0; i < queries.length; i++) {
+                bodies[i] = objectMapper.writeValueAsBytes(Collections.singletonMap("query", queries[i]));
+            }
+        }
+
+        byte[] next() {
+            cursor = (cursor + 1) % bodies.length;
+            return bodies[cursor];
+        }
+    }
+
+    @Benchmark
+    public int query(Queries queries) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/query").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(queries.next());
+        }
+        return read(connection);
+    }
+
+    @Benchmark
+    public int todayAlarmSystems() throws IOException {
+        return read((HttpURLConnection) new URL(baseUrl + "/today-alarm-systems").openConnection());
+    }
+
+    /**
+     * 读完响应体，连接才会回到 keep-alive 连接池
+     */
+    private static int read(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream closing = in) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = closing.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            }
+        }
+        if (status != 200) {
+            throw new IllegalStateException("HTTP " + status + ": " + new String(body.toByteArray(), StandardCharsets.UTF_8));
+        }
+        return body.size();
+    }
+}
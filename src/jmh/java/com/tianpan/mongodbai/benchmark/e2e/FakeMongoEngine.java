@@ -0,0 +1,850 @@
+package com.tianpan.mongodbai.benchmark.e2e;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 压测用的内存数据及命令执行，只覆盖本服务会发出的命令和查询语法：
+ * find/getMore/killCursors/count/distinct/aggregate/listIndexes/createIndexes/explain。
+ * <p>
+ * 每次查询都全量扫描内存中的文档（不使用索引），条件支持常用比较、逻辑、$in、$regex、$exists、$type；
+ * 管道支持 $match、$sort、$skip、$limit、$project、$group、$count、$unwind 及 localField 形式的 $lookup。
+ * 不支持的语法返回错误而不是静默给出错误结果。数据在压测开始前写入，之后只读。
+ */
+public final class FakeMongoEngine {
+
+    private static final int DEFAULT_BATCH_SIZE = 101;
+
+    private final Map<String, List<BsonDocument>> collections = new ConcurrentHashMap<>();
+    private final Map<String, List<BsonDocument>> indexes = new ConcurrentHashMap<>();
+    private final Map<Long, Cursor> cursors = new ConcurrentHashMap<>();
+    private final AtomicLong cursorIds = new AtomicLong();
+
+    /**
+     * 写入初始数据，只在启动前调用
+     */
+    public void insert(String collection, List<BsonDocument> documents) {
+        collections.computeIfAbsent(collection, name -> new ArrayList<>()).addAll(documents);
+    }
+
+    public int count(String collection) {
+        return documents(collection).size();
+    }
+
+    private List<BsonDocument> documents(String collection) {
+        List<BsonDocument> documents = collections.get(collection);
+        return documents != null ? documents : Collections.emptyList();
+    }
+
+    /**
+     * 执行一条命令，返回回复文档
+     * @throws CommandException 不支持的命令或语法
+     */
+    public BsonDocument execute(BsonDocument command) {
+        String name = command.getFirstKey();
+        switch (name) {
+            case "find":
+                return find(command);
+            case "getMore":
+                return getMore(command);
+            case "killCursors":
+                return killCursors(command);
+            case "count":
+                return countCommand(command);
+            case "distinct":
+                return distinct(command);
+            case "aggregate":
+                return aggregate(command);
+            case "listIndexes":
+                return listIndexes(command);
+            case "createIndexes":
+                return createIndexes(command);
+            case "explain":
+                return explain(command);
+            default:
+                throw new CommandException(59, "CommandNotFound", "no such command: '" + name + "'");
+        }
+    }
+
+    private static String namespace(BsonDocument command) {
+        return command.getString("$db", new BsonString("test")).getValue() + "." + command.getString(command.getFirstKey()).getValue();
+    }
+
+    private List<BsonDocument> runFind(BsonDocument command) {
+        List<BsonDocument> result = match(documents(command.getString("find").getValue()),
+                command.getDocument("filter", new BsonDocument()));
+        sort(result, command.getDocument("sort", new BsonDocument()));
+        int skip = intValue(command.get("skip"), 0);
+        int limit = Math.abs(intValue(command.get("limit"), 0));
+        result = slice(result, skip, limit);
+        BsonDocument projection = command.getDocument("projection", new BsonDocument());
+        if (!projection.isEmpty()) {
+            List<BsonDocument> projected = new ArrayList<>(result.size());
+            for (BsonDocument document : result) {
+                projected.add(project(document, projection));
+            }
+            result = projected;
+        }
+        return result;
+    }
+
+    private BsonDocument find(BsonDocument command) {
+        List<BsonDocument> result = runFind(command);
+        boolean singleBatch = command.getBoolean("singleBatch", BsonBoolean.FALSE).getValue()
+                || intValue(command.get("limit"), 0) < 0;
+        int batchSize = intValue(command.get("batchSize"), DEFAULT_BATCH_SIZE);
+        return cursorReply(namespace(command), result, singleBatch ? result.size() : batchSize, singleBatch);
+    }
+
+    private BsonDocument cursorReply(String namespace, List<BsonDocument> result, int batchSize, boolean singleBatch) {
+        int first = Math.min(batchSize, result.size());
+        long id = 0;
+        if (!singleBatch && first < result.size()) {
+            id = cursorIds.incrementAndGet();
+            cursors.put(id, new Cursor(namespace, result, first));
+        }
+        BsonDocument cursor = new BsonDocument("firstBatch", new BsonArray(new ArrayList<>(result.subList(0, first))))
+                .append("id", new BsonInt64(id))
+                .append("ns", new BsonString(namespace));
+        return new BsonDocument("cursor", cursor).append("ok", new BsonDouble(1));
+    }
+
+    private BsonDocument getMore(BsonDocument command) {
+        long id = command.getInt64("getMore").getValue();
+        Cursor cursor = cursors.get(id);
+        if (cursor == null) {
+            throw new CommandException(43, "CursorNotFound", "cursor id " + id + " not found");
+        }
+        List<BsonDocument> batch;
+        synchronized (cursor) {
+            int batchSize = intValue(command.get("batchSize"), Integer.MAX_VALUE);
+            int end = (int) Math.min((long) cursor.position + batchSize, cursor.documents.size());
+            batch = new ArrayList<>(cursor.documents.subList(cursor.position, end));
+            cursor.position = end;
+            if (end >= cursor.documents.size()) {
+                cursors.remove(id);
+                id = 0;
+            }
+        }
+        BsonDocument reply = new BsonDocument("nextBatch", new BsonArray(batch))
+                .append("id", new BsonInt64(id))
+                .append("ns", new BsonString(cursor.namespace));
+        return new BsonDocument("cursor", reply).append("ok", new BsonDouble(1));
+    }
+
+    private BsonDocument killCursors(BsonDocument command) {
+        BsonArray killed = new BsonArray();
+        for (BsonValue id : command.getArray("cursors")) {
+            if (cursors.remove(id.asInt64().getValue()) != null) {
+                killed.add(id);
+            }
+        }
+        return new BsonDocument("cursorsKilled", killed)
+                .append("cursorsNotFound", new BsonArray())
+                .append("cursorsAlive", new BsonArray())
+                .append("cursorsUnknown", new BsonArray())
+                .append("ok", new BsonDouble(1));
+    }
+
+    private BsonDocument countCommand(BsonDocument command) {
+        List<BsonDocument> result = match(documents(command.getString("count").getValue()),
+                command.getDocument("query", new BsonDocument()));
+        result = slice(result, intValue(command.get("skip"), 0), intValue(command.get("limit"), 0));
+        return new BsonDocument("n", new BsonInt32(result.size())).append("ok", new BsonDouble(1));
+    }
+
+    private BsonDocument distinct(BsonDocument command) {
+        String key = command.getString("key").getValue();
+        Set<BsonValue> values = new LinkedHashSet<>();
+        for (BsonDocument document : match(documents(command.getString("distinct").getValue()),
+                command.getDocument("query", new BsonDocument()))) {
+            for (BsonValue value : resolve(document, key)) {
+                if (!value.isArray()) {
+                    values.add(value);
+                }
+            }
+        }
+        return new BsonDocument("values", new BsonArray(new ArrayList<>(values))).append("ok", new BsonDouble(1));
+    }
+
+    private List<BsonDocument> runPipeline(BsonDocument command) {
+        List<BsonDocument> result = new ArrayList<>(documents(command.getString("aggregate").getValue()));
+        for (BsonValue stage : command.getArray("pipeline")) {
+            result = stage(result, stage.asDocument());
+        }
+        return result;
+    }
+
+    private BsonDocument aggregate(BsonDocument command) {
+        List<BsonDocument> result = runPipeline(command);
+        int batchSize = intValue(command.getDocument("cursor", new BsonDocument()).get("batchSize"), DEFAULT_BATCH_SIZE);
+        return cursorReply(namespace(command), result, batchSize, false);
+    }
+
+    private BsonDocument listIndexes(BsonDocument command) {
+        String collection = command.getString("listIndexes").getValue();
+        return cursorReply(namespace(command), new ArrayList<>(indexes(collection)), Integer.MAX_VALUE, true);
+    }
+
+    private List<BsonDocument> indexes(String collection) {
+        return indexes.computeIfAbsent(collection, name -> Collections.synchronizedList(new ArrayList<>(Collections.singletonList(
+                new BsonDocument("v", new BsonInt32(2)).append("key", new BsonDocument("_id", new BsonInt32(1)))
+                        .append("name", new BsonString("_id_"))))));
+    }
+
+    private BsonDocument createIndexes(BsonDocument command) {
+        List<BsonDocument> existing = indexes(command.getString("createIndexes").getValue());
+        int before;
+        synchronized (existing) {
+            before = existing.size();
+            for (BsonValue index : command.getArray("indexes")) {
+                BsonDocument spec = index.asDocument();
+                boolean present = false;
+                for (BsonDocument current : existing) {
+                    present |= current.getString("name").equals(spec.getString("name"));
+                }
+                if (!present) {
+                    existing.add(new BsonDocument("v", new BsonInt32(2)).append("key", spec.getDocument("key"))
+                            .append("name", spec.getString("name")));
+                }
+            }
+        }
+        return new BsonDocument("createdCollectionAutomatically", BsonBoolean.FALSE)
+                .append("numIndexesBefore", new BsonInt32(before))
+                .append("numIndexesAfter", new BsonInt32(existing.size()))
+                .append("ok", new BsonDouble(1));
+    }
+
+    /**
+     * 按全表扫描给出 executionStats，慢查询记录据此显示扫描文档数
+     */
+    private BsonDocument explain(BsonDocument command) {
+        BsonDocument inner = command.getDocument("explain").clone();
+        inner.put("$db", command.getString("$db", new BsonString("test")));
+        String collection = inner.getString(inner.getFirstKey()).getValue();
+        int returned;
+        switch (inner.getFirstKey()) {
+            case "find":
+                returned = runFind(inner).size();
+                break;
+            case "aggregate":
+                returned = runPipeline(inner).size();
+                break;
+            case "count":
+                returned = 1;
+                break;
+            default:
+                throw new CommandException(2, "BadValue", "cannot explain " + inner.getFirstKey());
+        }
+        BsonDocument winningPlan = new BsonDocument("stage", new BsonString("COLLSCAN"));
+        return new BsonDocument("queryPlanner", new BsonDocument("winningPlan", winningPlan))
+                .append("executionStats", new BsonDocument("nReturned", new BsonInt32(returned))
+                        .append("executionTimeMillis", new BsonInt32(0))
+                        .append("totalKeysExamined", new BsonInt32(0))
+                        .append("totalDocsExamined", new BsonInt32(count(collection))))
+                .append("ok", new BsonDouble(1));
+    }
+
+    private List<BsonDocument> stage(List<BsonDocument> input, BsonDocument stage) {
+        String name = stage.getFirstKey();
+        BsonValue spec = stage.get(name);
+        switch (name) {
+            case "$match":
+                return match(input, spec.asDocument());
+            case "$sort":
+                List<BsonDocument> sorted = new ArrayList<>(input);
+                sort(sorted, spec.asDocument());
+                return sorted;
+            case "$skip":
+                return slice(input, intValue(spec, 0), 0);
+            case "$limit":
+                return slice(input, 0, intValue(spec, 0));
+            case "$project": {
+                List<BsonDocument> projected = new ArrayList<>(input.size());
+                for (BsonDocument document : input) {
+                    projected.add(project(document, spec.asDocument()));
+                }
+                return projected;
+            }
+            case "$count":
+                return Collections.singletonList(new BsonDocument(spec.asString().getValue(), new BsonInt32(input.size())));
+            case "$group":
+                return group(input, spec.asDocument());
+            case "$unwind":
+                return unwind(input, spec);
+            case "$lookup":
+                return lookup(input, spec.asDocument());
+            case "$changeStream":
+                throw new CommandException(40573, "Location40573", "The $changeStream stage is only supported on replica sets");
+            default:
+                throw new CommandException(40324, "Location40324", "Unrecognized pipeline stage name: '" + name + "'");
+        }
+    }
+
+    private static List<BsonDocument> slice(List<BsonDocument> input, int skip, int limit) {
+        int from = Math.min(skip, input.size());
+        int to = limit > 0 ? Math.min(input.size(), from + limit) : input.size();
+        return from == 0 && to == input.size() ? input : new ArrayList<>(input.subList(from, to));
+    }
+
+    private static int intValue(BsonValue value, int defaultValue) {
+        return value != null && value.isNumber() ? value.asNumber().intValue() : defaultValue;
+    }
+
+    // ---------------------------------------------------------------- 条件
+
+    static List<BsonDocument> match(List<BsonDocument> documents, BsonDocument filter) {
+        if (filter.isEmpty()) {
+            return new ArrayList<>(documents);
+        }
+        List<BsonDocument> result = new ArrayList<>();
+        for (BsonDocument document : documents) {
+            if (matches(document, filter)) {
+                result.add(document);
+            }
+        }
+        return result;
+    }
+
+    static boolean matches(BsonDocument document, BsonDocument filter) {
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            BsonValue condition = entry.getValue();
+            switch (key) {
+                case "$and":
+                    for (BsonValue branch : condition.asArray()) {
+                        if (!matches(document, branch.asDocument())) {
+                            return false;
+                        }
+                    }
+                    break;
+                case "$or":
+                case "$nor": {
+                    boolean any = false;
+                    for (BsonValue branch : condition.asArray()) {
+                        any |= matches(document, branch.asDocument());
+                    }
+                    if (any != key.equals("$or")) {
+                        return false;
+                    }
+                    break;
+                }
+                default:
+                    if (key.startsWith("$")) {
+                        throw new CommandException(2, "BadValue", "unknown top level operator: " + key);
+                    }
+                    if (!matchesField(resolve(document, key), condition)) {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesField(List<BsonValue> values, BsonValue condition) {
+        if (condition.isDocument() && !condition.asDocument().isEmpty()
+                && condition.asDocument().getFirstKey().startsWith("$")) {
+            BsonDocument operators = condition.asDocument();
+            for (Map.Entry<String, BsonValue> operator : operators.entrySet()) {
+                if (!matchesOperator(values, operator.getKey(), operator.getValue(), operators)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (condition.isRegularExpression()) {
+            return anyMatchesRegex(values, condition.asRegularExpression());
+        }
+        return anyEquals(values, condition);
+    }
+
+    private static boolean matchesOperator(List<BsonValue> values, String operator, BsonValue argument, BsonDocument operators) {
+        switch (operator) {
+            case "$eq":
+                return anyEquals(values, argument);
+            case "$ne":
+                return !anyEquals(values, argument);
+            case "$gt":
+                return anyCompares(values, argument, 1, false);
+            case "$gte":
+                return anyCompares(values, argument, 1, true);
+            case "$lt":
+                return anyCompares(values, argument, -1, false);
+            case "$lte":
+                return anyCompares(values, argument, -1, true);
+            case "$in":
+                for (BsonValue candidate : argument.asArray()) {
+                    if (candidate.isRegularExpression() ? anyMatchesRegex(values, candidate.asRegularExpression())
+                            : anyEquals(values, candidate)) {
+                        return true;
+                    }
+                }
+                return false;
+            case "$nin":
+                return !matchesOperator(values, "$in", argument, operators);
+            case "$exists":
+                return values.isEmpty() != argument.asBoolean().getValue();
+            case "$regex": {
+                String options = operators.containsKey("$options") ? operators.getString("$options").getValue() : "";
+                BsonRegularExpression regex = argument.isRegularExpression() ? argument.asRegularExpression()
+                        : new BsonRegularExpression(argument.asString().getValue(), options);
+                return anyMatchesRegex(values, regex);
+            }
+            case "$options":
+                return true;
+            case "$not":
+                return !matchesField(values, argument);
+            case "$type":
+                for (BsonValue value : values) {
+                    if (typeMatches(value, argument)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                throw new CommandException(2, "BadValue", "unknown operator: " + operator);
+        }
+    }
+
+    private static boolean typeMatches(BsonValue value, BsonValue type) {
+        if (type.isNumber()) {
+            return value.getBsonType().getValue() == type.asNumber().intValue();
+        }
+        switch (type.asString().getValue()) {
+            case "string":
+                return value.isString();
+            case "date":
+                return value.isDateTime();
+            case "objectId":
+                return value.isObjectId();
+            case "number":
+                return value.isNumber();
+            case "bool":
+                return value.isBoolean();
+            case "array":
+                return value.isArray();
+            case "object":
+                return value.isDocument();
+            default:
+                throw new CommandException(2, "BadValue", "unknown type name alias: " + type.asString().getValue());
+        }
+    }
+
+    private static boolean anyEquals(List<BsonValue> values, BsonValue expected) {
+        if (expected.isNull() && values.isEmpty()) {
+            return true;
+        }
+        for (BsonValue value : values) {
+            if (rank(value) == rank(expected) && compare(value, expected) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 范围比较只在同类值之间进行（数字与数字、字符串与字符串……），与服务端一致
+     */
+    private static boolean anyCompares(List<BsonValue> values, BsonValue bound, int sign, boolean inclusive) {
+        for (BsonValue value : values) {
+            if (value.isArray() || rank(value) != rank(bound)) {
+                continue;
+            }
+            int result = Integer.signum(compare(value, bound));
+            if (result == sign || inclusive && result == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyMatchesRegex(List<BsonValue> values, BsonRegularExpression regex) {
+        Pattern pattern = Pattern.compile(regex.getPattern(), regex.getOptions().contains("i") ? Pattern.CASE_INSENSITIVE : 0);
+        for (BsonValue value : values) {
+            if (value.isString() && pattern.matcher(value.asString().getValue()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按点分路径取值。路径经过数组时展开数组中的文档；最终值为数组时同时返回数组本身及其元素，
+     * 使 {tags: "a"} 能匹配 tags 数组中的元素
+     */
+    static List<BsonValue> resolve(BsonValue value, String path) {
+        List<BsonValue> current = Collections.singletonList(value);
+        for (String part : path.split("\\.")) {
+            List<BsonValue> next = new ArrayList<>();
+            for (BsonValue candidate : current) {
+                if (candidate.isDocument()) {
+                    BsonValue child = candidate.asDocument().get(part);
+                    if (child != null) {
+                        next.add(child);
+                    }
+                } else if (candidate.isArray()) {
+                    for (BsonValue element : candidate.asArray()) {
+                        if (element.isDocument() && element.asDocument().containsKey(part)) {
+                            next.add(element.asDocument().get(part));
+                        }
+                    }
+                }
+            }
+            current = next;
+        }
+        List<BsonValue> result = new ArrayList<>(current);
+        for (BsonValue candidate : current) {
+            if (candidate.isArray()) {
+                result.addAll(candidate.asArray());
+            }
+        }
+        return result;
+    }
+
+    private static BsonValue first(BsonValue value, String path) {
+        List<BsonValue> values = resolve(value, path);
+        return values.isEmpty() ? BsonNull.VALUE : values.get(0);
+    }
+
+    /**
+     * 跨类型比较的顺序：null、数字、字符串、文档、数组、二进制、ObjectId、布尔、日期
+     */
+    private static int rank(BsonValue value) {
+        switch (value.getBsonType()) {
+            case NULL:
+            case UNDEFINED:
+                return 1;
+            case INT32:
+            case INT64:
+            case DOUBLE:
+            case DECIMAL128:
+                return 2;
+            case STRING:
+            case SYMBOL:
+                return 3;
+            case DOCUMENT:
+                return 4;
+            case ARRAY:
+                return 5;
+            case BINARY:
+                return 6;
+            case OBJECT_ID:
+                return 7;
+            case BOOLEAN:
+                return 8;
+            case DATE_TIME:
+                return 9;
+            case TIMESTAMP:
+                return 10;
+            default:
+                return 11;
+        }
+    }
+
+    static int compare(BsonValue a, BsonValue b) {
+        int rank = Integer.compare(rank(a), rank(b));
+        if (rank != 0) {
+            return rank;
+        }
+        switch (rank(a)) {
+            case 1:
+                return 0;
+            case 2:
+                return Double.compare(a.asNumber().doubleValue(), b.asNumber().doubleValue());
+            case 3:
+                return stringValue(a).compareTo(stringValue(b));
+            case 7:
+                return a.asObjectId().getValue().compareTo(b.asObjectId().getValue());
+            case 8:
+                return Boolean.compare(a.asBoolean().getValue(), b.asBoolean().getValue());
+            case 9:
+                return Long.compare(a.asDateTime().getValue(), b.asDateTime().getValue());
+            default:
+                return a.equals(b) ? 0 : a.toString().compareTo(b.toString());
+        }
+    }
+
+    private static String stringValue(BsonValue value) {
+        return value.getBsonType() == BsonType.SYMBOL ? value.asSymbol().getSymbol() : value.asString().getValue();
+    }
+
+    static void sort(List<BsonDocument> documents, BsonDocument spec) {
+        if (spec.isEmpty()) {
+            return;
+        }
+        Comparator<BsonDocument> comparator = null;
+        for (Map.Entry<String, BsonValue> entry : spec.entrySet()) {
+            String field = entry.getKey();
+            if (!entry.getValue().isNumber()) {
+                throw new CommandException(2, "BadValue", "unsupported sort: " + entry.getValue());
+            }
+            Comparator<BsonDocument> byField = (x, y) -> compare(first(x, field), first(y, field));
+            if (entry.getValue().asNumber().intValue() < 0) {
+                byField = byField.reversed();
+            }
+            comparator = comparator == null ? byField : comparator.thenComparing(byField);
+        }
+        documents.sort(comparator);
+    }
+
+    // ---------------------------------------------------------------- 投影与管道
+
+    private static boolean truthy(BsonValue value) {
+        return value.isBoolean() ? value.asBoolean().getValue() : !value.isNumber() || value.asNumber().doubleValue() != 0;
+    }
+
+    static BsonDocument project(BsonDocument document, BsonDocument projection) {
+        boolean inclusion = false;
+        for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+            if (!entry.getKey().equals("_id") && truthy(entry.getValue())) {
+                inclusion = true;
+            }
+        }
+        boolean includeId = !projection.containsKey("_id") || truthy(projection.get("_id"));
+        if (!inclusion) {
+            BsonDocument result = document.clone();
+            for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+                if (!truthy(entry.getValue())) {
+                    result.remove(entry.getKey());
+                }
+            }
+            return result;
+        }
+        BsonDocument result = new BsonDocument();
+        if (includeId && document.containsKey("_id")) {
+            result.put("_id", document.get("_id"));
+        }
+        for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+            String field = entry.getKey();
+            BsonValue value = entry.getValue();
+            if (field.equals("_id")) {
+                continue;
+            }
+            if (value.isString() && value.asString().getValue().startsWith("$")) {
+                result.put(field, first(document, value.asString().getValue().substring(1)));
+            } else if (value.isNumber() || value.isBoolean()) {
+                include(document, result, field);
+            } else {
+                throw new CommandException(2, "BadValue", "unsupported projection: " + field + ": " + value);
+            }
+        }
+        return result;
+    }
+
+    private static void include(BsonDocument source, BsonDocument target, String path) {
+        int dot = path.indexOf('.');
+        String head = dot < 0 ? path : path.substring(0, dot);
+        BsonValue value = source.get(head);
+        if (value == null) {
+            return;
+        }
+        if (dot < 0) {
+            target.put(head, value);
+        } else if (value.isDocument()) {
+            BsonValue existing = target.get(head);
+            BsonDocument child = existing != null && existing.isDocument() ? existing.asDocument() : new BsonDocument();
+            include(value.asDocument(), child, path.substring(dot + 1));
+            target.put(head, child);
+        }
+    }
+
+    private static BsonValue evaluate(BsonDocument document, BsonValue expression) {
+        if (expression.isString() && expression.asString().getValue().startsWith("$")) {
+            return first(document, expression.asString().getValue().substring(1));
+        }
+        if (expression.isDocument() && !expression.asDocument().isEmpty()
+                && !expression.asDocument().getFirstKey().startsWith("$")) {
+            BsonDocument result = new BsonDocument();
+            for (Map.Entry<String, BsonValue> entry : expression.asDocument().entrySet()) {
+                result.put(entry.getKey(), evaluate(document, entry.getValue()));
+            }
+            return result;
+        }
+        if (expression.isDocument() && !expression.asDocument().isEmpty()) {
+            throw new CommandException(2, "BadValue", "unsupported expression: " + expression);
+        }
+        return expression;
+    }
+
+    private static List<BsonDocument> group(List<BsonDocument> input, BsonDocument spec) {
+        Map<BsonValue, List<BsonDocument>> groups = new LinkedHashMap<>();
+        for (BsonDocument document : input) {
+            groups.computeIfAbsent(evaluate(document, spec.get("_id")), key -> new ArrayList<>()).add(document);
+        }
+        List<BsonDocument> result = new ArrayList<>(groups.size());
+        for (Map.Entry<BsonValue, List<BsonDocument>> entry : groups.entrySet()) {
+            BsonDocument output = new BsonDocument("_id", entry.getKey());
+            for (Map.Entry<String, BsonValue> field : spec.entrySet()) {
+                if (!field.getKey().equals("_id")) {
+                    BsonDocument accumulator = field.getValue().asDocument();
+                    output.put(field.getKey(), accumulate(entry.getValue(), accumulator.getFirstKey(),
+                            accumulator.get(accumulator.getFirstKey())));
+                }
+            }
+            result.add(output);
+        }
+        return result;
+    }
+
+    private static BsonValue accumulate(List<BsonDocument> documents, String accumulator, BsonValue expression) {
+        switch (accumulator) {
+            case "$count":
+                return new BsonInt32(documents.size());
+            case "$sum":
+            case "$avg": {
+                long longSum = 0;
+                double doubleSum = 0;
+                boolean floating = false;
+                int count = 0;
+                for (BsonDocument document : documents) {
+                    BsonValue value = evaluate(document, expression);
+                    if (value.isNumber()) {
+                        count++;
+                        if (value.isDouble() || value.isDecimal128()) {
+                            floating = true;
+                        }
+                        longSum += value.asNumber().longValue();
+                        doubleSum += value.asNumber().doubleValue();
+                    }
+                }
+                if (accumulator.equals("$avg")) {
+                    return count == 0 ? BsonNull.VALUE : new BsonDouble(doubleSum / count);
+                }
+                if (floating) {
+                    return new BsonDouble(doubleSum);
+                }
+                return longSum == (int) longSum ? new BsonInt32((int) longSum) : new BsonInt64(longSum);
+            }
+            case "$min":
+            case "$max": {
+                BsonValue best = null;
+                for (BsonDocument document : documents) {
+                    BsonValue value = evaluate(document, expression);
+                    if (!value.isNull() && (best == null || Integer.signum(compare(value, best)) == (accumulator.equals("$max") ? 1 : -1))) {
+                        best = value;
+                    }
+                }
+                return best != null ? best : BsonNull.VALUE;
+            }
+            case "$first":
+                return documents.isEmpty() ? BsonNull.VALUE : evaluate(documents.get(0), expression);
+            case "$last":
+                return documents.isEmpty() ? BsonNull.VALUE : evaluate(documents.get(documents.size() - 1), expression);
+            case "$push":
+            case "$addToSet": {
+                List<BsonValue> values = new ArrayList<>();
+                for (BsonDocument document : documents) {
+                    values.add(evaluate(document, expression));
+                }
+                return new BsonArray(accumulator.equals("$push") ? values : new ArrayList<>(new LinkedHashSet<>(values)));
+            }
+            default:
+                throw new CommandException(15952, "Location15952", "unknown group operator '" + accumulator + "'");
+        }
+    }
+
+    private static List<BsonDocument> unwind(List<BsonDocument> input, BsonValue spec) {
+        String path = (spec.isDocument() ? spec.asDocument().getString("path") : spec.asString()).getValue().substring(1);
+        boolean preserve = spec.isDocument()
+                && spec.asDocument().getBoolean("preserveNullAndEmptyArrays", BsonBoolean.FALSE).getValue();
+        if (path.contains(".")) {
+            throw new CommandException(2, "BadValue", "unsupported $unwind path: " + path);
+        }
+        List<BsonDocument> result = new ArrayList<>();
+        for (BsonDocument document : input) {
+            BsonValue value = document.get(path);
+            if (value != null && value.isArray() && !value.asArray().isEmpty()) {
+                for (BsonValue element : value.asArray()) {
+                    BsonDocument copy = document.clone();
+                    copy.put(path, element);
+                    result.add(copy);
+                }
+            } else if (value != null && !value.isNull() && !value.isArray() || preserve) {
+                result.add(document);
+            }
+        }
+        return result;
+    }
+
+    private List<BsonDocument> lookup(List<BsonDocument> input, BsonDocument spec) {
+        if (!spec.containsKey("localField")) {
+            throw new CommandException(2, "BadValue", "only localField/foreignField $lookup is supported");
+        }
+        List<BsonDocument> foreign = documents(spec.getString("from").getValue());
+        String localField = spec.getString("localField").getValue();
+        String foreignField = spec.getString("foreignField").getValue();
+        String as = spec.getString("as").getValue();
+        List<BsonDocument> result = new ArrayList<>(input.size());
+        for (BsonDocument document : input) {
+            List<BsonValue> keys = resolve(document, localField);
+            BsonArray joined = new BsonArray();
+            for (BsonDocument candidate : foreign) {
+                List<BsonValue> values = resolve(candidate, foreignField);
+                for (BsonValue key : keys.isEmpty() ? Collections.<BsonValue>singletonList(BsonNull.VALUE) : keys) {
+                    if (anyEquals(values, key)) {
+                        joined.add(candidate);
+                        break;
+                    }
+                }
+            }
+            BsonDocument copy = document.clone();
+            copy.put(as, joined);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    private static final class Cursor {
+        private final String namespace;
+        private final List<BsonDocument> documents;
+        private int position;
+
+        private Cursor(String namespace, List<BsonDocument> documents, int position) {
+            this.namespace = namespace;
+            this.documents = documents;
+            this.position = position;
+        }
+    }
+
+    /**
+     * 以 {ok: 0, errmsg, code, codeName} 回复的命令错误
+     */
+    public static final class CommandException extends RuntimeException {
+        private final int code;
+        private final String codeName;
+
+        public CommandException(int code, String codeName, String message) {
+            super(message);
+            this.code = code;
+            this.codeName = codeName;
+        }
+
+        public BsonDocument toReply() {
+            return new BsonDocument("ok", new BsonDouble(0))
+                    .append("errmsg", new BsonString(getMessage()))
+                    .append("code", new BsonInt32(code))
+                    .append("codeName", new BsonString(codeName));
+        }
+    }
+}
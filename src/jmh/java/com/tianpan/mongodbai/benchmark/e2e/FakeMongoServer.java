@@ -0,0 +1,272 @@
+package com.tianpan.mongodbai.benchmark.e2e;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内的 MongoDB 替身，监听本机随机端口，实现驱动需要的线协议子集：
+ * 握手使用 OP_QUERY/OP_REPLY，之后的命令使用 OP_MSG。报告为 4.2 版本（maxWireVersion 8）的单机服务，
+ * 不支持会话、压缩和认证。
+ * <p>
+ * 每条数据命令在回复前等待固定的延迟，模拟网络往返和服务端执行时间；握手、心跳等管理命令不等待。
+ * 每个连接一个线程，与驱动的连接池一一对应。
+ */
+public final class FakeMongoServer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeMongoServer.class);
+
+    private static final int OP_REPLY = 1;
+    private static final int OP_QUERY = 2004;
+    private static final int OP_MSG = 2013;
+    private static final int CHECKSUM_PRESENT = 1;
+    private static final int MORE_TO_COME = 1 << 1;
+
+    private static final Set<String> ADMIN_COMMANDS = new HashSet<>(java.util.Arrays.asList(
+            "ismaster", "hello", "ping", "buildinfo", "endsessions", "getlasterror"));
+
+    private final FakeMongoEngine engine;
+    private final long latencyMicros;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Set<Socket> sockets = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private final BsonDocumentCodec codec = new BsonDocumentCodec();
+
+    /**
+     * @param latencyMicros 每条数据命令回复前的等待时间
+     */
+    public FakeMongoServer(FakeMongoEngine engine, long latencyMicros) throws IOException {
+        this.engine = engine;
+        this.latencyMicros = latencyMicros;
+        this.serverSocket = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-mongo-" + connectionIds.get());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread acceptor = new Thread(this::accept, "fake-mongo-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("MongoDB替身已启动，端口 {}，命令延迟 {}µs", getPort(), latencyMicros);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                int connectionId = connectionIds.incrementAndGet();
+                connections.execute(() -> serve(socket, connectionId));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.warn("接受连接失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket, int connectionId) {
+        try (Socket closing = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            byte[] header = new byte[16];
+            while (true) {
+                in.readFully(header);
+                ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                int length = headerBuffer.getInt();
+                int requestId = headerBuffer.getInt();
+                headerBuffer.getInt();
+                int opCode = headerBuffer.getInt();
+                byte[] body = new byte[length - 16];
+                in.readFully(body);
+                ByteBuffer message = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+                if (opCode == OP_QUERY) {
+                    message.getInt();
+                    readCString(message);
+                    message.getInt();
+                    message.getInt();
+                    writeReply(out, requestId, handle(readDocument(message), connectionId));
+                } else if (opCode == OP_MSG) {
+                    int flags = message.getInt();
+                    BsonDocument command = readSections(message, body.length - ((flags & CHECKSUM_PRESENT) != 0 ? 4 : 0));
+                    BsonDocument reply = handle(command, connectionId);
+                    if ((flags & MORE_TO_COME) == 0) {
+                        writeMessage(out, requestId, reply);
+                    }
+                } else {
+                    throw new IOException("不支持的操作码: " + opCode);
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            // 客户端关闭连接
+        } catch (IOException | RuntimeException e) {
+            logger.warn("连接 {} 处理失败: {}", connectionId, e.toString());
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private BsonDocument handle(BsonDocument command, int connectionId) {
+        String name = command.getFirstKey();
+        if (ADMIN_COMMANDS.contains(name.toLowerCase())) {
+            return admin(name.toLowerCase(), connectionId);
+        }
+        if (latencyMicros > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(latencyMicros);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            return engine.execute(command);
+        } catch (FakeMongoEngine.CommandException e) {
+            return e.toReply();
+        } catch (RuntimeException e) {
+            logger.warn("命令执行失败 {}: {}", command.toJson(), e.toString());
+            return new FakeMongoEngine.CommandException(1, "InternalError", e.toString()).toReply();
+        }
+    }
+
+    private static BsonDocument admin(String name, int connectionId) {
+        switch (name) {
+            case "ismaster":
+            case "hello":
+                return new BsonDocument("ismaster", BsonBoolean.TRUE)
+                        .append("maxBsonObjectSize", new BsonInt32(16 * 1024 * 1024))
+                        .append("maxMessageSizeBytes", new BsonInt32(48_000_000))
+                        .append("maxWriteBatchSize", new BsonInt32(100_000))
+                        .append("localTime", new BsonDateTime(System.currentTimeMillis()))
+                        .append("connectionId", new BsonInt32(connectionId))
+                        .append("minWireVersion", new BsonInt32(0))
+                        .append("maxWireVersion", new BsonInt32(8))
+                        .append("readOnly", BsonBoolean.FALSE)
+                        .append("ok", new BsonDouble(1));
+            case "buildinfo":
+                return new BsonDocument("version", new BsonString("4.2.0"))
+                        .append("versionArray", new BsonArray(java.util.Arrays.asList(
+                                new BsonInt32(4), new BsonInt32(2), new BsonInt32(0), new BsonInt32(0))))
+                        .append("ok", new BsonDouble(1));
+            default:
+                return new BsonDocument("ok", new BsonDouble(1));
+        }
+    }
+
+    private BsonDocument readSections(ByteBuffer message, int end) {
+        BsonDocument command = null;
+        while (message.position() < end) {
+            byte kind = message.get();
+            if (kind == 0) {
+                command = readDocument(message);
+            } else {
+                int sectionEnd = message.position() + message.getInt();
+                String identifier = readCString(message);
+                BsonArray documents = new BsonArray();
+                while (message.position() < sectionEnd) {
+                    documents.add(readDocument(message));
+                }
+                if (command == null) {
+                    throw new IllegalStateException("OP_MSG 缺少命令文档");
+                }
+                command.put(identifier, documents);
+            }
+        }
+        return command;
+    }
+
+    private BsonDocument readDocument(ByteBuffer message) {
+        int size = message.getInt(message.position());
+        ByteBuffer slice = message.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        slice.limit(message.position() + size);
+        try (BsonBinaryReader reader = new BsonBinaryReader(slice.slice().order(ByteOrder.LITTLE_ENDIAN))) {
+            BsonDocument document = codec.decode(reader, DecoderContext.builder().build());
+            message.position(message.position() + size);
+            return document;
+        }
+    }
+
+    private static String readCString(ByteBuffer message) {
+        int start = message.position();
+        while (message.get() != 0) {
+            // 读到结尾的 0
+        }
+        return new String(message.array(), message.arrayOffset() + start, message.position() - start - 1, StandardCharsets.UTF_8);
+    }
+
+    private byte[] encode(BsonDocument document) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            codec.encode(writer, document, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+
+    private void writeReply(OutputStream out, int responseTo, BsonDocument reply) throws IOException {
+        byte[] document = encode(reply);
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 20 + document.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(buffer.capacity()).putInt(requestIds.incrementAndGet()).putInt(responseTo).putInt(OP_REPLY);
+        buffer.putInt(0).putLong(0).putInt(0).putInt(1).put(document);
+        out.write(buffer.array());
+        out.flush();
+    }
+
+    private void writeMessage(OutputStream out, int responseTo, BsonDocument reply) throws IOException {
+        byte[] document = encode(reply);
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 5 + document.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(buffer.capacity()).putInt(requestIds.incrementAndGet()).putInt(responseTo).putInt(OP_MSG);
+        buffer.putInt(0).put((byte) 0).put(document);
+        out.write(buffer.array());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        connections.shutdownNow();
+    }
+}
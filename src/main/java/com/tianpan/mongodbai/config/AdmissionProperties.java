@@ -0,0 +1,121 @@
+package com.tianpan.mongodbai.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * /query 准入控制配置，前缀 mongo.admission
+ */
+@ConfigurationProperties(prefix = "mongo.admission")
+public class AdmissionProperties {
+
+    /**
+     * 是否启用准入控制，关闭时查询直接提交到查询线程池
+     */
+    private boolean enabled = true;
+
+    /**
+     * 标识调用方的请求头，缺失时按客户端地址区分
+     */
+    private String clientHeader = "X-Client-Id";
+
+    /**
+     * find的limit超过该值时视为高开销查询
+     */
+    private int largeLimit = 1000;
+
+    /**
+     * 索引信息（listIndexes）的刷新间隔
+     */
+    private Duration indexRefreshInterval = Duration.ofMinutes(10);
+
+    private final Lane cheap = new Lane(12, 32);
+
+    private final Lane expensive = new Lane(4, 8);
+
+    private final Client client = new Client();
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    public String getClientHeader() { return clientHeader; }
+    public void setClientHeader(String clientHeader) { this.clientHeader = clientHeader; }
+
+    public int getLargeLimit() { return largeLimit; }
+    public void setLargeLimit(int largeLimit) { this.largeLimit = largeLimit; }
+
+    public Duration getIndexRefreshInterval() { return indexRefreshInterval; }
+    public void setIndexRefreshInterval(Duration indexRefreshInterval) { this.indexRefreshInterval = indexRefreshInterval; }
+
+    public Lane getCheap() { return cheap; }
+
+    public Lane getExpensive() { return expensive; }
+
+    public Client getClient() { return client; }
+
+    /**
+     * 一类查询的并发许可数和排队上限。两类的许可数之和不应超过 mongo.query.async.threads
+     */
+    public static class Lane {
+
+        /**
+         * 同时执行的查询数
+         */
+        private int permits;
+
+        /**
+         * 等待许可的查询数上限，超出时返回429
+         */
+        private int queueCapacity;
+
+        Lane(int permits, int queueCapacity) {
+            this.permits = permits;
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getPermits() { return permits; }
+        public void setPermits(int permits) { this.permits = permits; }
+
+        public int getQueueCapacity() { return queueCapacity; }
+        public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+    }
+
+    /**
+     * 按调用方的令牌桶限流，避免单个工作流占满许可
+     */
+    public static class Client {
+
+        /**
+         * 每秒补充的令牌数
+         */
+        private double rate = 10;
+
+        /**
+         * 令牌桶容量，即允许的突发请求数
+         */
+        private int burst = 20;
+
+        /**
+         * 高开销查询消耗的令牌数，低开销查询消耗1个
+         */
+        private int expensiveCost = 5;
+
+        /**
+         * 保留令牌桶的调用方数量上限，超出时淘汰最久未访问的
+         */
+        private int maxClients = 1000;
+
+        public double getRate() { return rate; }
+        public void setRate(double rate) { this.rate = rate; }
+
+        public int getBurst() { return burst; }
+        public void setBurst(int burst) { this.burst = burst; }
+
+        public int getExpensiveCost() { return expensiveCost; }
+        public void setExpensiveCost(int expensiveCost) { this.expensiveCost = expensiveCost; }
+
+        public int getMaxClients() { return maxClients; }
+        public void setMaxClients(int maxClients) { this.maxClients = maxClients; }
+    }
+}
@@ -0,0 +1,72 @@
+package com.tianpan.mongodbai.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 索引声明及索引建议配置，前缀 mongo.indexes
+ */
+@ConfigurationProperties(prefix = "mongo.indexes")
+public class IndexProperties {
+
+    /**
+     * 启动时是否在后台创建声明的索引
+     */
+    private boolean bootstrap = true;
+
+    /**
+     * 按集合名声明的索引键（JSON），如 mongo.indexes.collections.alarm_info[0]={"alert_id": 1}
+     */
+    private Map<String, List<String>> collections = new HashMap<>();
+
+    private final Advisor advisor = new Advisor();
+
+    public boolean isBootstrap() { return bootstrap; }
+    public void setBootstrap(boolean bootstrap) { this.bootstrap = bootstrap; }
+
+    public Map<String, List<String>> getCollections() { return collections; }
+    public void setCollections(Map<String, List<String>> collections) { this.collections = collections; }
+
+    public Advisor getAdvisor() { return advisor; }
+
+    /**
+     * 按实际查询的过滤/排序字段推荐复合索引
+     */
+    public static class Advisor {
+
+        /**
+         * 是否记录查询形状
+         */
+        private boolean enabled = true;
+
+        /**
+         * 记录的查询形状数上限，超出时淘汰最久未出现的
+         */
+        private int capacity = 200;
+
+        /**
+         * 执行次数达到该值的形状才给出建议
+         */
+        private int minExecutions = 10;
+
+        /**
+         * 返回的建议条数上限
+         */
+        private int maxRecommendations = 20;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getCapacity() { return capacity; }
+        public void setCapacity(int capacity) { this.capacity = capacity; }
+
+        public int getMinExecutions() { return minExecutions; }
+        public void setMinExecutions(int minExecutions) { this.minExecutions = minExecutions; }
+
+        public int getMaxRecommendations() { return maxRecommendations; }
+        public void setMaxRecommendations(int maxRecommendations) { this.maxRecommendations = maxRecommendations; }
+    }
+}
@@ -0,0 +1,30 @@
+package com.tianpan.mongodbai.config;
+
+import com.tianpan.mongodbai.service.LazyLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * 查询链路日志的内容长度上限和逐文档采样比例
+ */
+@Configuration
+public class LoggingConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoggingConfig.class);
+
+    @Value("${mongo.logging.max-payload-chars:2048}")
+    private int maxPayloadChars;
+
+    @Value("${mongo.logging.sample-rate:0.01}")
+    private double sampleRate;
+
+    @PostConstruct
+    public void configure() {
+        LazyLog.configure(maxPayloadChars, sampleRate);
+        logger.info("查询日志：内容上限 {} 字符，逐文档采样比例 {}", maxPayloadChars, sampleRate);
+    }
+}
@@ -0,0 +1,52 @@
+package com.tianpan.mongodbai.config;
+
+import com.mongodb.client.MongoClient;
+import com.tianpan.mongodbai.service.Workload;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按负载类别划分的MongoClient，每个类别有独立的连接池、超时和读偏好
+ */
+public class MongoClientPools implements AutoCloseable {
+
+    private final Map<Workload, MongoClient> clients;
+    private final Map<Workload, PoolStatsListener> listeners;
+    private final MongoPoolProperties properties;
+
+    MongoClientPools(Map<Workload, MongoClient> clients, Map<Workload, PoolStatsListener> listeners,
+                     MongoPoolProperties properties) {
+        this.clients = new EnumMap<>(clients);
+        this.listeners = new EnumMap<>(listeners);
+        this.properties = properties;
+    }
+
+    public MongoClient client(Workload workload) {
+        return clients.get(workload);
+    }
+
+    /**
+     * 各连接池的配置及借出等待统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Workload workload : Workload.values()) {
+            MongoPoolProperties.Pool pool = properties.get(workload);
+            Map<String, Object> poolStats = new LinkedHashMap<>();
+            poolStats.put("maxSize", pool.getMaxSize());
+            poolStats.put("minSize", pool.getMinSize());
+            poolStats.put("maxWaitTimeMillis", pool.getMaxWaitTime().toMillis());
+            poolStats.put("readPreference", pool.getReadPreference());
+            poolStats.putAll(listeners.get(workload).getStats());
+            stats.put(workload.getName(), poolStats);
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        clients.values().forEach(MongoClient::close);
+    }
+}
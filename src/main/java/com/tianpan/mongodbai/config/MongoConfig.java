@@ -1,15 +1,38 @@
 package com.tianpan.mongodbai.config;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCredential;
+import com.mongodb.ReadPreference;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.tianpan.mongodbai.service.Workload;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.mongodb.DefaultMongoCommandTagsProvider;
+import io.micrometer.core.instrument.binder.mongodb.DefaultMongoConnectionPoolTagsProvider;
+import io.micrometer.core.instrument.binder.mongodb.MongoCommandTagsProvider;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsConnectionPoolListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 @Configuration
+@EnableConfigurationProperties(MongoPoolProperties.class)
 public class MongoConfig {
 
     private static final Logger logger = LoggerFactory.getLogger(MongoConfig.class);
@@ -29,43 +52,112 @@ public class MongoConfig {
     @Value("${spring.data.mongodb.password:}")
     private String password;
 
-    @Bean
-    public MongoClient mongoClient() {
+    @Value("${spring.data.mongodb.authentication-database:admin}")
+    private String authenticationDatabase;
+
+    /**
+     * 每个负载类别一个MongoClient，连接池互相隔离。
+     * 每个客户端注册命令和连接池监听器，指标（mongodb.driver.commands、mongodb.driver.pool.*）带 workload 标签
+     */
+    @Bean(destroyMethod = "close")
+    public MongoClientPools mongoClientPools(MongoPoolProperties properties, MeterRegistry meterRegistry) {
         logger.info("开始创建MongoDB客户端连接");
         logger.debug("MongoDB配置 - host: {}, port: {}, database: {}", host, port, database);
-        logger.debug("认证信息 - username: {}, password: {}", 
+        logger.debug("认证信息 - username: {}, password: {}",
             username != null && !username.isEmpty() ? "已设置" : "未设置",
             password != null && !password.isEmpty() ? "已设置" : "未设置");
-        
-        String connectionString;
-        
+
+        ConnectionString connectionString = new ConnectionString(String.format("mongodb://%s:%d/%s", host, port, database));
+        MongoCredential credential = null;
+
         // 如果用户名和密码为空，使用无认证连接
-        if (username == null || username.trim().isEmpty() || 
+        if (username == null || username.trim().isEmpty() ||
             password == null || password.trim().isEmpty()) {
-            connectionString = String.format("mongodb://%s:%d/%s", host, port, database);
             logger.info("使用无认证连接: mongodb://{}:{}/{}", host, port, database);
         } else {
-            // 使用认证连接
-            connectionString = String.format("mongodb://%s:%s@%s:%d/%s?authSource=admin",
-                    username, "***", host, port, database);
-            logger.info("使用认证连接: mongodb://***@{}:{}/{}?authSource=admin", host, port, database);
+            // 凭据单独传入，不拼接到连接串中
+            credential = MongoCredential.createCredential(username, authenticationDatabase, password.toCharArray());
+            logger.info("使用认证连接: mongodb://***@{}:{}/{}?authSource={}", host, port, database, authenticationDatabase);
         }
-        
+
+        Map<Workload, MongoClient> clients = new EnumMap<>(Workload.class);
+        Map<Workload, PoolStatsListener> listeners = new EnumMap<>(Workload.class);
         try {
-            MongoClient client = MongoClients.create(connectionString);
-            logger.info("MongoDB客户端创建成功");
-            return client;
+            for (Workload workload : Workload.values()) {
+                MongoPoolProperties.Pool pool = properties.get(workload);
+                Timer checkOutTimer = Timer.builder("mongodb.driver.pool.checkout")
+                    .description("从连接池借出连接的等待时间")
+                    .tag("workload", workload.getName())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+                PoolStatsListener listener = new PoolStatsListener(checkOutTimer);
+                MongoClientSettings settings = settings(workload, pool, connectionString, credential, listener, meterRegistry);
+                clients.put(workload, MongoClients.create(settings));
+                listeners.put(workload, listener);
+                logger.info("MongoDB客户端创建成功，负载类别: {}，连接池: {}", workload.getName(), pool);
+            }
         } catch (Exception e) {
             logger.error("MongoDB客户端创建失败: {}", e.getMessage(), e);
+            clients.values().forEach(MongoClient::close);
             throw e;
         }
+        return new MongoClientPools(clients, listeners, properties);
+    }
+
+    private static MongoClientSettings settings(Workload workload, MongoPoolProperties.Pool pool, ConnectionString connectionString,
+                                                MongoCredential credential, PoolStatsListener listener,
+                                                MeterRegistry meterRegistry) {
+        Tag workloadTag = Tag.of("workload", workload.getName());
+        MongoCommandTagsProvider defaultCommandTags = new DefaultMongoCommandTagsProvider();
+        MongoCommandTagsProvider commandTags = new MongoCommandTagsProvider() {
+            @Override
+            public void commandStarted(CommandStartedEvent event) {
+                // 默认实现在此记录命令对应的集合名
+                defaultCommandTags.commandStarted(event);
+            }
+
+            @Override
+            public Iterable<Tag> commandTags(CommandEvent event) {
+                return Tags.of(defaultCommandTags.commandTags(event)).and(workloadTag);
+            }
+        };
+        DefaultMongoConnectionPoolTagsProvider defaultPoolTags = new DefaultMongoConnectionPoolTagsProvider();
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+            .applyConnectionString(connectionString)
+            .applicationName("mongodb-ai-" + workload.getName())
+            .readPreference(ReadPreference.valueOf(pool.getReadPreference()))
+            .applyToConnectionPoolSettings(settings -> settings
+                .maxSize(pool.getMaxSize())
+                .minSize(pool.getMinSize())
+                .maxWaitTime(pool.getMaxWaitTime().toMillis(), TimeUnit.MILLISECONDS)
+                .maxConnectionIdleTime(pool.getMaxConnectionIdleTime().toMillis(), TimeUnit.MILLISECONDS)
+                .addConnectionPoolListener(listener)
+                .addConnectionPoolListener(new MongoMetricsConnectionPoolListener(meterRegistry,
+                    event -> Tags.of(defaultPoolTags.connectionPoolTags(event)).and(workloadTag))))
+            .addCommandListener(new MongoMetricsCommandListener(meterRegistry, commandTags))
+            .applyToSocketSettings(settings -> settings
+                .connectTimeout((int) pool.getConnectTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout((int) pool.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS));
+        if (credential != null) {
+            builder.credential(credential);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 交互查询的客户端，也是未区分负载类别的默认客户端；由 {@link MongoClientPools} 负责关闭
+     */
+    @Bean(destroyMethod = "")
+    @Primary
+    public MongoClient mongoClient(MongoClientPools mongoClientPools) {
+        return mongoClientPools.client(Workload.INTERACTIVE);
     }
 
     @Bean
-    public MongoTemplate mongoTemplate() {
+    public MongoTemplate mongoTemplate(MongoClient mongoClient) {
         logger.info("创建MongoTemplate，数据库: {}", database);
         try {
-            MongoTemplate template = new MongoTemplate(mongoClient(), database);
+            MongoTemplate template = new MongoTemplate(mongoClient, database);
             logger.info("MongoTemplate创建成功");
             return template;
         } catch (Exception e) {
@@ -73,4 +165,4 @@ public class MongoConfig {
             throw e;
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package com.tianpan.mongodbai.config;
+
+import com.tianpan.mongodbai.service.Workload;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 按负载类别划分的MongoClient连接池配置，前缀 mongo.pool
+ */
+@ConfigurationProperties(prefix = "mongo.pool")
+public class MongoPoolProperties {
+
+    private final Pool interactive = new Pool(50, 5, Duration.ofSeconds(2), Duration.ofSeconds(15), "primary");
+
+    private final Pool analytics = new Pool(10, 0, Duration.ofSeconds(30), Duration.ofMinutes(5), "secondaryPreferred");
+
+    public Pool getInteractive() { return interactive; }
+    public Pool getAnalytics() { return analytics; }
+
+    public Pool get(Workload workload) {
+        return workload == Workload.ANALYTICS ? analytics : interactive;
+    }
+
+    public static class Pool {
+
+        /**
+         * 连接池最大连接数
+         */
+        private int maxSize;
+
+        /**
+         * 连接池保持的最少连接数
+         */
+        private int minSize;
+
+        /**
+         * 连接全部占用时等待空闲连接的最长时间，超时后查询失败
+         */
+        private Duration maxWaitTime;
+
+        private Duration maxConnectionIdleTime = Duration.ofMinutes(10);
+
+        private Duration connectTimeout = Duration.ofSeconds(5);
+
+        /**
+         * 单次读取的socket超时，需大于最慢查询的执行时间
+         */
+        private Duration readTimeout;
+
+        /**
+         * 读偏好，如 primary、secondaryPreferred
+         */
+        private String readPreference;
+
+        public Pool() {
+        }
+
+        Pool(int maxSize, int minSize, Duration maxWaitTime, Duration readTimeout, String readPreference) {
+            this.maxSize = maxSize;
+            this.minSize = minSize;
+            this.maxWaitTime = maxWaitTime;
+            this.readTimeout = readTimeout;
+            this.readPreference = readPreference;
+        }
+
+        public int getMaxSize() { return maxSize; }
+        public void setMaxSize(int maxSize) { this.maxSize = maxSize; }
+
+        public int getMinSize() { return minSize; }
+        public void setMinSize(int minSize) { this.minSize = minSize; }
+
+        public Duration getMaxWaitTime() { return maxWaitTime; }
+        public void setMaxWaitTime(Duration maxWaitTime) { this.maxWaitTime = maxWaitTime; }
+
+        public Duration getMaxConnectionIdleTime() { return maxConnectionIdleTime; }
+        public void setMaxConnectionIdleTime(Duration maxConnectionIdleTime) { this.maxConnectionIdleTime = maxConnectionIdleTime; }
+
+        public Duration getConnectTimeout() { return connectTimeout; }
+        public void setConnectTimeout(Duration connectTimeout) { this.connectTimeout = connectTimeout; }
+
+        public Duration getReadTimeout() { return readTimeout; }
+        public void setReadTimeout(Duration readTimeout) { this.readTimeout = readTimeout; }
+
+        public String getReadPreference() { return readPreference; }
+        public void setReadPreference(String readPreference) { this.readPreference = readPreference; }
+
+        @Override
+        public String toString() {
+            return "Pool{maxSize=" + maxSize + ", minSize=" + minSize + ", maxWaitTime=" + maxWaitTime
+                    + ", readTimeout=" + readTimeout + ", readPreference=" + readPreference + "}";
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.tianpan.mongodbai.config;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 统计连接池的借出等待时间，用于评估连接池大小。
+ * <p>
+ * 同步驱动在调用线程上借出连接，借出开始与结束事件在同一线程触发，因此以ThreadLocal记录开始时间。
+ * 等待时间按固定区间计数，另记录次数、总和、最大值及超时次数，同时记入指标 mongodb.driver.pool.checkout。
+ */
+public class PoolStatsListener implements ConnectionPoolListener {
+
+    /**
+     * 等待时间区间上界（毫秒），最后一个区间为不小于1000ms
+     */
+    private static final long[] BUCKET_BOUNDS_MILLIS = {1, 5, 10, 50, 100, 500, 1000};
+
+    private final Timer checkOutTimer;
+    private final ThreadLocal<long[]> checkOutStart = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final AtomicLong checkOuts = new AtomicLong();
+    private final AtomicLong failedCheckOuts = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    public PoolStatsListener(Timer checkOutTimer) {
+        this.checkOutTimer = checkOutTimer;
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        checkOutStart.get()[0] = System.nanoTime();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        recordWait();
+        checkOuts.incrementAndGet();
+        checkedOut.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        recordWait();
+        failedCheckOuts.incrementAndGet();
+        if (event.getReason() == ConnectionCheckOutFailedEvent.Reason.TIMEOUT) {
+            timeouts.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedOut.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        connections.incrementAndGet();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        connections.decrementAndGet();
+    }
+
+    private void recordWait() {
+        long[] start = checkOutStart.get();
+        if (start[0] == 0) {
+            return;
+        }
+        long waitNanos = System.nanoTime() - start[0];
+        start[0] = 0;
+        checkOutTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+        totalWaitNanos.addAndGet(waitNanos);
+        long max;
+        do {
+            max = maxWaitNanos.get();
+        } while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos));
+
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && waitMillis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+    }
+
+    public Map<String, Object> getStats() {
+        long completed = checkOuts.get() + failedCheckOuts.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connections", connections.get());
+        stats.put("checkedOut", checkedOut.get());
+        stats.put("checkOuts", checkOuts.get());
+        stats.put("failedCheckOuts", failedCheckOuts.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("avgWaitMillis", completed == 0 ? 0.0 : totalWaitNanos.get() / 1_000_000.0 / completed);
+        stats.put("maxWaitMillis", maxWaitNanos.get() / 1_000_000.0);
+
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            histogram.put("<" + BUCKET_BOUNDS_MILLIS[i] + "ms", buckets.get(i));
+        }
+        histogram.put(">=" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1] + "ms", buckets.get(BUCKET_BOUNDS_MILLIS.length));
+        stats.put("waitHistogram", histogram);
+        return stats;
+    }
+}
@@ -0,0 +1,78 @@
+package com.tianpan.mongodbai.config;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.tianpan.mongodbai.service.IndexCatalog;
+import com.tianpan.mongodbai.service.cache.CacheInvalidationSource;
+import com.tianpan.mongodbai.service.cache.ChangeStreamInvalidationSource;
+import com.tianpan.mongodbai.service.cache.InMemoryInvalidationSource;
+import com.tianpan.mongodbai.service.cache.QueryResultCache;
+import com.tianpan.mongodbai.service.cache.WatermarkInvalidationSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(QueryCacheProperties.class)
+public class QueryCacheConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryCacheConfig.class);
+
+    @Value("${spring.data.mongodb.database}")
+    private String database;
+
+    @Bean
+    public QueryResultCache queryResultCache(QueryCacheProperties properties) {
+        logger.info("查询结果缓存: enabled={}, maxBytes={}, eviction={}, defaultTtl={}, ttl={}",
+            properties.isEnabled(), properties.getMaxBytes(), properties.getEviction(),
+            properties.getDefaultTtl(), properties.getTtl());
+        return new QueryResultCache(properties.getMaxBytes(), properties.getEviction(),
+            properties.getDefaultTtl(), properties.getTtl());
+    }
+
+    @Bean(destroyMethod = "stop")
+    public CacheInvalidationSource cacheInvalidationSource(QueryCacheProperties properties, MongoClient mongoClient,
+                                                           QueryResultCache queryResultCache, IndexCatalog indexCatalog) {
+        CacheInvalidationSource source = createInvalidationSource(properties, mongoClient.getDatabase(database), indexCatalog);
+        if (properties.isEnabled()) {
+            logger.info("启动缓存失效监听: {}", properties.getInvalidation());
+            source.start(collection -> {
+                int removed = queryResultCache.invalidateCollection(collection);
+                logger.debug("集合 {} 数据变化，失效缓存条目: {}", collection, removed);
+            });
+        }
+        return source;
+    }
+
+    private CacheInvalidationSource createInvalidationSource(QueryCacheProperties properties, MongoDatabase mongoDatabase,
+                                                             IndexCatalog indexCatalog) {
+        switch (properties.getInvalidation()) {
+            case CHANGE_STREAM:
+                return new ChangeStreamInvalidationSource(mongoDatabase, properties.getWatchedCollections(), null);
+            case WATERMARK:
+                return watermark(properties, mongoDatabase, indexCatalog);
+            case AUTO:
+                return new ChangeStreamInvalidationSource(mongoDatabase, properties.getWatchedCollections(),
+                    watermark(properties, mongoDatabase, indexCatalog));
+            case NONE:
+            default:
+                // 仅依赖TTL，仍可通过InMemoryInvalidationSource手动触发失效
+                return new InMemoryInvalidationSource();
+        }
+    }
+
+    /**
+     * 水位线只在有以水位字段开头的索引的集合上轮询，索引信息按 IndexCatalog 的刷新间隔更新
+     */
+    private WatermarkInvalidationSource watermark(QueryCacheProperties properties, MongoDatabase mongoDatabase,
+                                                  IndexCatalog indexCatalog) {
+        String field = properties.getWatermarkField();
+        return new WatermarkInvalidationSource(mongoDatabase, properties.getWatchedCollections(),
+            field, properties.getWatermarkInterval().toMillis(),
+            collection -> indexCatalog.indexKeys(collection).stream()
+                .anyMatch(key -> key.keySet().iterator().next().equals(field)));
+    }
+}
@@ -0,0 +1,83 @@
+package com.tianpan.mongodbai.config;
+
+import com.tianpan.mongodbai.service.cache.QueryResultCache;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查询结果缓存配置，前缀 mongo.cache
+ */
+@ConfigurationProperties(prefix = "mongo.cache")
+public class QueryCacheProperties {
+
+    public enum Invalidation { NONE, CHANGE_STREAM, WATERMARK, AUTO }
+
+    /**
+     * 是否启用结果缓存
+     */
+    private boolean enabled = false;
+
+    /**
+     * 缓存总字节预算
+     */
+    private long maxBytes = 64L * 1024 * 1024;
+
+    private QueryResultCache.EvictionPolicy eviction = QueryResultCache.EvictionPolicy.LRU;
+
+    /**
+     * 未单独配置的集合使用的TTL
+     */
+    private Duration defaultTtl = Duration.ofSeconds(30);
+
+    /**
+     * 按集合名配置的TTL，如 mongo.cache.ttl.alarm_ignore=5m
+     */
+    private Map<String, Duration> ttl = new HashMap<>();
+
+    /**
+     * 失效方式：auto表示优先change stream，不可用时退回水位线轮询
+     */
+    private Invalidation invalidation = Invalidation.NONE;
+
+    /**
+     * 监听失效的集合
+     */
+    private List<String> watchedCollections = new ArrayList<>(Arrays.asList("alarm_info", "alarm_itsc", "alarm_ignore"));
+
+    private String watermarkField = "end_time";
+
+    private Duration watermarkInterval = Duration.ofSeconds(5);
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    public long getMaxBytes() { return maxBytes; }
+    public void setMaxBytes(long maxBytes) { this.maxBytes = maxBytes; }
+
+    public QueryResultCache.EvictionPolicy getEviction() { return eviction; }
+    public void setEviction(QueryResultCache.EvictionPolicy eviction) { this.eviction = eviction; }
+
+    public Duration getDefaultTtl() { return defaultTtl; }
+    public void setDefaultTtl(Duration defaultTtl) { this.defaultTtl = defaultTtl; }
+
+    public Map<String, Duration> getTtl() { return ttl; }
+    public void setTtl(Map<String, Duration> ttl) { this.ttl = ttl; }
+
+    public Invalidation getInvalidation() { return invalidation; }
+    public void setInvalidation(Invalidation invalidation) { this.invalidation = invalidation; }
+
+    public List<String> getWatchedCollections() { return watchedCollections; }
+    public void setWatchedCollections(List<String> watchedCollections) { this.watchedCollections = watchedCollections; }
+
+    public String getWatermarkField() { return watermarkField; }
+    public void setWatermarkField(String watermarkField) { this.watermarkField = watermarkField; }
+
+    public Duration getWatermarkInterval() { return watermarkInterval; }
+    public void setWatermarkInterval(Duration watermarkInterval) { this.watermarkInterval = watermarkInterval; }
+}
@@ -0,0 +1,9 @@
+package com.tianpan.mongodbai.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties({QueryProperties.class, AdmissionProperties.class, IndexProperties.class})
+public class QueryConfig {
+}
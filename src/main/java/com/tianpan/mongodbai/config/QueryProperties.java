@@ -0,0 +1,138 @@
+package com.tianpan.mongodbai.config;
+
+import com.mongodb.ReadConcernLevel;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查询语句执行配置，前缀 mongo.query
+ */
+@ConfigurationProperties(prefix = "mongo.query")
+public class QueryProperties {
+
+    /**
+     * 查询语句允许访问的集合，db.&lt;name&gt; 不在其中的语句直接拒绝
+     */
+    private List<String> allowedCollections = new ArrayList<>(Arrays.asList("alarm_info", "alarm_itsc", "alarm_ignore"));
+
+    /**
+     * 按集合名配置的读取设置，如 mongo.query.collections.alarm_info.default-limit=1000
+     */
+    private Map<String, CollectionSettings> collections = new HashMap<>();
+
+    /**
+     * 按集合名配置的默认投影（JSON），find未指定投影时使用，
+     * 如 mongo.query.default-projection.alarm_info={"payload": 0}
+     */
+    private Map<String, String> defaultProjection = new HashMap<>();
+
+    private final Aggregate aggregate = new Aggregate();
+
+    private final Async async = new Async();
+
+    public List<String> getAllowedCollections() { return allowedCollections; }
+    public void setAllowedCollections(List<String> allowedCollections) { this.allowedCollections = allowedCollections; }
+
+    public Map<String, CollectionSettings> getCollections() { return collections; }
+    public void setCollections(Map<String, CollectionSettings> collections) { this.collections = collections; }
+
+    public Map<String, String> getDefaultProjection() { return defaultProjection; }
+    public void setDefaultProjection(Map<String, String> defaultProjection) { this.defaultProjection = defaultProjection; }
+
+    public Aggregate getAggregate() { return aggregate; }
+
+    public Async getAsync() { return async; }
+
+    public static class CollectionSettings {
+
+        /**
+         * 读关注级别，未配置时使用客户端默认值
+         */
+        private ReadConcernLevel readConcern;
+
+        /**
+         * find未指定limit时的返回条数上限，未配置时不限制
+         */
+        private Integer defaultLimit;
+
+        public ReadConcernLevel getReadConcern() { return readConcern; }
+        public void setReadConcern(ReadConcernLevel readConcern) { this.readConcern = readConcern; }
+
+        public Integer getDefaultLimit() { return defaultLimit; }
+        public void setDefaultLimit(Integer defaultLimit) { this.defaultLimit = defaultLimit; }
+    }
+
+    /**
+     * aggregate的默认选项，查询语句中的选项优先
+     */
+    public static class Aggregate {
+
+        /**
+         * 每次getMore返回的文档数
+         */
+        private int batchSize = 500;
+
+        /**
+         * 超出内存限制的阶段（$group、$sort等）是否允许写临时文件
+         */
+        private boolean allowDiskUse = true;
+
+        /**
+         * 服务端执行时间上限，超时由MongoDB终止
+         */
+        private Duration maxTime = Duration.ofSeconds(60);
+
+        public int getBatchSize() { return batchSize; }
+        public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+
+        public boolean isAllowDiskUse() { return allowDiskUse; }
+        public void setAllowDiskUse(boolean allowDiskUse) { this.allowDiskUse = allowDiskUse; }
+
+        public Duration getMaxTime() { return maxTime; }
+        public void setMaxTime(Duration maxTime) { this.maxTime = maxTime; }
+    }
+
+    /**
+     * /query 的异步执行：查询在有界线程池中执行，不占用Servlet线程；每个请求有截止时间
+     */
+    public static class Async {
+
+        /**
+         * 执行查询的线程数
+         */
+        private int threads = 16;
+
+        /**
+         * 等待执行的队列长度，队列满时直接拒绝
+         */
+        private int queueCapacity = 64;
+
+        /**
+         * 请求未指定timeoutMs时的截止时间
+         */
+        private Duration defaultTimeout = Duration.ofSeconds(30);
+
+        /**
+         * 请求可指定的最长截止时间
+         */
+        private Duration maxTimeout = Duration.ofSeconds(120);
+
+        public int getThreads() { return threads; }
+        public void setThreads(int threads) { this.threads = threads; }
+
+        public int getQueueCapacity() { return queueCapacity; }
+        public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+
+        public Duration getDefaultTimeout() { return defaultTimeout; }
+        public void setDefaultTimeout(Duration defaultTimeout) { this.defaultTimeout = defaultTimeout; }
+
+        public Duration getMaxTimeout() { return maxTimeout; }
+        public void setMaxTimeout(Duration maxTimeout) { this.maxTimeout = maxTimeout; }
+    }
+}
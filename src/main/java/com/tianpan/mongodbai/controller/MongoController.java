@@ -1,17 +1,56 @@
 package com.tianpan.mongodbai.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoSocketReadTimeoutException;
+import com.tianpan.mongodbai.dto.ItscIdsRequest;
+import com.tianpan.mongodbai.dto.QueryBatchItem;
+import com.tianpan.mongodbai.dto.QueryBatchRequest;
 import com.tianpan.mongodbai.dto.QueryRequest;
 import com.tianpan.mongodbai.dto.QueryResponse;
+import com.tianpan.mongodbai.service.LazyLog;
 import com.tianpan.mongodbai.service.MongoService;
+import com.tianpan.mongodbai.service.QueryCoalescer;
+import com.tianpan.mongodbai.service.QueryDeadline;
+import com.tianpan.mongodbai.service.QueryExecutor;
+import com.tianpan.mongodbai.service.QueryStream;
+import com.tianpan.mongodbai.service.admission.AdmissionRejectedException;
+import com.tianpan.mongodbai.service.admission.QueryAdmission;
+import com.tianpan.mongodbai.service.admission.QueryCost;
+import com.tianpan.mongodbai.service.export.ExportFormat;
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import com.tianpan.mongodbai.service.shaping.ResultShape;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/mongo")
@@ -20,61 +59,444 @@ public class MongoController {
 
     private static final Logger logger = LoggerFactory.getLogger(MongoController.class);
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson;charset=UTF-8");
+
+    private static final DateTimeFormatter EXPORT_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
     @Autowired
     private MongoService mongoService;
 
+    @Autowired
+    private QueryExecutor queryExecutor;
+
+    @Autowired
+    private QueryAdmission queryAdmission;
+
+    @Autowired
+    private QueryCoalescer queryCoalescer;
+
+    @Value("${mongo.admission.client-header:X-Client-Id}")
+    private String clientHeader;
+
+    @Value("${mongo.query.batch.max-queries:20}")
+    private int batchMaxQueries;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * 执行查询。查询在有界线程池中异步执行，不占用Servlet线程；请求的截止时间（timeoutMs）作为maxTimeMS下发，
+     * 超时时取消查询。执行前经过准入控制，繁忙时返回429及Retry-After；指定shape时按预算整形结果。
+     * 客户端断开时容器以错误结束异步请求，请求在没有结果的情况下结束即取消查询，执行线程关闭游标、不再继续getMore
+     */
     @PostMapping("/query")
-    public ResponseEntity<QueryResponse> query(@RequestBody(required = false) QueryRequest request) {
+    public DeferredResult<ResponseEntity<QueryResponse>> query(@RequestBody(required = false) QueryRequest request,
+                                                               HttpServletRequest servletRequest) {
         logger.info("收到查询请求: {}", request);
         
+        // 如果请求体为空，尝试从请求参数获取
+        if (request == null || request.getQuery() == null || request.getQuery().trim().isEmpty()) {
+            return completed(ResponseEntity.badRequest()
+                .body(QueryResponse.error("请提供查询语句")));
+        }
+        
+        String queryString = request.getQuery().trim();
+        logger.info("执行查询: {}", LazyLog.abbreviate(queryString));
+        return executeAsync(queryString, request.isPaginate(), request.getContinuation(), request.getTimeoutMs(),
+            request.getShape(), client(servletRequest));
+    }
+
+    @PostMapping("/query/raw")
+    public DeferredResult<ResponseEntity<QueryResponse>> queryRaw(@RequestBody String queryString,
+                                                                  HttpServletRequest servletRequest) {
+        logger.info("收到原始查询请求: {}", LazyLog.abbreviate(queryString));
+        
+        if (queryString == null || queryString.trim().isEmpty()) {
+            return completed(ResponseEntity.badRequest()
+                .body(QueryResponse.error("查询语句不能为空")));
+        }
+        
+        String trimmedQuery = queryString.trim();
+        logger.info("执行原始查询: {}", LazyLog.abbreviate(trimmedQuery));
+        return executeAsync(trimmedQuery, false, null, null, null, client(servletRequest));
+    }
+
+    /**
+     * 调用方标识：优先取请求头（默认X-Client-Id），缺失时使用客户端地址
+     */
+    private String client(HttpServletRequest servletRequest) {
+        String client = servletRequest.getHeader(clientHeader);
+        return client != null && !client.trim().isEmpty() ? client.trim() : servletRequest.getRemoteAddr();
+    }
+
+    private DeferredResult<ResponseEntity<QueryResponse>> executeAsync(String queryString, boolean paginate, String continuation,
+                                                                        Long timeoutMs, ResultShape shape, String client) {
+        PendingQuery pending = submit(queryString, paginate, continuation, timeoutMs, shape, client);
+        if (pending.timeout == null) {
+            return completed(pending.response.join());
+        }
+        // 比截止时间多留1秒，让服务端的maxTimeMS先生效，返回明确的超时错误
+        DeferredResult<ResponseEntity<QueryResponse>> result = new DeferredResult<>(pending.timeout.toMillis() + 1000);
+        result.onTimeout(() -> {
+            pending.deadline.cancel();
+            logger.warn("查询超过截止时间 {}ms，已取消: {}", pending.timeout.toMillis(), LazyLog.abbreviate(queryString));
+            result.setErrorResult(ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(QueryResponse.error("查询超时")));
+        });
+        result.onError(error -> {
+            pending.deadline.cancel();
+            logger.warn("客户端连接异常，取消查询: {}", error.getMessage());
+        });
+        // 容器结束异步请求时查询仍未完成：客户端已断开或请求被中止，结果不会再有人读取
+        result.onCompletion(() -> {
+            if (!pending.response.isDone()) {
+                pending.deadline.cancel();
+                logger.warn("请求已结束但查询未完成，取消查询: {}", LazyLog.abbreviate(queryString));
+            }
+        });
+        pending.response.thenAccept(response -> {
+            if (response.getStatusCode().is2xxSuccessful()) {
+                result.setResult(response);
+            } else {
+                result.setErrorResult(response);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 校验、估算开销并经准入控制提交一条查询。语句或参数无效、未准入、线程池已满时不抛出异常，
+     * 而是以对应状态码的错误响应完成，单条查询与批量查询共用
+     */
+    private PendingQuery submit(String queryString, boolean paginate, String continuation, Long timeoutMs, ResultShape shape,
+                                String client) {
+        Duration timeout;
+        QueryCost cost;
+        String key;
         try {
-            String queryString = null;
-            
-            // 如果请求体为空，尝试从请求参数获取
-            if (request == null || request.getQuery() == null || request.getQuery().trim().isEmpty()) {
-                // 尝试从请求体直接读取字符串
-                return ResponseEntity.badRequest()
-                    .body(QueryResponse.error("请提供查询语句"));
+            timeout = queryExecutor.timeout(timeoutMs);
+            if (shape != null) {
+                shape.validate();
             }
-            
-            queryString = request.getQuery().trim();
-            
-            if (queryString.isEmpty()) {
-                logger.error("查询语句为空");
-                return ResponseEntity.badRequest()
-                    .body(QueryResponse.error("查询语句不能为空"));
+            QueryPlan plan = mongoService.plan(queryString);
+            cost = queryAdmission.estimate(plan, paginate || continuation != null ? mongoService.pageSort(plan) : null);
+            key = mongoService.resultKey(plan, paginate, continuation, shape);
+        } catch (IllegalArgumentException e) {
+            logger.warn("查询语句无效: {}", e.getMessage());
+            return new PendingQuery(null, QueryDeadline.none(), CompletableFuture.completedFuture(
+                ResponseEntity.badRequest().body(QueryResponse.error("查询失败: " + e.getMessage()))));
+        }
+        logger.debug("查询开销估算: {}，调用方: {}", cost, client);
+        QueryDeadline deadline = QueryDeadline.after(timeout);
+        CompletableFuture<ResponseEntity<QueryResponse>> response = new CompletableFuture<>();
+        
+        try {
+            // 相同查询正在执行时挂在其结果上，不经准入、不占线程；只有首个请求实际提交
+            queryCoalescer.submit(key, deadline, () -> queryAdmission.submit(client, cost, deadline,
+                    () -> mongoService.executeQuery(queryString, paginate, continuation, deadline, shape)))
+                .whenComplete((json, error) -> {
+                    if (error == null) {
+                        logger.info("查询成功，结果长度: {}", json.length());
+                        response.complete(ResponseEntity.ok(QueryResponse.success(json)));
+                    } else {
+                        response.complete(failure(error));
+                    }
+                });
+        } catch (AdmissionRejectedException e) {
+            logger.warn("查询未准入（{}，{}）: {}", e.getMessage(), cost, LazyLog.abbreviate(queryString));
+            response.complete(rejected(e));
+        } catch (RejectedExecutionException e) {
+            logger.warn("查询线程池已满，拒绝查询: {}", LazyLog.abbreviate(queryString));
+            response.complete(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(QueryResponse.error("查询繁忙，请稍后重试")));
+        }
+        return new PendingQuery(timeout, deadline, response);
+    }
+
+    /**
+     * 已提交的一条查询。timeout 为null表示提交前即已失败；response 总是正常完成
+     */
+    private static final class PendingQuery {
+        private final Duration timeout;
+        private final QueryDeadline deadline;
+        private final CompletableFuture<ResponseEntity<QueryResponse>> response;
+        private final long startedAt = System.nanoTime();
+        private volatile long finishedAt;
+
+        PendingQuery(Duration timeout, QueryDeadline deadline, CompletableFuture<ResponseEntity<QueryResponse>> response) {
+            this.timeout = timeout;
+            this.deadline = deadline;
+            // 经此记录完成时间，之后挂在 response 上的回调都能读到
+            this.response = response.thenApply(value -> {
+                finishedAt = System.nanoTime();
+                return value;
+            });
+        }
+
+        /**
+         * 批量结果中的一项；截止时间已过仍未完成的查询取消并记为504
+         */
+        QueryBatchItem item(int index) {
+            ResponseEntity<QueryResponse> value = response.getNow(null);
+            if (value == null) {
+                deadline.cancel();
+                return new QueryBatchItem(index, HttpStatus.GATEWAY_TIMEOUT.value(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), QueryResponse.error("查询超时"));
             }
+            return new QueryBatchItem(index, value.getStatusCodeValue(),
+                TimeUnit.NANOSECONDS.toMillis(finishedAt - startedAt), value.getBody());
+        }
+    }
+
+    /**
+     * 批量执行相互独立的查询。各查询分别经准入控制后在查询线程池中并行执行，各有截止时间和错误，
+     * 全部完成后按请求中的顺序返回，总耗时约为最慢的一条
+     */
+    @PostMapping("/query/batch")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> queryBatch(@RequestBody(required = false) QueryBatchRequest request,
+                                                                          HttpServletRequest servletRequest) {
+        String invalid = invalidBatch(request);
+        if (invalid != null) {
+            return completed(ResponseEntity.badRequest().body(batchError(invalid)));
+        }
+        long start = System.nanoTime();
+        List<PendingQuery> pending = submitBatch(request.getQueries(), client(servletRequest));
+        
+        DeferredResult<ResponseEntity<Map<String, Object>>> result = new DeferredResult<>(batchTimeoutMillis(pending) + 1000);
+        result.onTimeout(() -> {
+            logger.warn("批量查询超过截止时间，取消未完成的查询");
+            result.setResult(ResponseEntity.ok(batchResult(pending, start)));
+        });
+        result.onError(error -> {
+            pending.forEach(query -> query.deadline.cancel());
+            logger.warn("客户端连接异常，取消批量查询: {}", error.getMessage());
+        });
+        result.onCompletion(() -> pending.stream().filter(query -> !query.response.isDone())
+            .forEach(query -> query.deadline.cancel()));
+        CompletableFuture.allOf(pending.stream().map(query -> query.response).toArray(CompletableFuture[]::new))
+            .thenRun(() -> result.setResult(ResponseEntity.ok(batchResult(pending, start))));
+        return result;
+    }
+
+    /**
+     * 批量执行查询，每条查询完成即写出一行（NDJSON，带 index），不等待最慢的一条
+     */
+    @PostMapping("/query/batch/stream")
+    public ResponseEntity<StreamingResponseBody> queryBatchStream(@RequestBody(required = false) QueryBatchRequest request,
+                                                                  HttpServletRequest servletRequest) {
+        String invalid = invalidBatch(request);
+        if (invalid != null) {
+            Map<String, Object> error = batchError(invalid);
+            return ResponseEntity.badRequest().contentType(NDJSON)
+                .body(outputStream -> writeLine(outputStream, error));
+        }
+        List<PendingQuery> pending = submitBatch(request.getQueries(), client(servletRequest));
+        BlockingQueue<Integer> finished = new LinkedBlockingQueue<>();
+        for (int i = 0; i < pending.size(); i++) {
+            int index = i;
+            pending.get(i).response.whenComplete((value, error) -> finished.add(index));
+        }
+        long waitNanos = TimeUnit.MILLISECONDS.toNanos(batchTimeoutMillis(pending) + 1000);
+        
+        StreamingResponseBody body = outputStream -> {
+            long deadline = System.nanoTime() + waitNanos;
+            boolean[] written = new boolean[pending.size()];
+            try {
+                for (int i = 0; i < pending.size(); i++) {
+                    Integer index = finished.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (index == null) {
+                        logger.warn("批量查询超过截止时间，取消未完成的查询");
+                        break;
+                    }
+                    written[index] = true;
+                    writeLine(outputStream, pending.get(index).item(index));
+                }
+                for (int i = 0; i < pending.size(); i++) {
+                    if (!written[i]) {
+                        writeLine(outputStream, pending.get(i).item(i));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.forEach(query -> query.deadline.cancel());
+            } catch (IOException e) {
+                pending.forEach(query -> query.deadline.cancel());
+                logger.warn("客户端连接异常，取消批量查询: {}", e.getMessage());
+                throw e;
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    private String invalidBatch(QueryBatchRequest request) {
+        if (request == null || request.getQueries() == null || request.getQueries().isEmpty()) {
+            return "请提供查询语句列表";
+        }
+        if (request.getQueries().size() > batchMaxQueries) {
+            return "批量查询最多 " + batchMaxQueries + " 条，实际 " + request.getQueries().size() + " 条";
+        }
+        return null;
+    }
+
+    private List<PendingQuery> submitBatch(List<QueryRequest> queries, String client) {
+        logger.info("收到批量查询请求，查询数: {}，调用方: {}", queries.size(), client);
+        List<PendingQuery> pending = new ArrayList<>(queries.size());
+        for (QueryRequest query : queries) {
+            if (query == null || query.getQuery() == null || query.getQuery().trim().isEmpty()) {
+                pending.add(new PendingQuery(null, QueryDeadline.none(), CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(QueryResponse.error("请提供查询语句")))));
+            } else {
+                pending.add(submit(query.getQuery().trim(), query.isPaginate(), query.getContinuation(), query.getTimeoutMs(),
+                    query.getShape(), client));
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 批量查询整体的等待时间：各查询截止时间中最长的一个
+     */
+    private static long batchTimeoutMillis(List<PendingQuery> pending) {
+        long timeout = 0;
+        for (PendingQuery query : pending) {
+            if (query.timeout != null) {
+                timeout = Math.max(timeout, query.timeout.toMillis());
+            }
+        }
+        return timeout;
+    }
+
+    private static Map<String, Object> batchResult(List<PendingQuery> pending, long start) {
+        List<QueryBatchItem> items = new ArrayList<>(pending.size());
+        int succeeded = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            QueryBatchItem item = pending.get(i).item(i);
+            if (item.isSuccess()) {
+                succeeded++;
+            }
+            items.add(item);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("批量查询完成，成功 {}/{}，耗时 {}ms", succeeded, items.size(), elapsed);
+        
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("success", succeeded == items.size());
+        response.put("count", items.size());
+        response.put("succeeded", succeeded);
+        response.put("elapsedMs", elapsed);
+        response.put("results", items);
+        response.put("message", "批量查询完成，成功 " + succeeded + "/" + items.size());
+        return response;
+    }
+
+    private static Map<String, Object> batchError(String message) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        return response;
+    }
+
+    private void writeLine(OutputStream outputStream, Object value) throws IOException {
+        outputStream.write(objectMapper.writeValueAsBytes(value));
+        outputStream.write('\n');
+        outputStream.flush();
+    }
+
+    private static ResponseEntity<QueryResponse> rejected(AdmissionRejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().getSeconds()))
+            .body(QueryResponse.error(e.getMessage() + "，请稍后重试"));
+    }
+
+    private static ResponseEntity<QueryResponse> failure(Throwable error) {
+        Throwable failure = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (failure instanceof AdmissionRejectedException) {
+            // 合并的查询在leader失败后重新提交时未准入
+            logger.warn("查询未准入: {}", failure.getMessage());
+            return rejected((AdmissionRejectedException) failure);
+        }
+        if (failure instanceof RejectedExecutionException) {
+            // 排队的查询获得许可后提交时线程池已满
+            logger.warn("查询线程池已满，拒绝排队中的查询");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(QueryResponse.error("查询繁忙，请稍后重试"));
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoExecutionTimeoutException || cause instanceof MongoSocketReadTimeoutException
+                || cause instanceof CancellationException) {
+                logger.warn("查询超时或已取消: {}", cause.getMessage());
+                return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body(QueryResponse.error("查询超时: " + cause.getMessage()));
+            }
+        }
+        logger.error("查询失败", failure);
+        return ResponseEntity.status(500)
+            .body(QueryResponse.error("查询失败: " + failure.getMessage()));
+    }
+
+    private static <T> DeferredResult<T> completed(T value) {
+        DeferredResult<T> result = new DeferredResult<>();
+        result.setResult(value);
+        return result;
+    }
+
+    /**
+     * 流式执行查询，结果以NDJSON格式（每行一个文档）分块返回，不在内存中缓冲完整结果
+     */
+    @PostMapping("/query/stream")
+    public ResponseEntity<?> queryStream(@RequestBody(required = false) QueryRequest request) {
+        logger.info("收到流式查询请求: {}", request);
+        
+        if (request == null || request.getQuery() == null || request.getQuery().trim().isEmpty()) {
+            return ResponseEntity.badRequest()
+                .body(QueryResponse.error("请提供查询语句"));
+        }
+        
+        try {
+            String queryString = request.getQuery().trim();
+            QueryStream queryStream = mongoService.streamQuery(queryString);
+            StreamingResponseBody body = outputStream -> queryStream.writeTo(outputStream);
             
-            logger.info("执行查询: {}", queryString);
-            String result = mongoService.executeQuery(queryString);
-            logger.info("查询成功，结果长度: {}", result.length());
-            
-            return ResponseEntity.ok(QueryResponse.success(result));
+            return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .body(body);
             
+        } catch (IllegalArgumentException e) {
+            logger.error("流式查询语句无效", e);
+            return ResponseEntity.badRequest()
+                .body(QueryResponse.error("查询失败: " + e.getMessage()));
         } catch (Exception e) {
-            logger.error("查询失败", e);
+            logger.error("流式查询失败", e);
             return ResponseEntity.status(500)
                 .body(QueryResponse.error("查询失败: " + e.getMessage()));
         }
     }
 
-    @PostMapping("/query/raw")
-    public ResponseEntity<QueryResponse> queryRaw(@RequestBody String queryString) {
-        logger.info("收到原始查询请求: {}", queryString);
+    /**
+     * 执行查询，result以内嵌JSON结构返回（而非JSON字符串），BSON结果直接转码写入响应
+     */
+    @PostMapping("/query/json")
+    public ResponseEntity<?> queryJson(@RequestBody(required = false) QueryRequest request) {
+        logger.info("收到JSON查询请求: {}", request);
+        
+        if (request == null || request.getQuery() == null || request.getQuery().trim().isEmpty()) {
+            return ResponseEntity.badRequest()
+                .body(QueryResponse.error("请提供查询语句"));
+        }
         
         try {
-            if (queryString == null || queryString.trim().isEmpty()) {
-                return ResponseEntity.badRequest()
-                    .body(QueryResponse.error("查询语句不能为空"));
-            }
-            
-            String trimmedQuery = queryString.trim();
-            logger.info("执行原始查询: {}", trimmedQuery);
-            String result = mongoService.executeQuery(trimmedQuery);
-            logger.info("查询成功，结果长度: {}", result.length());
+            String queryString = request.getQuery().trim();
+            QueryStream queryStream = mongoService.transcodeQuery(queryString, request.isPaginate(), request.getContinuation());
+            StreamingResponseBody body = outputStream -> queryStream.writeTo(outputStream);
             
-            return ResponseEntity.ok(QueryResponse.success(result));
+            return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
             
+        } catch (IllegalArgumentException e) {
+            logger.error("查询语句无效", e);
+            return ResponseEntity.badRequest()
+                .body(QueryResponse.error("查询失败: " + e.getMessage()));
         } catch (Exception e) {
             logger.error("查询失败", e);
             return ResponseEntity.status(500)
@@ -88,6 +510,105 @@ public class MongoController {
         return ResponseEntity.ok("MongoDB服务运行正常");
     }
 
+    /**
+     * 批量获取工单关联的告警明细（alarm_itsc → alarm_info → alarm_ignore）
+     */
+    @PostMapping("/alarm-rows")
+    public ResponseEntity<Map<String, Object>> getAlarmRows(@RequestBody(required = false) ItscIdsRequest request) {
+        logger.info("批量获取工单告警明细请求，itscIds数量: {}",
+            request != null && request.getItscIds() != null ? request.getItscIds().size() : 0);
+        
+        Map<String, Object> response = new HashMap<>();
+        if (request == null || request.getItscIds() == null || request.getItscIds().isEmpty()) {
+            response.put("success", false);
+            response.put("error", "请提供itscIds");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        try {
+            List<Map<String, Object>> rows = mongoService.getAlarmRowsByItscIds(request.getItscIds());
+            
+            response.put("success", true);
+            response.put("rows", rows);
+            response.put("count", rows.size());
+            response.put("message", "成功获取工单告警明细");
+            return ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            logger.error("批量获取工单告警明细失败", e);
+            response.put("success", false);
+            response.put("error", "批量获取工单告警明细失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * 流式导出工单关联的告警明细（CSV或XLSX），边从聚合游标读取边写入响应，导出行数不受内存限制
+     */
+    @PostMapping("/alarm-rows/export")
+    public ResponseEntity<?> exportAlarmRows(@RequestBody(required = false) ItscIdsRequest request,
+                                             @RequestParam(defaultValue = "csv") String format) {
+        logger.info("导出工单告警明细请求，itscIds数量: {}，格式: {}",
+            request != null && request.getItscIds() != null ? request.getItscIds().size() : 0, format);
+        
+        if (request == null || request.getItscIds() == null || request.getItscIds().isEmpty()) {
+            return ResponseEntity.badRequest()
+                .body(QueryResponse.error("请提供itscIds"));
+        }
+        
+        try {
+            ExportFormat exportFormat = ExportFormat.of(format);
+            QueryStream export = mongoService.exportAlarmRows(request.getItscIds(), exportFormat);
+            StreamingResponseBody body = outputStream -> export.writeTo(outputStream);
+            String filename = "alarm-rows-" + LocalDateTime.now().format(EXPORT_TIMESTAMP) + "." + exportFormat.getExtension();
+            
+            return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
+            
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                .body(QueryResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            logger.error("导出工单告警明细失败", e);
+            return ResponseEntity.status(500)
+                .body(QueryResponse.error("导出失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 查询结果缓存的命中率、容量等统计
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(mongoService.getQueryCacheStats());
+    }
+
+    /**
+     * 各负载类别连接池的配置、连接数及借出等待时间分布，用于评估连接池大小
+     */
+    @GetMapping("/pools")
+    public ResponseEntity<Map<String, Object>> getPoolStats() {
+        return ResponseEntity.ok(mongoService.getPoolStats());
+    }
+
+    /**
+     * 超过阈值的慢查询，按查询形状归并，附带后台explain得到的执行计划和扫描/返回文档数
+     */
+    @GetMapping("/slow-queries")
+    public ResponseEntity<Map<String, Object>> getSlowQueries() {
+        return ResponseEntity.ok(mongoService.getSlowQueries());
+    }
+
+    /**
+     * 声明索引的创建状态及按实际查询形状推荐的复合索引
+     */
+    @GetMapping("/indexes")
+    public ResponseEntity<Map<String, Object>> getIndexes() {
+        return ResponseEntity.ok(mongoService.getIndexReport());
+    }
+
     /**
      * 获取今日告警的系统名称列表
      */
@@ -0,0 +1,25 @@
+package com.tianpan.mongodbai.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+public class ItscIdsRequest {
+    
+    @JsonProperty("itscIds")
+    private List<String> itscIds;
+    
+    public ItscIdsRequest() {}
+    
+    public ItscIdsRequest(List<String> itscIds) {
+        this.itscIds = itscIds;
+    }
+    
+    public List<String> getItscIds() {
+        return itscIds;
+    }
+    
+    public void setItscIds(List<String> itscIds) {
+        this.itscIds = itscIds;
+    }
+}
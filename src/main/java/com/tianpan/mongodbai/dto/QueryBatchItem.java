@@ -0,0 +1,64 @@
+package com.tianpan.mongodbai.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * 批量查询中一条查询的结果：index 为其在请求中的位置，status 为单独执行时的HTTP状态码
+ */
+public class QueryBatchItem {
+    
+    @JsonProperty("index")
+    private int index;
+    
+    @JsonProperty("status")
+    private int status;
+    
+    @JsonProperty("elapsedMs")
+    private long elapsedMs;
+    
+    @JsonProperty("result")
+    private String result;
+    
+    @JsonProperty("success")
+    private boolean success;
+    
+    @JsonProperty("message")
+    private String message;
+    
+    public QueryBatchItem() {}
+    
+    public QueryBatchItem(int index, int status, long elapsedMs, QueryResponse response) {
+        this.index = index;
+        this.status = status;
+        this.elapsedMs = elapsedMs;
+        if (response != null) {
+            this.result = response.getResult();
+            this.success = response.isSuccess();
+            this.message = response.getMessage();
+        }
+    }
+    
+    public int getIndex() {
+        return index;
+    }
+    
+    public int getStatus() {
+        return status;
+    }
+    
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+    
+    public String getResult() {
+        return result;
+    }
+    
+    public boolean isSuccess() {
+        return success;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,28 @@
+package com.tianpan.mongodbai.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+public class QueryBatchRequest {
+    
+    /**
+     * 相互独立的查询，各自可带 continuation、timeoutMs 和 shape
+     */
+    @JsonProperty("queries")
+    private List<QueryRequest> queries;
+    
+    public QueryBatchRequest() {}
+    
+    public QueryBatchRequest(List<QueryRequest> queries) {
+        this.queries = queries;
+    }
+    
+    public List<QueryRequest> getQueries() {
+        return queries;
+    }
+    
+    public void setQueries(List<QueryRequest> queries) {
+        this.queries = queries;
+    }
+}
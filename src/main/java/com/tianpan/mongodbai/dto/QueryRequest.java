@@ -1,12 +1,37 @@
 package com.tianpan.mongodbai.dto;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tianpan.mongodbai.service.shaping.ResultShape;
 
 public class QueryRequest {
     
     @JsonProperty("query")
     private String query;
     
+    /**
+     * 为 true 时find按键集分页返回首页，结果中带续页令牌；未指定时不分页
+     */
+    @JsonProperty("paginate")
+    private Boolean paginate;
+    
+    /**
+     * 上一页响应中的续页令牌，取下一页时原样传回，传入时总是分页
+     */
+    @JsonProperty("continuation")
+    private String continuation;
+    
+    /**
+     * 查询的截止时间（毫秒），未指定时使用 mongo.query.async.default-timeout
+     */
+    @JsonProperty("timeoutMs")
+    private Long timeoutMs;
+    
+    /**
+     * 结果整形选项（预算、字段、截断、抽样），未指定时返回全部结果
+     */
+    @JsonProperty("shape")
+    private ResultShape shape;
+    
     public QueryRequest() {}
     
     public QueryRequest(String query) {
@@ -20,4 +45,36 @@ public class QueryRequest {
     public void setQuery(String query) {
         this.query = query;
     }
+    
+    public boolean isPaginate() {
+        return Boolean.TRUE.equals(paginate);
+    }
+    
+    public void setPaginate(Boolean paginate) {
+        this.paginate = paginate;
+    }
+    
+    public String getContinuation() {
+        return continuation;
+    }
+    
+    public void setContinuation(String continuation) {
+        this.continuation = continuation;
+    }
+    
+    public Long getTimeoutMs() {
+        return timeoutMs;
+    }
+    
+    public void setTimeoutMs(Long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+    
+    public ResultShape getShape() {
+        return shape;
+    }
+    
+    public void setShape(ResultShape shape) {
+        this.shape = shape;
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,164 @@
+package com.tianpan.mongodbai.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonTimestamp;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.types.Decimal128;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 将原始BSON字节直接转码为JSON，逐个读取BSON元素并写入Jackson的JsonGenerator，
+ * 不构造中间的Document/Map对象，也不产生中间JSON字符串。
+ * <p>
+ * 所有直接输出BSON的接口共用同一套渲染规则：ObjectId输出为24位十六进制字符串，
+ * 日期输出为东八区ISO-8601字符串（如 2025-06-30T23:30:44.000+08:00），
+ * 整数和浮点数输出为JSON数字，Decimal128输出为字符串以保留精度。
+ */
+public final class BsonJsonTranscoder {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX")
+            .withZone(ZoneId.of("Asia/Shanghai"));
+
+    private BsonJsonTranscoder() {
+    }
+
+    /**
+     * 将一个原始BSON文档写为JSON对象
+     */
+    public static void write(RawBsonDocument document, JsonGenerator generator) throws IOException {
+        try (BsonBinaryReader reader = new BsonBinaryReader(document.getByteBuffer().asNIO())) {
+            reader.readBsonType();
+            writeDocument(reader, generator);
+        }
+    }
+
+    /**
+     * 日期的统一字符串表示
+     */
+    public static String formatDate(long epochMillis) {
+        return DATE_FORMATTER.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    private static void writeDocument(BsonReader reader, JsonGenerator generator) throws IOException {
+        reader.readStartDocument();
+        generator.writeStartObject();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            generator.writeFieldName(reader.readName());
+            writeValue(reader, generator);
+        }
+        reader.readEndDocument();
+        generator.writeEndObject();
+    }
+
+    private static void writeArray(BsonReader reader, JsonGenerator generator) throws IOException {
+        reader.readStartArray();
+        generator.writeStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            writeValue(reader, generator);
+        }
+        reader.readEndArray();
+        generator.writeEndArray();
+    }
+
+    private static void writeValue(BsonReader reader, JsonGenerator generator) throws IOException {
+        switch (reader.getCurrentBsonType()) {
+            case DOCUMENT:
+                writeDocument(reader, generator);
+                break;
+            case ARRAY:
+                writeArray(reader, generator);
+                break;
+            case STRING:
+                generator.writeString(reader.readString());
+                break;
+            case OBJECT_ID:
+                generator.writeString(reader.readObjectId().toHexString());
+                break;
+            case DATE_TIME:
+                generator.writeString(formatDate(reader.readDateTime()));
+                break;
+            case INT32:
+                generator.writeNumber(reader.readInt32());
+                break;
+            case INT64:
+                generator.writeNumber(reader.readInt64());
+                break;
+            case DOUBLE:
+                double value = reader.readDouble();
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    generator.writeString(Double.toString(value));
+                } else {
+                    generator.writeNumber(value);
+                }
+                break;
+            case DECIMAL128:
+                Decimal128 decimal = reader.readDecimal128();
+                generator.writeString(decimal.toString());
+                break;
+            case BOOLEAN:
+                generator.writeBoolean(reader.readBoolean());
+                break;
+            case NULL:
+                reader.readNull();
+                generator.writeNull();
+                break;
+            case UNDEFINED:
+                reader.readUndefined();
+                generator.writeNull();
+                break;
+            case BINARY:
+                generator.writeBinary(reader.readBinaryData().getData());
+                break;
+            case REGULAR_EXPRESSION:
+                BsonRegularExpression regex = reader.readRegularExpression();
+                generator.writeString("/" + regex.getPattern() + "/" + regex.getOptions());
+                break;
+            case TIMESTAMP:
+                BsonTimestamp timestamp = reader.readTimestamp();
+                generator.writeStartObject();
+                generator.writeNumberField("t", timestamp.getTime());
+                generator.writeNumberField("i", timestamp.getInc());
+                generator.writeEndObject();
+                break;
+            case SYMBOL:
+                generator.writeString(reader.readSymbol());
+                break;
+            case JAVASCRIPT:
+                generator.writeString(reader.readJavaScript());
+                break;
+            case JAVASCRIPT_WITH_SCOPE:
+                generator.writeString(reader.readJavaScriptWithScope());
+                reader.readStartDocument();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    reader.skipName();
+                    reader.skipValue();
+                }
+                reader.readEndDocument();
+                break;
+            case DB_POINTER:
+                generator.writeString(reader.readDBPointer().getId().toHexString());
+                break;
+            case MIN_KEY:
+                reader.readMinKey();
+                generator.writeString("$minKey");
+                break;
+            case MAX_KEY:
+                reader.readMaxKey();
+                generator.writeString("$maxKey");
+                break;
+            default:
+                reader.skipValue();
+                generator.writeNull();
+                break;
+        }
+    }
+}
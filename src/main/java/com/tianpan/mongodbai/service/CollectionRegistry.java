@@ -0,0 +1,164 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.tianpan.mongodbai.config.MongoClientPools;
+import com.tianpan.mongodbai.config.QueryProperties;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 集合注册表：启动时按配置为每个集合、每个负载类别建好 {@link MongoCollection} 句柄（读关注、文档类型已设置），
+ * 请求时只做一次 Map 查找，不再逐次解析数据库和集合。
+ * <p>
+ * 查询语句中的 db.&lt;name&gt; 通过 {@link #resolve} 按白名单 mongo.query.allowed-collections 路由；
+ * 服务内部固定使用的告警集合通过 {@link #get} 获取，不受白名单限制。
+ */
+@Component
+public class CollectionRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectionRegistry.class);
+
+    /**
+     * 服务内部查询使用的集合
+     */
+    private static final List<String> INTERNAL_COLLECTIONS = Arrays.asList("alarm_info", "alarm_itsc", "alarm_ignore");
+
+    private final Map<String, Handle> handles;
+
+    @Autowired
+    public CollectionRegistry(MongoClientPools mongoClientPools, @Value("${spring.data.mongodb.database}") String database,
+                              QueryProperties properties) {
+        this(databases(mongoClientPools, database), properties);
+    }
+
+    /**
+     * 所有负载类别使用同一个数据库连接
+     */
+    public CollectionRegistry(MongoDatabase database, QueryProperties properties) {
+        this(databases(database), properties);
+    }
+
+    private CollectionRegistry(Map<Workload, MongoDatabase> databases, QueryProperties properties) {
+        Set<String> allowed = new LinkedHashSet<>(properties.getAllowedCollections());
+        Set<String> names = new LinkedHashSet<>(allowed);
+        names.addAll(INTERNAL_COLLECTIONS);
+        for (String configured : properties.getCollections().keySet()) {
+            if (!names.contains(configured)) {
+                logger.warn("集合 {} 有读取配置但不在白名单中，配置不会生效", configured);
+            }
+        }
+
+        Map<String, Handle> built = new HashMap<>();
+        for (String name : names) {
+            QueryProperties.CollectionSettings settings = properties.getCollections().get(name);
+            Map<Workload, MongoCollection<Document>> collections = new EnumMap<>(Workload.class);
+            for (Workload workload : Workload.values()) {
+                MongoCollection<Document> collection = databases.get(workload).getCollection(name);
+                if (settings != null && settings.getReadConcern() != null) {
+                    collection = collection.withReadConcern(new ReadConcern(settings.getReadConcern()));
+                }
+                collections.put(workload, collection);
+            }
+            built.put(name, new Handle(name, collections, settings != null ? settings.getDefaultLimit() : null,
+                    allowed.contains(name)));
+        }
+        this.handles = Collections.unmodifiableMap(built);
+        logger.info("集合注册表初始化，数据库: {}，可查询集合: {}，读取配置: {}",
+                databases.get(Workload.INTERACTIVE).getName(), allowed, properties.getCollections().keySet());
+    }
+
+    private static Map<Workload, MongoDatabase> databases(MongoClientPools mongoClientPools, String database) {
+        Map<Workload, MongoDatabase> databases = new EnumMap<>(Workload.class);
+        for (Workload workload : Workload.values()) {
+            databases.put(workload, mongoClientPools.client(workload).getDatabase(database));
+        }
+        return databases;
+    }
+
+    private static Map<Workload, MongoDatabase> databases(MongoDatabase database) {
+        Map<Workload, MongoDatabase> databases = new EnumMap<>(Workload.class);
+        for (Workload workload : Workload.values()) {
+            databases.put(workload, database);
+        }
+        return databases;
+    }
+
+    /**
+     * 解析查询语句中的集合名
+     * @throws IllegalArgumentException 集合不在白名单中
+     */
+    public Handle resolve(String name) {
+        Handle handle = handles.get(name);
+        if (handle == null || !handle.queryable) {
+            throw new IllegalArgumentException("不支持的集合: " + name);
+        }
+        return handle;
+    }
+
+    /**
+     * 获取服务内部使用的集合
+     */
+    public Handle get(String name) {
+        Handle handle = handles.get(name);
+        if (handle == null) {
+            throw new IllegalStateException("集合未注册: " + name);
+        }
+        return handle;
+    }
+
+    /**
+     * 预先建好的集合句柄，不可变，可并发共享
+     */
+    public static final class Handle {
+        private final String name;
+        private final Map<Workload, MongoCollection<Document>> documents;
+        private final Map<Workload, MongoCollection<RawBsonDocument>> rawDocuments;
+        private final Integer defaultLimit;
+        private final boolean queryable;
+
+        private Handle(String name, Map<Workload, MongoCollection<Document>> documents, Integer defaultLimit, boolean queryable) {
+            this.name = name;
+            this.documents = documents;
+            this.rawDocuments = new EnumMap<>(Workload.class);
+            documents.forEach((workload, collection) ->
+                    this.rawDocuments.put(workload, collection.withDocumentClass(RawBsonDocument.class)));
+            this.defaultLimit = defaultLimit;
+            this.queryable = queryable;
+        }
+
+        public String getName() { return name; }
+
+        /**
+         * 交互查询连接池上的句柄
+         */
+        public MongoCollection<Document> documents() { return documents.get(Workload.INTERACTIVE); }
+
+        public MongoCollection<Document> documents(Workload workload) { return documents.get(workload); }
+
+        /**
+         * 以RawBsonDocument读取的句柄，用于BSON直接转码
+         */
+        public MongoCollection<RawBsonDocument> rawDocuments(Workload workload) { return rawDocuments.get(workload); }
+
+        /**
+         * find未指定limit时的条数上限，未配置时为null
+         */
+        public Integer getDefaultLimit() { return defaultLimit; }
+    }
+}
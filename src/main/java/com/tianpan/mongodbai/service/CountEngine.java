@@ -0,0 +1,207 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.EstimatedDocumentCountOptions;
+import com.tianpan.mongodbai.service.cache.QueryResultCache;
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * count查询按三种方式执行，结果中报告所用的方式：
+ * <ul>
+ *     <li>{@link Strategy#ESTIMATED}：无条件的 count()，以 estimatedDocumentCount 读取集合元数据，不扫描文档</li>
+ *     <li>{@link Strategy#CACHED}：短TTL缓存中的精确计数，按执行计划键缓存，不受 mongo.cache.enabled 影响；
+ *     结果缓存开启时集合失效（change stream或水位线）随之作废，关闭时不监听变更，只按TTL过期</li>
+ *     <li>{@link Strategy#HINTED} / {@link Strategy#SCANNED}：countDocuments(filter)，
+ *     过滤字段恰好是某个普通索引的键前缀时以该索引为hint（可走COUNT_SCAN），否则由查询优化器选择</li>
+ * </ul>
+ * 精确计数的maxTimeMS取请求剩余时间与 mongo.count.max-time 的较小值。
+ */
+@Component
+public class CountEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(CountEngine.class);
+
+    public enum Strategy {
+        ESTIMATED, CACHED, HINTED, SCANNED;
+
+        /**
+         * 结果及指标标签中使用的名称，如 estimated
+         */
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final IndexCatalog indexCatalog;
+    private final QueryResultCache queryResultCache;
+    private final long ttlNanos;
+    private final long maxTimeMillis;
+    private final LongSupplier nanoTime;
+    private final Map<String, CachedCount> cache;
+    private final Map<Strategy, Counter> counters = new EnumMap<>(Strategy.class);
+
+    @Autowired
+    public CountEngine(IndexCatalog indexCatalog, QueryResultCache queryResultCache,
+                       @Value("${mongo.count.cache-ttl:10s}") Duration cacheTtl,
+                       @Value("${mongo.count.cache-size:1000}") int cacheSize,
+                       @Value("${mongo.count.max-time:30s}") Duration maxTime,
+                       MeterRegistry meterRegistry) {
+        this(indexCatalog, queryResultCache, cacheTtl, cacheSize, maxTime, meterRegistry, System::nanoTime);
+    }
+
+    CountEngine(IndexCatalog indexCatalog, QueryResultCache queryResultCache, Duration cacheTtl, int cacheSize,
+                Duration maxTime, MeterRegistry meterRegistry, LongSupplier nanoTime) {
+        this.indexCatalog = indexCatalog;
+        this.queryResultCache = queryResultCache;
+        this.ttlNanos = cacheTtl.toNanos();
+        this.maxTimeMillis = maxTime.toMillis();
+        this.nanoTime = nanoTime;
+        this.cache = new LinkedHashMap<String, CachedCount>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCount> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        for (Strategy strategy : Strategy.values()) {
+            counters.put(strategy, Counter.builder("mongo.count").tag("strategy", strategy.getName())
+                    .description("按执行方式统计的count查询数").register(meterRegistry));
+        }
+        logger.info("count查询：精确计数缓存TTL {}，容量 {}，maxTime {}", cacheTtl, cacheSize, maxTime);
+    }
+
+    /**
+     * 执行count查询
+     */
+    public Result count(QueryPlan plan, MongoCollection<Document> collection, QueryDeadline deadline) {
+        if (plan.isEstimatedCount()) {
+            long count = collection.estimatedDocumentCount(new EstimatedDocumentCountOptions()
+                    .maxTime(maxTime(deadline), TimeUnit.MILLISECONDS));
+            return record(plan, count, Strategy.ESTIMATED);
+        }
+
+        long generation = queryResultCache.generation(plan.getCollection());
+        Long cached = cached(plan.getKey(), generation);
+        if (cached != null) {
+            return record(plan, cached, Strategy.CACHED);
+        }
+
+        CountOptions options = new CountOptions().maxTime(maxTime(deadline), TimeUnit.MILLISECONDS);
+        BsonDocument hint = hint(plan.getFilter(), indexCatalog.hintKeys(plan.getCollection()));
+        if (hint != null) {
+            options.hint(hint);
+        }
+        long count = collection.countDocuments(plan.getFilter(), options);
+        if (ttlNanos > 0) {
+            synchronized (cache) {
+                cache.put(plan.getKey(), new CachedCount(count, generation, nanoTime.getAsLong() + ttlNanos));
+            }
+        }
+        return record(plan, count, hint != null ? Strategy.HINTED : Strategy.SCANNED);
+    }
+
+    private Result record(QueryPlan plan, long count, Strategy strategy) {
+        counters.get(strategy).increment();
+        logger.info("count查询完成（{}），集合: {}，结果: {}", strategy.getName(), plan.getCollection(), count);
+        return new Result(count, strategy);
+    }
+
+    private Long cached(String key, long generation) {
+        synchronized (cache) {
+            CachedCount entry = cache.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.generation != generation || nanoTime.getAsLong() - entry.expiresAt >= 0) {
+                cache.remove(key);
+                return null;
+            }
+            return entry.count;
+        }
+    }
+
+    /**
+     * 请求剩余时间与配置上限中的较小值，0表示不限制
+     */
+    private long maxTime(QueryDeadline deadline) {
+        long remaining = deadline.maxTimeMillis();
+        if (remaining == 0 || maxTimeMillis == 0) {
+            return Math.max(remaining, maxTimeMillis);
+        }
+        return Math.min(remaining, maxTimeMillis);
+    }
+
+    /**
+     * 顶层条件字段恰好构成某个索引的键前缀时返回该索引（有多个时取键最少的），否则返回null。
+     * 含 $or 等顶层操作符的条件不指定hint，由查询优化器选择
+     * @param indexKeys 可作为hint的索引键，见 {@link IndexCatalog#hintKeys}
+     */
+    static BsonDocument hint(BsonDocument filter, List<Document> indexKeys) {
+        if (filter.isEmpty()) {
+            return null;
+        }
+        Set<String> fields = new HashSet<>();
+        for (String field : filter.keySet()) {
+            if (field.startsWith("$")) {
+                return null;
+            }
+            fields.add(field);
+        }
+        Document best = null;
+        for (Document key : indexKeys) {
+            if (key.size() >= fields.size() && (best == null || key.size() < best.size())
+                    && new HashSet<>(new ArrayList<>(key.keySet()).subList(0, fields.size())).equals(fields)) {
+                best = key;
+            }
+        }
+        return best != null ? best.toBsonDocument() : null;
+    }
+
+    /**
+     * count结果及所用的执行方式
+     */
+    public static final class Result {
+        private final long count;
+        private final Strategy strategy;
+
+        Result(long count, Strategy strategy) {
+            this.count = count;
+            this.strategy = strategy;
+        }
+
+        public long getCount() { return count; }
+        public Strategy getStrategy() { return strategy; }
+    }
+
+    private static final class CachedCount {
+        private final long count;
+        private final long generation;
+        private final long expiresAt;
+
+        private CachedCount(long count, long generation, long expiresAt) {
+            this.count = count;
+            this.generation = generation;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.tianpan.mongodbai.service;
+
+import com.tianpan.mongodbai.config.IndexProperties;
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 索引建议：记录实际执行的查询中的过滤、排序字段，为现有索引覆盖不了的字段组合推荐复合索引。
+ * <p>
+ * 推荐的键按“等值 - 排序 - 范围”排列：等值字段（含 $in）在前，之后是排序字段及其方向，范围条件字段最后，
+ * 这样等值定位后按索引顺序读出，无需内存排序，范围条件也能缩小扫描区间。$or 的分支、$ne、$exists 等无法定界的条件不参与推荐。
+ * <p>
+ * 建议按估算可减少的扫描文档数排序：执行次数 ×（当前每次扫描文档数 − 平均返回文档数）。
+ * 当前扫描文档数优先取慢查询explain的实际值；没有explain且没有任何索引可用时按集合文档数（全表扫描）估算；
+ * 已有部分可用的索引又没有explain时无法估算，排在有估算值的建议之后。
+ */
+@Component
+public class IndexAdvisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexAdvisor.class);
+
+    private static final Set<String> RANGE_OPERATORS = new HashSet<>(Arrays.asList("$gt", "$gte", "$lt", "$lte"));
+
+    private final boolean enabled;
+    private final int capacity;
+    private final int minExecutions;
+    private final int maxRecommendations;
+    private final Function<String, List<Document>> indexKeys;
+    private final Function<String, Long> collectionSize;
+    private final BiFunction<String, String, Long> observedDocsExamined;
+
+    /**
+     * 按最近出现时间排序，最久未出现的在前
+     */
+    private final LinkedHashMap<String, Shape> shapes = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Autowired
+    public IndexAdvisor(IndexProperties properties, IndexCatalog indexCatalog, SlowQueryLog slowQueryLog,
+                        CollectionRegistry collectionRegistry) {
+        this(properties.getAdvisor(), indexCatalog::indexKeys,
+                name -> collectionRegistry.get(name).documents().estimatedDocumentCount(), slowQueryLog::docsExamined);
+    }
+
+    IndexAdvisor(IndexProperties.Advisor properties, Function<String, List<Document>> indexKeys,
+                 Function<String, Long> collectionSize, BiFunction<String, String, Long> observedDocsExamined) {
+        if (properties.getCapacity() <= 0) {
+            throw new IllegalArgumentException("索引建议记录容量必须大于0: " + properties.getCapacity());
+        }
+        this.enabled = properties.isEnabled();
+        this.capacity = properties.getCapacity();
+        this.minExecutions = properties.getMinExecutions();
+        this.maxRecommendations = properties.getMaxRecommendations();
+        this.indexKeys = indexKeys;
+        this.collectionSize = collectionSize;
+        this.observedDocsExamined = observedDocsExamined;
+    }
+
+    /**
+     * 记录一次执行的查询
+     * @param returned 返回的文档数
+     */
+    public void observe(QueryPlan plan, long returned) {
+        if (!enabled) {
+            return;
+        }
+        Candidate candidate = Candidate.of(plan);
+        if (candidate == null) {
+            return;
+        }
+        String key = plan.getCollection() + ":" + candidate.keys.toJson();
+        synchronized (shapes) {
+            Shape shape = shapes.get(key);
+            if (shape == null) {
+                shape = new Shape(plan.getCollection(), candidate);
+                shapes.put(key, shape);
+                Iterator<Shape> iterator = shapes.values().iterator();
+                while (shapes.size() > capacity && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+            shape.record(plan, returned);
+        }
+    }
+
+    /**
+     * 索引建议，估算减少的扫描文档数多的在前
+     */
+    public Map<String, Object> getStats() {
+        List<Shape> snapshot = new ArrayList<>();
+        int observed;
+        synchronized (shapes) {
+            observed = shapes.size();
+            for (Shape shape : shapes.values()) {
+                if (shape.executions >= minExecutions) {
+                    snapshot.add(shape.copy());
+                }
+            }
+        }
+        Map<String, Long> sizes = new HashMap<>();
+        List<Recommendation> recommendations = new ArrayList<>();
+        for (Shape shape : snapshot) {
+            List<Document> existing = indexKeys.apply(shape.collection);
+            if (shape.candidate.coveredBy(existing)) {
+                continue;
+            }
+            Long docsExamined = observedDocsExamined.apply(shape.collection, shape.planShape);
+            String source = "explain";
+            if (docsExamined == null && !shape.candidate.usesAny(existing)) {
+                docsExamined = sizes.computeIfAbsent(shape.collection, this::size);
+                source = "collectionSize";
+            }
+            recommendations.add(new Recommendation(shape, docsExamined, docsExamined != null ? source : null));
+        }
+        recommendations.sort(Comparator.comparing((Recommendation r) -> r.saved, Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(r -> r.shape.executions, Comparator.reverseOrder()));
+
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Recommendation recommendation : recommendations.subList(0, Math.min(maxRecommendations, recommendations.size()))) {
+            list.add(recommendation.toMap());
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("observedShapes", observed);
+        stats.put("minExecutions", minExecutions);
+        stats.put("recommendations", list);
+        return stats;
+    }
+
+    private Long size(String collection) {
+        try {
+            return collectionSize.apply(collection);
+        } catch (RuntimeException e) {
+            logger.warn("读取集合 {} 的文档数失败: {}", collection, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 按“等值 - 排序 - 范围”排列的推荐索引键
+     */
+    static final class Candidate {
+        private final Document keys;
+        private final int equalityCount;
+        private final int sortCount;
+
+        private Candidate(Document keys, int equalityCount, int sortCount) {
+            this.keys = keys;
+            this.equalityCount = equalityCount;
+            this.sortCount = sortCount;
+        }
+
+        /**
+         * 从执行计划取出过滤和排序字段；没有可用字段或按 _id 等值查找时为null
+         */
+        static Candidate of(QueryPlan plan) {
+            BsonDocument filter;
+            BsonDocument sort = null;
+            if (plan.getOperation() == QueryPlan.Operation.AGGREGATE) {
+                List<RawBsonDocument> pipeline = plan.getPipeline();
+                if (pipeline.isEmpty() || !pipeline.get(0).getFirstKey().equals("$match")
+                        || !pipeline.get(0).get("$match").isDocument()) {
+                    return null;
+                }
+                filter = pipeline.get(0).getDocument("$match");
+                if (pipeline.size() > 1 && pipeline.get(1).getFirstKey().equals("$sort")
+                        && pipeline.get(1).get("$sort").isDocument()) {
+                    sort = pipeline.get(1).getDocument("$sort");
+                }
+            } else {
+                filter = plan.getFilter();
+                if (plan.getOperation() == QueryPlan.Operation.FIND) {
+                    sort = plan.getSort();
+                }
+            }
+            Set<String> equality = new TreeSet<>();
+            Set<String> range = new TreeSet<>();
+            collect(filter, equality, range);
+            if (equality.contains("_id")) {
+                // _id 唯一且已有索引
+                return null;
+            }
+            Document keys = new Document();
+            for (String field : equality) {
+                keys.append(field, 1);
+            }
+            if (sort != null) {
+                for (Map.Entry<String, BsonValue> entry : sort.entrySet()) {
+                    if (!entry.getValue().isNumber()) {
+                        // {$meta: "textScore"} 等不能用索引排序
+                        break;
+                    }
+                    if (!equality.contains(entry.getKey())) {
+                        keys.append(entry.getKey(), entry.getValue().asNumber().intValue() < 0 ? -1 : 1);
+                    }
+                }
+            }
+            int sortCount = keys.size() - equality.size();
+            for (String field : range) {
+                if (!keys.containsKey(field)) {
+                    keys.append(field, 1);
+                }
+            }
+            return keys.isEmpty() ? null : new Candidate(keys, equality.size(), sortCount);
+        }
+
+        private static void collect(BsonDocument filter, Set<String> equality, Set<String> range) {
+            for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+                String field = entry.getKey();
+                BsonValue condition = entry.getValue();
+                if (field.equals("$and") && condition.isArray()) {
+                    for (BsonValue branch : condition.asArray()) {
+                        if (branch.isDocument()) {
+                            collect(branch.asDocument(), equality, range);
+                        }
+                    }
+                } else if (field.startsWith("$")) {
+                    // $or、$nor、$expr 等需要各分支单独的索引，不在这里推荐
+                } else if (condition.isRegularExpression()) {
+                    if (condition.asRegularExpression().getPattern().startsWith("^")) {
+                        range.add(field);
+                    }
+                } else if (!condition.isDocument() || condition.asDocument().isEmpty()
+                        || !condition.asDocument().getFirstKey().startsWith("$")) {
+                    equality.add(field);
+                } else {
+                    Set<String> operators = condition.asDocument().keySet();
+                    if (operators.contains("$eq") || operators.contains("$in")) {
+                        equality.add(field);
+                    } else if (operators.stream().anyMatch(RANGE_OPERATORS::contains)
+                            || prefixRegex(condition.asDocument())) {
+                        range.add(field);
+                    }
+                }
+            }
+            range.removeAll(equality);
+        }
+
+        private static boolean prefixRegex(BsonDocument condition) {
+            BsonValue pattern = condition.get("$regex");
+            return pattern != null && (pattern.isRegularExpression() ? pattern.asRegularExpression().getPattern().startsWith("^")
+                    : pattern.isString() && pattern.asString().getValue().startsWith("^"));
+        }
+
+        /**
+         * 是否已有索引以推荐键为前缀：前面的等值字段顺序可以不同，排序字段方向须全部相同或全部相反
+         */
+        boolean coveredBy(List<Document> existing) {
+            List<String> fields = new ArrayList<>(keys.keySet());
+            for (Document index : existing) {
+                List<String> indexFields = new ArrayList<>(index.keySet());
+                if (indexFields.size() < fields.size()
+                        || !new HashSet<>(indexFields.subList(0, equalityCount)).equals(new HashSet<>(fields.subList(0, equalityCount)))
+                        || !indexFields.subList(equalityCount, fields.size()).equals(fields.subList(equalityCount, fields.size()))) {
+                    continue;
+                }
+                Integer orientation = null;
+                boolean matches = true;
+                for (int i = equalityCount; i < equalityCount + sortCount && matches; i++) {
+                    Object direction = index.get(fields.get(i));
+                    if (!(direction instanceof Number)) {
+                        matches = false;
+                        continue;
+                    }
+                    int same = Integer.signum(((Number) direction).intValue()) == keys.getInteger(fields.get(i)) ? 1 : -1;
+                    matches = orientation == null || orientation == same;
+                    orientation = same;
+                }
+                if (matches) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 是否有索引的前导字段出现在推荐键中，即查询已能部分利用现有索引
+         */
+        boolean usesAny(List<Document> existing) {
+            for (Document index : existing) {
+                if (!index.isEmpty() && keys.containsKey(index.keySet().iterator().next())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 一组过滤/排序字段的执行记录，由 shapes 的锁保护
+     */
+    private static final class Shape {
+        private final String collection;
+        private final Candidate candidate;
+        private String planShape;
+        private String query;
+        private long executions;
+        private long returned;
+
+        private Shape(String collection, Candidate candidate) {
+            this.collection = collection;
+            this.candidate = candidate;
+        }
+
+        private void record(QueryPlan plan, long returned) {
+            this.planShape = plan.getShape();
+            this.query = plan.getKey();
+            this.executions++;
+            this.returned += returned;
+        }
+
+        private Shape copy() {
+            Shape copy = new Shape(collection, candidate);
+            copy.planShape = planShape;
+            copy.query = query;
+            copy.executions = executions;
+            copy.returned = returned;
+            return copy;
+        }
+    }
+
+    private static final class Recommendation {
+        private final Shape shape;
+        private final Long docsExamined;
+        private final String source;
+        private final Long saved;
+
+        private Recommendation(Shape shape, Long docsExamined, String source) {
+            this.shape = shape;
+            this.docsExamined = docsExamined;
+            this.source = source;
+            double avgReturned = (double) shape.returned / shape.executions;
+            this.saved = docsExamined == null ? null : (long) (shape.executions * Math.max(0, docsExamined - avgReturned));
+        }
+
+        private Map<String, Object> toMap() {
+            String keys = shape.candidate.keys.toJson();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("collection", shape.collection);
+            map.put("index", keys);
+            map.put("command", "db." + shape.collection + ".createIndex(" + keys + ")");
+            map.put("executions", shape.executions);
+            map.put("avgReturned", (double) shape.returned / shape.executions);
+            map.put("docsExaminedPerExecution", docsExamined);
+            map.put("estimateSource", source);
+            map.put("estimatedDocsExaminedSaved", saved);
+            map.put("query", shape.query);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.MongoServerException;
+import com.mongodb.MongoSocketReadTimeoutException;
+import com.tianpan.mongodbai.config.IndexProperties;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 启动时创建声明的索引（mongo.indexes.collections），服务依赖的按 alert_id、itsc_id 查找及当天告警系统统计
+ * 在新环境中不会退化为全表扫描。
+ * <p>
+ * 应用就绪后在后台线程执行，不阻塞启动：已有相同键（字段、顺序、方向）的索引时跳过，否则 createIndex。
+ * createIndex 等待构建完成才返回，因此走分析连接池（read-timeout 较长），不受交互连接池15秒读超时限制；
+ * 其他实例正在构建同一索引（IndexBuildAlreadyInProgress），或等待超过读超时（服务端继续构建）时记为 building。
+ * 创建失败只记录状态和日志，不影响服务，下次启动时重试。
+ */
+@Component
+public class IndexBootstrap {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexBootstrap.class);
+
+    /**
+     * 服务端错误码 IndexBuildAlreadyInProgress
+     */
+    private static final int INDEX_BUILD_ALREADY_IN_PROGRESS = 276;
+
+    private final boolean enabled;
+    private final IndexCatalog indexCatalog;
+    private final BiConsumer<String, Document> createIndex;
+
+    /**
+     * 声明的索引及其创建状态，按声明顺序
+     */
+    private final List<Declared> declared = new ArrayList<>();
+
+    @Autowired
+    public IndexBootstrap(IndexProperties properties, CollectionRegistry collectionRegistry, IndexCatalog indexCatalog) {
+        this(properties, indexCatalog, (collection, keys) -> collectionRegistry.get(collection).documents(Workload.ANALYTICS).createIndex(keys));
+    }
+
+    IndexBootstrap(IndexProperties properties, IndexCatalog indexCatalog, BiConsumer<String, Document> createIndex) {
+        this.enabled = properties.isBootstrap();
+        this.indexCatalog = indexCatalog;
+        this.createIndex = createIndex;
+        for (Map.Entry<String, List<String>> collection : properties.getCollections().entrySet()) {
+            for (String json : collection.getValue()) {
+                declared.add(new Declared(collection.getKey(), parseKeys(collection.getKey(), json)));
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException JSON无效或为空
+     */
+    private static Document parseKeys(String collection, String json) {
+        Document keys;
+        try {
+            keys = Document.parse(json);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("集合 " + collection + " 的索引声明不是有效的JSON: " + json, e);
+        }
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("集合 " + collection + " 的索引声明为空");
+        }
+        return keys;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || declared.isEmpty()) {
+            logger.info("索引初始化未启用或未声明索引");
+            return;
+        }
+        Thread thread = new Thread(this::run, "index-bootstrap");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 依次确保声明的索引存在
+     */
+    void run() {
+        for (Declared index : declared) {
+            try {
+                if (exists(index)) {
+                    index.update("exists", null);
+                    continue;
+                }
+                logger.info("创建集合 {} 的索引 {}", index.collection, index.keys.toJson());
+                long start = System.nanoTime();
+                createIndex.accept(index.collection, index.keys);
+                indexCatalog.refresh(index.collection);
+                index.update("created", null);
+                logger.info("集合 {} 的索引 {} 创建完成，耗时 {}ms", index.collection, index.keys.toJson(),
+                        (System.nanoTime() - start) / 1_000_000);
+            } catch (RuntimeException e) {
+                if (building(e)) {
+                    index.update("building", e.getMessage());
+                    logger.info("集合 {} 的索引 {} 仍在构建中: {}", index.collection, index.keys.toJson(), e.getMessage());
+                    continue;
+                }
+                index.update("failed", e.getMessage());
+                logger.warn("创建集合 {} 的索引 {} 失败: {}", index.collection, index.keys.toJson(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 索引仍在服务端构建：其他实例已在构建，或等待构建完成时读超时
+     */
+    static boolean building(RuntimeException e) {
+        if (e instanceof MongoSocketReadTimeoutException) {
+            return true;
+        }
+        return e instanceof MongoServerException && (((MongoServerException) e).getCode() == INDEX_BUILD_ALREADY_IN_PROGRESS
+                || "IndexBuildAlreadyInProgress".equals(((MongoServerException) e).getErrorCodeName()));
+    }
+
+    private boolean exists(Declared index) {
+        for (Document existing : indexCatalog.indexKeys(index.collection)) {
+            if (IndexCatalog.sameKey(existing, index.keys)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 各声明索引的状态：pending、exists、created、building 或 failed
+     */
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Declared index : declared) {
+            stats.add(index.toMap());
+        }
+        return stats;
+    }
+
+    private static final class Declared {
+        private final String collection;
+        private final Document keys;
+        private volatile String status = "pending";
+        private volatile String error;
+        private volatile Instant updatedAt;
+
+        private Declared(String collection, Document keys) {
+            this.collection = collection;
+            this.keys = keys;
+        }
+
+        private void update(String status, String error) {
+            this.error = error;
+            this.updatedAt = Instant.now();
+            this.status = status;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("collection", collection);
+            map.put("keys", keys.toJson());
+            map.put("status", status);
+            map.put("error", error);
+            map.put("updatedAt", updatedAt != null ? updatedAt.toString() : null);
+            return map;
+        }
+    }
+}
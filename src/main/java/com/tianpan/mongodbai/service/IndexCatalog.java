@@ -0,0 +1,191 @@
+package com.tianpan.mongodbai.service;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 各集合的索引键。查询条件或排序以索引前导字段开头时才能用索引定界，准入控制据此估算查询开销；
+ * count从普通索引中选择hint，键集分页按唯一索引判断排序是否已经唯一。
+ * <p>
+ * 首次访问时读取 listIndexes，之后每隔刷新间隔重新读取；读取失败时沿用上次结果（首次失败为空集），
+ * 同样等到下个间隔再重试，MongoDB不可用时不会在每个请求上重复访问。
+ */
+@Component
+public class IndexCatalog {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexCatalog.class);
+
+    private static final Document ID_KEY = new Document("_id", 1);
+
+    private final Function<String, Iterable<Document>> listIndexes;
+    private final long refreshIntervalNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @Autowired
+    public IndexCatalog(CollectionRegistry collectionRegistry,
+                        @Value("${mongo.admission.index-refresh-interval:10m}") Duration refreshInterval) {
+        this(name -> collectionRegistry.get(name).documents().listIndexes(), refreshInterval);
+    }
+
+    IndexCatalog(Function<String, Iterable<Document>> listIndexes, Duration refreshInterval) {
+        this.listIndexes = listIndexes;
+        this.refreshIntervalNanos = refreshInterval.toNanos();
+    }
+
+    /**
+     * 集合中各索引的键，如 {alarm_type: 1, end_time: -1}；不含文本索引，读取失败且从未成功时为空
+     */
+    public List<Document> indexKeys(String collection) {
+        return entry(collection).keys;
+    }
+
+    /**
+     * 集合中唯一索引的键，至少包含 {_id: 1}。稀疏和部分唯一索引不保证每个文档的取值互不相同，不计入
+     */
+    public List<Document> uniqueKeys(String collection) {
+        return entry(collection).uniqueKeys;
+    }
+
+    /**
+     * 可作为count hint的索引键：键值均为数字方向的普通B树索引，且包含每个文档。
+     * 稀疏、部分索引会漏掉不含该字段或不满足过滤条件的文档，强制使用时计数偏小；
+     * 哈希、地理、通配符（$**）及隐藏索引不能按条件定界或不能hint，均不计入
+     */
+    public List<Document> hintKeys(String collection) {
+        return entry(collection).hintKeys;
+    }
+
+    /**
+     * 丢弃集合的索引信息，下次访问时重新读取，如创建索引之后
+     */
+    public void refresh(String collection) {
+        entries.remove(collection);
+    }
+
+    /**
+     * 两个索引键的字段、顺序和方向是否相同；1与1.0视为相同
+     */
+    static boolean sameKey(Document a, Document b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        Iterator<Map.Entry<String, Object>> left = a.entrySet().iterator();
+        Iterator<Map.Entry<String, Object>> right = b.entrySet().iterator();
+        while (left.hasNext()) {
+            Map.Entry<String, Object> x = left.next();
+            Map.Entry<String, Object> y = right.next();
+            if (!x.getKey().equals(y.getKey()) || !sameDirection(x.getValue(), y.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameDirection(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        }
+        return a != null && a.equals(b);
+    }
+
+    private Entry entry(String collection) {
+        long now = System.nanoTime();
+        Entry entry = entries.get(collection);
+        if (entry != null && now - entry.loadedAt < refreshIntervalNanos) {
+            return entry;
+        }
+        synchronized (this) {
+            entry = entries.get(collection);
+            if (entry != null && now - entry.loadedAt < refreshIntervalNanos) {
+                return entry;
+            }
+            List<Document> indexes = load(collection, entry != null ? entry.indexes : Collections.emptyList());
+            entry = new Entry(indexes, now);
+            entries.put(collection, entry);
+            return entry;
+        }
+    }
+
+    private List<Document> load(String collection, List<Document> previous) {
+        try {
+            List<Document> indexes = new ArrayList<>();
+            for (Document index : listIndexes.apply(collection)) {
+                Document key = index.get("key", Document.class);
+                // 文本索引的键为 _fts，不能用于普通条件
+                if (key != null && !key.isEmpty() && !key.containsKey("_fts")) {
+                    indexes.add(index);
+                }
+            }
+            logger.info("集合 {} 的索引: {}", collection, indexes);
+            return Collections.unmodifiableList(indexes);
+        } catch (RuntimeException e) {
+            logger.warn("读取集合 {} 的索引失败，沿用上次结果 {}: {}", collection, previous, e.getMessage());
+            return previous;
+        }
+    }
+
+    /**
+     * 索引是否包含集合中的每个文档：非稀疏、非部分索引
+     */
+    private static boolean complete(Document index) {
+        return !index.getBoolean("sparse", false) && !index.containsKey("partialFilterExpression");
+    }
+
+    /**
+     * 普通B树索引：各字段的值均为数字方向，不是通配符索引，也未隐藏
+     */
+    private static boolean plain(Document index, Document key) {
+        if (index.getBoolean("hidden", false)) {
+            return false;
+        }
+        for (Map.Entry<String, Object> field : key.entrySet()) {
+            if (!(field.getValue() instanceof Number) || field.getKey().contains("$**")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        private final List<Document> indexes;
+        private final List<Document> keys;
+        private final List<Document> uniqueKeys;
+        private final List<Document> hintKeys;
+        private final long loadedAt;
+
+        private Entry(List<Document> indexes, long loadedAt) {
+            this.indexes = indexes;
+            List<Document> keys = new ArrayList<>();
+            List<Document> uniqueKeys = new ArrayList<>();
+            List<Document> hintKeys = new ArrayList<>();
+            uniqueKeys.add(ID_KEY);
+            for (Document index : indexes) {
+                Document key = index.get("key", Document.class);
+                keys.add(key);
+                if (index.getBoolean("unique", false) && complete(index)) {
+                    uniqueKeys.add(key);
+                }
+                if (complete(index) && plain(index, key)) {
+                    hintKeys.add(key);
+                }
+            }
+            this.keys = Collections.unmodifiableList(keys);
+            this.uniqueKeys = Collections.unmodifiableList(uniqueKeys);
+            this.hintKeys = Collections.unmodifiableList(hintKeys);
+            this.loadedAt = loadedAt;
+        }
+    }
+}
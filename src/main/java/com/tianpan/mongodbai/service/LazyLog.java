@@ -0,0 +1,111 @@
+package com.tianpan.mongodbai.service;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 查询链路的日志辅助：文档等大对象只在日志级别开启时才序列化，输出长度有上限；逐文档的跟踪日志按比例采样。
+ * <p>
+ * {@link #json}、{@link #abbreviate} 返回的包装对象在 SLF4J 格式化消息时才调用 toString，
+ * 级别关闭时不做序列化；热点路径上用 {@link #debugJson} 等方法先判断级别，连包装对象也不创建。
+ * 上限和采样比例由 mongo.logging.* 配置，见 {@link com.tianpan.mongodbai.config.LoggingConfig}。
+ */
+public final class LazyLog {
+
+    private static volatile int maxPayloadChars = 2048;
+    private static volatile double sampleRate = 0.01;
+
+    private LazyLog() {
+    }
+
+    public static void configure(int maxPayloadChars, double sampleRate) {
+        if (maxPayloadChars <= 0) {
+            throw new IllegalArgumentException("日志内容长度上限必须大于0: " + maxPayloadChars);
+        }
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("日志采样比例必须在0到1之间: " + sampleRate);
+        }
+        LazyLog.maxPayloadChars = maxPayloadChars;
+        LazyLog.sampleRate = sampleRate;
+    }
+
+    public static int getMaxPayloadChars() { return maxPayloadChars; }
+
+    public static double getSampleRate() { return sampleRate; }
+
+    /**
+     * 逐文档跟踪日志是否记录本条，按 mongo.logging.sample-rate 随机采样
+     */
+    public static boolean sampled() {
+        double rate = sampleRate;
+        return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    /**
+     * 延迟序列化为JSON的日志参数，超过上限的部分截断
+     */
+    public static Object json(Bson value) {
+        return new Lazy(value, true);
+    }
+
+    /**
+     * 延迟调用toString的日志参数，超过上限的部分截断
+     */
+    public static Object abbreviate(Object value) {
+        return new Lazy(value, false);
+    }
+
+    public static void debugJson(Logger logger, String format, Bson value) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(format, json(value));
+        }
+    }
+
+    /**
+     * 按采样比例记录单个文档，TRACE级别
+     */
+    public static void traceSampled(Logger logger, String format, Bson value) {
+        if (logger.isTraceEnabled() && sampled()) {
+            logger.trace(format, json(value));
+        }
+    }
+
+    static String truncate(String value, int limit) {
+        if (value.length() <= limit) {
+            return value;
+        }
+        return value.substring(0, limit) + "...(共" + value.length() + "字符)";
+    }
+
+    private static final class Lazy {
+        private final Object value;
+        private final boolean json;
+
+        Lazy(Object value, boolean json) {
+            this.value = value;
+            this.json = json;
+        }
+
+        @Override
+        public String toString() {
+            if (value == null) {
+                return "null";
+            }
+            String text;
+            if (!json) {
+                text = value.toString();
+            } else if (value instanceof Document) {
+                text = ((Document) value).toJson();
+            } else if (value instanceof RawBsonDocument) {
+                text = ((RawBsonDocument) value).toJson();
+            } else {
+                text = ((Bson) value).toBsonDocument().toJson();
+            }
+            return truncate(text, maxPayloadChars);
+        }
+    }
+}
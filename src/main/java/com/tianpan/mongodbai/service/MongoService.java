@@ -1,22 +1,55 @@
 package com.tianpan.mongodbai.service;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.mongodb.client.MongoClient;
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.tianpan.mongodbai.config.MongoClientPools;
+import com.tianpan.mongodbai.config.MongoPoolProperties;
+import com.tianpan.mongodbai.config.QueryCacheProperties;
+import com.tianpan.mongodbai.config.QueryProperties;
+import com.tianpan.mongodbai.service.cache.CacheInvalidationSource;
+import com.tianpan.mongodbai.service.cache.QueryResultCache;
+import com.tianpan.mongodbai.service.export.ExportFormat;
+import com.tianpan.mongodbai.service.export.RowWriter;
+import com.tianpan.mongodbai.service.query.Keyset;
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import com.tianpan.mongodbai.service.query.QueryPlanCache;
+import com.tianpan.mongodbai.service.shaping.ResultShape;
+import com.tianpan.mongodbai.service.shaping.ResultShaper;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.text.SimpleDateFormat;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class MongoService {
@@ -24,83 +57,670 @@ public class MongoService {
     private static final Logger logger = LoggerFactory.getLogger(MongoService.class);
 
     @Autowired
-    private MongoClient mongoClient;
+    private CollectionRegistry collectionRegistry;
+    
+    @Autowired
+    private QueryPlanCache queryPlanCache;
+    
+    @Autowired
+    private QueryResultCache queryResultCache;
+    
+    @Autowired
+    private CacheInvalidationSource cacheInvalidationSource;
+    
+    @Autowired
+    private TodayAlarmSystemsIndex todayAlarmSystemsIndex;
+    
+    @Autowired
+    private QueryProperties queryProperties;
+    
+    @Autowired
+    private MongoClientPools mongoClientPools;
+    
+    @Autowired
+    private QueryMetrics queryMetrics;
+    
+    @Autowired
+    private SlowQueryLog slowQueryLog;
+    
+    @Autowired
+    private CountEngine countEngine;
+    
+    @Autowired
+    private QueryCoalescer queryCoalescer;
+    
+    @Autowired
+    private IndexBootstrap indexBootstrap;
+    
+    @Autowired
+    private IndexAdvisor indexAdvisor;
+    
+    @Autowired
+    private ResultShaper resultShaper;
+    
+    @Autowired
+    private IndexCatalog indexCatalog;
+    
+    @Autowired
+    private MongoPoolProperties poolProperties;
+    
+    @Autowired
+    private QueryCacheProperties cacheProperties;
+    
+    @Value("${mongo.bulk.batch-size:1000}")
+    private int bulkBatchSize;
     
     private final ObjectMapper objectMapper = new ObjectMapper();
     
+    private static final BsonDocumentCodec BSON_DOCUMENT_CODEC = new BsonDocumentCodec();
+    
+    /**
+     * 服务端执行时间比socket读超时至少短这么多
+     */
+    private static final Duration SOCKET_TIMEOUT_MARGIN = Duration.ofSeconds(1);
+    
+    /**
+     * alarm_itsc关联查询只需要这两个字段
+     */
+    private static final Bson CASE_EXEC_ID_PROJECTION =
+            Projections.fields(Projections.include("itsc_id", "case_exec_id"), Projections.excludeId());
+    
+    @Value("${mongo.query.stream.batch-size:500}")
+    private int streamBatchSize;
+    
+    @Value("${mongo.slow-query.explain-max-time:30s}")
+    private Duration explainMaxTime;
+    
     /**
-     * 安全地从Document中获取字符串值
+     * 导出告警明细时输出的alarm_info字段
+     */
+    @Value("${mongo.export.alarm-info-fields:alert_id,system_name,alarm_type,end_time}")
+    private String[] exportAlarmInfoFields;
+    
+    /**
+     * 安全地从Document中获取字符串值。每个文档的每个字段都会调用，跟踪日志按比例采样
      */
     private String getStringValue(Document doc, String key, String defaultValue) {
-        logger.debug("获取Document字段值 - key: {}, defaultValue: {}", key, defaultValue);
-        
         Object value = doc.get(key);
+        String result;
         if (value == null) {
-            logger.debug("字段值为null，返回默认值: {}", defaultValue);
-            return defaultValue;
-        }
-        
-        logger.debug("字段值类型: {}, 值: {}", value.getClass().getSimpleName(), value);
-        
-        // 处理不同类型的值
-        if (value instanceof java.util.Date) {
+            result = defaultValue;
+        } else if (value instanceof java.util.Date) {
             // 如果是Date类型，格式化为字符串
-            java.util.Date date = (java.util.Date) value;
-            SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm");
-            String formattedDate = formatter.format(date);
-            logger.debug("Date类型格式化结果: {}", formattedDate);
-            return formattedDate;
+            result = TimeNormalizer.formatDate((java.util.Date) value);
         } else if (value instanceof String) {
-            // 如果是字符串类型，尝试格式化时间
+            // 如果是字符串类型，包含时间格式时尝试格式化
             String strValue = (String) value;
-            if (strValue.matches(".*\\d{4}[-/]\\d{1,2}[-/]\\d{1,2}.*\\d{1,2}:\\d{2}:\\d{2}.*")) {
-                // 如果字符串包含时间格式，尝试格式化
-                String formattedTime = formatTimeForExcel(strValue);
-                logger.debug("时间字符串格式化结果: {} -> {}", strValue, formattedTime);
-                return formattedTime;
-            }
-            logger.debug("字符串类型，直接返回: {}", strValue);
-            return strValue;
+            result = TimeNormalizer.looksLikeDateTime(strValue) ? formatTimeForExcel(strValue) : strValue;
         } else {
             // 其他类型转换为字符串
-            String stringValue = value.toString();
-            logger.debug("其他类型转换为字符串: {} -> {}", value.getClass().getSimpleName(), stringValue);
-            return stringValue;
+            result = value.toString();
         }
+        
+        if (logger.isTraceEnabled() && LazyLog.sampled()) {
+            logger.trace("获取Document字段值 - key: {}, 类型: {}, 值: {} -> {}", key,
+                value != null ? value.getClass().getSimpleName() : null, LazyLog.abbreviate(value), LazyLog.abbreviate(result));
+        }
+        return result;
     }
 
     public String executeQuery(String query) {
-        logger.info("开始执行MongoDB查询: {}", query);
+        return executeQuery(query, null);
+    }
+
+    /**
+     * 执行查询。传入续页令牌时按键集分页取下一页：本页之后还有数据时，
+     * 结果中的continuation为续页令牌，原样传回即可从本页最后一个文档之后继续，见 {@link Keyset}
+     * @param continuation 上一页返回的续页令牌，不分页为null
+     */
+    public String executeQuery(String query, String continuation) {
+        return executeQuery(query, continuation, QueryDeadline.none());
+    }
+
+    /**
+     * 在截止时间内执行查询：剩余时间作为maxTimeMS下发，取消后在读取下一个文档前结束并关闭游标
+     */
+    public String executeQuery(String query, String continuation, QueryDeadline deadline) {
+        return executeQuery(query, false, continuation, deadline, null);
+    }
+
+    /**
+     * 执行查询并按整形选项处理find/aggregate的结果行，见 {@link ResultShaper}；整形选项参与结果缓存和相同查询合并的键
+     * @param paginate 按键集分页返回首页；传入续页令牌时总是分页。不分页的find保持原排序和投影
+     * @param shape 整形选项，null 时原样返回全部结果
+     * @throws IllegalArgumentException 要求分页但查询不支持分页
+     */
+    public String executeQuery(String query, boolean paginate, String continuation, QueryDeadline deadline, ResultShape shape) {
+        logger.info("开始执行MongoDB查询: {}", LazyLog.abbreviate(query));
         
         try {
-            MongoDatabase database = mongoClient.getDatabase("detect");
-            logger.debug("连接到数据库: detect");
-            
-            MongoCollection<Document> collection = database.getCollection("alarm_info");
-            logger.debug("使用集合: alarm_info");
-            
-            // 解析查询语句
-            logger.debug("开始解析查询语句");
-            QueryParser parser = new QueryParser(query);
-            QueryResult result = parser.execute(collection);
+            // 解析查询语句（命中执行计划缓存时跳过解析）
+            long start = System.nanoTime();
+            QueryPlan plan = compile(query);
+            CollectionRegistry.Handle collection = resolve(plan);
+            long parsed = System.nanoTime();
+            queryMetrics.recordPhase(plan, QueryMetrics.PARSE, parsed - start);
             
-            logger.debug("查询执行完成，结果类型: {}", result.getType());
-            
-            // 将结果转换为JSON字符串
-            String jsonResult = objectMapper.writeValueAsString(result);
-            logger.info("查询执行成功，结果长度: {}", jsonResult.length());
-            
-            return jsonResult;
+            Keyset.Page page = paginate || continuation != null ? page(plan, collection) : null;
+            String cacheKey = resultKey(plan, paginate, continuation, shape);
+            if (cacheProperties.isEnabled()) {
+                String cached = queryResultCache.get(cacheKey);
+                if (cached != null) {
+                    logger.info("命中结果缓存，结果长度: {}", cached.length());
+                    return cached;
+                }
+            }
+            return run(plan, collection, page, continuation, shape, deadline, cacheKey, parsed);
             
-        } catch (JsonProcessingException e) {
-            logger.error("JSON序列化失败", e);
-            throw new RuntimeException("JSON序列化失败", e);
         } catch (Exception e) {
             logger.error("查询执行失败: {}", e.getMessage(), e);
             throw new RuntimeException("查询执行失败: " + e.getMessage(), e);
         }
     }
-    
+
+    /**
+     * 结果缓存和相同查询合并的键：键相同的查询结果完全相同
+     */
+    public String resultKey(QueryPlan plan, boolean paginate, String continuation, ResultShape shape) {
+        String key = paginate || continuation != null
+                ? plan.getKey() + "\n" + (continuation != null ? continuation : "page") : plan.getKey();
+        return shape != null ? key + "\n" + shape.key() : key;
+    }
+
+    /**
+     * 执行查询并序列化结果，写入结果缓存
+     * @param parsed 解析完成的时间点（System.nanoTime）
+     */
+    private String run(QueryPlan plan, CollectionRegistry.Handle collection, Keyset.Page page, String continuation,
+                       ResultShape shape, QueryDeadline deadline, String cacheKey, long parsed) {
+        long generation = queryResultCache.generation(plan.getCollection());
+        
+        QueryResult result = execute(plan, collection, page, continuation, deadline);
+        long executed = System.nanoTime();
+        queryMetrics.recordPhase(plan, QueryMetrics.EXECUTE, executed - parsed);
+        slowQueryLog.observe(plan, executed - parsed, () -> explain(plan, collection, page));
+        long returned = documentCount(result);
+        
+        logger.debug("查询执行完成，结果类型: {}", result.getType());
+        if (shape != null && result.getData() instanceof List) {
+            @SuppressWarnings("unchecked")
+            List<Document> rows = (List<Document>) result.getData();
+            result = result.shaped(resultShaper.shape(rows, shape, cacheKey.hashCode()));
+        }
+        
+        // 将结果转换为JSON字符串
+        String jsonResult;
+        try {
+            jsonResult = objectMapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            logger.error("JSON序列化失败", e);
+            throw new RuntimeException("JSON序列化失败", e);
+        }
+        queryMetrics.recordPhase(plan, QueryMetrics.SERIALIZE, System.nanoTime() - executed);
+        queryMetrics.recordResult(plan, returned, QueryMetrics.utf8Length(jsonResult));
+        indexAdvisor.observe(plan, returned);
+        logger.info("查询执行成功，结果长度: {}", jsonResult.length());
+        
+        if (cacheProperties.isEnabled()) {
+            queryResultCache.put(cacheKey, plan.getCollection(), jsonResult, generation);
+        }
+        return jsonResult;
+    }
+
+    /**
+     * 查询结果缓存的统计信息
+     */
+    public Map<String, Object> getQueryCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", cacheProperties.isEnabled());
+        stats.put("invalidation", cacheInvalidationSource.getName());
+        stats.putAll(queryResultCache.getStats());
+        stats.put("coalescing", queryCoalescer.getStats());
+        return stats;
+    }
+
+    /**
+     * 各负载类别连接池的配置及借出等待统计
+     */
+    public Map<String, Object> getPoolStats() {
+        return mongoClientPools.getStats();
+    }
+
+    /**
+     * 慢查询列表及其explain摘要
+     */
+    public Map<String, Object> getSlowQueries() {
+        return slowQueryLog.getStats();
+    }
+
+    /**
+     * 声明索引的创建状态，以及按实际查询形状给出的索引建议
+     */
+    public Map<String, Object> getIndexReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("bootstrap", indexBootstrap.getStats());
+        report.put("advisor", indexAdvisor.getStats());
+        return report;
+    }
+
+    /**
+     * 解析并校验查询语句，供执行前的准入评估使用；命中执行计划缓存时不再解析
+     * @throws IllegalArgumentException 语句无效或集合不在白名单中
+     */
+    public QueryPlan plan(String query) {
+        QueryPlan plan = compile(query);
+        resolve(plan);
+        return plan;
+    }
+
+    /**
+     * 分页查询使用的排序，供准入评估按实际排序估算开销
+     * @throws IllegalArgumentException 查询不支持分页
+     */
+    public RawBsonDocument pageSort(QueryPlan plan) {
+        return page(plan, resolve(plan)).getSort();
+    }
+
+    /**
+     * 获取查询语句的执行计划
+     */
+    private QueryPlan compile(String query) {
+        return queryPlanCache.get(query);
+    }
+
+    /**
+     * 按执行计划中的集合名路由到注册表中的集合
+     * @throws IllegalArgumentException 集合不在白名单中
+     */
+    private CollectionRegistry.Handle resolve(QueryPlan plan) {
+        try {
+            return collectionRegistry.resolve(plan.getCollection());
+        } catch (IllegalArgumentException e) {
+            logger.error("不支持的查询语句: {}", plan.getKey());
+            throw e;
+        }
+    }
+
+    /**
+     * aggregate在分析连接池上执行，count、find在交互连接池上执行
+     */
+    private static Workload workloadOf(QueryPlan plan) {
+        return plan.getOperation() == QueryPlan.Operation.AGGREGATE ? Workload.ANALYTICS : Workload.INTERACTIVE;
+    }
+
+    private QueryResult execute(QueryPlan plan, CollectionRegistry.Handle collection, Keyset.Page page, String continuation,
+                                QueryDeadline requestDeadline) {
+        logger.debug("开始执行查询: {}", LazyLog.abbreviate(plan));
+        Workload workload = workloadOf(plan);
+        QueryDeadline deadline = bounded(requestDeadline, workload);
+        
+        if (plan.getOperation() == QueryPlan.Operation.COUNT) {
+            return QueryResult.count(countEngine.count(plan, collection.documents(workload), deadline));
+        }
+        
+        List<Document> documents = new ArrayList<>();
+        String next = null;
+        if (page != null) {
+            int pageLimit = pageLimit(plan, collection);
+            MongoCollection<Document> documentCollection = collection.documents(workload);
+            collect(openPage(page, documentCollection, pageLimit, continuation)
+                    .maxTime(deadline.maxTimeMillis(), TimeUnit.MILLISECONDS), documents, deadline);
+            if (documents.size() > pageLimit) {
+                documents.remove(documents.size() - 1);
+                Document last = documents.get(documents.size() - 1);
+                next = page.token(last.toBsonDocument(BsonDocument.class, documentCollection.getCodecRegistry()));
+            }
+            if (page.hasInjectedFields()) {
+                documents.forEach(page::strip);
+            }
+        } else {
+            MongoIterable<Document> iterable = openDocuments(plan, collection.documents(workload), collection.getDefaultLimit(), 0);
+            collect(withDeadline(plan, iterable, deadline), documents, deadline);
+        }
+        
+        String type = resultType(plan);
+        logger.info("{}查询完成，返回文档数量: {}，是否有下一页: {}", type, documents.size(), next != null);
+        if (!documents.isEmpty()) {
+            LazyLog.debugJson(logger, "查询结果示例: {}", documents.get(0));
+        }
+        
+        return new QueryResult(type, documents, next);
+    }
+
+    /**
+     * 截止时间不晚于所在连接池的socket读超时（留出余量）：maxTimeMS先于读超时生效，由服务端终止操作并返回超时错误，
+     * 而不是驱动读超时后丢弃连接。读超时为0（不限制）时不变
+     */
+    private QueryDeadline bounded(QueryDeadline deadline, Workload workload) {
+        Duration readTimeout = poolProperties.get(workload).getReadTimeout();
+        if (readTimeout == null || readTimeout.isZero()) {
+            return deadline;
+        }
+        Duration limit = readTimeout.compareTo(SOCKET_TIMEOUT_MARGIN.multipliedBy(2)) > 0
+                ? readTimeout.minus(SOCKET_TIMEOUT_MARGIN) : readTimeout.dividedBy(2);
+        return deadline.within(limit);
+    }
+
+    /**
+     * 逐个读取文档，每个文档前检查截止时间和取消标记；提前结束时游标随之关闭
+     */
+    private static <T> void collect(MongoIterable<T> iterable, List<T> target, QueryDeadline deadline) {
+        try (MongoCursor<T> cursor = iterable.iterator()) {
+            while (cursor.hasNext()) {
+                deadline.check();
+                target.add(cursor.next());
+            }
+        }
+    }
+
+    /**
+     * 以截止时间的剩余时间作为maxTimeMS；aggregate取其与语句或配置中maxTimeMS的较小值
+     */
+    private <T> MongoIterable<T> withDeadline(QueryPlan plan, MongoIterable<T> iterable, QueryDeadline deadline) {
+        long remaining = deadline.maxTimeMillis();
+        if (remaining == 0) {
+            return iterable;
+        }
+        if (iterable instanceof AggregateIterable) {
+            long configured = aggregateMaxTimeMillis(plan);
+            return ((AggregateIterable<T>) iterable).maxTime(configured == 0 ? remaining : Math.min(remaining, configured),
+                    TimeUnit.MILLISECONDS);
+        }
+        return ((FindIterable<T>) iterable).maxTime(remaining, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 键集分页方式，排序字段已含唯一索引的全部字段时不追加 _id
+     * @throws IllegalArgumentException 查询不支持分页：非find、按$meta排序，或未指定limit且集合未配置默认条数
+     */
+    private Keyset.Page page(QueryPlan plan, CollectionRegistry.Handle collection) {
+        Integer limit = pageLimit(plan, collection);
+        Keyset.Page page = Keyset.page(plan, indexCatalog.uniqueKeys(plan.getCollection()));
+        if (page == null || limit == null || limit <= 0) {
+            throw new IllegalArgumentException("分页只适用于指定了limit且未按$meta排序的find查询");
+        }
+        return page;
+    }
+
+    /**
+     * 每页条数：find的limit，未指定时为集合配置的默认条数
+     */
+    private static Integer pageLimit(QueryPlan plan, CollectionRegistry.Handle collection) {
+        return plan.getLimit() != null ? plan.getLimit() : collection.getDefaultLimit();
+    }
+
+    /**
+     * 按分页排序和投影读取一页，多取一条用于判断是否还有下一页
+     */
+    private <T> FindIterable<T> openPage(Keyset.Page page, MongoCollection<T> collection, int pageLimit, String continuation) {
+        FindIterable<T> findIterable = collection.find(page.filter(continuation)).sort(page.getSort()).limit(pageLimit + 1);
+        if (page.getProjection() != null) {
+            findIterable = findIterable.projection(page.getProjection());
+        }
+        return findIterable;
+    }
+
+    /**
+     * count结果记为1个文档
+     */
+    private static long documentCount(QueryResult result) {
+        return result.getData() instanceof List ? ((List<?>) result.getData()).size() : 1;
+    }
+
+    /**
+     * 以 executionStats 级别重新执行查询，在分析连接池上进行，不占用交互查询的连接。
+     * countDocuments() 在服务端是 $match + $group 聚合，按同样的管道explain；读取元数据的count没有执行计划，同样按此explain
+     * @param page 分页查询按首页的排序和投影explain，不分页为null
+     */
+    private Document explain(QueryPlan plan, CollectionRegistry.Handle collection, Keyset.Page page) {
+        MongoCollection<Document> documents = collection.documents(Workload.ANALYTICS);
+        switch (plan.getOperation()) {
+            case COUNT:
+                return documents.aggregate(Arrays.asList(Aggregates.match(plan.getFilter()),
+                                Aggregates.group(1, Accumulators.sum("n", 1))))
+                        .maxTime(explainMaxTime.toMillis(), TimeUnit.MILLISECONDS)
+                        .explain(ExplainVerbosity.EXECUTION_STATS);
+            case AGGREGATE:
+                return openAggregate(plan, documents).explain(ExplainVerbosity.EXECUTION_STATS);
+            case FIND:
+            default:
+                FindIterable<Document> find = page != null ? openPage(page, documents, pageLimit(plan, collection), null)
+                        : openFind(plan, documents, collection.getDefaultLimit());
+                return find
+                        .maxTime(explainMaxTime.toMillis(), TimeUnit.MILLISECONDS)
+                        .explain(ExplainVerbosity.EXECUTION_STATS);
+        }
+    }
+
+    private static String resultType(QueryPlan plan) {
+        return plan.getOperation().name().toLowerCase();
+    }
+
+    /**
+     * 按执行计划构建尚未执行的find或aggregate游标
+     * @param defaultLimit find未指定limit时的条数上限，null表示不限制
+     * @param findBatchSize find每批返回的文档数，0表示使用服务端默认值；aggregate的批大小由选项决定
+     */
+    private <T> MongoIterable<T> openDocuments(QueryPlan plan, MongoCollection<T> collection, Integer defaultLimit,
+                                               int findBatchSize) {
+        if (plan.getOperation() == QueryPlan.Operation.AGGREGATE) {
+            return openAggregate(plan, collection);
+        }
+        return openFind(plan, collection, defaultLimit).batchSize(findBatchSize);
+    }
+
+    /**
+     * 按执行计划构建AggregateIterable，语句中未指定的选项使用 mongo.query.aggregate.* 的默认值
+     */
+    private <T> AggregateIterable<T> openAggregate(QueryPlan plan, MongoCollection<T> collection) {
+        QueryProperties.Aggregate defaults = queryProperties.getAggregate();
+        return collection.aggregate(plan.getPipeline())
+                .allowDiskUse(plan.getAllowDiskUse() != null ? plan.getAllowDiskUse() : defaults.isAllowDiskUse())
+                .maxTime(aggregateMaxTimeMillis(plan), TimeUnit.MILLISECONDS)
+                .batchSize(plan.getBatchSize() != null ? plan.getBatchSize() : defaults.getBatchSize());
+    }
+
+    private long aggregateMaxTimeMillis(QueryPlan plan) {
+        return plan.getMaxTimeMS() != null ? plan.getMaxTimeMS() : queryProperties.getAggregate().getMaxTime().toMillis();
+    }
+
+    /**
+     * 按执行计划构建尚未执行的FindIterable
+     */
+    private <T> FindIterable<T> openFind(QueryPlan plan, MongoCollection<T> collection, Integer defaultLimit) {
+        FindIterable<T> findIterable = collection.find(plan.getFilter());
+        if (plan.getProjection() != null) {
+            findIterable = findIterable.projection(plan.getProjection());
+        }
+        if (plan.getSort() != null) {
+            findIterable = findIterable.sort(plan.getSort());
+        }
+        Integer limit = plan.getLimit() != null ? plan.getLimit() : defaultLimit;
+        if (limit != null) {
+            findIterable = findIterable.limit(limit);
+        }
+        return findIterable;
+    }
+
+    /**
+     * 以流式方式执行查询，结果按NDJSON（每行一个JSON文档）逐条写出。
+     * 查询语句在返回前完成解析，语法错误会直接抛出；真正的游标读取发生在
+     * {@link QueryStream#writeTo} 中：每读取一个文档立即写入输出流，每满一批刷新一次。
+     * 输出流阻塞时游标不会继续getMore，内存占用只与批大小有关。
+     * @param query 查询语句
+     * @return 待写出的查询流
+     */
+    public QueryStream streamQuery(String query) {
+        logger.info("开始执行流式MongoDB查询: {}", LazyLog.abbreviate(query));
+
+        long parseStart = System.nanoTime();
+        QueryPlan plan = compile(query);
+        CollectionRegistry.Handle collection = resolve(plan);
+        queryMetrics.recordPhase(plan, QueryMetrics.PARSE, System.nanoTime() - parseStart);
+        // 流式查询用于导出，无论何种操作都走分析连接池
+        Workload workload = Workload.ANALYTICS;
+
+        if (plan.getOperation() == QueryPlan.Operation.COUNT) {
+            return measured(plan, collection, null, outputStream -> {
+                CountEngine.Result count = countEngine.count(plan, collection.documents(workload), QueryDeadline.none());
+                try (JsonGenerator generator = createGenerator(outputStream)) {
+                    generator.writeStartObject();
+                    generator.writeNumberField("count", count.getCount());
+                    generator.writeStringField("strategy", count.getStrategy().getName());
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                }
+                return 1;
+            });
+        }
+        MongoIterable<RawBsonDocument> documents = openDocuments(plan, collection.rawDocuments(workload), collection.getDefaultLimit(), streamBatchSize);
+        String type = resultType(plan);
+        return measured(plan, collection, null, outputStream -> {
+            long written = 0;
+            long start = System.currentTimeMillis();
+            try (JsonGenerator generator = createGenerator(outputStream);
+                 MongoCursor<RawBsonDocument> cursor = documents.iterator()) {
+                while (cursor.hasNext()) {
+                    RawBsonDocument document = cursor.next();
+                    LazyLog.traceSampled(logger, "写出文档: {}", document);
+                    BsonJsonTranscoder.write(document, generator);
+                    generator.writeRaw('\n');
+                    if (++written % streamBatchSize == 0) {
+                        generator.flush();
+                    }
+                }
+            }
+            logger.info("流式{}查询完成，写出文档数量: {}，耗时: {}ms", type, written, System.currentTimeMillis() - start);
+            return written;
+        });
+    }
+
+    /**
+     * 执行查询并将响应直接写为JSON：{"success":true,"message":"查询成功","result":{"type":...,"data":...}}。
+     * 与 {@link #executeQuery} 不同，result是内嵌的JSON结构而不是转义后的字符串；
+     * find结果以RawBsonDocument读取，BSON字节直接转码到输出流，不经过Document解码和Jackson二次序列化。
+     * @param query 查询语句
+     * @return 待写出的查询响应
+     */
+    public QueryStream transcodeQuery(String query) {
+        return transcodeQuery(query, false, null);
+    }
+
+    /**
+     * 同 {@link #transcodeQuery(String)}，find按键集分页时，有下一页则在data之后写出continuation
+     * @param paginate 按键集分页返回首页；传入续页令牌时总是分页
+     * @param continuation 上一页返回的续页令牌，不分页为null
+     * @throws IllegalArgumentException 语句无效，或要求分页但查询不支持分页
+     */
+    public QueryStream transcodeQuery(String query, boolean paginate, String continuation) {
+        logger.info("开始执行MongoDB查询（BSON直接转码）: {}", LazyLog.abbreviate(query));
+
+        long parseStart = System.nanoTime();
+        QueryPlan plan = compile(query);
+        CollectionRegistry.Handle collection = resolve(plan);
+        queryMetrics.recordPhase(plan, QueryMetrics.PARSE, System.nanoTime() - parseStart);
+        Workload workload = workloadOf(plan);
+
+        if (plan.getOperation() == QueryPlan.Operation.COUNT) {
+            return measured(plan, collection, null, outputStream -> {
+                CountEngine.Result count = countEngine.count(plan, collection.documents(workload),
+                        bounded(QueryDeadline.none(), workload));
+                try (JsonGenerator generator = createGenerator(outputStream)) {
+                    startResponse(generator, "count");
+                    generator.writeNumberField("data", count.getCount());
+                    generator.writeStringField("strategy", count.getStrategy().getName());
+                    endResponse(generator);
+                }
+                return 1;
+            });
+        }
+        Keyset.Page page = paginate || continuation != null ? page(plan, collection) : null;
+        Integer pageLimit = page != null ? pageLimit(plan, collection) : null;
+        MongoIterable<RawBsonDocument> opened = page != null
+                ? openPage(page, collection.rawDocuments(workload), pageLimit, continuation).batchSize(streamBatchSize)
+                : openDocuments(plan, collection.rawDocuments(workload), collection.getDefaultLimit(), streamBatchSize);
+        String type = resultType(plan);
+        return measured(plan, collection, page, outputStream -> {
+            MongoIterable<RawBsonDocument> documents = withDeadline(plan, opened, bounded(QueryDeadline.none(), workload));
+            long written = 0;
+            long start = System.currentTimeMillis();
+            try (JsonGenerator generator = createGenerator(outputStream);
+                 MongoCursor<RawBsonDocument> cursor = documents.iterator()) {
+                startResponse(generator, type);
+                generator.writeArrayFieldStart("data");
+                RawBsonDocument last = null;
+                while ((pageLimit == null || written < pageLimit) && cursor.hasNext()) {
+                    RawBsonDocument document = cursor.next();
+                    LazyLog.traceSampled(logger, "写出文档: {}", document);
+                    BsonJsonTranscoder.write(page != null && page.hasInjectedFields() ? stripped(page, document) : document, generator);
+                    last = document;
+                    if (++written % streamBatchSize == 0) {
+                        generator.flush();
+                    }
+                }
+                generator.writeEndArray();
+                if (page != null && last != null && cursor.hasNext()) {
+                    generator.writeStringField("continuation", page.token(last));
+                }
+                endResponse(generator);
+            }
+            logger.info("{}查询完成（BSON直接转码），返回文档数量: {}，耗时: {}ms", type, written, System.currentTimeMillis() - start);
+            return written;
+        });
+    }
+
+    /**
+     * 去掉分页投影多返回的字段；只在分页投影补过字段时解码重编码，其余文档直接转码
+     */
+    private static RawBsonDocument stripped(Keyset.Page page, RawBsonDocument document) {
+        BsonDocument decoded = document.decode(BSON_DOCUMENT_CODEC);
+        page.strip(decoded);
+        return new RawBsonDocument(decoded, BSON_DOCUMENT_CODEC);
+    }
+
+    /**
+     * 记录写出阶段（游标读取与写出交替进行，二者合计）的耗时、写出文档数和字节数；
+     * 写出耗时包含客户端读取的时间，超过慢查询阈值时同样记入慢查询
+     */
+    private QueryStream measured(QueryPlan plan, CollectionRegistry.Handle collection, Keyset.Page page, QueryStream stream) {
+        return outputStream -> {
+            long start = System.nanoTime();
+            CountingOutputStream counting = new CountingOutputStream(outputStream);
+            long written = stream.writeTo(counting);
+            long elapsed = System.nanoTime() - start;
+            queryMetrics.recordPhase(plan, QueryMetrics.WRITE, elapsed);
+            slowQueryLog.observe(plan, elapsed, () -> explain(plan, collection, page));
+            queryMetrics.recordResult(plan, written, counting.getCount());
+            indexAdvisor.observe(plan, written);
+            return written;
+        };
+    }
+
+    /**
+     * 创建直接写入响应流的JsonGenerator，关闭时不关闭底层输出流；
+     * 中途出错时也不自动补全括号，客户端能从不完整的JSON判断出响应被截断
+     */
+    private JsonGenerator createGenerator(OutputStream outputStream) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    private void startResponse(JsonGenerator generator, String type) throws IOException {
+        generator.writeStartObject();
+        generator.writeBooleanField("success", true);
+        generator.writeStringField("message", "查询成功");
+        generator.writeObjectFieldStart("result");
+        generator.writeStringField("type", type);
+    }
+
+    private void endResponse(JsonGenerator generator) throws IOException {
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
     /**
      * 根据itsc_id列表查询alarm_itsc表中的case_exec_id
      * @param itscIds itsc_id列表
@@ -108,25 +728,26 @@ public class MongoService {
      */
     public List<String> getCaseExecIdsByItscIds(List<String> itscIds) {
         logger.info("根据itsc_id列表查询case_exec_id，itscIds数量: {}", itscIds.size());
-        logger.debug("itscIds: {}", itscIds);
+        logger.debug("itscIds: {}", LazyLog.abbreviate(itscIds));
         
         try {
-            MongoDatabase database = mongoClient.getDatabase("detect");
-            MongoCollection<Document> collection = database.getCollection("alarm_itsc");
+            MongoCollection<Document> collection = collectionRegistry.get("alarm_itsc").documents();
             
             // 构建查询条件：itsc_id在给定的列表中
             Document filter = new Document("itsc_id", new Document("$in", itscIds));
-            logger.debug("查询条件: {}", filter.toJson());
+            LazyLog.debugJson(logger, "查询条件: {}", filter);
             
             // 执行查询
             List<String> caseExecIds = new ArrayList<>();
-            collection.find(filter).forEach(doc -> {
+            collection.find(filter).projection(CASE_EXEC_ID_PROJECTION).forEach(doc -> {
                 String caseExecId = doc.getString("case_exec_id");
                 if (caseExecId != null) {
                     caseExecIds.add(caseExecId);
-                    logger.debug("找到case_exec_id: {}", caseExecId);
+                    if (logger.isTraceEnabled() && LazyLog.sampled()) {
+                        logger.trace("找到case_exec_id: {}", caseExecId);
+                    }
                 } else {
-                    logger.warn("文档中case_exec_id字段为null: {}", doc.toJson());
+                    logger.warn("文档中case_exec_id字段为null: {}", LazyLog.json(doc));
                 }
             });
             
@@ -146,31 +767,32 @@ public class MongoService {
      */
     public Map<String, List<String>> getCaseExecIdsMappingByItscIds(List<String> itscIds) {
         logger.info("根据itsc_id列表查询case_exec_id关联关系，itscIds数量: {}", itscIds.size());
-        logger.debug("itscIds: {}", itscIds);
+        logger.debug("itscIds: {}", LazyLog.abbreviate(itscIds));
         
         try {
-            MongoDatabase database = mongoClient.getDatabase("detect");
-            MongoCollection<Document> collection = database.getCollection("alarm_itsc");
+            MongoCollection<Document> collection = collectionRegistry.get("alarm_itsc").documents();
             
             // 构建查询条件：itsc_id在给定的列表中
             Document filter = new Document("itsc_id", new Document("$in", itscIds));
-            logger.debug("查询条件: {}", filter.toJson());
+            LazyLog.debugJson(logger, "查询条件: {}", filter);
             
             // 执行查询并构建关联关系
             Map<String, List<String>> mapping = new HashMap<>();
-            collection.find(filter).forEach(doc -> {
+            collection.find(filter).projection(CASE_EXEC_ID_PROJECTION).forEach(doc -> {
                 String itscId = doc.getString("itsc_id");
                 String caseExecId = doc.getString("case_exec_id");
                 if (itscId != null && caseExecId != null) {
                     mapping.computeIfAbsent(itscId, k -> new ArrayList<>()).add(caseExecId);
-                    logger.debug("建立关联关系: {} -> {}", itscId, caseExecId);
+                    if (logger.isTraceEnabled() && LazyLog.sampled()) {
+                        logger.trace("建立关联关系: {} -> {}", itscId, caseExecId);
+                    }
                 } else {
                     logger.warn("文档中字段为null - itsc_id: {}, case_exec_id: {}", itscId, caseExecId);
                 }
             });
             
             logger.info("查询完成，关联关系数量: {}", mapping.size());
-            logger.debug("关联关系详情: {}", mapping);
+            logger.debug("关联关系详情: {}", LazyLog.abbreviate(mapping));
             return mapping;
             
         } catch (Exception e) {
@@ -188,12 +810,11 @@ public class MongoService {
         logger.info("根据case_exec_id查询alarm_info详细信息: {}", caseExecId);
         
         try {
-            MongoDatabase database = mongoClient.getDatabase("detect");
-            MongoCollection<Document> collection = database.getCollection("alarm_info");
+            MongoCollection<Document> collection = collectionRegistry.get("alarm_info").documents();
             
             // 用alert_id字段查
             Document filter = new Document("alert_id", caseExecId);
-            logger.debug("查询条件: {}", filter.toJson());
+            LazyLog.debugJson(logger, "查询条件: {}", filter);
             
             // 执行查询
             Document result = collection.find(filter).first();
@@ -204,7 +825,7 @@ public class MongoService {
             }
             
             logger.info("成功找到告警信息，文档ID: {}", result.get("_id"));
-            logger.debug("告警信息内容: {}", result.toJson());
+            LazyLog.debugJson(logger, "告警信息内容: {}", result);
             return result;
             
         } catch (Exception e) {
@@ -223,29 +844,30 @@ public class MongoService {
         
         Map<String, String> resultMap = new HashMap<>();
         try {
-            MongoDatabase database = mongoClient.getDatabase("detect");
-            MongoCollection<Document> collection = database.getCollection("alarm_ignore");
+            MongoCollection<Document> collection = collectionRegistry.get("alarm_ignore").documents();
             Document filter = new Document("alert_id", caseExecId);
             
-            logger.debug("查询条件: {}", filter.toJson());
+            LazyLog.debugJson(logger, "查询条件: {}", filter);
             
             Document result = collection.find(filter).first();
             
             if (result == null) {
                 logger.warn("未找到alert_id为 {} 的记录", caseExecId);
-                // 尝试查看表中有哪些记录
-                logger.debug("alarm_ignore表中的前5条记录:");
-                collection.find().limit(5).forEach(doc -> {
-                    logger.debug("  alert_id: {}, reaction_time: {}", 
-                        doc.getString("alert_id"), doc.get("reaction_time"));
-                });
+                // 尝试查看表中有哪些记录，会额外查询一次数据库，只在DEBUG级别执行
+                if (logger.isDebugEnabled()) {
+                    logger.debug("alarm_ignore表中的前5条记录:");
+                    collection.find().limit(5).forEach(doc -> {
+                        logger.debug("  alert_id: {}, reaction_time: {}", 
+                            doc.getString("alert_id"), doc.get("reaction_time"));
+                    });
+                }
                 resultMap.put("failed", null);
                 resultMap.put("reaction_time", null);
                 return resultMap;
             }
             
             logger.info("找到记录，文档ID: {}", result.get("_id"));
-            logger.debug("记录内容: {}", result.toJson());
+            LazyLog.debugJson(logger, "记录内容: {}", result);
             logger.debug("reaction_time字段值: {}", result.get("reaction_time"));
             logger.debug("reaction_time字段类型: {}", 
                 result.get("reaction_time") != null ? result.get("reaction_time").getClass().getName() : "null");
@@ -272,6 +894,11 @@ public class MongoService {
     }
 
     // 保留原有的单字段方法以兼容老代码
+    /**
+     * @deprecated 与 {@link #getAlarmIgnoreReactionTime} 同时使用会重复查询同一条记录，
+     * 请使用 {@link #getAlarmIgnoreFailedAndReactionTime} 或批量接口 {@link #getAlarmRowsByItscIds}
+     */
+    @Deprecated
     public String getAlarmIgnoreFailedReason(String caseExecId) {
         logger.debug("获取告警忽略失败原因，caseExecId: {}", caseExecId);
         Map<String, String> map = getAlarmIgnoreFailedAndReactionTime(caseExecId);
@@ -280,6 +907,10 @@ public class MongoService {
         return failedReason;
     }
     
+    /**
+     * @deprecated 请使用 {@link #getAlarmIgnoreFailedAndReactionTime} 或批量接口 {@link #getAlarmRowsByItscIds}
+     */
+    @Deprecated
     public String getAlarmIgnoreReactionTime(String caseExecId) {
         logger.debug("获取告警忽略反应时间，caseExecId: {}", caseExecId);
         Map<String, String> map = getAlarmIgnoreFailedAndReactionTime(caseExecId);
@@ -288,291 +919,221 @@ public class MongoService {
         return reactionTime;
     }
 
-    // 修改 formatTimeForExcel 方法，添加对特殊格式的支持
-    private String formatTimeForExcel(String timeStr) {
-        if (timeStr == null || timeStr.trim().isEmpty()) {
-            return "";
-        }
-        
-        logger.debug("formatTimeForExcel 输入: {}", timeStr);
+    /**
+     * 批量查询工单关联的告警明细，一次聚合完成 alarm_itsc → alarm_info → alarm_ignore 的关联，
+     * 替代逐个调用 getCaseExecIdsMappingByItscIds、getAlarmInfoByCaseExecId、getAlarmIgnoreFailedAndReactionTime
+     * 产生的 1 + 2N 次查询。itsc_id按 mongo.bulk.batch-size 分批以 $in 匹配，每批一次往返。
+     * @param itscIds itsc_id列表
+     * @return 每个 (itsc_id, case_exec_id) 一行，包含 itsc_id、case_exec_id、alarm_info（未找到时为null）、failed、reaction_time
+     */
+    public List<Map<String, Object>> getAlarmRowsByItscIds(List<String> itscIds) {
+        logger.info("批量查询工单告警明细，itscIds数量: {}", itscIds.size());
+        long start = System.currentTimeMillis();
         
         try {
-            // 如果已经是目标格式，直接返回
-            if (timeStr.matches("\\d{4}/\\d{1,2}/\\d{1,2} \\d{1,2}:\\d{2}$")) {
-                logger.debug("formatTimeForExcel 已经是目标格式，直接返回: {}", timeStr);
-                return timeStr;
+            MongoCollection<Document> collection = collectionRegistry.get("alarm_itsc").documents(Workload.ANALYTICS);
+            
+            List<Map<String, Object>> rows = new ArrayList<>();
+            int batches = 0;
+            for (int from = 0; from < itscIds.size(); from += bulkBatchSize) {
+                List<String> batch = itscIds.subList(from, Math.min(from + bulkBatchSize, itscIds.size()));
+                collection.aggregate(alarmRowsPipeline(batch)).allowDiskUse(true).forEach(doc -> {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("itsc_id", doc.getString("itsc_id"));
+                    row.put("case_exec_id", doc.getString("case_exec_id"));
+                    row.put("alarm_info", doc.get("alarm_info", Document.class));
+                    row.put("failed", getStringValue(doc, "failed", null));
+                    String rawReactionTime = getStringValue(doc, "reaction_time", null);
+                    row.put("reaction_time", rawReactionTime != null && !rawReactionTime.trim().isEmpty()
+                        ? formatTimeForExcel(rawReactionTime) : rawReactionTime);
+                    rows.add(row);
+                });
+                batches++;
             }
             
-            // 尝试多种时间格式
-            java.time.LocalDateTime dateTime = null;
+            logger.info("批量查询完成，itscIds数量: {}，批次: {}，返回行数: {}，耗时: {}ms",
+                itscIds.size(), batches, rows.size(), System.currentTimeMillis() - start);
+            return rows;
             
-            // 0. 尝试特殊格式 "yyyy-MM-dd H.mm:ss.SSS"（数据库实际格式）
-            try {
-                java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd H.mm:ss.SSS");
-                dateTime = java.time.LocalDateTime.parse(timeStr, formatter);
-                logger.debug("formatTimeForExcel 解析成功 (特殊格式): {}", timeStr);
-            } catch (Exception e0) {
-                // 1. 尝试 "yyyy-MM-dd HH:mm:ss.SSS" 格式
-                try {
-                    java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
-                    dateTime = java.time.LocalDateTime.parse(timeStr, formatter);
-                    logger.debug("formatTimeForExcel 解析成功 (SSS): {}", timeStr);
-                } catch (Exception e1) {
-                    // 2. 尝试 "yyyy-MM-dd HH:mm:ss" 格式
-                    try {
-                        java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-                        dateTime = java.time.LocalDateTime.parse(timeStr, formatter);
-                        logger.debug("formatTimeForExcel 解析成功 (ss): {}", timeStr);
-                    } catch (Exception e2) {
-                        // 3. 尝试 "yyyy-MM-dd HH:mm" 格式
-                        try {
-                            java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-                            dateTime = java.time.LocalDateTime.parse(timeStr, formatter);
-                            logger.debug("formatTimeForExcel 解析成功 (mm): {}", timeStr);
-                        } catch (Exception e3) {
-                            // 4. 尝试Date对象的字符串表示（如 "Mon Jun 30 23:30:44 CST 2025"）
-                            if (timeStr.contains("CST") || timeStr.contains("GMT") || timeStr.contains("UTC")) {
-                                try {
-                                    java.text.SimpleDateFormat inputFormat = new java.text.SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", java.util.Locale.ENGLISH);
-                                    java.util.Date date = inputFormat.parse(timeStr);
-                                    dateTime = date.toInstant().atZone(java.time.ZoneId.systemDefault()).toLocalDateTime();
-                                    logger.debug("formatTimeForExcel 解析成功 (CST): {}", timeStr);
-                                } catch (Exception e4) {
-                                    logger.debug("formatTimeForExcel 所有格式都失败，返回原字符串: {}", timeStr);
-                                    return timeStr;
-                                }
-                            } else {
-                                logger.debug("formatTimeForExcel 所有格式都失败，返回原字符串: {}", timeStr);
-                                return timeStr;
-                            }
+        } catch (Exception e) {
+            logger.error("批量查询工单告警明细失败: {}", e.getMessage(), e);
+            throw new RuntimeException("批量查询工单告警明细失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 流式导出工单关联的告警明细：与 {@link #getAlarmRowsByItscIds} 使用同一关联管道，
+     * 但按 mongo.query.stream.batch-size 分批从游标读取、逐行写出，不在内存中汇总行，内存占用与行数无关。
+     * 每行依次为 itsc_id、case_exec_id、mongo.export.alarm-info-fields 中的alarm_info字段、failed、reaction_time，
+     * 时间按Excel格式输出
+     * @param itscIds itsc_id列表
+     * @param format 导出格式
+     * @return 待写出的导出文件
+     */
+    public QueryStream exportAlarmRows(List<String> itscIds, ExportFormat format) {
+        logger.info("导出工单告警明细，itscIds数量: {}，格式: {}", itscIds.size(), format);
+        MongoCollection<Document> collection = collectionRegistry.get("alarm_itsc").documents(Workload.ANALYTICS);
+        
+        List<String> header = new ArrayList<>(Arrays.asList("itsc_id", "case_exec_id"));
+        header.addAll(Arrays.asList(exportAlarmInfoFields));
+        header.add("failed");
+        header.add("reaction_time");
+        // 只取导出的alarm_info字段，减少聚合结果的传输量
+        Document exportProjection = new Document("itsc_id", 1).append("case_exec_id", 1)
+            .append("failed", 1).append("reaction_time", 1);
+        for (String field : exportAlarmInfoFields) {
+            exportProjection.append("alarm_info." + field, 1);
+        }
+        
+        return outputStream -> {
+            long start = System.currentTimeMillis();
+            long rows = 0;
+            RowWriter writer = format.open(outputStream, header);
+            List<String> values = new ArrayList<>(header.size());
+            for (int from = 0; from < itscIds.size(); from += bulkBatchSize) {
+                List<Bson> pipeline = new ArrayList<>(alarmRowsPipeline(itscIds.subList(from, Math.min(from + bulkBatchSize, itscIds.size()))));
+                pipeline.add(Aggregates.project(exportProjection));
+                try (MongoCursor<Document> cursor = collection.aggregate(pipeline).allowDiskUse(true)
+                        .batchSize(streamBatchSize).iterator()) {
+                    while (cursor.hasNext()) {
+                        Document doc = cursor.next();
+                        values.clear();
+                        values.add(getStringValue(doc, "itsc_id", ""));
+                        values.add(getStringValue(doc, "case_exec_id", ""));
+                        Document alarmInfo = doc.get("alarm_info", Document.class);
+                        for (String field : exportAlarmInfoFields) {
+                            values.add(alarmInfo != null ? getStringValue(alarmInfo, field, "") : "");
                         }
+                        values.add(getStringValue(doc, "failed", ""));
+                        values.add(getStringValue(doc, "reaction_time", ""));
+                        writer.writeRow(values);
+                        rows++;
                     }
                 }
             }
-            
-            // 格式化为 "yyyy/M/d H:mm" 格式（小时不补零）
-            if (dateTime != null) {
-                java.time.format.DateTimeFormatter outputFormatter = java.time.format.DateTimeFormatter.ofPattern("yyyy/M/d H:mm");
-                String result = dateTime.format(outputFormatter);
-                logger.debug("formatTimeForExcel 格式化结果: {}", result);
-                return result;
-            } else {
-                logger.debug("formatTimeForExcel dateTime为null，返回原字符串: {}", timeStr);
-                return timeStr;
-            }
-        } catch (Exception e) {
-            logger.debug("formatTimeForExcel 异常，返回原字符串: {}，异常: {}", timeStr, e.getMessage());
-            return timeStr;
-        }
+            writer.finish();
+            logger.info("导出工单告警明细完成，itscIds数量: {}，行数: {}，耗时: {}ms",
+                itscIds.size(), rows, System.currentTimeMillis() - start);
+            return rows;
+        };
+    }
+
+    private static List<Bson> alarmRowsPipeline(List<String> itscIds) {
+        return Arrays.asList(
+            Aggregates.match(Filters.and(Filters.in("itsc_id", itscIds), Filters.type("case_exec_id", BsonType.STRING))),
+            Aggregates.lookup("alarm_info", "case_exec_id", "alert_id", "alarm_info"),
+            Aggregates.lookup("alarm_ignore", "case_exec_id", "alert_id", "alarm_ignore"),
+            Aggregates.project(new Document("_id", 0)
+                .append("itsc_id", 1)
+                .append("case_exec_id", 1)
+                .append("alarm_info", new Document("$arrayElemAt", Arrays.asList("$alarm_info", 0)))
+                .append("alarm_ignore", new Document("$arrayElemAt", Arrays.asList("$alarm_ignore", 0)))),
+            Aggregates.project(new Document("itsc_id", 1)
+                .append("case_exec_id", 1)
+                .append("alarm_info", 1)
+                .append("failed", "$alarm_ignore.failed")
+                .append("reaction_time", "$alarm_ignore.reaction_time")));
     }
 
     /**
-     * 获取今日告警的系统名称列表
+     * 将时间字符串规范化为Excel导出格式 "yyyy/M/d H:mm"，无法识别时返回原字符串
+     */
+    private String formatTimeForExcel(String timeStr) {
+        String result = TimeNormalizer.formatForExcel(timeStr);
+        logger.debug("formatTimeForExcel: {} -> {}", timeStr, result);
+        return result;
+    }
+
+    /**
+     * 获取今日告警的系统名称列表，由内存索引按end_time水位线增量维护
      * @return 系统名称列表
      */
     public List<String> getTodayAlarmSystemNames() {
         logger.info("开始获取今日告警系统名称列表");
         
         try {
-            MongoDatabase database = mongoClient.getDatabase("detect");
-            MongoCollection<Document> collection = database.getCollection("alarm_info");
-            logger.debug("连接到数据库: detect，集合: alarm_info");
-            
-            // 获取今日的起止时间（东八区）
-            java.time.ZoneId zone = java.time.ZoneId.of("Asia/Shanghai");
-            java.time.LocalDate today = java.time.LocalDate.now(zone);
-            java.time.LocalDateTime todayStart = today.atStartOfDay();
-            java.time.LocalDateTime todayEnd = today.atTime(23, 59, 59, 999000000);
-            
-            logger.debug("今日时间范围: {} 到 {}", todayStart, todayEnd);
-            
-            // 转换为UTC时间
-            java.util.Date startDate = java.util.Date.from(todayStart.atZone(zone).toInstant());
-            java.util.Date endDate = java.util.Date.from(todayEnd.atZone(zone).toInstant());
-            
-            // 构建查询条件：今日的告警记录
-            Document filter = new Document();
-            filter.put("end_time", new Document("$gte", startDate).append("$lte", endDate));
-            filter.put("alarm_type", "business"); // 只查询业务故障
-            
-            logger.debug("查询条件: {}", filter.toJson());
-            
-            // 执行查询并获取唯一的系统名称
-            List<String> systemNames = new ArrayList<>();
-            AtomicInteger processedCount = new AtomicInteger();
-            collection.find(filter).forEach(doc -> {
-                processedCount.getAndIncrement();
-                String systemName = getStringValue(doc, "system_name", "");
-                if (!systemName.isEmpty() && !systemNames.contains(systemName)) {
-                    systemNames.add(systemName);
-                    logger.debug("添加系统名称: {}", systemName);
-                }
-            });
-            
-            logger.info("查询完成，处理文档数量: {}，找到系统名称数量: {}", processedCount, systemNames.size());
+            List<String> systemNames = todayAlarmSystemsIndex.getNames();
+            logger.info("获取完成，系统名称数量: {}", systemNames.size());
             logger.debug("系统名称列表: {}", systemNames);
-            
             return systemNames;
-            
         } catch (Exception e) {
             logger.error("获取今日告警系统名称失败: {}", e.getMessage(), e);
             throw new RuntimeException("获取今日告警系统名称失败: " + e.getMessage(), e);
         }
     }
     
-    // 内部类用于解析和执行MongoDB查询
-    private static class QueryParser {
-        private final String query;
-        private static final Logger logger = LoggerFactory.getLogger(QueryParser.class);
+    /**
+     * 统计写出字节数的输出流
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
         
-        public QueryParser(String query) {
-            this.query = query.trim();
-            logger.debug("创建QueryParser，查询语句: {}", this.query);
+        CountingOutputStream(OutputStream out) {
+            super(out);
         }
         
-        public QueryResult execute(MongoCollection<Document> collection) {
-            logger.debug("开始执行查询: {}", query);
-            
-            if (query.toLowerCase().startsWith("db.alarm_info.count()")) {
-                logger.debug("执行count查询");
-                long count = collection.countDocuments();
-                logger.info("count查询完成，结果: {}", count);
-                return new QueryResult("count", count);
-            } else if (query.toLowerCase().startsWith("db.alarm_info.find(")) {
-                logger.debug("执行find查询");
-                // 解析复杂的find查询
-                return parseFindQuery(collection);
-            } else {
-                logger.error("不支持的查询语句: {}", query);
-                throw new IllegalArgumentException("不支持的查询语句: " + query);
-            }
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
         }
         
-        private QueryResult parseFindQuery(MongoCollection<Document> collection) {
-            logger.debug("开始解析find查询: {}", query);
-            
-            // 简化解析逻辑，直接处理常见的查询模式
-            String queryLower = query.toLowerCase();
-            
-            // 提取查询条件
-            Document filter = new Document();
-            int findStart = query.indexOf("find(") + 5;
-            int findEnd = query.indexOf(")", findStart);
-            
-            logger.debug("查询条件位置: findStart={}, findEnd={}", findStart, findEnd);
-            
-            if (findStart > 4 && findEnd > findStart) {
-                String conditions = query.substring(findStart, findEnd).trim();
-                logger.debug("提取的查询条件: '{}'", conditions);
-                
-                if (!conditions.isEmpty() && !conditions.equals("{}")) {
-                    try {
-                        // 尝试直接解析
-                        filter = Document.parse(conditions);
-                        logger.debug("直接解析查询条件成功: {}", filter.toJson());
-                    } catch (Exception e1) {
-                        logger.debug("直接解析失败，尝试替换单引号: {}", e1.getMessage());
-                        try {
-                            // 如果失败，尝试替换单引号为双引号
-                            String normalizedConditions = conditions.replace("'", "\"");
-                            filter = Document.parse(normalizedConditions);
-                            logger.debug("替换单引号后解析成功: {}", filter.toJson());
-                        } catch (Exception e2) {
-                            logger.error("解析查询条件失败: {}", conditions);
-                            throw new IllegalArgumentException("无效的查询条件: " + conditions + "。请使用双引号或单引号。");
-                        }
-                    }
-                } else {
-                    logger.debug("查询条件为空或{}，使用空过滤器");
-                }
-            }
-            
-            // 构建基础查询
-            com.mongodb.client.FindIterable<Document> findIterable = collection.find(filter);
-            logger.debug("构建基础查询，过滤器: {}", filter.toJson());
-            
-            // 处理链式操作
-            String remainingQuery = query.substring(findEnd + 1);
-            logger.debug("剩余查询部分: '{}'", remainingQuery);
-            
-            // 处理sort
-            if (remainingQuery.contains(".sort(")) {
-                logger.debug("检测到sort操作");
-                int sortStart = remainingQuery.indexOf(".sort(") + 6;
-                int sortEnd = remainingQuery.indexOf(")", sortStart);
-                if (sortStart > 5 && sortEnd > sortStart) {
-                    String sortCondition = remainingQuery.substring(sortStart, sortEnd).trim();
-                    logger.debug("sort条件: '{}'", sortCondition);
-                    try {
-                        Document sortDoc = Document.parse(sortCondition);
-                        findIterable = findIterable.sort(sortDoc);
-                        logger.debug("sort解析成功: {}", sortDoc.toJson());
-                    } catch (Exception e1) {
-                        logger.debug("sort直接解析失败，尝试替换单引号: {}", e1.getMessage());
-                        try {
-                            // 尝试替换单引号为双引号
-                            String normalizedSort = sortCondition.replace("'", "\"");
-                            Document sortDoc = Document.parse(normalizedSort);
-                            findIterable = findIterable.sort(sortDoc);
-                            logger.debug("sort替换单引号后解析成功: {}", sortDoc.toJson());
-                        } catch (Exception e2) {
-                            logger.error("sort解析失败: {}", sortCondition);
-                            throw new IllegalArgumentException("无效的sort条件: " + sortCondition + "。请使用双引号或单引号。");
-                        }
-                    }
-                }
-            }
-            
-            // 处理limit
-            if (remainingQuery.contains(".limit(")) {
-                logger.debug("检测到limit操作");
-                int limitStart = remainingQuery.indexOf(".limit(") + 7;
-                int limitEnd = remainingQuery.indexOf(")", limitStart);
-                if (limitStart > 6 && limitEnd > limitStart) {
-                    String limitValue = remainingQuery.substring(limitStart, limitEnd).trim();
-                    logger.debug("limit值: '{}'", limitValue);
-                    try {
-                        int limit = Integer.parseInt(limitValue);
-                        findIterable = findIterable.limit(limit);
-                        logger.debug("limit设置成功: {}", limit);
-                    } catch (Exception e) {
-                        logger.error("limit解析失败: {}", limitValue);
-                        throw new IllegalArgumentException("无效的limit值: " + limitValue);
-                    }
-                }
-            }
-            
-            // 执行查询
-            logger.debug("开始执行find查询");
-            List<Document> documents = new ArrayList<>();
-            findIterable.into(documents);
-            
-            logger.info("find查询完成，返回文档数量: {}", documents.size());
-            logger.debug("查询结果示例: {}", documents.isEmpty() ? "无结果" : documents.get(0).toJson());
-            
-            return new QueryResult("find", documents);
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
+        
+        long getCount() { return count; }
     }
     
-    // 查询结果类
-    private static class QueryResult {
+    /**
+     * /query 的结果，序列化为JSON返回；基准测试直接构造以测量序列化开销
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class QueryResult {
         private String type;
         private Object data;
+        private String continuation;
+        private String strategy;
+        private Map<String, Object> shaping;
         
-        public QueryResult(String type, Object data) {
+        public QueryResult(String type, Object data, String continuation) {
             this.type = type;
             this.data = data;
+            this.continuation = continuation;
+        }
+        
+        /**
+         * count结果，strategy为执行方式，见 {@link CountEngine.Strategy}
+         */
+        public static QueryResult count(CountEngine.Result count) {
+            QueryResult result = new QueryResult("count", count.getCount(), null);
+            result.strategy = count.getStrategy().getName();
+            return result;
+        }
+        
+        /**
+         * 整形后的结果：data 换为整形后的行，shaping 为整形报告
+         */
+        QueryResult shaped(ResultShaper.Shaped shaped) {
+            QueryResult result = new QueryResult(type, shaped.getData(), continuation);
+            result.strategy = strategy;
+            result.shaping = shaped.getReport();
+            return result;
         }
         
         public String getType() { return type; }
         public Object getData() { return data; }
+        public String getContinuation() { return continuation; }
+        public String getStrategy() { return strategy; }
+        public Map<String, Object> getShaping() { return shaping; }
     }
 
     public Map<String, Object> getFlowInstanceById(String flowInstanceId) {
         // 查询工单基本信息
         Map<String, Object> instance = new HashMap<>();
         try {
-            MongoDatabase database = mongoClient.getDatabase("detect");
             // 这里假设你有PostgreSQL或其他方式查工单基本信息，以下为伪代码：
             // 实际应根据你的业务调整
             // 这里只查MongoDB的alarm_itsc和alarm_info
@@ -580,9 +1141,9 @@ public class MongoService {
             instance.put("ticket_name", "单工单导出");
             // 查alarmIds
             List<String> alarmIds = new ArrayList<>();
-            MongoCollection<Document> itscColl = database.getCollection("alarm_itsc");
+            MongoCollection<Document> itscColl = collectionRegistry.get("alarm_itsc").documents();
             Document filter = new Document("itsc_id", flowInstanceId);
-            itscColl.find(filter).forEach(doc -> {
+            itscColl.find(filter).projection(CASE_EXEC_ID_PROJECTION).forEach(doc -> {
                 String caseExecId = getStringValue(doc, "case_exec_id", "");
                 if (!caseExecId.isEmpty()) alarmIds.add(caseExecId);
             });
@@ -0,0 +1,240 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.MongoExecutionTimeoutException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 合并并发的相同查询（single-flight）：同一键的查询执行期间，后到的请求不再各自提交，
+ * 而是挂在首个请求（leader）的 CompletableFuture 上，共享同一份序列化后的JSON。
+ * <p>
+ * 合并发生在准入控制之前：只有leader经过准入、占用许可和查询线程；等待者（follower）不消耗调用方令牌，
+ * 不占许可，也不占线程，只在计时线程上登记一个定时任务。
+ * <p>
+ * 等待有上限：leader执行超过 mongo.coalesce.max-wait 后，新请求不再加入，已在等待的请求自行提交，
+ * 卡住的查询不会拖住所有相同请求。等待者到达自身截止时间时以超时结束。leader因自身截止时间、取消或未能提交而失败时，
+ * 截止时间未到的等待者重新提交（各自经过准入），而不是沿用不属于自己的错误；其他错误与leader共享。
+ */
+@Component
+public class QueryCoalescer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryCoalescer.class);
+
+    private final boolean enabled;
+    private final long maxWaitNanos;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timer;
+    private final Counter leaders;
+    private final Counter followers;
+    private final Counter timeouts;
+
+    @Autowired
+    public QueryCoalescer(@Value("${mongo.coalesce.enabled:true}") boolean enabled,
+                          @Value("${mongo.coalesce.max-wait:30s}") Duration maxWait,
+                          MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "query-coalesce-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.leaders = counter(meterRegistry, "leader", "实际执行的查询数");
+        this.followers = counter(meterRegistry, "follower", "合并到进行中查询的请求数");
+        this.timeouts = counter(meterRegistry, "timeout", "等待超过上限后自行执行的请求数");
+        logger.info("相同查询合并: enabled={}，最长等待 {}", enabled, maxWait);
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String role, String description) {
+        return Counter.builder("mongo.query.coalesce").tag("role", role).description(description).register(meterRegistry);
+    }
+
+    /**
+     * 提交查询，同一键已有查询在执行时挂在其结果上，不调用 query
+     * @param key 查询键，结果完全相同的查询键相同
+     * @param query 实际提交查询（经准入控制进入查询线程池），只由leader调用
+     * @throws RuntimeException 本请求作为leader时 query 同步抛出的异常（未准入、线程池已满）原样抛出
+     */
+    public CompletableFuture<String> submit(String key, QueryDeadline deadline, Supplier<CompletableFuture<String>> query) {
+        if (!enabled) {
+            return query.get();
+        }
+        while (true) {
+            long now = System.nanoTime();
+            Flight flight = new Flight(now);
+            Flight existing = flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                return lead(key, flight, query);
+            }
+            if (now - existing.startedAt >= maxWaitNanos) {
+                // 进行中的查询已超过等待上限，不再加入，由本请求接替
+                if (flights.replace(key, existing, flight)) {
+                    return lead(key, flight, query);
+                }
+                continue;
+            }
+            followers.increment();
+            return follow(key, existing, deadline, query);
+        }
+    }
+
+    private CompletableFuture<String> lead(String key, Flight flight, Supplier<CompletableFuture<String>> query) {
+        leaders.increment();
+        CompletableFuture<String> result;
+        try {
+            result = query.get();
+        } catch (RuntimeException | Error e) {
+            // 未能提交：已挂上的等待者重新提交，由准入控制分别决定
+            flights.remove(key, flight);
+            flight.future.completeExceptionally(new LeaderCancelledException());
+            throw e;
+        }
+        result.whenComplete((value, error) -> {
+            // 先移出再完成，重新提交的等待者不会挂回已结束的查询
+            flights.remove(key, flight);
+            if (error == null) {
+                flight.future.complete(value);
+            } else {
+                flight.future.completeExceptionally(isCancellation(error) ? new LeaderCancelledException() : error);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<String> follow(String key, Flight flight, QueryDeadline deadline,
+                                             Supplier<CompletableFuture<String>> query) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        long waitMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(maxWaitNanos - (System.nanoTime() - flight.startedAt)));
+        long remaining;
+        try {
+            remaining = deadline.maxTimeMillis();
+        } catch (CancellationException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        boolean ownDeadline = remaining > 0 && remaining <= waitMillis;
+        ScheduledFuture<?> expiry = timer.schedule(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (ownDeadline) {
+                result.completeExceptionally(new CancellationException("查询已超过截止时间"));
+            } else {
+                timeouts.increment();
+                logger.warn("等待相同查询超过 {}ms，自行执行", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+                relay(attempt(deadline, query), result);
+            }
+        }, ownDeadline ? remaining : waitMillis, TimeUnit.MILLISECONDS);
+
+        flight.future.whenComplete((value, error) -> {
+            expiry.cancel(false);
+            if (error == null) {
+                result.complete(value);
+            } else if (unwrap(error) instanceof LeaderCancelledException) {
+                if (!result.isDone()) {
+                    logger.debug("合并的查询因leader超时、取消或未能提交而失败，重新发起");
+                    relay(attempt(deadline, () -> submit(key, deadline, query)), result);
+                }
+            } else {
+                result.completeExceptionally(unwrap(error));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 截止时间未到时提交，同步抛出的异常转为失败的结果
+     */
+    private static CompletableFuture<String> attempt(QueryDeadline deadline, Supplier<CompletableFuture<String>> query) {
+        try {
+            deadline.check();
+            return query.get();
+        } catch (RuntimeException e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private static void relay(CompletableFuture<String> source, CompletableFuture<String> target) {
+        source.whenComplete((value, error) -> {
+            if (error == null) {
+                target.complete(value);
+            } else {
+                target.completeExceptionally(unwrap(error));
+            }
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * leader的失败不属于等待者本身：超时、取消或排队后线程池已满
+     */
+    private static boolean isCancellation(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CancellationException || cause instanceof MongoExecutionTimeoutException
+                    || cause instanceof RejectedExecutionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 合并统计：执行次数、合并次数及合并比例（合并次数 / 请求总数）
+     */
+    public Map<String, Object> getStats() {
+        double leaderCount = leaders.count();
+        double followerCount = followers.count();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("inFlight", flights.size());
+        stats.put("executed", (long) leaderCount);
+        stats.put("coalesced", (long) followerCount);
+        stats.put("timeouts", (long) timeouts.count());
+        stats.put("coalescingRatio", leaderCount + followerCount > 0 ? followerCount / (leaderCount + followerCount) : 0.0);
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    private static final class Flight {
+        private final long startedAt;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private Flight(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+
+    private static final class LeaderCancelledException extends RuntimeException {
+        private LeaderCancelledException() {
+            super(null, null, false, false);
+        }
+    }
+}
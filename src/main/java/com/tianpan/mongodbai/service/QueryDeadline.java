@@ -0,0 +1,122 @@
+package com.tianpan.mongodbai.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 一次查询的截止时间和取消标记。
+ * <p>
+ * 剩余时间作为 maxTimeMS 下发给MongoDB，由服务端终止超时的操作；请求超时后调用 {@link #cancel}，
+ * 执行线程在读取每个文档前检查标记，提前结束并关闭游标（驱动发送killCursors），不再继续getMore。
+ * 尚未开始执行的查询可以用 {@link #onCancel} 登记回调，取消时立即退出等待。
+ */
+public final class QueryDeadline {
+
+    private static final QueryDeadline NONE = new QueryDeadline(Long.MAX_VALUE, new Cancellation());
+
+    private final long deadlineNanos;
+    private final Cancellation cancelled;
+
+    private QueryDeadline(long deadlineNanos, Cancellation cancelled) {
+        this.deadlineNanos = deadlineNanos;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * 没有截止时间，不可取消
+     */
+    public static QueryDeadline none() {
+        return NONE;
+    }
+
+    public static QueryDeadline after(Duration timeout) {
+        return new QueryDeadline(System.nanoTime() + timeout.toNanos(), new Cancellation());
+    }
+
+    /**
+     * 截止时间不晚于limit之后的同一查询，与本截止时间共享取消标记；本截止时间更早时返回自身
+     */
+    public QueryDeadline within(Duration limit) {
+        long limited = System.nanoTime() + limit.toNanos();
+        if (this == NONE) {
+            return new QueryDeadline(limited, new Cancellation());
+        }
+        return deadlineNanos - limited <= 0 ? this : new QueryDeadline(limited, cancelled);
+    }
+
+    public void cancel() {
+        if (this != NONE) {
+            cancelled.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.cancelled;
+    }
+
+    /**
+     * 取消时执行listener（在调用 {@link #cancel} 的线程上），已取消时立即执行；不可取消时不登记
+     */
+    public void onCancel(Runnable listener) {
+        if (this != NONE) {
+            cancelled.listen(listener);
+        }
+    }
+
+    /**
+     * 下发给MongoDB的maxTimeMS，0表示不限制
+     * @throws CancellationException 已取消或已过截止时间
+     */
+    public long maxTimeMillis() {
+        check();
+        if (this == NONE) {
+            return 0;
+        }
+        return Math.max(1, (deadlineNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    /**
+     * @throws CancellationException 已取消或已过截止时间
+     */
+    public void check() {
+        if (cancelled.cancelled) {
+            throw new CancellationException("查询已取消");
+        }
+        if (this != NONE && System.nanoTime() - deadlineNanos >= 0) {
+            throw new CancellationException("查询已超过截止时间");
+        }
+    }
+
+    /**
+     * 取消标记及取消时的回调，由 {@link #within} 派生的截止时间共享
+     */
+    private static final class Cancellation {
+        private volatile boolean cancelled;
+        private List<Runnable> listeners = new ArrayList<>();
+
+        void cancel() {
+            List<Runnable> notify;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                notify = listeners;
+                listeners = null;
+            }
+            notify.forEach(Runnable::run);
+        }
+
+        void listen(Runnable listener) {
+            synchronized (this) {
+                if (!cancelled) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+    }
+}
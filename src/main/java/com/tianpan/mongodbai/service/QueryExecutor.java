@@ -0,0 +1,77 @@
+package com.tianpan.mongodbai.service;
+
+import com.tianpan.mongodbai.config.QueryProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 执行 /query 请求的有界线程池。Servlet线程只负责提交，少数慢查询最多占满本线程池，不会耗尽Tomcat线程；
+ * 队列满时立即拒绝。线程池的活跃数、排队数等以 executor.* 指标导出（name=mongo.query）。
+ */
+@Component
+public class QueryExecutor implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryExecutor.class);
+
+    private final QueryProperties.Async properties;
+    private final ExecutorService executor;
+
+    public QueryExecutor(QueryProperties queryProperties, MeterRegistry meterRegistry) {
+        this.properties = queryProperties.getAsync();
+        AtomicInteger sequence = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()), runnable -> {
+                    Thread thread = new Thread(runnable, "query-exec-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, "mongo.query", Collections.emptyList());
+        logger.info("查询线程池：线程数 {}，队列长度 {}，默认截止时间 {}，最长截止时间 {}", properties.getThreads(),
+                properties.getQueueCapacity(), properties.getDefaultTimeout(), properties.getMaxTimeout());
+    }
+
+    /**
+     * 请求的截止时间：未指定时使用默认值，不超过配置的上限
+     * @param timeoutMs 请求指定的超时毫秒数，可为null
+     */
+    public Duration timeout(Long timeoutMs) {
+        if (timeoutMs == null) {
+            return properties.getDefaultTimeout();
+        }
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("timeoutMs必须大于0: " + timeoutMs);
+        }
+        Duration timeout = Duration.ofMillis(timeoutMs);
+        return timeout.compareTo(properties.getMaxTimeout()) > 0 ? properties.getMaxTimeout() : timeout;
+    }
+
+    /**
+     * 提交查询，开始执行前已过截止时间或已取消的任务直接结束
+     * @throws RejectedExecutionException 线程池和队列已满
+     */
+    public <T> CompletableFuture<T> submit(QueryDeadline deadline, Supplier<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            deadline.check();
+            return task.get();
+        }, executor);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,112 @@
+package com.tianpan.mongodbai.service;
+
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询指标：各阶段耗时、返回文档数和响应字节数，按集合、操作和查询形状打标签。
+ * <ul>
+ *     <li>mongo.query.phase：阶段耗时，phase 为 parse（含执行计划缓存查找）、execute、serialize，
+ *     流式接口中执行与写出交替进行，记为 write；解析失败的语句不记录</li>
+ *     <li>mongo.query.documents：每次查询返回的文档数</li>
+ *     <li>mongo.query.response.bytes：每次查询的响应字节数</li>
+ *     <li>mongo.query.latency：同 mongo.query.phase，但不带形状标签，发布百分位直方图，用于p99等SLO</li>
+ * </ul>
+ * 查询形状来自用户输入，超过 mongo.metrics.max-shapes 个不同形状后，新形状统一记为 other，避免标签数量无限增长。
+ * 按形状的指标只记录次数、总量和最大值，不发布直方图：每个直方图约70个桶，乘以形状、阶段和集合数后序列过多。
+ */
+@Component
+public class QueryMetrics {
+
+    public static final String PARSE = "parse";
+    public static final String EXECUTE = "execute";
+    public static final String SERIALIZE = "serialize";
+    public static final String WRITE = "write";
+
+    private static final String OTHER_SHAPE = "other";
+
+    private final MeterRegistry registry;
+    private final int maxShapes;
+    private final Set<String> shapes = ConcurrentHashMap.newKeySet();
+
+    public QueryMetrics(MeterRegistry registry, @Value("${mongo.metrics.max-shapes:200}") int maxShapes) {
+        this.registry = registry;
+        this.maxShapes = maxShapes;
+    }
+
+    public void recordPhase(QueryPlan plan, String phase, long nanos) {
+        Timer.builder("mongo.query.phase")
+                .tags(tags(plan).and("phase", phase))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        Timer.builder("mongo.query.latency")
+                .tags("collection", plan.getCollection(), "operation", operation(plan), "phase", phase)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordResult(QueryPlan plan, long documents, long bytes) {
+        Tags tags = tags(plan);
+        DistributionSummary.builder("mongo.query.documents")
+                .tags(tags)
+                .register(registry)
+                .record(documents);
+        DistributionSummary.builder("mongo.query.response.bytes")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry)
+                .record(bytes);
+    }
+
+    private Tags tags(QueryPlan plan) {
+        return Tags.of("collection", plan.getCollection(),
+                "operation", operation(plan),
+                "shape", boundedShape(plan.getShape()));
+    }
+
+    private static String operation(QueryPlan plan) {
+        return plan.getOperation().name().toLowerCase();
+    }
+
+    private String boundedShape(String shape) {
+        if (shapes.contains(shape)) {
+            return shape;
+        }
+        if (shapes.size() >= maxShapes) {
+            return OTHER_SHAPE;
+        }
+        shapes.add(shape);
+        return shape;
+    }
+
+    /**
+     * 字符串按UTF-8编码后的字节数，不实际编码
+     */
+    public static long utf8Length(String value) {
+        long bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
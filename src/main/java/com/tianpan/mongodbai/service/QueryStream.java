@@ -0,0 +1,18 @@
+package com.tianpan.mongodbai.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 已完成解析、等待写出结果的查询，结果由游标直接写入输出流
+ */
+@FunctionalInterface
+public interface QueryStream {
+
+    /**
+     * 执行查询并将结果写入输出流
+     * @param outputStream 输出流
+     * @return 写出的文档数量
+     */
+    long writeTo(OutputStream outputStream) throws IOException;
+}
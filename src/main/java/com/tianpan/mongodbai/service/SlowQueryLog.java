@@ -0,0 +1,340 @@
+package com.tianpan.mongodbai.service;
+
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 慢查询记录：执行耗时超过 mongo.slow-query.threshold 的查询按查询形状（集合 + 去掉取值后的语句结构）归并，
+ * 保存在容量固定的内存环形缓冲中，缓冲满时淘汰最久未出现的形状。
+ * <p>
+ * 每个形状首次变慢时（之后每隔 mongo.slow-query.explain-interval）在后台线程以 explain("executionStats")
+ * 重新执行一次，记录扫描文档数与返回文档数之比、胜出的执行计划，用于发现全表扫描。
+ * explain 任务排队已满时直接丢弃，不阻塞请求线程。
+ */
+@Component
+public class SlowQueryLog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    private final long thresholdNanos;
+    private final int capacity;
+    private final long explainIntervalMillis;
+    private final ExecutorService executor;
+    private final Clock clock;
+
+    /**
+     * 按最近出现时间排序，最久未出现的在前
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Autowired
+    public SlowQueryLog(@Value("${mongo.slow-query.threshold:500ms}") Duration threshold,
+                        @Value("${mongo.slow-query.capacity:100}") int capacity,
+                        @Value("${mongo.slow-query.explain-interval:10m}") Duration explainInterval) {
+        this(threshold, capacity, explainInterval, explainExecutor(), Clock.systemUTC());
+    }
+
+    SlowQueryLog(Duration threshold, int capacity, Duration explainInterval, ExecutorService executor, Clock clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("慢查询记录容量必须大于0: " + capacity);
+        }
+        this.thresholdNanos = threshold.toNanos();
+        this.capacity = capacity;
+        this.explainIntervalMillis = explainInterval.toMillis();
+        this.executor = executor;
+        this.clock = clock;
+        logger.info("慢查询记录：阈值 {}ms，容量 {}，explain间隔 {}", threshold.toMillis(), capacity, explainInterval);
+    }
+
+    /**
+     * 单线程执行explain，队列有界，满了丢弃
+     */
+    private static ExecutorService explainExecutor() {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(16), runnable -> {
+            Thread thread = new Thread(runnable, "slow-query-explain");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * 记录一次查询的耗时，超过阈值时归入慢查询
+     * @param explain 以 executionStats 级别执行 explain 并返回结果，只在后台线程调用
+     * @return 是否为慢查询
+     */
+    public boolean observe(QueryPlan plan, long latencyNanos, Supplier<Document> explain) {
+        if (latencyNanos < thresholdNanos) {
+            return false;
+        }
+        String key = plan.getCollection() + ":" + plan.getShape();
+        long now = clock.millis();
+        Entry entry;
+        boolean needsExplain;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(plan);
+                entries.put(key, entry);
+                evictOverflow();
+            }
+            entry.record(plan, latencyNanos, now);
+            needsExplain = !entry.explainPending
+                    && (entry.explainedAt == 0 || now - entry.explainedAt >= explainIntervalMillis);
+            if (needsExplain) {
+                entry.explainPending = true;
+            }
+        }
+        logger.warn("慢查询 {}ms: {}", TimeUnit.NANOSECONDS.toMillis(latencyNanos), plan.getKey());
+        if (needsExplain) {
+            submitExplain(entry, explain);
+        }
+        return true;
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > capacity && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private void submitExplain(Entry entry, Supplier<Document> explain) {
+        Runnable task = () -> {
+            ExplainSummary summary;
+            try {
+                summary = ExplainSummary.of(explain.get());
+            } catch (RuntimeException e) {
+                logger.warn("慢查询explain失败: {}", e.getMessage());
+                summary = ExplainSummary.failed(e.getMessage());
+            }
+            synchronized (entries) {
+                entry.explain = summary;
+                entry.explainedAt = clock.millis();
+                entry.explainPending = false;
+            }
+            if (summary.collScan) {
+                logger.warn("慢查询为全表扫描，扫描文档 {}，返回 {}: {}", summary.docsExamined, summary.nReturned, entry.query);
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (entries) {
+                entry.explainPending = false;
+            }
+        }
+    }
+
+    /**
+     * 慢查询列表，最近出现的在前
+     */
+    public Map<String, Object> getStats() {
+        List<Map<String, Object>> queries = new ArrayList<>();
+        synchronized (entries) {
+            for (Entry entry : entries.values()) {
+                queries.add(0, entry.toMap());
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("thresholdMillis", TimeUnit.NANOSECONDS.toMillis(thresholdNanos));
+        stats.put("capacity", capacity);
+        stats.put("count", queries.size());
+        stats.put("queries", queries);
+        return stats;
+    }
+
+    /**
+     * 查询形状最近一次explain得到的扫描文档数，没有慢查询记录或explain未完成时为null
+     */
+    public Long docsExamined(String collection, String shape) {
+        synchronized (entries) {
+            // 遍历而不是get，查询建议时的读取不应改变最近出现顺序
+            for (Entry entry : entries.values()) {
+                if (entry.collection.equals(collection) && entry.shape.equals(shape)) {
+                    return entry.explain != null ? entry.explain.docsExamined : null;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 一个查询形状的慢查询记录，由 entries 的锁保护
+     */
+    private static final class Entry {
+        private final String collection;
+        private final String operation;
+        private final String shape;
+        private String query;
+        private long count;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+        private long lastLatencyNanos;
+        private long lastSeen;
+        private long explainedAt;
+        private boolean explainPending;
+        private ExplainSummary explain;
+
+        Entry(QueryPlan plan) {
+            this.collection = plan.getCollection();
+            this.operation = plan.getOperation().name().toLowerCase();
+            this.shape = plan.getShape();
+        }
+
+        void record(QueryPlan plan, long latencyNanos, long now) {
+            query = plan.getKey();
+            count++;
+            totalLatencyNanos += latencyNanos;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+            lastLatencyNanos = latencyNanos;
+            lastSeen = now;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("collection", collection);
+            map.put("operation", operation);
+            map.put("shape", shape);
+            map.put("query", query);
+            map.put("count", count);
+            map.put("lastLatencyMillis", lastLatencyNanos / 1_000_000.0);
+            map.put("avgLatencyMillis", totalLatencyNanos / 1_000_000.0 / count);
+            map.put("maxLatencyMillis", maxLatencyNanos / 1_000_000.0);
+            map.put("lastSeen", Instant.ofEpochMilli(lastSeen).toString());
+            map.put("explain", explain != null ? explain.toMap(explainedAt) : null);
+            return map;
+        }
+    }
+
+    /**
+     * explain("executionStats") 结果中的关键指标
+     */
+    static final class ExplainSummary {
+        final String winningPlan;
+        final boolean collScan;
+        final Long docsExamined;
+        final Long keysExamined;
+        final Long nReturned;
+        final Long executionTimeMillis;
+        final String error;
+
+        private ExplainSummary(String winningPlan, Long docsExamined, Long keysExamined, Long nReturned,
+                               Long executionTimeMillis, String error) {
+            this.winningPlan = winningPlan;
+            this.collScan = winningPlan != null && winningPlan.contains("COLLSCAN");
+            this.docsExamined = docsExamined;
+            this.keysExamined = keysExamined;
+            this.nReturned = nReturned;
+            this.executionTimeMillis = executionTimeMillis;
+            this.error = error;
+        }
+
+        static ExplainSummary failed(String error) {
+            return new ExplainSummary(null, null, null, null, null, error);
+        }
+
+        /**
+         * 兼容find的explain结果和aggregate的explain结果（查询阶段位于 stages[0].$cursor 下）
+         */
+        static ExplainSummary of(Document explain) {
+            Document source = explain;
+            if (!explain.containsKey("queryPlanner") && explain.get("stages") instanceof List) {
+                List<?> stages = (List<?>) explain.get("stages");
+                if (!stages.isEmpty() && stages.get(0) instanceof Document) {
+                    Document cursor = ((Document) stages.get(0)).get("$cursor", Document.class);
+                    if (cursor != null) {
+                        source = cursor;
+                    }
+                }
+            }
+            Document queryPlanner = source.get("queryPlanner", Document.class);
+            Document winningPlan = queryPlanner != null ? queryPlanner.get("winningPlan", Document.class) : null;
+            if (winningPlan != null && winningPlan.containsKey("queryPlan")) {
+                // 基于槽位的执行引擎（SBE）把经典计划树放在 queryPlan 下
+                winningPlan = winningPlan.get("queryPlan", Document.class);
+            }
+            Document stats = source.get("executionStats", Document.class);
+            if (stats == null) {
+                stats = new Document();
+            }
+            return new ExplainSummary(winningPlan != null ? describe(winningPlan) : null,
+                    longValue(stats.get("totalDocsExamined")), longValue(stats.get("totalKeysExamined")),
+                    longValue(stats.get("nReturned")), longValue(stats.get("executionTimeMillis")), null);
+        }
+
+        /**
+         * 执行计划树写成一行，如 LIMIT &lt;- FETCH &lt;- IXSCAN(end_time_1)
+         */
+        static String describe(Document stage) {
+            StringBuilder description = new StringBuilder(String.valueOf(stage.get("stage")));
+            Object indexName = stage.get("indexName");
+            if (indexName != null) {
+                description.append('(').append(indexName).append(')');
+            }
+            Document input = stage.get("inputStage", Document.class);
+            if (input != null) {
+                description.append(" <- ").append(describe(input));
+            } else if (stage.get("inputStages") instanceof List) {
+                description.append(" <- [");
+                List<?> inputs = (List<?>) stage.get("inputStages");
+                for (int i = 0; i < inputs.size(); i++) {
+                    if (i > 0) {
+                        description.append(", ");
+                    }
+                    description.append(describe((Document) inputs.get(i)));
+                }
+                description.append(']');
+            }
+            return description.toString();
+        }
+
+        private static Long longValue(Object value) {
+            return value instanceof Number ? ((Number) value).longValue() : null;
+        }
+
+        Map<String, Object> toMap(long explainedAt) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("explainedAt", Instant.ofEpochMilli(explainedAt).toString());
+            if (error != null) {
+                map.put("error", error);
+                return map;
+            }
+            map.put("winningPlan", winningPlan);
+            map.put("collScan", collScan);
+            map.put("docsExamined", docsExamined);
+            map.put("keysExamined", keysExamined);
+            map.put("nReturned", nReturned);
+            // 每返回一个文档扫描的文档数，远大于1说明过滤条件缺少合适的索引
+            map.put("docsExaminedPerReturned", docsExamined == null || nReturned == null ? null
+                    : nReturned == 0 ? (double) docsExamined : (double) docsExamined / nReturned);
+            map.put("executionTimeMillis", executionTimeMillis);
+            return map;
+        }
+    }
+}
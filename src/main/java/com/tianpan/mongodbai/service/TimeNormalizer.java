@@ -0,0 +1,282 @@
+package com.tianpan.mongodbai.service;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 导出用时间字符串规范化，线程安全，全局共享。
+ * <p>
+ * 所有格式在类加载时编译一次；输入格式通过字符形状判断后直接选用对应的解析器，
+ * 不再依次尝试并以异常判断失败。最近的输入结果记录在固定大小的直接映射缓存中，
+ * 导出时同一时间值往往重复出现，命中后无需再次解析。
+ * <p>
+ * 支持的输入格式及输出 "yyyy/M/d H:mm"：
+ * <ul>
+ *     <li>yyyy-MM-dd H.mm:ss.SSS（数据库实际格式）</li>
+ *     <li>yyyy-MM-dd HH:mm:ss.SSS</li>
+ *     <li>yyyy-MM-dd HH:mm:ss</li>
+ *     <li>yyyy-MM-dd HH:mm</li>
+ *     <li>Date.toString()格式，如 "Mon Jun 30 23:30:44 CST 2025"</li>
+ * </ul>
+ * 已是输出格式或无法识别的输入原样返回。
+ */
+public final class TimeNormalizer {
+
+    private static final DateTimeFormatter SPECIAL = DateTimeFormatter.ofPattern("yyyy-MM-dd H.mm:ss.SSS");
+    private static final DateTimeFormatter MILLIS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter MINUTES = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final DateTimeFormatter[] PARSERS = {SPECIAL, MILLIS, SECONDS, MINUTES};
+
+    private static final DateTimeFormatter EXCEL_OUTPUT = DateTimeFormatter.ofPattern("yyyy/M/d H:mm");
+    private static final DateTimeFormatter DATE_OUTPUT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    /**
+     * SimpleDateFormat非线程安全，Date.toString()格式很少出现，按线程复用即可
+     */
+    private static final ThreadLocal<SimpleDateFormat> DATE_TO_STRING = ThreadLocal.withInitial(
+            () -> new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.ENGLISH));
+
+    private static final int CACHE_SIZE = 4096;
+    private static final Memo[] CACHE = new Memo[CACHE_SIZE];
+
+    private TimeNormalizer() {
+    }
+
+    /**
+     * 将时间字符串规范化为Excel导出格式 "yyyy/M/d H:mm"
+     */
+    public static String formatForExcel(String timeStr) {
+        if (timeStr == null || timeStr.trim().isEmpty()) {
+            return "";
+        }
+        int slot = (timeStr.hashCode() & 0x7fffffff) % CACHE_SIZE;
+        Memo memo = CACHE[slot];
+        if (memo != null && memo.input.equals(timeStr)) {
+            return memo.output;
+        }
+        String output = normalize(timeStr);
+        // 数组元素的写入可能与其他线程竞争，Memo不可变，最坏情况只是丢失一次缓存
+        CACHE[slot] = new Memo(timeStr, output);
+        return output;
+    }
+
+    /**
+     * 按系统时区将Date格式化为 "yyyy-MM-dd HH:mm"
+     */
+    public static String formatDate(Date date) {
+        return DATE_OUTPUT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(date.getTime()), ZoneId.systemDefault()));
+    }
+
+    /**
+     * 判断字符串是否包含"日期 + 时分秒"，即是否匹配
+     * {@code .*\d{4}[-/]\d{1,2}[-/]\d{1,2}.*\d{1,2}:\d{2}:\d{2}.*}，不使用正则
+     */
+    public static boolean looksLikeDateTime(String s) {
+        int length = s.length();
+        int dateEnd = -1;
+        for (int i = 0; i + 7 <= length && dateEnd < 0; i++) {
+            if (isLineTerminator(s.charAt(i))) {
+                // 正则中的'.'不匹配换行，含换行的字符串整体不匹配
+                return false;
+            }
+            dateEnd = matchDate(s, i);
+        }
+        if (dateEnd < 0) {
+            return false;
+        }
+        for (int i = dateEnd; i < length; i++) {
+            char c = s.charAt(i);
+            if (isLineTerminator(c)) {
+                return false;
+            }
+            if (i + 6 < length && isDigit(c) && s.charAt(i + 1) == ':' && isDigit(s.charAt(i + 2))
+                    && isDigit(s.charAt(i + 3)) && s.charAt(i + 4) == ':' && isDigit(s.charAt(i + 5))
+                    && isDigit(s.charAt(i + 6))) {
+                return !containsLineTerminator(s, i + 7);
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String timeStr) {
+        if (isExcelFormat(timeStr)) {
+            return timeStr;
+        }
+        DateTimeFormatter parser = selectParser(timeStr);
+        if (parser != null) {
+            try {
+                return LocalDateTime.parse(timeStr, parser).format(EXCEL_OUTPUT);
+            } catch (DateTimeParseException e) {
+                // 形状正确但数值非法（如13月），其余格式的形状都不匹配
+                return timeStr;
+            }
+        }
+        if (mayParseWithExoticShape(timeStr)) {
+            // 非常规形状（如超过4位的年份）仍按原有顺序逐个尝试，保证与原实现结果一致
+            for (DateTimeFormatter candidate : PARSERS) {
+                try {
+                    return LocalDateTime.parse(timeStr, candidate).format(EXCEL_OUTPUT);
+                } catch (DateTimeParseException ignored) {
+                    // 尝试下一个格式
+                }
+            }
+        }
+        if (timeStr.contains("CST") || timeStr.contains("GMT") || timeStr.contains("UTC")) {
+            try {
+                Date date = DATE_TO_STRING.get().parse(timeStr);
+                return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()).format(EXCEL_OUTPUT);
+            } catch (ParseException e) {
+                return timeStr;
+            }
+        }
+        return timeStr;
+    }
+
+    /**
+     * 根据 "yyyy-MM-dd " 之后的形状选择解析器，形状不符时返回null
+     */
+    private static DateTimeFormatter selectParser(String s) {
+        int length = s.length();
+        if (length < 16 || !digits(s, 0, 4) || s.charAt(4) != '-' || !digits(s, 5, 2) || s.charAt(7) != '-'
+                || !digits(s, 8, 2) || s.charAt(10) != ' ') {
+            return null;
+        }
+        int hourDigits = 0;
+        while (11 + hourDigits < length && isDigit(s.charAt(11 + hourDigits))) {
+            hourDigits++;
+        }
+        int p = 11 + hourDigits;
+        if (hourDigits == 0 || p >= length) {
+            return null;
+        }
+        if (s.charAt(p) == '.') {
+            // H.mm:ss.SSS
+            return length == p + 10 && digits(s, p + 1, 2) && s.charAt(p + 3) == ':' && digits(s, p + 4, 2)
+                    && s.charAt(p + 6) == '.' && digits(s, p + 7, 3) ? SPECIAL : null;
+        }
+        if (hourDigits != 2 || s.charAt(p) != ':' || !digits(s, p + 1, 2)) {
+            return null;
+        }
+        if (length == 16) {
+            return MINUTES;
+        }
+        if (s.charAt(16) != ':' || !digits(s, 17, 2)) {
+            return null;
+        }
+        if (length == 19) {
+            return SECONDS;
+        }
+        return length == 23 && s.charAt(19) == '.' && digits(s, 20, 3) ? MILLIS : null;
+    }
+
+    /**
+     * 任何yyyy-MM-dd格式都至少需要以数字或'+'开头，并包含'-'、' '和':'
+     */
+    private static boolean mayParseWithExoticShape(String s) {
+        char first = s.charAt(0);
+        return (isDigit(first) || first == '+') && s.indexOf('-') > 0 && s.indexOf(' ') > 0 && s.indexOf(':') > 0;
+    }
+
+    /**
+     * 是否已是 \d{4}/\d{1,2}/\d{1,2} \d{1,2}:\d{2}
+     */
+    private static boolean isExcelFormat(String s) {
+        int length = s.length();
+        if (length < 13 || length > 16 || !digits(s, 0, 4) || s.charAt(4) != '/') {
+            return false;
+        }
+        int p = skipDigits(s, 5, 2);
+        if (p < 0 || p >= length || s.charAt(p) != '/') {
+            return false;
+        }
+        p = skipDigits(s, p + 1, 2);
+        if (p < 0 || p >= length || s.charAt(p) != ' ') {
+            return false;
+        }
+        p = skipDigits(s, p + 1, 2);
+        return p >= 0 && p + 3 == length && s.charAt(p) == ':' && digits(s, p + 1, 2);
+    }
+
+    /**
+     * 从i开始匹配 \d{4}[-/]\d{1,2}[-/]\d{1,2}，返回可能的最小结束位置，不匹配返回-1
+     */
+    private static int matchDate(String s, int i) {
+        int length = s.length();
+        if (i + 7 > length || !digits(s, i, 4) || !isDateSeparator(s.charAt(i + 4))) {
+            return -1;
+        }
+        int p = i + 5;
+        for (int monthDigits = 1; monthDigits <= 2; monthDigits++) {
+            int sep = p + monthDigits;
+            if (sep + 1 < length && digits(s, p, monthDigits) && isDateSeparator(s.charAt(sep)) && isDigit(s.charAt(sep + 1))) {
+                return sep + 2;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean containsLineTerminator(String s, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (isLineTerminator(s.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 从i开始跳过1到max个数字，返回之后的位置；没有数字时返回-1
+     */
+    private static int skipDigits(String s, int i, int max) {
+        int p = i;
+        while (p < s.length() && p - i < max && isDigit(s.charAt(p))) {
+            p++;
+        }
+        return p == i ? -1 : p;
+    }
+
+    private static boolean digits(String s, int from, int count) {
+        if (from + count > s.length()) {
+            return false;
+        }
+        for (int i = from; i < from + count; i++) {
+            if (!isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 正则中'.'不匹配的行终止符
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isDateSeparator(char c) {
+        return c == '-' || c == '/';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static final class Memo {
+        private final String input;
+        private final String output;
+
+        private Memo(String input, String output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+}
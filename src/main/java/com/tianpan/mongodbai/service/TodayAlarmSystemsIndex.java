@@ -0,0 +1,149 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * 今日告警系统名称索引：在内存中维护当天（东八区）出现过业务告警的系统名称集合。
+ * <p>
+ * 首次访问时以服务端 distinct 取得当天全部系统名称，之后按 end_time 水位线增量刷新，
+ * 只查询水位线之后（减去重叠窗口）的文档；刷新间隔内的访问直接读内存。
+ * 重叠窗口用于兜住写入较晚、end_time 却早于水位线的文档。跨过东八区零点时集合清空重建。
+ */
+@Component
+public class TodayAlarmSystemsIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(TodayAlarmSystemsIndex.class);
+
+    static final ZoneId ZONE = ZoneId.of("Asia/Shanghai");
+
+    private final Supplier<MongoCollection<Document>> collection;
+    private final Clock clock;
+    private final long refreshIntervalMillis;
+    private final long overlapMillis;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * 以下字段由 refresh 在锁内维护
+     */
+    private LocalDate day;
+    private final Set<String> names = new LinkedHashSet<>();
+    private Date watermark;
+
+    @Autowired
+    public TodayAlarmSystemsIndex(CollectionRegistry collectionRegistry,
+                                  @Value("${mongo.alarm-systems.refresh-interval:5s}") Duration refreshInterval,
+                                  @Value("${mongo.alarm-systems.overlap:5m}") Duration overlap) {
+        this(collectionRegistry.get("alarm_info")::documents, Clock.systemUTC(), refreshInterval, overlap);
+    }
+
+    TodayAlarmSystemsIndex(Supplier<MongoCollection<Document>> collection, Clock clock, Duration refreshInterval, Duration overlap) {
+        this.collection = collection;
+        this.clock = clock;
+        this.refreshIntervalMillis = refreshInterval.toMillis();
+        this.overlapMillis = overlap.toMillis();
+        logger.info("今日告警系统索引初始化，刷新间隔: {}ms，重叠窗口: {}ms", refreshIntervalMillis, overlapMillis);
+    }
+
+    /**
+     * 获取今日告警系统名称，刷新间隔内直接返回内存中的结果
+     */
+    public List<String> getNames() {
+        Instant now = clock.instant();
+        LocalDate today = now.atZone(ZONE).toLocalDate();
+        Snapshot current = snapshot;
+        if (current != null && current.isFresh(today, now.toEpochMilli(), refreshIntervalMillis)) {
+            return current.names;
+        }
+        return refresh(now, today);
+    }
+
+    private synchronized List<String> refresh(Instant now, LocalDate today) {
+        Snapshot current = snapshot;
+        if (current != null && current.isFresh(today, now.toEpochMilli(), refreshIntervalMillis)) {
+            // 等锁期间已被其他线程刷新
+            return current.names;
+        }
+        if (!today.equals(day)) {
+            logger.info("今日告警系统索引切换日期: {} -> {}", day, today);
+            day = today;
+            names.clear();
+            watermark = null;
+        }
+
+        Date dayStart = Date.from(today.atStartOfDay(ZONE).toInstant());
+        Date dayEnd = Date.from(today.plusDays(1).atStartOfDay(ZONE).toInstant());
+        Date from = dayStart;
+        if (watermark != null && watermark.getTime() - overlapMillis > dayStart.getTime()) {
+            from = new Date(watermark.getTime() - overlapMillis);
+        }
+        Bson filter = Filters.and(
+                Filters.gte("end_time", from),
+                Filters.lt("end_time", dayEnd),
+                Filters.eq("alarm_type", "business"));
+        MongoCollection<Document> alarmInfo = collection.get();
+
+        // 先取水位线再取 distinct：两次查询之间写入的文档 end_time 不早于新水位线减重叠窗口，下次刷新仍会覆盖
+        Document latest = alarmInfo.find(filter)
+                .projection(Projections.fields(Projections.include("end_time"), Projections.excludeId()))
+                .sort(Sorts.descending("end_time"))
+                .first();
+        int before = names.size();
+        if (latest != null) {
+            Date latestEndTime = latest.getDate("end_time");
+            for (BsonValue value : alarmInfo.distinct("system_name", filter, BsonValue.class)) {
+                if (value.isString() && !value.asString().getValue().isEmpty()) {
+                    names.add(value.asString().getValue());
+                }
+            }
+            if (watermark == null || latestEndTime.after(watermark)) {
+                watermark = latestEndTime;
+            }
+        }
+        logger.debug("今日告警系统索引刷新，起始时间: {}，新增系统: {}，水位线: {}", from, names.size() - before, watermark);
+
+        Snapshot refreshed = new Snapshot(today, clock.millis(), Collections.unmodifiableList(new ArrayList<>(names)));
+        snapshot = refreshed;
+        return refreshed.names;
+    }
+
+    private static final class Snapshot {
+        private final LocalDate day;
+        private final long refreshedAt;
+        private final List<String> names;
+
+        private Snapshot(LocalDate day, long refreshedAt, List<String> names) {
+            this.day = day;
+            this.refreshedAt = refreshedAt;
+            this.names = names;
+        }
+
+        private boolean isFresh(LocalDate today, long now, long intervalMillis) {
+            return day.equals(today) && now - refreshedAt < intervalMillis;
+        }
+    }
+}
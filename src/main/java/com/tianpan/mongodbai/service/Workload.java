@@ -0,0 +1,24 @@
+package com.tianpan.mongodbai.service;
+
+/**
+ * 查询的负载类别，每类使用独立的MongoClient连接池，大批量导出不会占满交互查询的连接
+ */
+public enum Workload {
+
+    /**
+     * 交互查询：count、find及单条关联查询，要求低延迟，读主节点
+     */
+    INTERACTIVE,
+
+    /**
+     * 分析与导出：aggregate、流式导出及批量关联，耗时长、结果大，可读从节点
+     */
+    ANALYTICS;
+
+    /**
+     * 配置及统计中使用的名称，如 interactive
+     */
+    public String getName() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,21 @@
+package com.tianpan.mongodbai.service.admission;
+
+import java.time.Duration;
+
+/**
+ * 查询未被准入：调用方超出限流，或该类查询的许可和排队都已满。对应HTTP 429
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public AdmissionRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * 建议的重试等待时间，用作 Retry-After
+     */
+    public Duration getRetryAfter() { return retryAfter; }
+}
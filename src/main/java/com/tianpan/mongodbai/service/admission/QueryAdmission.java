@@ -0,0 +1,326 @@
+package com.tianpan.mongodbai.service.admission;
+
+import com.tianpan.mongodbai.config.AdmissionProperties;
+import com.tianpan.mongodbai.service.CollectionRegistry;
+import com.tianpan.mongodbai.service.IndexCatalog;
+import com.tianpan.mongodbai.service.QueryDeadline;
+import com.tianpan.mongodbai.service.QueryExecutor;
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * /query 的准入控制，位于查询线程池之前：
+ * <ol>
+ *     <li>按调用方的令牌桶限流，高开销查询消耗更多令牌，单个工作流无法占满许可</li>
+ *     <li>按 {@link QueryCost} 分为低开销、高开销两类，各自有并发许可和有界等待队列，
+ *     突发的全集合扫描只会排在高开销队列中，不影响按索引的小查询</li>
+ *     <li>队列已满时立即拒绝（{@link AdmissionRejectedException}，HTTP 429），
+ *     Retry-After按该类查询的平均耗时和排队长度估算</li>
+ * </ol>
+ * 等待许可的查询不占用线程；许可释放时由完成查询的线程把队首查询提交到线程池。
+ * 等待中的查询被取消或到达截止时间时立即移出队列，不再占用排队名额，也不计入Retry-After的估算。
+ */
+@Component
+public class QueryAdmission implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryAdmission.class);
+
+    private static final Duration MIN_RETRY_AFTER = Duration.ofSeconds(1);
+    private static final Duration MAX_RETRY_AFTER = Duration.ofSeconds(60);
+
+    private final AdmissionProperties properties;
+    private final QueryExecutor executor;
+    private final BiFunction<QueryPlan, RawBsonDocument, QueryCost> estimator;
+    private final LongSupplier nanoTime;
+    private final Map<QueryCost.Level, Lane> lanes = new EnumMap<>(QueryCost.Level.class);
+    private final Map<String, TokenBucket> buckets;
+    private final Counter clientRejections;
+    private final ScheduledThreadPoolExecutor timer;
+
+    @Autowired
+    public QueryAdmission(AdmissionProperties properties, QueryExecutor executor, CollectionRegistry collectionRegistry,
+                          IndexCatalog indexCatalog, MeterRegistry meterRegistry) {
+        this(properties, executor, (plan, pageSort) -> QueryCost.estimate(plan, pageSort,
+                collectionRegistry.resolve(plan.getCollection()).getDefaultLimit(),
+                indexCatalog.indexKeys(plan.getCollection()), properties.getLargeLimit()),
+                meterRegistry, System::nanoTime);
+    }
+
+    QueryAdmission(AdmissionProperties properties, QueryExecutor executor, BiFunction<QueryPlan, RawBsonDocument, QueryCost> estimator,
+                   MeterRegistry meterRegistry, LongSupplier nanoTime) {
+        this.properties = properties;
+        this.executor = executor;
+        this.estimator = estimator;
+        this.nanoTime = nanoTime;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "query-admission-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        lanes.put(QueryCost.Level.CHEAP, new Lane(QueryCost.Level.CHEAP, properties.getCheap(), meterRegistry));
+        lanes.put(QueryCost.Level.EXPENSIVE, new Lane(QueryCost.Level.EXPENSIVE, properties.getExpensive(), meterRegistry));
+        int maxClients = properties.getClient().getMaxClients();
+        this.buckets = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                return size() > maxClients;
+            }
+        };
+        this.clientRejections = Counter.builder("mongo.admission.rejected").tag("reason", "client")
+                .description("超出调用方限流被拒绝的查询数").register(meterRegistry);
+        logger.info("查询准入控制: enabled={}，低开销许可 {}/排队 {}，高开销许可 {}/排队 {}，调用方限流 {}/s、突发 {}",
+                properties.isEnabled(), properties.getCheap().getPermits(), properties.getCheap().getQueueCapacity(),
+                properties.getExpensive().getPermits(), properties.getExpensive().getQueueCapacity(),
+                properties.getClient().getRate(), properties.getClient().getBurst());
+    }
+
+    /**
+     * 估算查询开销
+     * @param pageSort 按键集分页时的分页排序，不分页为null
+     */
+    public QueryCost estimate(QueryPlan plan, RawBsonDocument pageSort) {
+        return estimator.apply(plan, pageSort);
+    }
+
+    /**
+     * 准入并提交查询，未获得许可时进入对应类别的等待队列
+     * @param client 调用方标识
+     * @throws AdmissionRejectedException 调用方超出限流，或许可和排队都已满
+     * @throws RejectedExecutionException 查询线程池已满
+     */
+    public <T> CompletableFuture<T> submit(String client, QueryCost cost, QueryDeadline deadline, Supplier<T> task) {
+        if (!properties.isEnabled()) {
+            return executor.submit(deadline, task);
+        }
+        int tokens = cost.getLevel() == QueryCost.Level.EXPENSIVE ? properties.getClient().getExpensiveCost() : 1;
+        long waitNanos = bucket(client).tryAcquire(tokens, nanoTime.getAsLong());
+        if (waitNanos > 0) {
+            clientRejections.increment();
+            throw new AdmissionRejectedException("调用方 " + client + " 查询过于频繁", retryAfter(waitNanos));
+        }
+        return lanes.get(cost.getLevel()).submit(deadline, task);
+    }
+
+    private TokenBucket bucket(String client) {
+        synchronized (buckets) {
+            return buckets.computeIfAbsent(client, key ->
+                    new TokenBucket(properties.getClient().getRate(), properties.getClient().getBurst(), nanoTime.getAsLong()));
+        }
+    }
+
+    /**
+     * 向上取整到秒，限定在1秒到60秒之间
+     */
+    private static Duration retryAfter(long nanos) {
+        if (nanos >= MAX_RETRY_AFTER.toNanos()) {
+            return MAX_RETRY_AFTER;
+        }
+        long seconds = (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+        return seconds < MIN_RETRY_AFTER.getSeconds() ? MIN_RETRY_AFTER : Duration.ofSeconds(seconds);
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * 一类查询的许可和等待队列，状态由 this 锁保护
+     */
+    private final class Lane {
+
+        private final QueryCost.Level level;
+        private final int permits;
+        private final int queueCapacity;
+        private final ArrayDeque<Waiter<?>> waiting = new ArrayDeque<>();
+        private final Counter rejections;
+        private int running;
+
+        /**
+         * 执行耗时的指数移动平均，用于估算Retry-After，无样本时为0
+         */
+        private double averageNanos;
+
+        Lane(QueryCost.Level level, AdmissionProperties.Lane settings, MeterRegistry meterRegistry) {
+            this.level = level;
+            this.permits = settings.getPermits();
+            this.queueCapacity = settings.getQueueCapacity();
+            this.rejections = Counter.builder("mongo.admission.rejected").tag("reason", "queue").tag("class", level.getName())
+                    .description("许可和排队已满被拒绝的查询数").register(meterRegistry);
+            Gauge.builder("mongo.admission.running", this, lane -> lane.snapshot(false)).tag("class", level.getName())
+                    .description("执行中的查询数").register(meterRegistry);
+            Gauge.builder("mongo.admission.waiting", this, lane -> lane.snapshot(true)).tag("class", level.getName())
+                    .description("等待许可的查询数").register(meterRegistry);
+        }
+
+        <T> CompletableFuture<T> submit(QueryDeadline deadline, Supplier<T> task) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            Waiter<T> waiter;
+            synchronized (this) {
+                if (running >= permits) {
+                    if (waiting.size() >= queueCapacity) {
+                        rejections.increment();
+                        throw new AdmissionRejectedException(level.getName() + " 类查询繁忙", estimateRetryAfter());
+                    }
+                    waiter = new Waiter<>(deadline, task, result);
+                    waiting.add(waiter);
+                } else {
+                    running++;
+                    waiter = null;
+                }
+            }
+            if (waiter != null) {
+                watch(waiter);
+                return result;
+            }
+            try {
+                dispatch(deadline, task, result);
+            } catch (RejectedExecutionException e) {
+                release(-1);
+                throw e;
+            }
+            return result;
+        }
+
+        /**
+         * 截止时间到达或被取消时把等待者移出队列
+         */
+        private void watch(Waiter<?> waiter) {
+            long remaining;
+            try {
+                remaining = waiter.deadline.maxTimeMillis();
+            } catch (CancellationException e) {
+                drop(waiter);
+                return;
+            }
+            if (remaining > 0) {
+                waiter.expiry = timer.schedule(() -> drop(waiter), remaining, TimeUnit.MILLISECONDS);
+            }
+            waiter.deadline.onCancel(() -> drop(waiter));
+        }
+
+        /**
+         * 仍在队列中时移出并以取消结束，已开始执行的不受影响
+         */
+        private void drop(Waiter<?> waiter) {
+            synchronized (this) {
+                if (!waiting.remove(waiter)) {
+                    return;
+                }
+            }
+            waiter.cancelExpiry();
+            waiter.result.completeExceptionally(new CancellationException(
+                    waiter.deadline.isCancelled() ? "查询已取消" : "查询已超过截止时间"));
+        }
+
+        private <T> void dispatch(QueryDeadline deadline, Supplier<T> task, CompletableFuture<T> result) {
+            long started = nanoTime.getAsLong();
+            executor.submit(deadline, task).whenComplete((value, error) -> {
+                release(nanoTime.getAsLong() - started);
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+
+        /**
+         * 归还许可，有等待的查询时直接转交给队首；队首未能开始执行（已取消、已超时、线程池已满）时依次转交下一个
+         * @param elapsedNanos 本次执行耗时，未执行时为-1
+         */
+        private void release(long elapsedNanos) {
+            synchronized (this) {
+                if (elapsedNanos >= 0) {
+                    averageNanos = averageNanos == 0 ? elapsedNanos : averageNanos * 0.8 + elapsedNanos * 0.2;
+                }
+            }
+            while (true) {
+                Waiter<?> next;
+                synchronized (this) {
+                    next = waiting.poll();
+                    if (next == null) {
+                        running--;
+                        return;
+                    }
+                }
+                if (start(next)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 从等待队列中取出后开始执行，未能执行时以异常结束该查询
+         * @return 是否已提交到线程池
+         */
+        private <T> boolean start(Waiter<T> waiter) {
+            waiter.cancelExpiry();
+            try {
+                waiter.deadline.check();
+                dispatch(waiter.deadline, waiter.task, waiter.result);
+                return true;
+            } catch (CancellationException | RejectedExecutionException e) {
+                waiter.result.completeExceptionally(e);
+                return false;
+            }
+        }
+
+        /**
+         * 排在队尾的查询大约要等 平均耗时 × (排队数 + 1) / 许可数
+         */
+        private Duration estimateRetryAfter() {
+            return retryAfter((long) (averageNanos * (waiting.size() + 1) / Math.max(1, permits)));
+        }
+
+        private synchronized double snapshot(boolean queued) {
+            return queued ? waiting.size() : running;
+        }
+    }
+
+    /**
+     * 等待许可的查询
+     */
+    private static final class Waiter<T> {
+        private final QueryDeadline deadline;
+        private final Supplier<T> task;
+        private final CompletableFuture<T> result;
+        private volatile ScheduledFuture<?> expiry;
+
+        Waiter(QueryDeadline deadline, Supplier<T> task, CompletableFuture<T> result) {
+            this.deadline = deadline;
+            this.task = task;
+            this.result = result;
+        }
+
+        void cancelExpiry() {
+            ScheduledFuture<?> scheduled = expiry;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.tianpan.mongodbai.service.admission;
+
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import org.bson.BsonDocument;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 根据执行计划估算查询开销，不访问数据库：
+ * <ul>
+ *     <li>find：有limit（不超过上限）且过滤条件能用索引定界，或无过滤条件时按索引顺序/自然顺序只读前几条，为低开销；
+ *     键集分页按分页排序（含追加的 _id）判断，须有索引的键以这些排序字段开头</li>
+ *     <li>count：读取元数据或过滤条件能用索引定界时为低开销，精确count全集合或过滤字段无索引为高开销</li>
+ *     <li>aggregate：首阶段 $match 能用索引定界且不含 $lookup 等关联阶段时为低开销</li>
+ * </ul>
+ * 能用索引定界指：某个条件字段是索引前导字段，且条件为等值、$in、范围或前缀正则；
+ * $ne、$nin、$exists、$not 及非前缀正则都需要扫描大部分索引，视为不可定界。
+ */
+public final class QueryCost {
+
+    public enum Level {
+        CHEAP, EXPENSIVE;
+
+        /**
+         * 指标标签及日志中使用的名称，如 cheap
+         */
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final Set<String> BOUNDING_OPERATORS = new HashSet<>(Arrays.asList("$eq", "$in", "$gt", "$gte", "$lt", "$lte"));
+
+    private static final Set<String> JOIN_STAGES = new HashSet<>(Arrays.asList("$lookup", "$graphLookup", "$facet", "$unionWith"));
+
+    private final Level level;
+    private final String reason;
+
+    private QueryCost(Level level, String reason) {
+        this.level = level;
+        this.reason = reason;
+    }
+
+    public static QueryCost cheap(String reason) {
+        return new QueryCost(Level.CHEAP, reason);
+    }
+
+    public static QueryCost expensive(String reason) {
+        return new QueryCost(Level.EXPENSIVE, reason);
+    }
+
+    /**
+     * @param pageSort 按键集分页时的分页排序，不分页为null
+     * @param defaultLimit 集合配置的find默认条数，未配置为null
+     * @param indexKeys 集合中各索引的键
+     * @param largeLimit limit超过该值视为高开销
+     */
+    public static QueryCost estimate(QueryPlan plan, RawBsonDocument pageSort, Integer defaultLimit,
+                                     List<Document> indexKeys, int largeLimit) {
+        Set<String> indexedFields = leadingFields(indexKeys);
+        switch (plan.getOperation()) {
+            case COUNT:
+                if (plan.isEstimatedCount()) {
+                    return cheap("count读取集合元数据");
+                }
+                if (plan.getFilter().isEmpty()) {
+                    return expensive("count全集合");
+                }
+                return bounded(plan.getFilter(), indexedFields) ? cheap("count按索引过滤") : expensive("count过滤字段无索引");
+            case AGGREGATE:
+                return estimateAggregate(plan.getPipeline(), indexedFields);
+            case FIND:
+            default:
+                Integer limit = plan.getLimit() != null ? plan.getLimit() : defaultLimit;
+                if (limit == null || limit == 0) {
+                    return expensive("find未指定limit");
+                }
+                if (limit > largeLimit) {
+                    return expensive("limit超过" + largeLimit);
+                }
+                if (plan.getFilter().isEmpty()) {
+                    if (pageSort != null) {
+                        return sortable(pageSort, indexKeys) ? cheap("分页按索引顺序读取")
+                                : expensive("分页排序无对应索引，需全集合排序");
+                    }
+                    RawBsonDocument sort = plan.getSort();
+                    return sort == null || indexedFields.contains(sort.getFirstKey()) ? cheap("find按limit读取前几条")
+                            : expensive("排序字段无索引，需全集合排序");
+                }
+                return bounded(plan.getFilter(), indexedFields) ? cheap("find按索引过滤") : expensive("find过滤字段无索引");
+        }
+    }
+
+    private static QueryCost estimateAggregate(List<RawBsonDocument> pipeline, Set<String> indexedFields) {
+        for (RawBsonDocument stage : pipeline) {
+            if (JOIN_STAGES.contains(stage.getFirstKey())) {
+                return expensive("aggregate含" + stage.getFirstKey());
+            }
+        }
+        if (pipeline.isEmpty() || !pipeline.get(0).getFirstKey().equals("$match")) {
+            return expensive("aggregate首阶段不是$match");
+        }
+        BsonValue match = pipeline.get(0).get("$match");
+        return match.isDocument() && bounded(match.asDocument(), indexedFields) ? cheap("aggregate按索引过滤")
+                : expensive("aggregate过滤字段无索引");
+    }
+
+    /**
+     * 各索引的前导字段，总是包含 _id
+     */
+    private static Set<String> leadingFields(List<Document> indexKeys) {
+        Set<String> fields = new HashSet<>();
+        fields.add("_id");
+        for (Document key : indexKeys) {
+            fields.add(key.keySet().iterator().next());
+        }
+        return fields;
+    }
+
+    /**
+     * 排序能否按索引顺序读取：某个索引的键以全部排序字段开头，且方向全部相同或全部相反；_id 总有索引
+     */
+    static boolean sortable(BsonDocument sort, List<Document> indexKeys) {
+        if (sort.size() == 1 && sort.getFirstKey().equals("_id")) {
+            return true;
+        }
+        for (Document key : indexKeys) {
+            if (key.size() < sort.size()) {
+                continue;
+            }
+            Iterator<Map.Entry<String, Object>> index = key.entrySet().iterator();
+            int sameDirection = 0;
+            boolean prefix = true;
+            for (Map.Entry<String, BsonValue> field : sort.entrySet()) {
+                Map.Entry<String, Object> indexField = index.next();
+                if (!indexField.getKey().equals(field.getKey()) || !(indexField.getValue() instanceof Number)
+                        || !field.getValue().isNumber()) {
+                    prefix = false;
+                    break;
+                }
+                if ((((Number) indexField.getValue()).doubleValue() < 0) == (field.getValue().asNumber().doubleValue() < 0)) {
+                    sameDirection++;
+                }
+            }
+            if (prefix && (sameDirection == 0 || sameDirection == sort.size())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 过滤条件能否用索引定界：顶层（含 $and）任一字段可定界，或 $or 的每个分支都可定界
+     */
+    static boolean bounded(BsonDocument filter, Set<String> indexedFields) {
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            BsonValue value = entry.getValue();
+            if (key.equals("$and") && value.isArray()) {
+                for (BsonValue branch : value.asArray()) {
+                    if (branch.isDocument() && bounded(branch.asDocument(), indexedFields)) {
+                        return true;
+                    }
+                }
+            } else if (key.equals("$or") && value.isArray() && !value.asArray().isEmpty()) {
+                boolean all = true;
+                for (BsonValue branch : value.asArray()) {
+                    all &= branch.isDocument() && bounded(branch.asDocument(), indexedFields);
+                }
+                if (all) {
+                    return true;
+                }
+            } else if (!key.startsWith("$") && indexedFields.contains(key) && boundedCondition(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean boundedCondition(BsonValue condition) {
+        if (condition.isRegularExpression()) {
+            return prefixRegex(condition.asRegularExpression());
+        }
+        if (!condition.isDocument() || condition.asDocument().isEmpty()
+                || !condition.asDocument().getFirstKey().startsWith("$")) {
+            // 等值比较，包括与子文档相等
+            return true;
+        }
+        for (Map.Entry<String, BsonValue> operator : condition.asDocument().entrySet()) {
+            if (BOUNDING_OPERATORS.contains(operator.getKey())) {
+                return true;
+            }
+            if (operator.getKey().equals("$regex")) {
+                BsonValue pattern = operator.getValue();
+                if (pattern.isRegularExpression() ? prefixRegex(pattern.asRegularExpression())
+                        : pattern.isString() && pattern.asString().getValue().startsWith("^")
+                        && !condition.asDocument().containsKey("$options")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 以 ^ 开头且不忽略大小写的正则可以按前缀扫描索引
+     */
+    private static boolean prefixRegex(BsonRegularExpression regex) {
+        return regex.getPattern().startsWith("^") && !regex.getOptions().contains("i");
+    }
+
+    public Level getLevel() { return level; }
+
+    /**
+     * 估算依据，用于日志
+     */
+    public String getReason() { return reason; }
+
+    @Override
+    public String toString() {
+        return level.getName() + "(" + reason + ")";
+    }
+}
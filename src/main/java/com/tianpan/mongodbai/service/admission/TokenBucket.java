@@ -0,0 +1,35 @@
+package com.tianpan.mongodbai.service.admission;
+
+/**
+ * 令牌桶：按固定速率补充令牌，容量即允许的突发量。时间由调用方传入（System.nanoTime），便于测试
+ */
+final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long updatedAt;
+
+    TokenBucket(double ratePerSecond, int capacity, long now) {
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.updatedAt = now;
+    }
+
+    /**
+     * 取出令牌
+     * @return 0表示成功；否则为令牌足够前还需等待的纳秒数，此时不扣减令牌
+     */
+    synchronized long tryAcquire(int count, long now) {
+        tokens = Math.min(capacity, tokens + (now - updatedAt) * tokensPerNano);
+        updatedAt = now;
+        // 单次消耗超过容量时按容量计，否则永远无法满足
+        double needed = Math.min(count, capacity);
+        if (tokens >= needed) {
+            tokens -= needed;
+            return 0;
+        }
+        return tokensPerNano > 0 ? (long) Math.ceil((needed - tokens) / tokensPerNano) : Long.MAX_VALUE;
+    }
+}
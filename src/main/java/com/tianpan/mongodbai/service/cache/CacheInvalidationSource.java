@@ -0,0 +1,22 @@
+package com.tianpan.mongodbai.service.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * 缓存失效事件来源。检测到集合数据变化时以集合名回调监听器。
+ */
+public interface CacheInvalidationSource {
+
+    /**
+     * 开始监听，实现应在后台线程中工作，不阻塞调用方
+     * @param listener 参数为发生变化的集合名
+     */
+    void start(Consumer<String> listener);
+
+    void stop();
+
+    /**
+     * 当前实际生效的失效方式，用于统计展示
+     */
+    String getName();
+}
@@ -0,0 +1,124 @@
+package com.tianpan.mongodbai.service.cache;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 基于change stream的失效来源，监听数据库中指定集合的所有变更。
+ * change stream只在副本集/分片集群上可用；首次建立失败（如单机部署）且配置了备用来源时，
+ * 切换到备用来源（通常是 {@link WatermarkInvalidationSource}）。
+ * 已建立的监听中断后会按退避间隔重连，并使全部监听集合失效，避免漏掉中断期间的变更。
+ */
+public class ChangeStreamInvalidationSource implements CacheInvalidationSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangeStreamInvalidationSource.class);
+
+    private static final long RETRY_INTERVAL_MS = 5000;
+
+    private final MongoDatabase database;
+    private final List<String> collections;
+    private final CacheInvalidationSource fallback;
+
+    private volatile boolean running;
+    private volatile MongoCursor<ChangeStreamDocument<Document>> cursor;
+    private volatile CacheInvalidationSource active = this;
+    private Thread thread;
+
+    /**
+     * @param fallback change stream不可用时的备用来源，可为null
+     */
+    public ChangeStreamInvalidationSource(MongoDatabase database, List<String> collections,
+                                          CacheInvalidationSource fallback) {
+        this.database = database;
+        this.collections = Collections.unmodifiableList(collections);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public synchronized void start(Consumer<String> listener) {
+        running = true;
+        thread = new Thread(() -> watch(listener), "cache-change-stream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch(Consumer<String> listener) {
+        boolean established = false;
+        while (running) {
+            try (MongoCursor<ChangeStreamDocument<Document>> changes = database
+                    .watch(Collections.singletonList(Aggregates.match(Filters.in("ns.coll", collections))))
+                    .iterator()) {
+                cursor = changes;
+                if (established) {
+                    collections.forEach(listener);
+                }
+                established = true;
+                logger.info("change stream监听已建立，集合: {}", collections);
+                while (running && changes.hasNext()) {
+                    ChangeStreamDocument<Document> event = changes.next();
+                    BsonDocument namespace = event.getNamespaceDocument();
+                    if (namespace != null && namespace.containsKey("coll")) {
+                        listener.accept(namespace.getString("coll").getValue());
+                    } else {
+                        // dropDatabase、invalidate等事件不带集合名
+                        collections.forEach(listener);
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                if (!established && fallback != null) {
+                    logger.warn("change stream不可用（{}），改用{}失效", e.getMessage(), fallback.getName());
+                    active = fallback;
+                    fallback.start(listener);
+                    return;
+                }
+                logger.warn("change stream监听中断，{}ms后重连: {}", RETRY_INTERVAL_MS, e.getMessage());
+                try {
+                    Thread.sleep(RETRY_INTERVAL_MS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } finally {
+                cursor = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        MongoCursor<ChangeStreamDocument<Document>> current = cursor;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (RuntimeException e) {
+                logger.debug("关闭change stream游标失败: {}", e.getMessage());
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (fallback != null) {
+            fallback.stop();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return active == this ? "change-stream" : active.getName();
+    }
+}
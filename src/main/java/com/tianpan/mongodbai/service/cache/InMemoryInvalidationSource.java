@@ -0,0 +1,36 @@
+package com.tianpan.mongodbai.service.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * 手动触发的失效来源，不依赖MongoDB，供测试或不需要自动失效时使用
+ */
+public class InMemoryInvalidationSource implements CacheInvalidationSource {
+
+    private volatile Consumer<String> listener;
+
+    @Override
+    public void start(Consumer<String> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void stop() {
+        this.listener = null;
+    }
+
+    /**
+     * 通知某个集合发生了变化
+     */
+    public void publish(String collection) {
+        Consumer<String> current = listener;
+        if (current != null) {
+            current.accept(collection);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "in-memory";
+    }
+}
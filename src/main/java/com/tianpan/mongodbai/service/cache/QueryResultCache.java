@@ -0,0 +1,198 @@
+package com.tianpan.mongodbai.service.cache;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 查询结果缓存，以规范化后的查询语句为键缓存序列化好的JSON结果。
+ * <ul>
+ *     <li>按集合配置TTL，过期条目在读取时剔除</li>
+ *     <li>按字节预算限制总大小，超出时按LRU或LFU淘汰</li>
+ *     <li>按集合失效：每个集合维护一个版本号，失效时递增；查询开始前记录版本号，
+ *     写入时版本号已变化说明查询期间发生过失效，结果不再写入缓存，避免缓存旧数据</li>
+ * </ul>
+ */
+public class QueryResultCache {
+
+    public enum EvictionPolicy { LRU, LFU }
+
+    /**
+     * 每个条目除键值字符串外的估算开销（对象头、引用、统计字段）
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long maxBytes;
+    private final EvictionPolicy evictionPolicy;
+    private final Duration defaultTtl;
+    private final Map<String, Duration> collectionTtls;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> generations = new HashMap<>();
+    private long epoch;
+    private long currentBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    public QueryResultCache(long maxBytes, EvictionPolicy evictionPolicy, Duration defaultTtl,
+                            Map<String, Duration> collectionTtls) {
+        this(maxBytes, evictionPolicy, defaultTtl, collectionTtls, () -> System.nanoTime() / 1_000_000);
+    }
+
+    /**
+     * @param clock 毫秒时钟，测试中可替换
+     */
+    public QueryResultCache(long maxBytes, EvictionPolicy evictionPolicy, Duration defaultTtl,
+                            Map<String, Duration> collectionTtls, LongSupplier clock) {
+        this.maxBytes = maxBytes;
+        this.evictionPolicy = evictionPolicy;
+        this.defaultTtl = defaultTtl;
+        this.collectionTtls = collectionTtls != null ? new HashMap<>(collectionTtls) : Collections.emptyMap();
+        this.clock = clock;
+    }
+
+    public synchronized String get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expiresAt <= clock.getAsLong()) {
+            remove(key, entry);
+            expirations++;
+            misses++;
+            return null;
+        }
+        entry.frequency++;
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * 集合当前的版本号，查询执行前获取，写入缓存时传回 {@link #put}
+     */
+    public synchronized long generation(String collection) {
+        return (epoch << 32) + generations.getOrDefault(collection, 0L);
+    }
+
+    /**
+     * 写入缓存
+     * @param generation 查询开始前通过 {@link #generation} 获取的版本号
+     * @return 是否写入成功；TTL为0、结果超过预算或查询期间集合已失效时不写入
+     */
+    public synchronized boolean put(String key, String collection, String value, long generation) {
+        long ttlMillis = ttlFor(collection).toMillis();
+        long size = sizeOf(key, value);
+        if (ttlMillis <= 0 || size > maxBytes || generation != generation(collection)) {
+            return false;
+        }
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            currentBytes -= previous.size;
+        }
+        while (currentBytes + size > maxBytes && !entries.isEmpty()) {
+            evictOne();
+        }
+        entries.put(key, new Entry(collection, value, size, clock.getAsLong() + ttlMillis));
+        currentBytes += size;
+        return true;
+    }
+
+    /**
+     * 使某个集合的全部缓存结果失效
+     * @return 移除的条目数
+     */
+    public synchronized int invalidateCollection(String collection) {
+        generations.merge(collection, 1L, Long::sum);
+        int removed = 0;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.collection.equals(collection)) {
+                iterator.remove();
+                currentBytes -= entry.size;
+                removed++;
+            }
+        }
+        invalidations += removed;
+        return removed;
+    }
+
+    public synchronized void invalidateAll() {
+        epoch++;
+        invalidations += entries.size();
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public Duration ttlFor(String collection) {
+        return collectionTtls.getOrDefault(collection, defaultTtl);
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long requests = hits + misses;
+        stats.put("entries", entries.size());
+        stats.put("bytes", currentBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("evictionPolicy", evictionPolicy.name());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRatio", requests == 0 ? 0.0 : (double) hits / requests);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        stats.put("invalidations", invalidations);
+        return stats;
+    }
+
+    private void evictOne() {
+        String victim = null;
+        if (evictionPolicy == EvictionPolicy.LRU) {
+            victim = entries.keySet().iterator().next();
+        } else {
+            // LFU：访问频次最低者优先，频次相同时按访问顺序取最久未访问的
+            long minFrequency = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (candidate.getValue().frequency < minFrequency) {
+                    minFrequency = candidate.getValue().frequency;
+                    victim = candidate.getKey();
+                }
+            }
+        }
+        remove(victim, entries.get(victim));
+        evictions++;
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        currentBytes -= entry.size;
+    }
+
+    private static long sizeOf(String key, String value) {
+        return 2L * (key.length() + value.length()) + ENTRY_OVERHEAD;
+    }
+
+    private static final class Entry {
+        private final String collection;
+        private final String value;
+        private final long size;
+        private final long expiresAt;
+        private long frequency;
+
+        private Entry(String collection, String value, long size, long expiresAt) {
+            this.collection = collection;
+            this.value = value;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.tianpan.mongodbai.service.cache;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 轮询水位线的失效来源：定期读取每个集合中水位字段（默认end_time）的最大值，
+ * 最大值变化即认为有新数据写入。
+ * <p>
+ * 只轮询有以水位字段开头的索引的集合，每次轮询只读索引的一端；没有这样索引的集合不轮询，避免每个间隔一次全集合扫描加排序。
+ * 只能发现水位值更大的新文档：对已有文档的修改、删除、水位值较早的补写，以及不轮询的集合，
+ * 都要等到TTL过期（mongo.cache.default-ttl / mongo.cache.ttl.*）才会读到新数据。
+ */
+public class WatermarkInvalidationSource implements CacheInvalidationSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(WatermarkInvalidationSource.class);
+
+    private final MongoDatabase database;
+    private final List<String> collections;
+    private final String field;
+    private final long intervalMillis;
+    private final Predicate<String> indexed;
+
+    /**
+     * 仅由调度线程访问
+     */
+    private final Map<String, Object> watermarks = new HashMap<>();
+
+    /**
+     * 因缺少索引而跳过的集合，仅由调度线程访问，只在状态变化时记日志
+     */
+    private final Set<String> skipped = new HashSet<>();
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param indexed 集合是否有以水位字段开头的索引，每次轮询前判断，之后建好的索引会被用上
+     */
+    public WatermarkInvalidationSource(MongoDatabase database, List<String> collections, String field, long intervalMillis,
+                                       Predicate<String> indexed) {
+        this.database = database;
+        this.collections = Collections.unmodifiableList(collections);
+        this.field = field;
+        this.intervalMillis = intervalMillis;
+        this.indexed = indexed;
+    }
+
+    @Override
+    public synchronized void start(Consumer<String> listener) {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-watermark");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> poll(listener), 0, intervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("水位线轮询已启动，字段: {}，间隔: {}ms，集合: {}", field, intervalMillis, collections);
+    }
+
+    void poll(Consumer<String> listener) {
+        for (String collection : collections) {
+            try {
+                if (!indexed.test(collection)) {
+                    if (skipped.add(collection)) {
+                        logger.warn("集合 {} 没有以 {} 开头的索引，不轮询水位线，缓存只按TTL过期", collection, field);
+                    }
+                    watermarks.remove(collection);
+                    continue;
+                }
+                if (skipped.remove(collection)) {
+                    logger.info("集合 {} 已有 {} 索引，开始轮询水位线", collection, field);
+                }
+                Document latest = database.getCollection(collection)
+                        .find(Filters.exists(field))
+                        .sort(Sorts.descending(field))
+                        .projection(Projections.fields(Projections.include(field), Projections.excludeId()))
+                        .first();
+                Object watermark = latest != null ? latest.get(field) : null;
+                boolean seen = watermarks.containsKey(collection);
+                Object previous = watermarks.put(collection, watermark);
+                if (seen && !Objects.equals(previous, watermark)) {
+                    logger.debug("集合 {} 水位线变化: {} -> {}", collection, previous, watermark);
+                    listener.accept(collection);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("读取集合 {} 水位线失败: {}", collection, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "watermark";
+    }
+}
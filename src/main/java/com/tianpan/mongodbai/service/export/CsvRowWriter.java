@@ -0,0 +1,59 @@
+package com.tianpan.mongodbai.service.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * RFC 4180 格式的CSV：逗号分隔、CRLF换行，含逗号、引号、换行或首尾空格的值加双引号。
+ * 开头写UTF-8 BOM，Excel直接打开时中文不乱码
+ */
+public final class CsvRowWriter implements RowWriter {
+
+    private final Writer writer;
+
+    public CsvRowWriter(OutputStream outputStream, List<String> header) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writer.write('\uFEFF');
+        writeRow(header);
+    }
+
+    @Override
+    public void writeRow(List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = values.get(i);
+            if (value != null) {
+                writer.write(needsQuotes(value) ? '"' + value.replace("\"", "\"\"") + '"' : value);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    private static boolean needsQuotes(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        if (Character.isWhitespace(value.charAt(0)) || Character.isWhitespace(value.charAt(value.length() - 1))) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.flush();
+    }
+}
@@ -0,0 +1,46 @@
+package com.tianpan.mongodbai.service.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * 导出文件格式
+ */
+public enum ExportFormat {
+
+    CSV("text/csv;charset=UTF-8", "csv"),
+
+    XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+
+    private final String contentType;
+    private final String extension;
+
+    ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    /**
+     * 按名称（不区分大小写）解析格式
+     * @throws IllegalArgumentException 不支持的格式
+     */
+    public static ExportFormat of(String name) {
+        for (ExportFormat format : values()) {
+            if (format.extension.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("不支持的导出格式: " + name + "，可选 csv、xlsx");
+    }
+
+    /**
+     * 创建写入输出流的行写出器，并写出表头
+     */
+    public RowWriter open(OutputStream outputStream, List<String> header) throws IOException {
+        return this == CSV ? new CsvRowWriter(outputStream, header) : new XlsxRowWriter(outputStream, header);
+    }
+
+    public String getContentType() { return contentType; }
+    public String getExtension() { return extension; }
+}
@@ -0,0 +1,23 @@
+package com.tianpan.mongodbai.service.export;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 逐行写出表格，只保留当前行，内存占用与行数无关。
+ * <p>
+ * 只有 {@link #finish} 会补全文件结尾（如XLSX的目录），中途出错时不调用，客户端得到的是可识别的不完整文件，
+ * 而不是看似完整、实际缺行的文件。两者都不关闭底层输出流。
+ */
+public interface RowWriter {
+
+    /**
+     * 写出一行，null与空字符串都写为空单元格
+     */
+    void writeRow(List<String> values) throws IOException;
+
+    /**
+     * 写出文件结尾并刷新输出流
+     */
+    void finish() throws IOException;
+}
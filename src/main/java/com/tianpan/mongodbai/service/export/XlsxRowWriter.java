@@ -0,0 +1,174 @@
+package com.tianpan.mongodbai.service.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 流式写出XLSX：工作表XML边生成边压缩写入输出流，单元格使用内联字符串（不需要共享字符串表），
+ * 不像POI的SXSSF那样先写临时文件再打包，内存和磁盘占用都与行数无关。
+ * <p>
+ * 单个工作表超过Excel的行数上限（1048576行，含表头）时续写到下一个工作表，每个工作表都带表头。
+ * 工作簿目录、关系和内容类型在 {@link #finish} 时按实际工作表数写出；OPC不要求ZIP条目的顺序。
+ */
+public final class XlsxRowWriter implements RowWriter {
+
+    static final int MAX_ROWS = 1_048_576;
+
+    /**
+     * Excel单元格的字符数上限
+     */
+    private static final int MAX_CELL_LENGTH = 32_767;
+
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String REL_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String PACKAGE_REL_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+
+    private final ZipOutputStream zip;
+    private final Writer writer;
+    private final List<String> header;
+    private final int maxRows;
+    private int sheets;
+    private int row;
+
+    public XlsxRowWriter(OutputStream outputStream, List<String> header) {
+        this(outputStream, header, MAX_ROWS);
+    }
+
+    XlsxRowWriter(OutputStream outputStream, List<String> header, int maxRows) {
+        // 只调用finish()、不关闭ZipOutputStream，响应流由容器关闭
+        this.zip = new ZipOutputStream(outputStream);
+        this.writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+        this.header = header;
+        this.maxRows = maxRows;
+    }
+
+    @Override
+    public void writeRow(List<String> values) throws IOException {
+        if (sheets == 0 || row >= maxRows) {
+            if (sheets > 0) {
+                endSheet();
+            }
+            startSheet();
+        }
+        appendRow(values);
+    }
+
+    private void startSheet() throws IOException {
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + (++sheets) + ".xml"));
+        writer.write(XML_HEADER);
+        writer.write("<worksheet xmlns=\"" + MAIN_NS + "\"><sheetData>");
+        row = 0;
+        appendRow(header);
+    }
+
+    private void endSheet() throws IOException {
+        writer.write("</sheetData></worksheet>");
+        writer.flush();
+        zip.closeEntry();
+    }
+
+    private void appendRow(List<String> values) throws IOException {
+        row++;
+        writer.write("<row r=\"");
+        writer.write(Integer.toString(row));
+        writer.write("\">");
+        for (int column = 0; column < values.size(); column++) {
+            String value = values.get(column);
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            writer.write("<c r=\"");
+            writer.write(columnName(column));
+            writer.write(Integer.toString(row));
+            writer.write("\" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+            writeEscaped(value.length() > MAX_CELL_LENGTH ? value.substring(0, MAX_CELL_LENGTH) : value);
+            writer.write("</t></is></c>");
+        }
+        writer.write("</row>");
+    }
+
+    /**
+     * 列序号（从0开始）对应的列名：A..Z、AA..
+     */
+    static String columnName(int column) {
+        StringBuilder name = new StringBuilder();
+        for (int n = column + 1; n > 0; n = (n - 1) / 26) {
+            name.insert(0, (char) ('A' + (n - 1) % 26));
+        }
+        return name.toString();
+    }
+
+    /**
+     * 转义XML特殊字符，去掉XML 1.0不允许的控制字符
+     */
+    private void writeEscaped(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                default:
+                    if (c >= 0x20 && c != 0xFFFE && c != 0xFFFF || c == '\t' || c == '\n' || c == '\r') {
+                        writer.write(c);
+                    }
+            }
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (sheets == 0) {
+            startSheet();
+        }
+        endSheet();
+
+        StringBuilder contentTypes = new StringBuilder(XML_HEADER)
+                .append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+                .append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+                .append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+                .append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>");
+        StringBuilder workbook = new StringBuilder(XML_HEADER)
+                .append("<workbook xmlns=\"").append(MAIN_NS).append("\" xmlns:r=\"").append(REL_NS).append("\"><sheets>");
+        StringBuilder workbookRels = new StringBuilder(XML_HEADER)
+                .append("<Relationships xmlns=\"").append(PACKAGE_REL_NS).append("\">");
+        for (int i = 1; i <= sheets; i++) {
+            contentTypes.append("<Override PartName=\"/xl/worksheets/sheet").append(i)
+                    .append(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+            workbook.append("<sheet name=\"Sheet").append(i).append("\" sheetId=\"").append(i)
+                    .append("\" r:id=\"rId").append(i).append("\"/>");
+            workbookRels.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(REL_NS)
+                    .append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+        }
+        writeEntry("[Content_Types].xml", contentTypes.append("</Types>"));
+        writeEntry("_rels/.rels", new StringBuilder(XML_HEADER)
+                .append("<Relationships xmlns=\"").append(PACKAGE_REL_NS).append("\">")
+                .append("<Relationship Id=\"rId1\" Type=\"").append(REL_NS)
+                .append("/officeDocument\" Target=\"xl/workbook.xml\"/></Relationships>"));
+        writeEntry("xl/workbook.xml", workbook.append("</sheets></workbook>"));
+        writeEntry("xl/_rels/workbook.xml.rels", workbookRels.append("</Relationships>"));
+        zip.finish();
+        zip.flush();
+    }
+
+    private void writeEntry(String name, CharSequence content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        writer.append(content);
+        writer.flush();
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,315 @@
+package com.tianpan.mongodbai.service.query;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonNumber;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * find的键集分页：按排序字段组成唯一的排序键（排序不唯一时追加 _id），下一页从上一页最后一个文档的排序键之后开始，
+ * 以范围条件代替skip，第N页与第1页的代价相同。分页由请求显式开启，不分页的查询保持原排序和投影。
+ * <p>
+ * 续页令牌是 {h: 查询语句及分页排序的指纹, k: [排序键取值...]} 的BSON字节经Base64编码，只能用于生成它的同一查询语句。
+ * 排序字段的取值类型应一致（MongoDB的比较按类型分组），缺失字段与null等同。
+ */
+public final class Keyset {
+
+    private static final String ID = "_id";
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    private Keyset() {
+    }
+
+    /**
+     * 查询的分页方式；非find或排序中有 $meta 等非数值方向时不支持分页，返回null
+     * @param uniqueKeys 集合中唯一索引的键，排序字段包含某个唯一索引的全部字段时排序已经唯一，不再追加 _id
+     */
+    public static Page page(QueryPlan plan, List<? extends Map<String, ?>> uniqueKeys) {
+        if (plan.getOperation() != QueryPlan.Operation.FIND) {
+            return null;
+        }
+        RawBsonDocument sort = pageSort(plan.getSort(), uniqueKeys);
+        if (sort == null) {
+            return null;
+        }
+        List<String> injected = new ArrayList<>();
+        RawBsonDocument projection = pageProjection(plan.getProjection(), sort, injected);
+        return new Page(plan, sort, projection, injected);
+    }
+
+    /**
+     * 分页使用的排序：原排序不唯一时追加与最后一个排序字段同向的 _id
+     */
+    static RawBsonDocument pageSort(RawBsonDocument sort, List<? extends Map<String, ?>> uniqueKeys) {
+        BsonDocument pageSort = new BsonDocument();
+        int lastDirection = 1;
+        if (sort != null) {
+            for (Map.Entry<String, BsonValue> entry : sort.entrySet()) {
+                if (!entry.getValue().isNumber()) {
+                    return null;
+                }
+                lastDirection = direction(entry.getValue());
+                pageSort.put(entry.getKey(), new BsonInt32(lastDirection));
+            }
+        }
+        if (!unique(pageSort.keySet(), uniqueKeys)) {
+            pageSort.put(ID, new BsonInt32(lastDirection));
+        }
+        return new RawBsonDocument(pageSort, CODEC);
+    }
+
+    private static boolean unique(Set<String> sortFields, List<? extends Map<String, ?>> uniqueKeys) {
+        if (sortFields.contains(ID)) {
+            return true;
+        }
+        for (Map<String, ?> key : uniqueKeys) {
+            if (sortFields.containsAll(key.keySet())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 分页使用的投影：保证排序字段会被返回，以便从最后一个文档生成续页令牌。
+     * 包含式投影补上缺少的排序字段，排除式投影去掉对排序字段的排除；为此多返回的字段记入 injected，
+     * 生成令牌后从结果中去掉
+     */
+    static RawBsonDocument pageProjection(RawBsonDocument projection, RawBsonDocument pageSort, List<String> injected) {
+        if (projection == null) {
+            return null;
+        }
+        BsonDocument adjusted = projection.decode(CODEC);
+        boolean inclusion = false;
+        for (Map.Entry<String, BsonValue> entry : adjusted.entrySet()) {
+            if (!entry.getKey().equals(ID) && !isExclusion(entry.getValue())) {
+                inclusion = true;
+            }
+        }
+        for (String field : pageSort.keySet()) {
+            if (inclusion) {
+                if (field.equals(ID)) {
+                    if (adjusted.remove(ID) != null) {
+                        injected.add(ID);
+                    }
+                } else if (!coveredBy(field, adjusted)) {
+                    adjusted.put(field, new BsonInt32(1));
+                    injected.add(field);
+                }
+            } else {
+                for (String path : new ArrayList<>(adjusted.keySet())) {
+                    if (path.equals(field) || field.startsWith(path + ".")) {
+                        adjusted.remove(path);
+                        injected.add(path);
+                    }
+                }
+            }
+        }
+        return new RawBsonDocument(adjusted, CODEC);
+    }
+
+    private static boolean isExclusion(BsonValue value) {
+        return value.isBoolean() ? !value.asBoolean().getValue() : value.isNumber() && value.asNumber().intValue() == 0;
+    }
+
+    private static boolean coveredBy(String field, BsonDocument inclusion) {
+        for (Map.Entry<String, BsonValue> entry : inclusion.entrySet()) {
+            String path = entry.getKey();
+            if (!isExclusion(entry.getValue()) && (path.equals(field) || field.startsWith(path + ".") || path.startsWith(field + "."))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 由本页最后一个文档（去掉多返回的字段之前）生成续页令牌
+     */
+    static String token(Page page, BsonDocument lastDocument) {
+        BsonArray values = new BsonArray();
+        for (String field : page.sort.keySet()) {
+            values.add(valueAt(lastDocument, field));
+        }
+        BsonDocument token = new BsonDocument("h", new BsonInt32(fingerprint(page))).append("k", values);
+        ByteBuffer buffer = new RawBsonDocument(token, CODEC).getByteBuffer().asNIO();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * 续页令牌对应的查询条件：原条件与"排序键大于上一页最后一个文档"的范围条件取交集
+     * @throws IllegalArgumentException 令牌无效或不属于该查询语句
+     */
+    static BsonDocument filter(Page page, String token) {
+        QueryPlan plan = page.plan;
+        List<BsonValue> values = decode(page, token);
+        List<String> fields = new ArrayList<>(page.sort.keySet());
+
+        // (k1 > v1) or (k1 = v1 and k2 > v2) or ...，每个分支的第一个范围字段都可以用索引定界
+        BsonArray branches = new BsonArray();
+        for (int i = 0; i < fields.size(); i++) {
+            for (BsonValue after : after(fields.get(i), values.get(i), direction(page.sort.get(fields.get(i))))) {
+                BsonDocument branch = new BsonDocument();
+                for (int j = 0; j < i; j++) {
+                    branch.put(fields.get(j), values.get(j));
+                }
+                branch.put(fields.get(i), after);
+                branches.add(branch);
+            }
+        }
+        BsonDocument range = branches.size() == 1 ? branches.get(0).asDocument()
+                : new BsonDocument("$or", branches);
+        if (plan.getFilter().isEmpty()) {
+            return range;
+        }
+        return new BsonDocument("$and", new BsonArray(Arrays.asList(plan.getFilter(), range)));
+    }
+
+    /**
+     * 排序方向上严格位于value之后的条件，各条件取并集。null（含缺失）排在所有非null值之前：
+     * 升序时null之后是所有非null值，非null值之后是更大的值；降序时null之后没有值，
+     * 非null值之后是更小的值以及null和缺失（$lt 不匹配null，需单独一个分支；_id 总是存在，不需要）
+     */
+    private static List<BsonValue> after(String field, BsonValue value, int direction) {
+        if (value.isNull()) {
+            return direction > 0 ? Collections.singletonList(new BsonDocument("$ne", BsonNull.VALUE))
+                    : Collections.emptyList();
+        }
+        if (direction > 0) {
+            return Collections.singletonList(new BsonDocument("$gt", value));
+        }
+        BsonValue smaller = new BsonDocument("$lt", value);
+        return ID.equals(field) ? Collections.singletonList(smaller) : Arrays.asList(smaller, BsonNull.VALUE);
+    }
+
+    private static List<BsonValue> decode(Page page, String token) {
+        BsonDocument document;
+        try {
+            document = new RawBsonDocument(Base64.getUrlDecoder().decode(token)).decode(CODEC);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的续页令牌", e);
+        }
+        BsonValue hash = document.get("h");
+        BsonValue values = document.get("k");
+        if (hash == null || !hash.isInt32() || values == null || !values.isArray()) {
+            throw new IllegalArgumentException("无效的续页令牌");
+        }
+        if (hash.asInt32().getValue() != fingerprint(page) || values.asArray().size() != page.sort.size()) {
+            throw new IllegalArgumentException("续页令牌与查询语句不匹配");
+        }
+        return values.asArray().getValues();
+    }
+
+    /**
+     * 分页排序随唯一索引变化时，旧令牌的排序键对不上，按不匹配拒绝
+     */
+    private static int fingerprint(Page page) {
+        return (page.plan.getKey() + "\n" + page.sort.toJson()).hashCode();
+    }
+
+    private static int direction(BsonValue value) {
+        return ((BsonNumber) value).doubleValue() < 0 ? -1 : 1;
+    }
+
+    /**
+     * 按点分路径取值，缺失时为null
+     */
+    private static BsonValue valueAt(BsonDocument document, String path) {
+        BsonValue current = document;
+        for (String part : path.split("\\.")) {
+            if (current == null || !current.isDocument()) {
+                return BsonNull.VALUE;
+            }
+            current = current.asDocument().get(part);
+        }
+        return current != null ? current : BsonNull.VALUE;
+    }
+
+    /**
+     * 从文档中删除点分路径上的字段，中间不是子文档时忽略；Document 与 BsonDocument 均适用
+     */
+    @SuppressWarnings("unchecked")
+    private static void removePath(Map<String, ?> document, String path) {
+        int dot = path.indexOf('.');
+        if (dot < 0) {
+            document.remove(path);
+            return;
+        }
+        Object child = document.get(path.substring(0, dot));
+        if (child instanceof Map) {
+            removePath((Map<String, ?>) child, path.substring(dot + 1));
+        }
+    }
+
+    /**
+     * 一次分页查询使用的排序和投影，以及投影为生成令牌而多返回、需从结果中去掉的字段
+     */
+    public static final class Page {
+        private final QueryPlan plan;
+        private final RawBsonDocument sort;
+        private final RawBsonDocument projection;
+        private final List<String> injected;
+
+        private Page(QueryPlan plan, RawBsonDocument sort, RawBsonDocument projection, List<String> injected) {
+            this.plan = plan;
+            this.sort = sort;
+            this.projection = projection;
+            this.injected = Collections.unmodifiableList(injected);
+        }
+
+        /**
+         * 分页排序，如 {end_time: -1, _id: -1}
+         */
+        public RawBsonDocument getSort() { return sort; }
+
+        /**
+         * 分页投影，查询未指定投影时为null
+         */
+        public RawBsonDocument getProjection() { return projection; }
+
+        /**
+         * 查询条件：首页为原条件，续页为原条件与续页令牌之后的范围条件
+         * @throws IllegalArgumentException 令牌无效或不属于该查询语句
+         */
+        public BsonDocument filter(String continuation) {
+            return continuation != null ? Keyset.filter(this, continuation) : plan.getFilter();
+        }
+
+        /**
+         * 由本页最后一个文档生成续页令牌，须在 {@link #strip} 之前调用
+         */
+        public String token(BsonDocument lastDocument) {
+            return Keyset.token(this, lastDocument);
+        }
+
+        /**
+         * 分页投影是否多返回了查询未要求的字段
+         */
+        public boolean hasInjectedFields() {
+            return !injected.isEmpty();
+        }
+
+        /**
+         * 去掉分页投影多返回的字段，结果与不分页时的投影一致
+         */
+        public void strip(Map<String, ?> document) {
+            for (String path : injected) {
+                removePath(document, path);
+            }
+        }
+    }
+}
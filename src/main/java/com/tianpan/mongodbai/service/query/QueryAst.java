@@ -0,0 +1,62 @@
+package com.tianpan.mongodbai.service.query;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 查询语句的语法树：db.&lt;collection&gt;.&lt;method&gt;(...).&lt;method&gt;(...)...
+ */
+public final class QueryAst {
+
+    private final String collection;
+    private final List<MethodCall> calls;
+
+    public QueryAst(String collection, List<MethodCall> calls) {
+        this.collection = collection;
+        this.calls = Collections.unmodifiableList(calls);
+    }
+
+    public String getCollection() { return collection; }
+    public List<MethodCall> getCalls() { return calls; }
+
+    /**
+     * 方法调用节点，如 find({...}) 或 limit(10)
+     */
+    public static final class MethodCall {
+        private final String name;
+        private final List<Argument> arguments;
+        private final int position;
+
+        public MethodCall(String name, List<Argument> arguments, int position) {
+            this.name = name;
+            this.arguments = Collections.unmodifiableList(arguments);
+            this.position = position;
+        }
+
+        public String getName() { return name; }
+        public List<Argument> getArguments() { return arguments; }
+        public int getPosition() { return position; }
+    }
+
+    /**
+     * 参数节点，保留参数的原始文本，由编译阶段按类型解析为BSON值
+     */
+    public static final class Argument {
+
+        public enum Kind { OBJECT, ARRAY, NUMBER, STRING, OTHER }
+
+        private final Kind kind;
+        private final String text;
+        private final int position;
+
+        public Argument(Kind kind, String text, int position) {
+            this.kind = kind;
+            this.text = text;
+            this.position = position;
+        }
+
+        public Kind getKind() { return kind; }
+        public String getText() { return text; }
+        public int getPosition() { return position; }
+    }
+}
@@ -0,0 +1,211 @@
+package com.tianpan.mongodbai.service.query;
+
+import com.tianpan.mongodbai.service.query.QueryAst.Argument;
+import com.tianpan.mongodbai.service.query.QueryAst.MethodCall;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 将语法树编译为 {@link QueryPlan}，参数在这里一次性解析为BSON
+ */
+public final class QueryCompiler {
+
+    /**
+     * 会写入数据的管道阶段，查询接口只读，不允许使用
+     */
+    private static final Set<String> WRITE_STAGES = new HashSet<>(Arrays.asList("$out", "$merge"));
+
+    private QueryCompiler() {
+    }
+
+    public static QueryPlan compile(QueryAst ast, String key) {
+        return compile(ast, key, Collections.emptyMap());
+    }
+
+    /**
+     * @param defaultProjections 按集合名配置的默认投影，find未指定投影时使用
+     */
+    public static QueryPlan compile(QueryAst ast, String key, Map<String, RawBsonDocument> defaultProjections) {
+        List<MethodCall> calls = ast.getCalls();
+        MethodCall operation = calls.get(0);
+        String name = operation.getName().toLowerCase();
+
+        QueryPlan.Builder builder;
+        switch (name) {
+            case "count":
+            case "countdocuments":
+                // count() 无条件时读取元数据；countDocuments() 总是精确计数
+                requireArguments(operation, 0, 1);
+                builder = new QueryPlan.Builder(key, ast.getCollection(), QueryPlan.Operation.COUNT)
+                        .exactCount(name.equals("countdocuments"));
+                if (!operation.getArguments().isEmpty()) {
+                    builder.filter(parseDocument(operation.getArguments().get(0), "查询条件"));
+                }
+                break;
+            case "estimateddocumentcount":
+                requireArguments(operation, 0, 0);
+                builder = new QueryPlan.Builder(key, ast.getCollection(), QueryPlan.Operation.COUNT);
+                break;
+            case "find":
+                requireArguments(operation, 0, 2);
+                builder = new QueryPlan.Builder(key, ast.getCollection(), QueryPlan.Operation.FIND);
+                if (!operation.getArguments().isEmpty()) {
+                    builder.filter(parseDocument(operation.getArguments().get(0), "查询条件"));
+                }
+                if (operation.getArguments().size() > 1) {
+                    builder.projection(parseDocument(operation.getArguments().get(1), "投影"));
+                }
+                break;
+            case "aggregate":
+                requireArguments(operation, 1, 2);
+                builder = new QueryPlan.Builder(key, ast.getCollection(), QueryPlan.Operation.AGGREGATE);
+                builder.pipeline(parsePipeline(operation.getArguments().get(0)));
+                if (operation.getArguments().size() > 1) {
+                    applyAggregateOptions(builder, parseDocument(operation.getArguments().get(1), "aggregate选项"));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("不支持的查询操作: " + operation.getName());
+        }
+
+        for (MethodCall call : calls.subList(1, calls.size())) {
+            switch (call.getName().toLowerCase()) {
+                case "sort":
+                    requireFind(builder, call);
+                    requireArguments(call, 1, 1);
+                    builder.sort(parseDocument(call.getArguments().get(0), "sort条件"));
+                    break;
+                case "projection":
+                    // 与shell一致，覆盖find的第二个参数
+                    requireFind(builder, call);
+                    requireArguments(call, 1, 1);
+                    builder.projection(parseDocument(call.getArguments().get(0), "投影"));
+                    break;
+                case "limit":
+                    requireFind(builder, call);
+                    requireArguments(call, 1, 1);
+                    builder.limit(parseInt(call.getArguments().get(0), "limit值"));
+                    break;
+                case "pretty":
+                case "toarray":
+                    // shell中的展示方法，对结果无影响
+                    requireArguments(call, 0, 0);
+                    break;
+                default:
+                    throw new IllegalArgumentException("不支持的链式操作: " + call.getName());
+            }
+        }
+        if (builder.operation() == QueryPlan.Operation.FIND && !builder.hasProjection()) {
+            builder.projection(defaultProjections.get(ast.getCollection()));
+        }
+        return builder.build();
+    }
+
+    private static List<RawBsonDocument> parsePipeline(Argument argument) {
+        if (argument.getKind() != Argument.Kind.ARRAY) {
+            throw new IllegalArgumentException("无效的聚合管道: " + argument.getText());
+        }
+        RawBsonDocument wrapper;
+        try {
+            wrapper = RawBsonDocument.parse("{\"pipeline\": " + argument.getText() + "}");
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的聚合管道: " + argument.getText() + "，" + e.getMessage(), e);
+        }
+        List<RawBsonDocument> stages = new ArrayList<>();
+        for (BsonValue value : wrapper.getArray("pipeline")) {
+            if (!value.isDocument() || value.asDocument().size() != 1) {
+                throw new IllegalArgumentException("无效的聚合阶段: " + value);
+            }
+            BsonDocument stage = value.asDocument();
+            String name = stage.getFirstKey();
+            if (WRITE_STAGES.contains(name)) {
+                throw new IllegalArgumentException("不支持的聚合阶段: " + name);
+            }
+            stages.add(stage instanceof RawBsonDocument ? (RawBsonDocument) stage : new RawBsonDocument(stage, new BsonDocumentCodec()));
+        }
+        return stages;
+    }
+
+    /**
+     * 支持 allowDiskUse、maxTimeMS 以及 batchSize（或与shell一致的 cursor: {batchSize: n}）
+     */
+    private static void applyAggregateOptions(QueryPlan.Builder builder, RawBsonDocument options) {
+        for (Map.Entry<String, BsonValue> option : options.entrySet()) {
+            BsonValue value = option.getValue();
+            switch (option.getKey()) {
+                case "allowDiskUse":
+                    if (!value.isBoolean()) {
+                        throw new IllegalArgumentException("无效的allowDiskUse: " + value);
+                    }
+                    builder.allowDiskUse(value.asBoolean().getValue());
+                    break;
+                case "maxTimeMS":
+                    builder.maxTimeMS(positiveNumber(value, "maxTimeMS"));
+                    break;
+                case "batchSize":
+                    builder.batchSize((int) positiveNumber(value, "batchSize"));
+                    break;
+                case "cursor":
+                    if (!value.isDocument() || !value.asDocument().keySet().equals(Collections.singleton("batchSize"))) {
+                        throw new IllegalArgumentException("无效的cursor选项: " + value);
+                    }
+                    builder.batchSize((int) positiveNumber(value.asDocument().get("batchSize"), "batchSize"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("不支持的aggregate选项: " + option.getKey());
+            }
+        }
+    }
+
+    private static long positiveNumber(BsonValue value, String description) {
+        if (!value.isNumber() || value.asNumber().longValue() <= 0 || value.asNumber().longValue() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("无效的" + description + ": " + value);
+        }
+        return value.asNumber().longValue();
+    }
+
+    private static void requireFind(QueryPlan.Builder builder, MethodCall call) {
+        if (builder.operation() != QueryPlan.Operation.FIND) {
+            throw new IllegalArgumentException(call.getName() + " 只能用于find查询");
+        }
+    }
+
+    private static void requireArguments(MethodCall call, int min, int max) {
+        int count = call.getArguments().size();
+        if (count < min || count > max) {
+            throw new IllegalArgumentException("方法 " + call.getName() + " 的参数个数无效: " + count);
+        }
+    }
+
+    private static RawBsonDocument parseDocument(Argument argument, String description) {
+        if (argument.getKind() != Argument.Kind.OBJECT) {
+            throw new IllegalArgumentException("无效的" + description + ": " + argument.getText());
+        }
+        try {
+            return RawBsonDocument.parse(argument.getText());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的" + description + ": " + argument.getText() + "，" + e.getMessage(), e);
+        }
+    }
+
+    private static int parseInt(Argument argument, String description) {
+        if (argument.getKind() == Argument.Kind.NUMBER) {
+            try {
+                return Integer.parseInt(argument.getText());
+            } catch (NumberFormatException ignored) {
+                // 落到下面统一报错
+            }
+        }
+        throw new IllegalArgumentException("无效的" + description + ": " + argument.getText());
+    }
+}
@@ -0,0 +1,226 @@
+package com.tianpan.mongodbai.service.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 查询语句词法分析器，单遍扫描将 db.&lt;coll&gt;.&lt;op&gt;(...) 形式的语句切分为词法单元。
+ * 字符串和正则字面量作为整体识别，其中的括号、逗号不会影响后续的语法分析。
+ */
+public final class QueryLexer {
+
+    public enum TokenType {
+        IDENTIFIER, NUMBER, STRING, REGEX,
+        DOT, COMMA, COLON, SEMICOLON,
+        LPAREN, RPAREN, LBRACKET, RBRACKET, LBRACE, RBRACE,
+        OTHER, EOF
+    }
+
+    public static final class Token {
+        private final TokenType type;
+        private final String text;
+        private final int start;
+        private final int end;
+
+        Token(TokenType type, String text, int start, int end) {
+            this.type = type;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        public TokenType getType() { return type; }
+        public String getText() { return text; }
+        public int getStart() { return start; }
+        public int getEnd() { return end; }
+
+        @Override
+        public String toString() {
+            return type + "(" + text + ")@" + start;
+        }
+    }
+
+    private QueryLexer() {
+    }
+
+    /**
+     * 将查询语句切分为词法单元，结果以EOF结尾
+     */
+    public static List<Token> tokenize(String source) {
+        List<Token> tokens = new ArrayList<>();
+        int length = source.length();
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            TokenType type;
+            if (isIdentifierStart(c)) {
+                i = scanIdentifier(source, i);
+                type = TokenType.IDENTIFIER;
+            } else if (isDigit(c) || (c == '-' && i + 1 < length && (isDigit(source.charAt(i + 1)) || source.charAt(i + 1) == '.'))
+                    || (c == '.' && i + 1 < length && isDigit(source.charAt(i + 1)) && !isMemberAccess(tokens))) {
+                i = scanNumber(source, i);
+                type = TokenType.NUMBER;
+            } else if (c == '"' || c == '\'') {
+                i = scanString(source, i);
+                type = TokenType.STRING;
+            } else if (c == '/') {
+                i = scanRegex(source, i);
+                type = TokenType.REGEX;
+            } else {
+                i++;
+                type = punctuation(c);
+            }
+            tokens.add(new Token(type, source.substring(start, i), start, i));
+        }
+        tokens.add(new Token(TokenType.EOF, "", length, length));
+        return Collections.unmodifiableList(tokens);
+    }
+
+    /**
+     * 规范化查询语句：去掉字符串和正则字面量之外的空白，仅在两个标识符之间保留一个空格。
+     * 仅空白不同的两条语句得到相同的结果，用作执行计划缓存的键。
+     */
+    public static String normalize(String source) {
+        int length = source.length();
+        StringBuilder sb = new StringBuilder(length);
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+                continue;
+            }
+            if (pendingSpace && sb.length() > 0 && isIdentifierPart(sb.charAt(sb.length() - 1)) && isIdentifierPart(c)) {
+                sb.append(' ');
+            }
+            pendingSpace = false;
+            int end;
+            if (c == '"' || c == '\'') {
+                end = scanString(source, i);
+            } else if (c == '/') {
+                end = scanRegex(source, i);
+            } else {
+                end = i + 1;
+            }
+            sb.append(source, i, end);
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    private static boolean isMemberAccess(List<Token> tokens) {
+        if (tokens.isEmpty()) {
+            return false;
+        }
+        TokenType previous = tokens.get(tokens.size() - 1).getType();
+        return previous == TokenType.IDENTIFIER || previous == TokenType.RPAREN;
+    }
+
+    private static int scanIdentifier(String source, int i) {
+        int length = source.length();
+        while (i < length && isIdentifierPart(source.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int scanNumber(String source, int i) {
+        int length = source.length();
+        if (source.charAt(i) == '-') {
+            i++;
+        }
+        while (i < length) {
+            char c = source.charAt(i);
+            if (isDigit(c) || c == '.') {
+                i++;
+            } else if ((c == 'e' || c == 'E') && i + 1 < length) {
+                i++;
+                if (source.charAt(i) == '+' || source.charAt(i) == '-') {
+                    i++;
+                }
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int scanString(String source, int start) {
+        char quote = source.charAt(start);
+        int length = source.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("查询语句中的字符串未闭合，位置: " + start);
+    }
+
+    private static int scanRegex(String source, int start) {
+        int length = source.length();
+        int i = start + 1;
+        boolean inClass = false;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                i++;
+                while (i < length && Character.isLetter(source.charAt(i))) {
+                    i++;
+                }
+                return i;
+            }
+            i++;
+        }
+        throw new IllegalArgumentException("查询语句中的正则表达式未闭合，位置: " + start);
+    }
+
+    private static TokenType punctuation(char c) {
+        switch (c) {
+            case '.': return TokenType.DOT;
+            case ',': return TokenType.COMMA;
+            case ':': return TokenType.COLON;
+            case ';': return TokenType.SEMICOLON;
+            case '(': return TokenType.LPAREN;
+            case ')': return TokenType.RPAREN;
+            case '[': return TokenType.LBRACKET;
+            case ']': return TokenType.RBRACKET;
+            case '{': return TokenType.LBRACE;
+            case '}': return TokenType.RBRACE;
+            default: return TokenType.OTHER;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
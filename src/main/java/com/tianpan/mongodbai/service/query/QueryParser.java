@@ -0,0 +1,152 @@
+package com.tianpan.mongodbai.service.query;
+
+import com.tianpan.mongodbai.service.query.QueryAst.Argument;
+import com.tianpan.mongodbai.service.query.QueryAst.MethodCall;
+import com.tianpan.mongodbai.service.query.QueryLexer.Token;
+import com.tianpan.mongodbai.service.query.QueryLexer.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 查询语句语法分析器，将词法单元序列解析为 {@link QueryAst}。
+ * 参数按括号深度切分，字符串中的括号和逗号已由词法分析器整体识别，不会导致截断。
+ */
+public final class QueryParser {
+
+    private final String source;
+    private final List<Token> tokens;
+    private int index;
+
+    private QueryParser(String source) {
+        this.source = source;
+        this.tokens = QueryLexer.tokenize(source);
+    }
+
+    public static QueryAst parse(String source) {
+        return new QueryParser(source).parseQuery();
+    }
+
+    private QueryAst parseQuery() {
+        Token db = expect(TokenType.IDENTIFIER, "查询语句必须以db.开头");
+        if (!"db".equals(db.getText())) {
+            throw error(db, "查询语句必须以db.开头");
+        }
+        expect(TokenType.DOT, "db后缺少'.'");
+
+        // 集合名可能包含'.'，直到遇到后面紧跟'('的标识符为止
+        StringBuilder collection = new StringBuilder(expect(TokenType.IDENTIFIER, "缺少集合名").getText());
+        while (peek().getType() == TokenType.DOT && peek(1).getType() == TokenType.IDENTIFIER
+                && peek(2).getType() != TokenType.LPAREN) {
+            next();
+            collection.append('.').append(next().getText());
+        }
+
+        List<MethodCall> calls = new ArrayList<>();
+        while (peek().getType() == TokenType.DOT) {
+            next();
+            calls.add(parseCall());
+        }
+        if (calls.isEmpty()) {
+            throw error(peek(), "缺少查询操作，如 find() 或 count()");
+        }
+        while (peek().getType() == TokenType.SEMICOLON) {
+            next();
+        }
+        if (peek().getType() != TokenType.EOF) {
+            throw error(peek(), "无法识别的内容 '" + peek().getText() + "'");
+        }
+        return new QueryAst(collection.toString(), calls);
+    }
+
+    private MethodCall parseCall() {
+        Token name = expect(TokenType.IDENTIFIER, "缺少方法名");
+        expect(TokenType.LPAREN, "方法 " + name.getText() + " 后缺少'('");
+
+        List<Argument> arguments = new ArrayList<>();
+        if (peek().getType() == TokenType.RPAREN) {
+            next();
+            return new MethodCall(name.getText(), arguments, name.getStart());
+        }
+        while (true) {
+            arguments.add(parseArgument());
+            Token separator = next();
+            if (separator.getType() == TokenType.RPAREN) {
+                break;
+            }
+            if (separator.getType() != TokenType.COMMA) {
+                throw error(separator, "参数之间缺少','或方法调用缺少')'");
+            }
+        }
+        return new MethodCall(name.getText(), arguments, name.getStart());
+    }
+
+    /**
+     * 读取一个参数直到同层的','或')'，返回参数的原始文本
+     */
+    private Argument parseArgument() {
+        Token first = peek();
+        int depth = 0;
+        int end = first.getStart();
+        while (true) {
+            Token token = peek();
+            TokenType type = token.getType();
+            if (type == TokenType.EOF) {
+                throw error(token, "括号未闭合");
+            }
+            if (depth == 0 && (type == TokenType.COMMA || type == TokenType.RPAREN)) {
+                break;
+            }
+            if (type == TokenType.LPAREN || type == TokenType.LBRACKET || type == TokenType.LBRACE) {
+                depth++;
+            } else if (type == TokenType.RPAREN || type == TokenType.RBRACKET || type == TokenType.RBRACE) {
+                depth--;
+            }
+            end = token.getEnd();
+            next();
+        }
+        if (end == first.getStart()) {
+            throw error(first, "缺少参数");
+        }
+        return new Argument(kindOf(first), source.substring(first.getStart(), end), first.getStart());
+    }
+
+    private static Argument.Kind kindOf(Token first) {
+        switch (first.getType()) {
+            case LBRACE: return Argument.Kind.OBJECT;
+            case LBRACKET: return Argument.Kind.ARRAY;
+            case NUMBER: return Argument.Kind.NUMBER;
+            case STRING: return Argument.Kind.STRING;
+            default: return Argument.Kind.OTHER;
+        }
+    }
+
+    private Token peek() {
+        return peek(0);
+    }
+
+    private Token peek(int offset) {
+        int i = Math.min(index + offset, tokens.size() - 1);
+        return tokens.get(i);
+    }
+
+    private Token next() {
+        Token token = peek();
+        if (index < tokens.size() - 1) {
+            index++;
+        }
+        return token;
+    }
+
+    private Token expect(TokenType type, String message) {
+        Token token = peek();
+        if (token.getType() != type) {
+            throw error(token, message);
+        }
+        return next();
+    }
+
+    private IllegalArgumentException error(Token token, String message) {
+        return new IllegalArgumentException("无效的查询语句: " + message + "（位置: " + token.getStart() + "）");
+    }
+}
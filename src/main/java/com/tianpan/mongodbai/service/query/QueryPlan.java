@@ -0,0 +1,208 @@
+package com.tianpan.mongodbai.service.query;
+
+import org.bson.RawBsonDocument;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * 编译后的不可变执行计划。过滤、排序等条件以 {@link RawBsonDocument} 保存，
+ * 只读且发送给服务端时直接复用字节，可被多个请求并发共享。
+ */
+public final class QueryPlan {
+
+    public enum Operation { COUNT, FIND, AGGREGATE }
+
+    private static final RawBsonDocument EMPTY = RawBsonDocument.parse("{}");
+
+    private final String key;
+    private final String collection;
+    private final Operation operation;
+    private final RawBsonDocument filter;
+    private final RawBsonDocument projection;
+    private final RawBsonDocument sort;
+    private final Integer limit;
+    private final List<RawBsonDocument> pipeline;
+    private final Boolean allowDiskUse;
+    private final Long maxTimeMS;
+    private final Integer batchSize;
+    private final boolean exactCount;
+    private final String shape;
+
+    private QueryPlan(Builder builder) {
+        this.key = builder.key;
+        this.collection = builder.collection;
+        this.operation = builder.operation;
+        this.filter = builder.filter != null ? builder.filter : EMPTY;
+        this.projection = builder.projection;
+        this.sort = builder.sort;
+        this.limit = builder.limit;
+        this.pipeline = builder.pipeline != null ? Collections.unmodifiableList(builder.pipeline) : null;
+        this.allowDiskUse = builder.allowDiskUse;
+        this.maxTimeMS = builder.maxTimeMS;
+        this.batchSize = builder.batchSize;
+        this.exactCount = builder.exactCount;
+        this.shape = shape();
+    }
+
+    private String shape() {
+        switch (operation) {
+            case COUNT:
+                return isEstimatedCount() ? "count" : "countDocuments" + fieldNames(filter);
+            case AGGREGATE:
+                return "aggregate" + pipeline.stream().map(RawBsonDocument::getFirstKey).collect(Collectors.joining(",", "[", "]"));
+            case FIND:
+            default:
+                return "find" + fieldNames(filter)
+                        + (sort != null ? ".sort" + fieldNames(sort) : "")
+                        + (projection != null ? ".projection" : "")
+                        + (limit != null ? ".limit" : "");
+        }
+    }
+
+    private static String fieldNames(RawBsonDocument document) {
+        return new TreeSet<>(document.keySet()).stream().collect(Collectors.joining(",", "{", "}"));
+    }
+
+    /**
+     * 规范化后的查询语句，即执行计划缓存的键
+     */
+    public String getKey() { return key; }
+    public String getCollection() { return collection; }
+    public Operation getOperation() { return operation; }
+    public RawBsonDocument getFilter() { return filter; }
+
+    /**
+     * 返回字段，未指定且集合没有默认投影时为null，即返回全部字段
+     */
+    public RawBsonDocument getProjection() { return projection; }
+
+    /**
+     * 排序条件，未指定时为null
+     */
+    public RawBsonDocument getSort() { return sort; }
+
+    /**
+     * 返回条数限制，未指定时为null
+     */
+    public Integer getLimit() { return limit; }
+
+    /**
+     * aggregate的管道阶段，其他操作为null
+     */
+    public List<RawBsonDocument> getPipeline() { return pipeline; }
+
+    /**
+     * 以下为aggregate选项，未指定时为null，执行时使用配置的默认值
+     */
+    public Boolean getAllowDiskUse() { return allowDiskUse; }
+    public Long getMaxTimeMS() { return maxTimeMS; }
+    public Integer getBatchSize() { return batchSize; }
+
+    /**
+     * 无过滤条件的 count() 或 estimatedDocumentCount()：读取集合元数据，不扫描文档。
+     * countDocuments() 及带过滤条件的count按条件精确计数
+     */
+    public boolean isEstimatedCount() {
+        return operation == Operation.COUNT && !exactCount && filter.isEmpty();
+    }
+
+    /**
+     * 查询形状：操作及条件字段名，不含具体值，如 find{alarm_type,end_time}.sort{end_time}.limit，
+     * 用作指标标签，相同形状的查询归为一类
+     */
+    public String getShape() { return shape; }
+
+    @Override
+    public String toString() {
+        return "QueryPlan{" + operation + " " + collection + ", filter=" + filter.toJson()
+                + (projection != null ? ", projection=" + projection.toJson() : "")
+                + (sort != null ? ", sort=" + sort.toJson() : "")
+                + (limit != null ? ", limit=" + limit : "")
+                + (pipeline != null ? ", pipeline=" + pipeline.stream().map(RawBsonDocument::toJson).collect(Collectors.joining(", ", "[", "]")) : "")
+                + (allowDiskUse != null ? ", allowDiskUse=" + allowDiskUse : "")
+                + (maxTimeMS != null ? ", maxTimeMS=" + maxTimeMS : "")
+                + (batchSize != null ? ", batchSize=" + batchSize : "")
+                + (exactCount ? ", exactCount=true" : "") + "}";
+    }
+
+    static final class Builder {
+        private final String key;
+        private final String collection;
+        private final Operation operation;
+        private RawBsonDocument filter;
+        private RawBsonDocument projection;
+        private RawBsonDocument sort;
+        private Integer limit;
+        private List<RawBsonDocument> pipeline;
+        private Boolean allowDiskUse;
+        private Long maxTimeMS;
+        private Integer batchSize;
+        private boolean exactCount;
+
+        Builder(String key, String collection, Operation operation) {
+            this.key = key;
+            this.collection = collection;
+            this.operation = operation;
+        }
+
+        Operation operation() {
+            return operation;
+        }
+
+        Builder filter(RawBsonDocument filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        Builder projection(RawBsonDocument projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        boolean hasProjection() {
+            return projection != null;
+        }
+
+        Builder sort(RawBsonDocument sort) {
+            this.sort = sort;
+            return this;
+        }
+
+        Builder limit(Integer limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        Builder pipeline(List<RawBsonDocument> pipeline) {
+            this.pipeline = pipeline;
+            return this;
+        }
+
+        Builder allowDiskUse(Boolean allowDiskUse) {
+            this.allowDiskUse = allowDiskUse;
+            return this;
+        }
+
+        Builder maxTimeMS(Long maxTimeMS) {
+            this.maxTimeMS = maxTimeMS;
+            return this;
+        }
+
+        Builder batchSize(Integer batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        Builder exactCount(boolean exactCount) {
+            this.exactCount = exactCount;
+            return this;
+        }
+
+        QueryPlan build() {
+            return new QueryPlan(this);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.tianpan.mongodbai.service.query;
+
+import com.tianpan.mongodbai.config.QueryProperties;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 执行计划缓存，以规范化后的查询语句为键，按LRU淘汰。
+ * 命中时跳过语法分析和BSON解析，直接复用已编译的不可变执行计划。
+ */
+@Component
+public class QueryPlanCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryPlanCache.class);
+
+    private final Map<String, QueryPlan> plans;
+    private final Map<String, RawBsonDocument> defaultProjections;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public QueryPlanCache(@Value("${mongo.query.plan-cache-size:1000}") int maxSize, QueryProperties properties) {
+        this(maxSize, properties.getDefaultProjection());
+    }
+
+    /**
+     * @param defaultProjections 按集合名配置的默认投影（JSON），启动时解析，格式错误直接失败
+     */
+    public QueryPlanCache(int maxSize, Map<String, String> defaultProjections) {
+        Map<String, RawBsonDocument> projections = new HashMap<>();
+        defaultProjections.forEach((collection, json) -> {
+            try {
+                projections.put(collection, RawBsonDocument.parse(json));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("集合 " + collection + " 的默认投影无效: " + json, e);
+            }
+        });
+        this.defaultProjections = Collections.unmodifiableMap(projections);
+        this.plans = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+                return size() > maxSize;
+            }
+        };
+        logger.info("执行计划缓存初始化，容量: {}，默认投影: {}", maxSize, defaultProjections);
+    }
+
+    /**
+     * 获取查询语句的执行计划，未命中时解析并编译后放入缓存
+     * @throws IllegalArgumentException 查询语句无效
+     */
+    public QueryPlan get(String query) {
+        String key = QueryLexer.normalize(query.trim());
+        QueryPlan plan;
+        synchronized (plans) {
+            plan = plans.get(key);
+        }
+        if (plan != null) {
+            hits.incrementAndGet();
+            return plan;
+        }
+
+        misses.incrementAndGet();
+        plan = QueryCompiler.compile(QueryParser.parse(query), key, defaultProjections);
+        logger.debug("编译执行计划: {}", plan);
+        synchronized (plans) {
+            plans.put(key, plan);
+        }
+        return plan;
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+
+    public int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.tianpan.mongodbai.service.shaping;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * /query 结果的整形选项，供大模型按上下文预算取用结果。各项均可省略，省略的项不生效：
+ * fields 按相关性列出保留的字段，maxStringLength 截断长字符串，sample 对行做蓄水池抽样，
+ * maxBytes/maxTokens 为 data 的预算，超出时只返回预算内的行并附汇总统计；summary 为 true 时总是附汇总统计
+ */
+public class ResultShape {
+
+    @JsonProperty("maxBytes")
+    private Integer maxBytes;
+
+    @JsonProperty("maxTokens")
+    private Integer maxTokens;
+
+    @JsonProperty("fields")
+    private List<String> fields;
+
+    @JsonProperty("maxStringLength")
+    private Integer maxStringLength;
+
+    @JsonProperty("sample")
+    private Integer sample;
+
+    @JsonProperty("summary")
+    private Boolean summary;
+
+    public ResultShape() {}
+
+    /**
+     * @throws IllegalArgumentException 数值不为正数，或字段列表含空字段名
+     */
+    public void validate() {
+        positive("maxBytes", maxBytes);
+        positive("maxTokens", maxTokens);
+        positive("maxStringLength", maxStringLength);
+        positive("sample", sample);
+        if (fields != null) {
+            if (fields.isEmpty()) {
+                throw new IllegalArgumentException("shape.fields 不能为空列表");
+            }
+            for (String field : fields) {
+                if (field == null || field.trim().isEmpty()) {
+                    throw new IllegalArgumentException("shape.fields 含空字段名");
+                }
+            }
+        }
+    }
+
+    private static void positive(String name, Integer value) {
+        if (value != null && value <= 0) {
+            throw new IllegalArgumentException("shape." + name + " 必须为正数: " + value);
+        }
+    }
+
+    /**
+     * 整形选项的规范表示，与查询语句一起作为结果缓存和相同查询合并的键
+     */
+    public String key() {
+        return "maxBytes=" + maxBytes + ";maxTokens=" + maxTokens + ";fields=" + fields
+                + ";maxStringLength=" + maxStringLength + ";sample=" + sample + ";summary=" + isSummary();
+    }
+
+    public boolean hasBudget() {
+        return maxBytes != null || maxTokens != null;
+    }
+
+    public Integer getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(Integer maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public Integer getMaxTokens() {
+        return maxTokens;
+    }
+
+    public void setMaxTokens(Integer maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public void setFields(List<String> fields) {
+        this.fields = fields;
+    }
+
+    public Integer getMaxStringLength() {
+        return maxStringLength;
+    }
+
+    public void setMaxStringLength(Integer maxStringLength) {
+        this.maxStringLength = maxStringLength;
+    }
+
+    public Integer getSample() {
+        return sample;
+    }
+
+    public void setSample(Integer sample) {
+        this.sample = sample;
+    }
+
+    public boolean isSummary() {
+        return Boolean.TRUE.equals(summary);
+    }
+
+    public void setSummary(Boolean summary) {
+        this.summary = summary;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultShape{" + key() + "}";
+    }
+}
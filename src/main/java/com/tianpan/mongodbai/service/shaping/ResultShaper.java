@@ -0,0 +1,306 @@
+package com.tianpan.mongodbai.service.shaping;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import com.tianpan.mongodbai.service.BsonJsonTranscoder;
+import com.tianpan.mongodbai.service.QueryMetrics;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * 按 {@link ResultShape} 整形查询结果：抽样、字段裁剪、长字符串截断，再按字节或token预算截取行。
+ * 每行只序列化一次，以 {@link RawValue} 放入结果，预算计算不会让结果被序列化两遍。
+ * <p>
+ * 预算只约束 data 数组；超出预算或要求汇总时，按全部结果行（抽样前）计算汇总统计：
+ * 各分组字段的取值计数和时间字段的范围。整形报告说明做了哪些处理，随结果一起返回。
+ */
+@Component
+public class ResultShaper {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultShaper.class);
+
+    private static final String ELLIPSIS = "…";
+
+    private final List<String> summaryFields;
+    private final String timeField;
+    private final int summaryTop;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public ResultShaper(@Value("${mongo.shaping.summary-fields:system_name,alarm_type}") String[] summaryFields,
+                        @Value("${mongo.shaping.time-field:end_time}") String timeField,
+                        @Value("${mongo.shaping.summary-top:20}") int summaryTop) {
+        this.summaryFields = Arrays.asList(summaryFields);
+        this.timeField = timeField;
+        this.summaryTop = summaryTop;
+        logger.info("结果整形汇总字段: {}，时间字段: {}，每个字段列出前 {} 个取值", this.summaryFields, timeField, summaryTop);
+    }
+
+    /**
+     * @param seed 抽样的随机种子；同一查询取相同种子，重复请求得到相同的样本
+     */
+    public Shaped shape(List<Document> rows, ResultShape shape, long seed) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("totalRows", rows.size());
+
+        List<Document> selected = rows;
+        if (shape.getSample() != null && shape.getSample() < rows.size()) {
+            selected = sample(rows, shape.getSample(), new Random(seed));
+            report.put("sampledRows", selected.size());
+        }
+
+        TreeSet<String> prunedFields = new TreeSet<>();
+        int[] truncatedStrings = new int[1];
+        List<Object> data = new ArrayList<>(selected.size());
+        long usedBytes = 2;
+        long usedTokens = 1;
+        boolean overBudget = false;
+        for (Document row : selected) {
+            Document shaped = shape.getFields() != null ? prune(row, shape.getFields(), prunedFields) : row;
+            if (shape.getMaxStringLength() != null) {
+                shaped = (Document) truncate(shaped, shape.getMaxStringLength(), truncatedStrings);
+            }
+            String json = serialize(shaped);
+            // 数组中第二行起多一个逗号
+            long bytes = QueryMetrics.utf8Length(json) + (data.isEmpty() ? 0 : 1);
+            long tokens = estimateTokens(json);
+            if (exceeds(shape.getMaxBytes(), usedBytes + bytes) || exceeds(shape.getMaxTokens(), usedTokens + tokens)) {
+                overBudget = true;
+                break;
+            }
+            usedBytes += bytes;
+            usedTokens += tokens;
+            data.add(new RawValue(json));
+        }
+        report.put("returnedRows", data.size());
+
+        if (shape.getFields() != null) {
+            report.put("fields", shape.getFields());
+            report.put("prunedFields", new ArrayList<>(prunedFields));
+        }
+        if (shape.getMaxStringLength() != null) {
+            report.put("maxStringLength", shape.getMaxStringLength());
+            report.put("truncatedStrings", truncatedStrings[0]);
+        }
+        if (shape.hasBudget()) {
+            Map<String, Object> budget = new LinkedHashMap<>();
+            if (shape.getMaxBytes() != null) {
+                budget.put("maxBytes", shape.getMaxBytes());
+            }
+            if (shape.getMaxTokens() != null) {
+                budget.put("maxTokens", shape.getMaxTokens());
+            }
+            budget.put("usedBytes", usedBytes);
+            budget.put("estimatedTokens", usedTokens);
+            budget.put("exceeded", overBudget);
+            report.put("budget", budget);
+        }
+        if (overBudget || shape.isSummary()) {
+            report.put("summary", summarize(rows));
+        }
+        logger.debug("结果整形完成: {}", report);
+        return new Shaped(data, report);
+    }
+
+    private static boolean exceeds(Integer limit, long value) {
+        return limit != null && value > limit;
+    }
+
+    /**
+     * 蓄水池抽样（Algorithm R），样本保持原结果中的先后顺序，排序过的结果抽样后仍然有序
+     */
+    static List<Document> sample(List<Document> rows, int size, Random random) {
+        int[] reservoir = new int[size];
+        for (int i = 0; i < size; i++) {
+            reservoir[i] = i;
+        }
+        for (int i = size; i < rows.size(); i++) {
+            int j = random.nextInt(i + 1);
+            if (j < size) {
+                reservoir[j] = i;
+            }
+        }
+        Arrays.sort(reservoir);
+        List<Document> sampled = new ArrayList<>(size);
+        for (int index : reservoir) {
+            sampled.add(rows.get(index));
+        }
+        return sampled;
+    }
+
+    /**
+     * 按相关性顺序保留列出的顶层字段，未列出的字段（含 _id）记入 pruned
+     */
+    private static Document prune(Document row, List<String> fields, Collection<String> pruned) {
+        Document kept = new Document();
+        for (String field : fields) {
+            if (row.containsKey(field)) {
+                kept.put(field, row.get(field));
+            }
+        }
+        if (kept.size() < row.size()) {
+            for (String key : row.keySet()) {
+                if (!kept.containsKey(key)) {
+                    pruned.add(key);
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * 逐层截断超过 maxLength 个字符的字符串，截断处追加省略号；未截断的值原样返回，不复制
+     */
+    private static Object truncate(Object value, int maxLength, int[] truncated) {
+        if (value instanceof String) {
+            String text = (String) value;
+            if (text.length() <= maxLength) {
+                return text;
+            }
+            truncated[0]++;
+            int end = maxLength;
+            if (Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            return text.substring(0, end) + ELLIPSIS;
+        }
+        if (value instanceof Document) {
+            Document document = (Document) value;
+            Document copy = null;
+            for (Map.Entry<String, Object> entry : document.entrySet()) {
+                Object shaped = truncate(entry.getValue(), maxLength, truncated);
+                if (shaped != entry.getValue() && copy == null) {
+                    copy = new Document(document);
+                }
+                if (copy != null) {
+                    copy.put(entry.getKey(), shaped);
+                }
+            }
+            return copy != null ? copy : document;
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            List<Object> copy = null;
+            for (int i = 0; i < list.size(); i++) {
+                Object element = list.get(i);
+                Object shaped = truncate(element, maxLength, truncated);
+                if (shaped != element && copy == null) {
+                    copy = new ArrayList<>(list);
+                }
+                if (copy != null) {
+                    copy.set(i, shaped);
+                }
+            }
+            return copy != null ? copy : list;
+        }
+        return value;
+    }
+
+    private String serialize(Document row) {
+        try {
+            return objectMapper.writeValueAsString(row);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("JSON序列化失败", e);
+        }
+    }
+
+    /**
+     * 粗略估算JSON文本的token数：ASCII字符约4个一个token，其余字符（主要是中文）按每字一个token计，
+     * 对常见的BPE分词器偏保守
+     */
+    static long estimateTokens(String json) {
+        long ascii = 0;
+        long other = 0;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c < 0x80) {
+                ascii++;
+            } else if (!Character.isLowSurrogate(c)) {
+                other++;
+            }
+        }
+        return (ascii + 3) / 4 + other;
+    }
+
+    /**
+     * 全部结果行的汇总：各分组字段按出现次数列出前 summaryTop 个取值，以及时间字段的最早和最晚值
+     */
+    private Map<String, Object> summarize(List<Document> rows) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("rows", rows.size());
+        for (String field : summaryFields) {
+            Map<String, Integer> counts = new HashMap<>();
+            for (Document row : rows) {
+                Object value = row.get(field);
+                if (value != null) {
+                    counts.merge(String.valueOf(value), 1, Integer::sum);
+                }
+            }
+            if (counts.isEmpty()) {
+                continue;
+            }
+            List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+            entries.sort((a, b) -> b.getValue().compareTo(a.getValue()));
+            Map<String, Object> top = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : entries.subList(0, Math.min(summaryTop, entries.size()))) {
+                top.put(entry.getKey(), entry.getValue());
+            }
+            Map<String, Object> fieldSummary = new LinkedHashMap<>();
+            fieldSummary.put("distinct", counts.size());
+            fieldSummary.put("top", top);
+            summary.put(field, fieldSummary);
+        }
+        Date earliest = null;
+        Date latest = null;
+        for (Document row : rows) {
+            Object value = row.get(timeField);
+            if (value instanceof Date) {
+                Date date = (Date) value;
+                if (earliest == null || date.before(earliest)) {
+                    earliest = date;
+                }
+                if (latest == null || date.after(latest)) {
+                    latest = date;
+                }
+            }
+        }
+        if (earliest != null) {
+            Map<String, Object> range = new LinkedHashMap<>();
+            range.put("field", timeField);
+            range.put("from", BsonJsonTranscoder.formatDate(earliest.getTime()));
+            range.put("to", BsonJsonTranscoder.formatDate(latest.getTime()));
+            summary.put("timeRange", range);
+        }
+        return summary;
+    }
+
+    /**
+     * 整形后的行（已序列化）及整形报告
+     */
+    public static class Shaped {
+        private final List<Object> data;
+        private final Map<String, Object> report;
+
+        Shaped(List<Object> data, Map<String, Object> report) {
+            this.data = data;
+            this.report = report;
+        }
+
+        public List<Object> getData() { return data; }
+        public Map<String, Object> getReport() { return report; }
+    }
+}
@@ -0,0 +1,326 @@
+package com.tianpan.mongodbai.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.tianpan.mongodbai.config.AdmissionProperties;
+import com.tianpan.mongodbai.config.QueryProperties;
+import com.tianpan.mongodbai.service.CollectionRegistry;
+import com.tianpan.mongodbai.service.IndexCatalog;
+import com.tianpan.mongodbai.service.MongoService;
+import com.tianpan.mongodbai.service.QueryCoalescer;
+import com.tianpan.mongodbai.service.QueryDeadline;
+import com.tianpan.mongodbai.service.QueryExecutor;
+import com.tianpan.mongodbai.service.admission.QueryAdmission;
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import com.tianpan.mongodbai.service.query.QueryPlanCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SuppressWarnings("unchecked")
+class MongoControllerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final QueryPlanCache plans = new QueryPlanCache(100, Collections.emptyMap());
+    private final QueryExecutor executor = new QueryExecutor(new QueryProperties(), new SimpleMeterRegistry());
+    private final QueryCoalescer coalescer = new QueryCoalescer(true, Duration.ofSeconds(30), new SimpleMeterRegistry());
+    private final MongoService mongoService = mock(MongoService.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final MongoCursor<RawBsonDocument> cursor = mock(MongoCursor.class);
+    private final AdmissionProperties admission = new AdmissionProperties();
+
+    MongoControllerTest() {
+        when(mongoService.plan(anyString())).thenAnswer(invocation -> plans.get(invocation.getArgument(0)));
+        when(mongoService.resultKey(any(QueryPlan.class), anyBoolean(), any(), any()))
+                .thenAnswer(invocation -> invocation.<QueryPlan>getArgument(0).getKey());
+        when(mongoService.executeQuery(anyString(), anyBoolean(), any(), any(QueryDeadline.class), any()))
+                .thenAnswer(invocation -> execute(invocation.getArgument(0), invocation.getArgument(3)));
+        when(cursor.hasNext()).thenReturn(true);
+        when(cursor.next()).thenAnswer(invocation -> {
+            Thread.sleep(10);
+            return new RawBsonDocument(new byte[]{5, 0, 0, 0, 0});
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.close();
+        coalescer.close();
+    }
+
+    /**
+     * 按条件中的 alarm_type 模拟查询结果：slow 阻塞到测试结束，cursor 像执行线程一样逐个读取游标直到取消，
+     * timeout 为服务端超时，boom 为其他错误
+     */
+    private String execute(String query, QueryDeadline deadline) throws InterruptedException {
+        if (query.contains("'cursor'")) {
+            try (MongoCursor<RawBsonDocument> documents = cursor) {
+                while (documents.hasNext()) {
+                    deadline.check();
+                    documents.next();
+                }
+            }
+            return "cursor";
+        }
+        if (query.contains("'slow'")) {
+            release.await();
+            return "slow";
+        }
+        if (query.contains("'timeout'")) {
+            throw new RuntimeException("查询执行失败", new MongoExecutionTimeoutException(50, "operation exceeded time limit"));
+        }
+        if (query.contains("'boom'")) {
+            throw new RuntimeException("查询执行失败: boom");
+        }
+        return "rows:" + query;
+    }
+
+    private MockMvc mockMvc() {
+        MongoDatabase database = mock(MongoDatabase.class);
+        when(database.getName()).thenReturn("detect");
+        when(database.getCollection(anyString())).thenAnswer(invocation -> {
+            MongoCollection<Document> collection = mock(MongoCollection.class);
+            when(collection.withDocumentClass(RawBsonDocument.class)).thenReturn(mock(MongoCollection.class));
+            return collection;
+        });
+        CollectionRegistry registry = new CollectionRegistry(database, new QueryProperties());
+        IndexCatalog indexCatalog = mock(IndexCatalog.class);
+        MongoController controller = new MongoController();
+        ReflectionTestUtils.setField(controller, "mongoService", mongoService);
+        ReflectionTestUtils.setField(controller, "queryExecutor", executor);
+        ReflectionTestUtils.setField(controller, "queryAdmission",
+                new QueryAdmission(admission, executor, registry, indexCatalog, new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(controller, "queryCoalescer", coalescer);
+        ReflectionTestUtils.setField(controller, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(controller, "clientHeader", "X-Client-Id");
+        ReflectionTestUtils.setField(controller, "batchMaxQueries", 5);
+        return MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    private static String find(String alarmType, int limit) {
+        return "db.alarm_info.find({alarm_type: '" + alarmType + "'}).limit(" + limit + ")";
+    }
+
+    private String batch(Object... queries) throws Exception {
+        List<Object> items = new ArrayList<>();
+        for (int i = 0; i < queries.length; i += 2) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("query", queries[i]);
+            if (queries[i + 1] != null) {
+                item.put("timeoutMs", queries[i + 1]);
+            }
+            items.add(item);
+        }
+        return objectMapper.writeValueAsString(Collections.singletonMap("queries", items));
+    }
+
+    private MvcResult start(MockMvc mockMvc, String path, String body) throws Exception {
+        return mockMvc.perform(post(path).contentType(MediaType.APPLICATION_JSON).header("X-Client-Id", "workflow-a").content(body))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+    }
+
+    @Test
+    void abortedQueryIsCancelledAndClosesItsCursor() throws Exception {
+        MockMvc mockMvc = mockMvc();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("query", find("cursor", 1));
+        body.put("timeoutMs", 30000);
+        MvcResult started = start(mockMvc, "/api/mongo/query", objectMapper.writeValueAsString(body));
+        verify(cursor, timeout(5000).atLeastOnce()).next();
+
+        // 模拟客户端断开后容器在没有结果的情况下结束异步请求
+        MockAsyncContext asyncContext = (MockAsyncContext) started.getRequest().getAsyncContext();
+        asyncContext.complete();
+
+        verify(cursor, timeout(5000)).close();
+    }
+
+    @Test
+    void batchReportsEachQueryInRequestOrder() throws Exception {
+        MockMvc mockMvc = mockMvc();
+        MvcResult started = start(mockMvc, "/api/mongo/query/batch",
+                batch(find("a", 1), null, "", null, "not a query", null, find("timeout", 1), null, find("boom", 1), null));
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.success").value(false))
+                .andExpect(jsonPath("$.count").value(5))
+                .andExpect(jsonPath("$.succeeded").value(1))
+                .andExpect(jsonPath("$.results[*].index").value(contains(0, 1, 2, 3, 4)))
+                .andExpect(jsonPath("$.results[*].status").value(contains(200, 400, 400, 504, 500)))
+                .andExpect(jsonPath("$.results[0].result").value("rows:" + find("a", 1)));
+    }
+
+    @Test
+    void batchRejectsMoreThanMaxQueries() throws Exception {
+        MockMvc mockMvc = mockMvc();
+        MvcResult started = start(mockMvc, "/api/mongo/query/batch",
+                batch(find("a", 1), null, find("a", 2), null, find("a", 3), null, find("a", 4), null, find("a", 5), null,
+                        find("a", 6), null));
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.success").value(false))
+                .andExpect(jsonPath("$.message").value("批量查询最多 5 条，实际 6 条"));
+    }
+
+    @Test
+    void batchSharesTheClientBucketAndRejectsOnlyTheOverflow() throws Exception {
+        admission.getClient().setRate(0.001);
+        admission.getClient().setBurst(2);
+        admission.getClient().setExpensiveCost(1);
+        MockMvc mockMvc = mockMvc();
+        MvcResult started = start(mockMvc, "/api/mongo/query/batch",
+                batch(find("a", 1), null, find("a", 2), null, find("a", 3), null, find("a", 4), null));
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.succeeded").value(2))
+                .andExpect(jsonPath("$.results[*].status").value(contains(200, 200, 429, 429)))
+                .andExpect(jsonPath("$.results[2].message").value(containsString("workflow-a")));
+
+        // 单条查询同样受限，429带Retry-After
+        MvcResult single = start(mockMvc, "/api/mongo/query",
+                objectMapper.writeValueAsString(Collections.singletonMap("query", find("a", 5))));
+        mockMvc.perform(asyncDispatch(single))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists("Retry-After"));
+    }
+
+    @Test
+    void batchTimesOutUnfinishedQueriesWith504() throws Exception {
+        MockMvc mockMvc = mockMvc();
+        MvcResult started = start(mockMvc, "/api/mongo/query/batch", batch(find("slow", 1), 200, find("a", 1), null));
+        verify(mongoService, timeout(5000)).executeQuery(eq(find("a", 1)), anyBoolean(), any(), any(QueryDeadline.class), any());
+        Thread.sleep(200);
+
+        // 模拟容器在截止时间后触发异步超时
+        MockAsyncContext asyncContext = (MockAsyncContext) started.getRequest().getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.results[*].status").value(contains(504, 200)))
+                .andExpect(jsonPath("$.results[0].message").value("查询超时"))
+                .andExpect(jsonPath("$.results[0].success").value(false));
+    }
+
+    @Test
+    void streamWritesEachQueryAsItFinishesAndTimesOutTheRest() throws Exception {
+        MockMvc mockMvc = mockMvc();
+        MvcResult started = start(mockMvc, "/api/mongo/query/batch/stream",
+                batch(find("slow", 1), 200, find("a", 1), 1000, "", null));
+        started.getAsyncResult(TimeUnit.SECONDS.toMillis(10));
+        MvcResult finished = mockMvc.perform(asyncDispatch(started)).andExpect(status().isOk()).andReturn();
+
+        String[] lines = finished.getResponse().getContentAsString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        List<Integer> indexes = new ArrayList<>();
+        for (String line : lines) {
+            indexes.add(objectMapper.readTree(line).get("index").asInt());
+        }
+        // 完成的查询先写出，超过截止时间的最后以504写出
+        assertEquals(0, (int) indexes.get(2));
+        JsonNode slow = objectMapper.readTree(lines[2]);
+        assertEquals(504, slow.get("status").asInt());
+        assertEquals("查询超时", slow.get("message").asText());
+        for (int i = 0; i < 2; i++) {
+            JsonNode item = objectMapper.readTree(lines[i]);
+            assertEquals(item.get("index").asInt() == 1 ? 200 : 400, item.get("status").asInt());
+        }
+    }
+
+    @Test
+    void streamRejectsMoreThanMaxQueries() throws Exception {
+        MockMvc mockMvc = mockMvc();
+        MvcResult started = start(mockMvc, "/api/mongo/query/batch/stream",
+                batch(find("a", 1), null, find("a", 2), null, find("a", 3), null, find("a", 4), null, find("a", 5), null,
+                        find("a", 6), null));
+        MvcResult finished = mockMvc.perform(asyncDispatch(started)).andExpect(status().isBadRequest()).andReturn();
+
+        JsonNode error = objectMapper.readTree(finished.getResponse().getContentAsString(StandardCharsets.UTF_8));
+        assertEquals("批量查询最多 5 条，实际 6 条", error.get("message").asText());
+    }
+
+    @Test
+    void alarmRowsRequiresItscIds() throws Exception {
+        MockMvc mockMvc = mockMvc();
+        for (String body : Arrays.asList("{}", "{\"itscIds\": []}")) {
+            mockMvc.perform(post("/api/mongo/alarm-rows").contentType(MediaType.APPLICATION_JSON).content(body))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.success").value(false))
+                    .andExpect(jsonPath("$.error").value("请提供itscIds"));
+        }
+        mockMvc.perform(post("/api/mongo/alarm-rows").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        verify(mongoService, never()).getAlarmRowsByItscIds(any());
+    }
+
+    @Test
+    void alarmRowsReturnsTheJoinedRows() throws Exception {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("itsc_id", "ITSC-1");
+        row.put("case_exec_id", "A-1");
+        row.put("alarm_info", new Document("system_name", "支付"));
+        row.put("failed", "误报");
+        row.put("reaction_time", "2025/6/30 10:05");
+        when(mongoService.getAlarmRowsByItscIds(Arrays.asList("ITSC-1", "ITSC-2"))).thenReturn(Collections.singletonList(row));
+
+        mockMvc().perform(post("/api/mongo/alarm-rows").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"itscIds\": [\"ITSC-1\", \"ITSC-2\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.success").value(true))
+                .andExpect(jsonPath("$.count").value(1))
+                .andExpect(jsonPath("$.rows[0].case_exec_id").value("A-1"))
+                .andExpect(jsonPath("$.rows[0].alarm_info.system_name").value("支付"))
+                .andExpect(jsonPath("$.rows[0].reaction_time").value("2025/6/30 10:05"));
+    }
+}
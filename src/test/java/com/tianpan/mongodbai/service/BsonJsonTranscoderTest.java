@@ -0,0 +1,77 @@
+package com.tianpan.mongodbai.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BsonJsonTranscoderTest {
+
+    private static String transcode(BsonDocument document) throws IOException {
+        RawBsonDocument raw = new RawBsonDocument(document, new BsonDocumentCodec());
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(json)) {
+            BsonJsonTranscoder.write(raw, generator);
+        }
+        return json.toString();
+    }
+
+    @Test
+    void rendersEveryBsonTypeTheSameWayAsTheRestOfTheApi() throws IOException {
+        BsonDocument document = new BsonDocument()
+                .append("_id", new BsonObjectId(new ObjectId("5f1d7b2e9c1e4a3b2c1d0e0f")))
+                .append("end_time", new BsonDateTime(1751297444000L))
+                .append("amount", new BsonDecimal128(new Decimal128(new BigDecimal("12345.6789"))))
+                .append("ratio", new BsonDouble(Double.NaN))
+                .append("peak", new BsonDouble(Double.POSITIVE_INFINITY))
+                .append("score", new BsonDouble(0.5))
+                .append("level", new BsonInt32(3))
+                .append("total", new BsonInt64(9_000_000_000L))
+                .append("payload", new BsonBinary(new byte[]{1, 2, 3}))
+                .append("tags", new BsonArray(Arrays.asList(new BsonString("a"), new BsonInt32(1),
+                        new BsonArray(Arrays.asList(new BsonBoolean(true), BsonNull.VALUE)))))
+                .append("source", new BsonDocument("system_name", new BsonString("支付"))
+                        .append("updated", new BsonDateTime(0L))
+                        .append("items", new BsonArray(Arrays.asList(new BsonDocument("k", new BsonInt32(1))))));
+
+        assertEquals("{\"_id\":\"5f1d7b2e9c1e4a3b2c1d0e0f\","
+                        + "\"end_time\":\"2025-06-30T23:30:44.000+08:00\","
+                        + "\"amount\":\"12345.6789\","
+                        + "\"ratio\":\"NaN\","
+                        + "\"peak\":\"Infinity\","
+                        + "\"score\":0.5,"
+                        + "\"level\":3,"
+                        + "\"total\":9000000000,"
+                        + "\"payload\":\"AQID\","
+                        + "\"tags\":[\"a\",1,[true,null]],"
+                        + "\"source\":{\"system_name\":\"支付\",\"updated\":\"1970-01-01T08:00:00.000+08:00\",\"items\":[{\"k\":1}]}}",
+                transcode(document));
+    }
+
+    @Test
+    void formatsDatesInChinaStandardTime() {
+        assertEquals("2025-06-30T23:30:44.000+08:00", BsonJsonTranscoder.formatDate(1751297444000L));
+    }
+}
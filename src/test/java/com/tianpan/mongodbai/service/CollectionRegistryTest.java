@@ -0,0 +1,78 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.tianpan.mongodbai.config.QueryProperties;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+class CollectionRegistryTest {
+
+    private final Map<String, MongoCollection<Document>> collections = new HashMap<>();
+    private final Map<MongoCollection<Document>, ReadConcern> readConcerns = new HashMap<>();
+
+    private CollectionRegistry registry(QueryProperties properties) {
+        MongoDatabase database = mock(MongoDatabase.class);
+        when(database.getName()).thenReturn("detect");
+        when(database.getCollection(anyString())).thenAnswer(invocation -> {
+            String name = invocation.getArgument(0);
+            return collections.computeIfAbsent(name, key -> collection(null));
+        });
+        return new CollectionRegistry(database, properties);
+    }
+
+    private MongoCollection<Document> collection(ReadConcern readConcern) {
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        readConcerns.put(collection, readConcern);
+        when(collection.withReadConcern(any())).thenAnswer(
+                invocation -> collection(invocation.getArgument(0)));
+        when(collection.withDocumentClass(RawBsonDocument.class)).thenReturn(mock(MongoCollection.class));
+        return collection;
+    }
+
+    @Test
+    void routesQueriesToTheNamedCollection() {
+        CollectionRegistry registry = registry(new QueryProperties());
+
+        assertEquals("alarm_itsc", registry.resolve("alarm_itsc").getName());
+        assertSame(collections.get("alarm_ignore"), registry.resolve("alarm_ignore").documents());
+        assertSame(registry.resolve("alarm_info"), registry.resolve("alarm_info"));
+        assertThrows(IllegalArgumentException.class, () -> registry.resolve("users"));
+    }
+
+    @Test
+    void appliesPerCollectionSettingsAndKeepsInternalCollectionsOutOfQueries() {
+        QueryProperties properties = new QueryProperties();
+        properties.setAllowedCollections(Arrays.asList("alarm_info", "alarm_stat"));
+        QueryProperties.CollectionSettings settings = new QueryProperties.CollectionSettings();
+        settings.setReadConcern(ReadConcernLevel.MAJORITY);
+        settings.setDefaultLimit(1000);
+        properties.getCollections().put("alarm_info", settings);
+
+        CollectionRegistry registry = registry(properties);
+
+        CollectionRegistry.Handle alarmInfo = registry.resolve("alarm_info");
+        assertEquals(ReadConcern.MAJORITY, readConcerns.get(alarmInfo.documents()));
+        assertEquals(Integer.valueOf(1000), alarmInfo.getDefaultLimit());
+        assertNull(registry.resolve("alarm_stat").getDefaultLimit());
+        assertThrows(IllegalArgumentException.class, () -> registry.resolve("alarm_ignore"));
+        assertEquals("alarm_ignore", registry.get("alarm_ignore").getName());
+    }
+}
@@ -0,0 +1,127 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.EstimatedDocumentCountOptions;
+import com.tianpan.mongodbai.service.cache.QueryResultCache;
+import com.tianpan.mongodbai.service.query.QueryPlanCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+class CountEngineTest {
+
+    private static final List<Document> INDEXES = Arrays.asList(
+            new Document("key", new Document("_id", 1)),
+            new Document("key", new Document("alarm_type", 1).append("end_time", -1)),
+            new Document("key", new Document("alarm_type", 1)));
+
+    private final QueryPlanCache plans = new QueryPlanCache(100, Collections.emptyMap());
+    private final QueryResultCache resultCache = new QueryResultCache(1024, QueryResultCache.EvictionPolicy.LRU,
+            Duration.ofSeconds(30), Collections.emptyMap());
+    private final AtomicLong now = new AtomicLong();
+    private final CountEngine engine = engine(new IndexCatalog(name -> INDEXES, Duration.ofMinutes(10)));
+
+    private CountEngine engine(IndexCatalog catalog) {
+        return new CountEngine(catalog, resultCache, Duration.ofSeconds(10), 100, Duration.ofSeconds(30),
+                new SimpleMeterRegistry(), now::get);
+    }
+    private final MongoCollection<Document> collection = mock(MongoCollection.class);
+
+    @Test
+    void unfilteredCountReadsMetadata() {
+        when(collection.estimatedDocumentCount(any(EstimatedDocumentCountOptions.class))).thenReturn(1_000_000L);
+
+        CountEngine.Result result = engine.count(plans.get("db.alarm_info.count()"), collection, QueryDeadline.none());
+
+        assertEquals(1_000_000L, result.getCount());
+        assertEquals(CountEngine.Strategy.ESTIMATED, result.getStrategy());
+        verify(collection, never()).countDocuments(any(Bson.class), any(CountOptions.class));
+    }
+
+    @Test
+    void filteredCountUsesHintAndShortLivedCache() {
+        when(collection.countDocuments(any(Bson.class), any(CountOptions.class))).thenReturn(42L);
+        String query = "db.alarm_info.count({alarm_type: 'business'})";
+
+        CountEngine.Result first = engine.count(plans.get(query), collection, QueryDeadline.after(Duration.ofSeconds(5)));
+        assertEquals(CountEngine.Strategy.HINTED, first.getStrategy());
+        ArgumentCaptor<CountOptions> options = ArgumentCaptor.forClass(CountOptions.class);
+        verify(collection).countDocuments(any(Bson.class), options.capture());
+        assertEquals(BsonDocument.parse("{alarm_type: 1}"), options.getValue().getHint());
+        assertTrue(options.getValue().getMaxTime(TimeUnit.MILLISECONDS) <= 5000);
+
+        // 重复的按条件计数由计数缓存返回，不再执行countDocuments（与结果缓存是否开启无关）
+        CountEngine.Result second = engine.count(plans.get(query), collection, QueryDeadline.none());
+        assertEquals(CountEngine.Strategy.CACHED, second.getStrategy());
+        assertEquals(42L, second.getCount());
+        verify(collection, times(1)).countDocuments(any(Bson.class), any(CountOptions.class));
+
+        resultCache.invalidateCollection("alarm_info");
+        assertEquals(CountEngine.Strategy.HINTED, engine.count(plans.get(query), collection, QueryDeadline.none()).getStrategy());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertEquals(CountEngine.Strategy.HINTED, engine.count(plans.get(query), collection, QueryDeadline.none()).getStrategy());
+        verify(collection, times(3)).countDocuments(any(Bson.class), any(CountOptions.class));
+    }
+
+    @Test
+    void sparsePartialAndSpecialIndexesAreNeverHinted() {
+        List<Document> indexes = Arrays.asList(
+                new Document("key", new Document("_id", 1)),
+                new Document("key", new Document("alarm_type", 1)).append("sparse", true),
+                new Document("key", new Document("alarm_type", 1).append("end_time", 1))
+                        .append("partialFilterExpression", new Document("end_time", new Document("$exists", true))),
+                new Document("key", new Document("alarm_type", "hashed")),
+                new Document("key", new Document("location", "2dsphere")),
+                new Document("key", new Document("$**", 1)),
+                new Document("key", new Document("system_name", 1)).append("hidden", true),
+                new Document("key", new Document("system_name", 1).append("end_time", -1)));
+        IndexCatalog catalog = new IndexCatalog(name -> indexes, Duration.ofMinutes(10));
+
+        assertEquals(Arrays.asList(new Document("_id", 1), new Document("system_name", 1).append("end_time", -1)),
+                catalog.hintKeys("alarm_info"));
+
+        CountEngine engine = engine(catalog);
+        when(collection.countDocuments(any(Bson.class), any(CountOptions.class))).thenReturn(7L);
+        assertEquals(CountEngine.Strategy.SCANNED, engine.count(plans.get("db.alarm_info.count({alarm_type: 'business'})"),
+                collection, QueryDeadline.none()).getStrategy());
+        assertEquals(CountEngine.Strategy.SCANNED, engine.count(plans.get("db.alarm_info.count({location: 'x'})"),
+                collection, QueryDeadline.none()).getStrategy());
+        assertEquals(CountEngine.Strategy.HINTED, engine.count(plans.get("db.alarm_info.count({system_name: 'a'})"),
+                collection, QueryDeadline.none()).getStrategy());
+    }
+
+    @Test
+    void hintRequiresFilterFieldsToBeAnIndexPrefix() {
+        List<Document> keys = Arrays.asList(new Document("alarm_type", 1).append("end_time", -1), new Document("_id", 1));
+
+        assertEquals(BsonDocument.parse("{alarm_type: 1, end_time: -1}"),
+                CountEngine.hint(BsonDocument.parse("{end_time: {$gt: 'x'}, alarm_type: 'a'}"), keys));
+        assertEquals(BsonDocument.parse("{alarm_type: 1, end_time: -1}"),
+                CountEngine.hint(BsonDocument.parse("{alarm_type: 'a'}"), keys));
+        assertNull(CountEngine.hint(BsonDocument.parse("{end_time: {$gt: 'x'}}"), keys));
+        assertNull(CountEngine.hint(BsonDocument.parse("{$or: [{alarm_type: 'a'}]}"), keys));
+    }
+}
@@ -0,0 +1,88 @@
+package com.tianpan.mongodbai.service;
+
+import com.tianpan.mongodbai.config.IndexProperties;
+import com.tianpan.mongodbai.service.query.QueryPlanCache;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexAdvisorTest {
+
+    private final QueryPlanCache plans = new QueryPlanCache(100, Collections.emptyMap());
+    private final List<Document> indexes = new ArrayList<>(Collections.singletonList(new Document("_id", 1)));
+
+    private IndexAdvisor advisor(Long explained) {
+        IndexProperties.Advisor properties = new IndexProperties.Advisor();
+        properties.setMinExecutions(2);
+        return new IndexAdvisor(properties, name -> indexes, name -> 100_000L, (collection, shape) -> explained);
+    }
+
+    private void observe(IndexAdvisor advisor, String query, int times, long returned) {
+        for (int i = 0; i < times; i++) {
+            advisor.observe(plans.get(query), returned);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> recommendations(IndexAdvisor advisor) {
+        return (List<Map<String, Object>>) advisor.getStats().get("recommendations");
+    }
+
+    @Test
+    void ordersKeysAsEqualitySortRangeAndRanksBySavings() {
+        IndexAdvisor advisor = advisor(null);
+        observe(advisor, "db.alarm_info.find({end_time: {$gte: ISODate(\"2024-01-01T00:00:00Z\")}, alarm_type: \"business\", "
+                + "system_name: {$in: [\"a\", \"b\"]}}).sort({alert_id: -1}).limit(10)", 3, 10);
+        observe(advisor, "db.alarm_itsc.find({itsc_id: \"T1\"})", 5, 2);
+        observe(advisor, "db.alarm_ignore.find({alert_id: \"A1\"})", 1, 1);
+
+        List<Map<String, Object>> recommendations = recommendations(advisor);
+        assertEquals(2, recommendations.size());
+        assertEquals("alarm_itsc", recommendations.get(0).get("collection"));
+        assertEquals(5L * (100_000 - 2), recommendations.get(0).get("estimatedDocsExaminedSaved"));
+        assertEquals("collectionSize", recommendations.get(0).get("estimateSource"));
+        assertEquals("{\"alarm_type\": 1, \"system_name\": 1, \"alert_id\": -1, \"end_time\": 1}", recommendations.get(1).get("index"));
+        assertEquals("db.alarm_info.createIndex({\"alarm_type\": 1, \"system_name\": 1, \"alert_id\": -1, \"end_time\": 1})",
+                recommendations.get(1).get("command"));
+    }
+
+    @Test
+    void skipsShapesServedByExistingIndexes() {
+        indexes.add(new Document("system_name", 1).append("alarm_type", 1.0).append("end_time", -1));
+        IndexAdvisor advisor = advisor(null);
+        // 等值字段顺序不同、排序方向整体相反时现有索引同样可用
+        observe(advisor, "db.alarm_info.find({alarm_type: \"business\", system_name: \"core\"}).sort({end_time: 1})", 3, 5);
+        observe(advisor, "db.alarm_info.find({_id: ObjectId(\"66812f000000000000000000\")})", 3, 1);
+        observe(advisor, "db.alarm_info.find({$or: [{a: 1}, {b: 2}]})", 3, 1);
+        assertTrue(recommendations(advisor).isEmpty());
+
+        // 部分可用的索引且没有explain时无法估算
+        observe(advisor, "db.alarm_info.count({system_name: \"core\", level: 3})", 3, 1);
+        List<Map<String, Object>> recommendations = recommendations(advisor);
+        assertEquals(1, recommendations.size());
+        assertEquals("{\"level\": 1, \"system_name\": 1}", recommendations.get(0).get("index"));
+        assertNull(recommendations.get(0).get("estimatedDocsExaminedSaved"));
+    }
+
+    @Test
+    void prefersExplainedDocsExamined() {
+        indexes.add(new Document("system_name", 1));
+        IndexAdvisor advisor = advisor(20_000L);
+        observe(advisor, "db.alarm_info.aggregate([{$match: {system_name: \"core\", alarm_type: \"business\"}}, "
+                + "{$sort: {end_time: -1}}, {$limit: 5}])", 4, 5);
+
+        Map<String, Object> recommendation = recommendations(advisor).get(0);
+        assertEquals("{\"alarm_type\": 1, \"system_name\": 1, \"end_time\": -1}", recommendation.get("index"));
+        assertEquals("explain", recommendation.get("estimateSource"));
+        assertEquals(4L * (20_000 - 5), recommendation.get("estimatedDocsExaminedSaved"));
+        assertEquals("alarm_info", recommendation.get("collection"));
+    }
+}
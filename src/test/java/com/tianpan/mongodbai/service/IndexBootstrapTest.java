@@ -0,0 +1,89 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoSocketReadTimeoutException;
+import com.mongodb.ServerAddress;
+import com.tianpan.mongodbai.config.IndexProperties;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IndexBootstrapTest {
+
+    private final Map<String, List<Document>> existing = new HashMap<>();
+    private final List<String> created = new ArrayList<>();
+    private final IndexCatalog catalog = new IndexCatalog(
+            name -> existing.getOrDefault(name, Collections.emptyList()), Duration.ofMinutes(10));
+
+    private static IndexProperties properties(String collection, String... keys) {
+        IndexProperties properties = new IndexProperties();
+        properties.getCollections().put(collection, Arrays.asList(keys));
+        return properties;
+    }
+
+    @Test
+    void createsOnlyMissingIndexes() {
+        // 通过shell创建的索引方向常为1.0
+        existing.put("alarm_info", Arrays.asList(new Document("key", new Document("_id", 1)),
+                new Document("key", new Document("alert_id", 1.0))));
+        IndexBootstrap bootstrap = new IndexBootstrap(properties("alarm_info", "{\"alert_id\": 1}",
+                "{\"alarm_type\": 1, \"end_time\": 1}", "{\"end_time\": 1, \"alarm_type\": 1}"), catalog, (collection, keys) -> {
+            if (keys.containsKey("end_time") && keys.keySet().iterator().next().equals("end_time")) {
+                throw new IllegalStateException("Index build failed");
+            }
+            created.add(collection + " " + keys.toJson());
+        });
+        bootstrap.run();
+
+        assertEquals(Collections.singletonList("alarm_info {\"alarm_type\": 1, \"end_time\": 1}"), created);
+        List<Map<String, Object>> stats = bootstrap.getStats();
+        assertEquals("exists", stats.get(0).get("status"));
+        assertEquals("created", stats.get(1).get("status"));
+        assertEquals("failed", stats.get(2).get("status"));
+        assertEquals("Index build failed", stats.get(2).get("error"));
+    }
+
+    @Test
+    void buildInProgressIsNotAFailure() {
+        MongoCommandException inProgress = new MongoCommandException(BsonDocument.parse(
+                "{\"ok\": 0, \"code\": 276, \"codeName\": \"IndexBuildAlreadyInProgress\", \"errmsg\": \"index build in progress\"}"),
+                new ServerAddress());
+        IndexBootstrap bootstrap = new IndexBootstrap(properties("alarm_info", "{\"alert_id\": 1}", "{\"end_time\": 1}",
+                "{\"itsc_id\": 1}"), catalog, (collection, keys) -> {
+            if (keys.containsKey("alert_id")) {
+                throw inProgress;
+            }
+            if (keys.containsKey("end_time")) {
+                throw new MongoSocketReadTimeoutException("Timed out", new ServerAddress(), new IOException());
+            }
+            throw new MongoCommandException(BsonDocument.parse("{\"ok\": 0, \"code\": 85, \"codeName\": \"IndexOptionsConflict\"}"),
+                    new ServerAddress());
+        });
+        bootstrap.run();
+
+        List<Map<String, Object>> stats = bootstrap.getStats();
+        assertEquals("building", stats.get(0).get("status"));
+        assertEquals("building", stats.get(1).get("status"));
+        assertEquals("failed", stats.get(2).get("status"));
+    }
+
+    @Test
+    void rejectsInvalidDeclarations() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new IndexBootstrap(properties("alarm_info", "alert_id: 1"), catalog, (collection, keys) -> { }));
+        assertThrows(IllegalArgumentException.class,
+                () -> new IndexBootstrap(properties("alarm_info", "{}"), catalog, (collection, keys) -> { }));
+    }
+}
@@ -0,0 +1,47 @@
+package com.tianpan.mongodbai.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LazyLogTest {
+
+    @AfterEach
+    void tearDown() {
+        LazyLog.configure(2048, 0.01);
+    }
+
+    @Test
+    void payloadIsSerializedOnlyWhenFormattedAndTruncated() {
+        LazyLog.configure(20, 0.01);
+        Document document = new Document("content", "交易成功率低于阈值，当前值 97.3%，阈值 99%");
+
+        Object argument = LazyLog.json(document);
+        document.put("content", "x");
+        assertEquals("{\"content\": \"x\"}", argument.toString());
+
+        document.put("content", "0123456789012345678901234567890");
+        String text = argument.toString();
+        assertTrue(text.startsWith("{\"content\": \"0123456"), text);
+        assertTrue(text.endsWith("...(共46字符)"), text);
+    }
+
+    @Test
+    void samplingRespectsBounds() {
+        LazyLog.configure(2048, 0);
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(LazyLog.sampled());
+        }
+        LazyLog.configure(2048, 1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(LazyLog.sampled());
+        }
+        assertThrows(IllegalArgumentException.class, () -> LazyLog.configure(2048, 1.5));
+        assertThrows(IllegalArgumentException.class, () -> LazyLog.configure(0, 0.01));
+    }
+}
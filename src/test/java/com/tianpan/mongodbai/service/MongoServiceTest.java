@@ -0,0 +1,195 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.tianpan.mongodbai.config.QueryProperties;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"unchecked", "deprecation"})
+class MongoServiceTest {
+
+    private final Map<String, MongoCollection<Document>> collections = new HashMap<>();
+    private final List<List<Bson>> pipelines = new ArrayList<>();
+
+    /**
+     * alarm_itsc 的聚合按 $in 中的 itsc_id 返回 itscRows 中的行；alarm_ignore 按 alert_id 查找 ignores
+     */
+    private MongoService service(int batchSize, Map<String, Document> itscRows, Map<String, Document> ignores) {
+        collections.clear();
+        MongoDatabase database = mock(MongoDatabase.class);
+        when(database.getName()).thenReturn("detect");
+        when(database.getCollection(anyString())).thenAnswer(invocation -> collections.computeIfAbsent(
+                invocation.getArgument(0), name -> {
+                    MongoCollection<Document> collection = mock(MongoCollection.class);
+                    when(collection.withDocumentClass(RawBsonDocument.class)).thenReturn(mock(MongoCollection.class));
+                    return collection;
+                }));
+        CollectionRegistry registry = new CollectionRegistry(database, new QueryProperties());
+
+        when(collections.get("alarm_itsc").aggregate(anyList())).thenAnswer(invocation -> {
+            List<Bson> pipeline = invocation.getArgument(0);
+            pipelines.add(pipeline);
+            List<String> ids = itscIds(pipeline).stream().map(value -> value.asString().getValue()).collect(Collectors.toList());
+            return aggregate(ids.stream().filter(itscRows::containsKey).map(itscRows::get).collect(Collectors.toList()));
+        });
+        when(collections.get("alarm_ignore").find(any(Bson.class))).thenAnswer(invocation -> {
+            FindIterable<Document> found = mock(FindIterable.class);
+            when(found.first()).thenReturn(ignores.get(((Document) invocation.getArgument(0)).getString("alert_id")));
+            return found;
+        });
+
+        MongoService service = new MongoService();
+        ReflectionTestUtils.setField(service, "collectionRegistry", registry);
+        ReflectionTestUtils.setField(service, "bulkBatchSize", batchSize);
+        return service;
+    }
+
+    private static AggregateIterable<Document> aggregate(List<Document> results) {
+        AggregateIterable<Document> iterable = mock(AggregateIterable.class);
+        when(iterable.allowDiskUse(any())).thenReturn(iterable);
+        doAnswer(invocation -> {
+            results.forEach(invocation.<Consumer<Document>>getArgument(0));
+            return null;
+        }).when(iterable).forEach(any(Consumer.class));
+        return iterable;
+    }
+
+    private static BsonDocument render(Bson stage) {
+        return stage.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    /**
+     * $match 中 itsc_id 的 $in 列表
+     */
+    private static BsonArray itscIds(List<Bson> pipeline) {
+        return render(pipeline.get(0)).getDocument("$match").getArray("$and").get(0).asDocument()
+                .getDocument("itsc_id").getArray("$in");
+    }
+
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add("ITSC-" + i);
+        }
+        return ids;
+    }
+
+    private static Document row(String itscId, String caseExecId, Object reactionTime) {
+        return new Document("itsc_id", itscId).append("case_exec_id", caseExecId)
+                .append("alarm_info", new Document("alert_id", caseExecId).append("system_name", "支付"))
+                .append("failed", "误报").append("reaction_time", reactionTime);
+    }
+
+    @Test
+    void alarmRowsJoinAllThreeCollectionsInOneAggregation() {
+        Map<String, Document> rows = new HashMap<>();
+        rows.put("ITSC-1", row("ITSC-1", "A-1", "2025-06-30 10:05:00"));
+        MongoService service = service(1000, rows, Collections.emptyMap());
+
+        List<Map<String, Object>> result = service.getAlarmRowsByItscIds(Arrays.asList("ITSC-1", "ITSC-2"));
+
+        assertEquals(1, pipelines.size());
+        List<BsonDocument> stages = pipelines.get(0).stream().map(MongoServiceTest::render).collect(Collectors.toList());
+        assertEquals(5, stages.size());
+        assertEquals(BsonDocument.parse("{$match: {$and: [{itsc_id: {$in: ['ITSC-1', 'ITSC-2']}}, {case_exec_id: {$type: 2}}]}}"),
+                stages.get(0));
+        assertEquals(BsonDocument.parse("{$lookup: {from: 'alarm_info', localField: 'case_exec_id', foreignField: 'alert_id', as: 'alarm_info'}}"),
+                stages.get(1));
+        assertEquals(BsonDocument.parse("{$lookup: {from: 'alarm_ignore', localField: 'case_exec_id', foreignField: 'alert_id', as: 'alarm_ignore'}}"),
+                stages.get(2));
+        assertTrue(stages.get(3).containsKey("$project"));
+        assertEquals(BsonDocument.parse("{$project: {itsc_id: 1, case_exec_id: 1, alarm_info: 1,"
+                + " failed: '$alarm_ignore.failed', reaction_time: '$alarm_ignore.reaction_time'}}"), stages.get(4));
+
+        assertEquals(1, result.size());
+        assertEquals(Arrays.asList("itsc_id", "case_exec_id", "alarm_info", "failed", "reaction_time"),
+                new ArrayList<>(result.get(0).keySet()));
+        assertEquals("A-1", result.get(0).get("case_exec_id"));
+        assertEquals("支付", ((Document) result.get(0).get("alarm_info")).getString("system_name"));
+        assertEquals("误报", result.get(0).get("failed"));
+    }
+
+    @Test
+    void alarmRowsSplitItscIdsByBatchSize() {
+        Map<String, Document> rows = new HashMap<>();
+        for (String id : ids(7)) {
+            rows.put(id, row(id, "A-" + id, null));
+        }
+
+        // 批大小的整数倍不会多出空批次
+        assertEquals(6, service(3, rows, Collections.emptyMap()).getAlarmRowsByItscIds(ids(6)).size());
+        assertEquals(Arrays.asList(3, 3), batchSizes());
+
+        pipelines.clear();
+        List<Map<String, Object>> result = service(3, rows, Collections.emptyMap()).getAlarmRowsByItscIds(ids(7));
+        assertEquals(Arrays.asList(3, 3, 1), batchSizes());
+        assertEquals(ids(7), result.stream().map(row -> row.get("itsc_id")).collect(Collectors.toList()));
+
+        pipelines.clear();
+        assertTrue(service(3, rows, Collections.emptyMap()).getAlarmRowsByItscIds(Collections.emptyList()).isEmpty());
+        verify(collections.get("alarm_itsc"), never()).aggregate(anyList());
+    }
+
+    private List<Integer> batchSizes() {
+        return pipelines.stream().map(pipeline -> itscIds(pipeline).size()).collect(Collectors.toList());
+    }
+
+    @Test
+    void alarmRowsFormatReactionTimeLikeThePerIdGetters() {
+        List<Object> reactionTimes = Arrays.asList("2025-06-30 10:05:00", "2025/6/30 10:05", "2025-06-30T10:05:00.000+08:00",
+                new Date(1751249100000L), "5分钟", "", null);
+        Map<String, Document> rows = new HashMap<>();
+        Map<String, Document> ignores = new HashMap<>();
+        List<String> itscIds = new ArrayList<>();
+        for (int i = 0; i < reactionTimes.size(); i++) {
+            String itscId = "ITSC-" + i;
+            itscIds.add(itscId);
+            rows.put(itscId, row(itscId, "A-" + i, reactionTimes.get(i)));
+            ignores.put("A-" + i, new Document("alert_id", "A-" + i).append("failed", "误报")
+                    .append("reaction_time", reactionTimes.get(i)));
+        }
+        MongoService service = service(1000, rows, ignores);
+
+        List<Map<String, Object>> result = service.getAlarmRowsByItscIds(itscIds);
+
+        assertEquals(reactionTimes.size(), result.size());
+        for (Map<String, Object> row : result) {
+            String caseExecId = (String) row.get("case_exec_id");
+            assertEquals(service.getAlarmIgnoreReactionTime(caseExecId), row.get("reaction_time"), caseExecId);
+            assertEquals(service.getAlarmIgnoreFailedReason(caseExecId), row.get("failed"), caseExecId);
+        }
+        assertEquals("2025/6/30 10:05", result.get(0).get("reaction_time"));
+        assertNull(result.get(reactionTimes.size() - 1).get("reaction_time"));
+    }
+}
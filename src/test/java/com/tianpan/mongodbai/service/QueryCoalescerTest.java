@@ -0,0 +1,146 @@
+package com.tianpan.mongodbai.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryCoalescerTest {
+
+    private final List<QueryCoalescer> coalescers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        coalescers.forEach(QueryCoalescer::close);
+    }
+
+    private QueryCoalescer coalescer(Duration maxWait) {
+        QueryCoalescer coalescer = new QueryCoalescer(true, maxWait, new SimpleMeterRegistry());
+        coalescers.add(coalescer);
+        return coalescer;
+    }
+
+    private static CompletableFuture<String> completed(String value) {
+        return CompletableFuture.completedFuture(value);
+    }
+
+    @Test
+    void concurrentIdenticalQueriesExecuteOnce() throws Exception {
+        QueryCoalescer coalescer = coalescer(Duration.ofSeconds(30));
+        AtomicInteger executions = new AtomicInteger();
+        CompletableFuture<String> leader = new CompletableFuture<>();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(coalescer.submit("q", QueryDeadline.none(), () -> {
+                executions.incrementAndGet();
+                return leader;
+            }));
+        }
+        assertEquals(4L, coalescer.getStats().get("coalesced"));
+        leader.complete("{\"count\":1}");
+
+        for (CompletableFuture<String> result : results) {
+            assertEquals("{\"count\":1}", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, executions.get());
+        assertEquals(0.8, (Double) coalescer.getStats().get("coalescingRatio"), 1e-9);
+        assertEquals(0, coalescer.getStats().get("inFlight"));
+
+        // 执行结束后不再合并
+        assertEquals("again", coalescer.submit("q", QueryDeadline.none(), () -> completed("again")).get());
+    }
+
+    @Test
+    void followerSubmitsNothingWhileLeaderRuns() {
+        QueryCoalescer coalescer = coalescer(Duration.ofSeconds(30));
+        CompletableFuture<String> leader = new CompletableFuture<>();
+        coalescer.submit("q", QueryDeadline.none(), () -> leader);
+
+        AtomicInteger submitted = new AtomicInteger();
+        CompletableFuture<String> follower = coalescer.submit("q", QueryDeadline.after(Duration.ofSeconds(5)), () -> {
+            submitted.incrementAndGet();
+            return completed("own");
+        });
+
+        assertFalse(follower.isDone());
+        assertEquals(0, submitted.get());
+        leader.complete("shared");
+        assertEquals("shared", follower.join());
+        assertEquals(0, submitted.get());
+    }
+
+    @Test
+    void followerRetriesWhenLeaderIsCancelled() throws Exception {
+        QueryCoalescer coalescer = coalescer(Duration.ofSeconds(30));
+        CompletableFuture<String> leaderQuery = new CompletableFuture<>();
+        CompletableFuture<String> leader = coalescer.submit("q", QueryDeadline.none(), () -> leaderQuery);
+        CompletableFuture<String> follower = coalescer.submit("q", QueryDeadline.none(), () -> completed("own"));
+        assertEquals(1L, coalescer.getStats().get("coalesced"));
+        leaderQuery.completeExceptionally(new RuntimeException("查询执行失败", new CancellationException("查询已取消")));
+
+        assertEquals("own", follower.get(5, TimeUnit.SECONDS));
+        assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void followerResubmitsThroughItsOwnAdmission() throws Exception {
+        QueryCoalescer coalescer = coalescer(Duration.ofSeconds(30));
+        CompletableFuture<String> leaderQuery = new CompletableFuture<>();
+        coalescer.submit("q", QueryDeadline.none(), () -> leaderQuery);
+        CompletableFuture<String> follower = coalescer.submit("q", QueryDeadline.none(), () -> {
+            throw new IllegalStateException("未准入");
+        });
+        leaderQuery.completeExceptionally(new CancellationException("查询已超过截止时间"));
+
+        // 重新提交时自身未准入，得到自己的错误
+        ExecutionException error = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+    }
+
+    @Test
+    void followerSharesOtherErrors() {
+        QueryCoalescer coalescer = coalescer(Duration.ofSeconds(30));
+        CompletableFuture<String> leaderQuery = new CompletableFuture<>();
+        coalescer.submit("q", QueryDeadline.none(), () -> leaderQuery);
+        CompletableFuture<String> follower = coalescer.submit("q", QueryDeadline.none(), () -> completed("own"));
+        leaderQuery.completeExceptionally(new IllegalArgumentException("不支持的操作"));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, error.getCause());
+    }
+
+    @Test
+    void followerRunsItselfAfterMaxWait() throws Exception {
+        QueryCoalescer coalescer = coalescer(Duration.ofMillis(100));
+        CompletableFuture<String> stuck = new CompletableFuture<>();
+        CompletableFuture<String> leader = coalescer.submit("q", QueryDeadline.none(), () -> stuck);
+
+        assertEquals("own", coalescer.submit("q", QueryDeadline.none(), () -> completed("own")).get(5, TimeUnit.SECONDS));
+        assertEquals(1L, coalescer.getStats().get("timeouts"));
+        stuck.complete("stuck");
+        assertEquals("stuck", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void followerGivesUpAtItsOwnDeadline() {
+        QueryCoalescer coalescer = coalescer(Duration.ofSeconds(30));
+        coalescer.submit("q", QueryDeadline.none(), CompletableFuture::new);
+
+        QueryDeadline deadline = QueryDeadline.after(Duration.ofMillis(50));
+        CompletableFuture<String> follower = coalescer.submit("q", deadline, () -> completed("own"));
+        assertThrows(CancellationException.class, () -> follower.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,98 @@
+package com.tianpan.mongodbai.service;
+
+import com.tianpan.mongodbai.config.QueryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryExecutorTest {
+
+    private QueryExecutor executor;
+
+    private QueryExecutor executor(int threads, int queueCapacity) {
+        QueryProperties properties = new QueryProperties();
+        properties.getAsync().setThreads(threads);
+        properties.getAsync().setQueueCapacity(queueCapacity);
+        properties.getAsync().setDefaultTimeout(Duration.ofSeconds(30));
+        properties.getAsync().setMaxTimeout(Duration.ofSeconds(120));
+        executor = new QueryExecutor(properties, new SimpleMeterRegistry());
+        return executor;
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    void timeoutDefaultsAndIsCapped() {
+        QueryExecutor executor = executor(1, 1);
+        assertEquals(Duration.ofSeconds(30), executor.timeout(null));
+        assertEquals(Duration.ofMillis(500), executor.timeout(500L));
+        assertEquals(Duration.ofSeconds(120), executor.timeout(600_000L));
+        assertThrows(IllegalArgumentException.class, () -> executor.timeout(0L));
+    }
+
+    @Test
+    void saturatedPoolRejectsImmediately() throws Exception {
+        QueryExecutor executor = executor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> running = executor.submit(QueryDeadline.none(), () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        });
+        CompletableFuture<String> queued = executor.submit(QueryDeadline.none(), () -> "queued");
+
+        assertThrows(RejectedExecutionException.class, () -> executor.submit(QueryDeadline.none(), () -> "rejected"));
+
+        release.countDown();
+        assertEquals("done", running.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelledQueryDoesNotStart() {
+        QueryExecutor executor = executor(1, 1);
+        QueryDeadline deadline = QueryDeadline.after(Duration.ofSeconds(30));
+        deadline.cancel();
+
+        CompletableFuture<String> future = executor.submit(deadline, () -> {
+            throw new AssertionError("已取消的查询不应执行");
+        });
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof CancellationException);
+        assertThrows(CancellationException.class, deadline::maxTimeMillis);
+    }
+
+    @Test
+    void boundedDeadlineCapsMaxTimeAndSharesCancellation() {
+        executor(1, 1);
+        QueryDeadline request = QueryDeadline.after(Duration.ofSeconds(30));
+        QueryDeadline bounded = request.within(Duration.ofSeconds(14));
+
+        assertTrue(bounded.maxTimeMillis() <= 14_000);
+        assertSame(request, request.within(Duration.ofSeconds(60)));
+        assertTrue(QueryDeadline.none().within(Duration.ofSeconds(14)).maxTimeMillis() <= 14_000);
+
+        request.cancel();
+        assertThrows(CancellationException.class, bounded::check);
+    }
+}
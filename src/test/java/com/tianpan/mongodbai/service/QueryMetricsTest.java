@@ -0,0 +1,83 @@
+package com.tianpan.mongodbai.service;
+
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import com.tianpan.mongodbai.service.query.QueryPlanCache;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryMetricsTest {
+
+    private final QueryPlanCache plans = new QueryPlanCache(100, Collections.emptyMap());
+
+    @Test
+    void queriesDifferingOnlyInValuesShareShape() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        QueryMetrics metrics = new QueryMetrics(registry, 10);
+
+        QueryPlan first = plans.get("db.alarm_info.find({alarm_type: 'business'}).sort({end_time: -1}).limit(10)");
+        QueryPlan second = plans.get("db.alarm_info.find({alarm_type: 'system'}).sort({end_time: -1}).limit(20)");
+        assertEquals(first.getShape(), second.getShape());
+
+        metrics.recordPhase(first, QueryMetrics.EXECUTE, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.recordPhase(second, QueryMetrics.EXECUTE, TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.recordResult(first, 10, 2048);
+
+        Timer timer = registry.find("mongo.query.phase")
+                .tags("collection", "alarm_info", "operation", "find", "shape", first.getShape(), "phase", "execute")
+                .timer();
+        assertNotNull(timer);
+        assertEquals(2, timer.count());
+        DistributionSummary bytes = registry.find("mongo.query.response.bytes").summary();
+        assertNotNull(bytes);
+        assertEquals(2048, bytes.totalAmount());
+    }
+
+    @Test
+    void histogramsArePublishedOnlyWithoutShapeTag() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        QueryMetrics metrics = new QueryMetrics(registry, 10);
+        QueryPlan plan = plans.get("db.alarm_info.find({alarm_type: 'business'}).limit(10)");
+
+        metrics.recordPhase(plan, QueryMetrics.EXECUTE, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.recordResult(plan, 10, 2048);
+
+        String scrape = registry.scrape();
+        assertTrue(scrape.contains("mongo_query_phase_seconds_count{"));
+        assertFalse(scrape.contains("mongo_query_phase_seconds_bucket"));
+        assertFalse(scrape.contains("mongo_query_documents_bucket"));
+        assertFalse(scrape.contains("mongo_query_response_bytes_bucket"));
+        assertTrue(scrape.contains("mongo_query_latency_seconds_bucket{collection=\"alarm_info\",operation=\"find\",phase=\"execute\","));
+    }
+
+    @Test
+    void shapesBeyondLimitAreTaggedOther() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        QueryMetrics metrics = new QueryMetrics(registry, 1);
+
+        metrics.recordPhase(plans.get("db.alarm_info.count()"), QueryMetrics.PARSE, 1000);
+        metrics.recordPhase(plans.get("db.alarm_info.find({system_name: 'a'})"), QueryMetrics.PARSE, 1000);
+        metrics.recordPhase(plans.get("db.alarm_info.find({end_time: 'b'})"), QueryMetrics.PARSE, 1000);
+
+        assertNotNull(registry.find("mongo.query.phase").tags("shape", "count").timer());
+        assertEquals(2, registry.find("mongo.query.phase").tags("shape", "other").timer().count());
+    }
+
+    @Test
+    void utf8LengthMatchesEncodedBytes() {
+        String value = "{\"system_name\":\"告警\",\"emoji\":\"\uD83D\uDE00\",\"e\":\"é\"}";
+        assertEquals(value.getBytes(StandardCharsets.UTF_8).length, QueryMetrics.utf8Length(value));
+    }
+}
@@ -0,0 +1,110 @@
+package com.tianpan.mongodbai.service;
+
+import com.tianpan.mongodbai.service.query.QueryPlanCache;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("unchecked")
+class SlowQueryLogTest {
+
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+
+    private final QueryPlanCache plans = new QueryPlanCache(100, Collections.emptyMap());
+    private final Clock clock = Clock.fixed(Instant.parse("2025-06-30T02:00:00Z"), ZoneId.of("UTC"));
+
+    private SlowQueryLog log(int capacity) {
+        return new SlowQueryLog(Duration.ofMillis(500), capacity, Duration.ofMinutes(10), new DirectExecutor(), clock);
+    }
+
+    private static Document collScanExplain() {
+        return Document.parse("{queryPlanner: {winningPlan: {stage: 'LIMIT', inputStage: {stage: 'COLLSCAN'}}},"
+                + " executionStats: {nReturned: 10, totalDocsExamined: 50000, totalKeysExamined: 0, executionTimeMillis: 1800}}");
+    }
+
+    @Test
+    void slowQueriesWithSameShapeAreMergedAndExplainedOnce() {
+        SlowQueryLog log = log(10);
+        AtomicInteger explains = new AtomicInteger();
+
+        assertFalse(log.observe(plans.get("db.alarm_info.find({system_name: 'a'})"), TimeUnit.MILLISECONDS.toNanos(100),
+                () -> { throw new AssertionError("快查询不应explain"); }));
+        assertTrue(log.observe(plans.get("db.alarm_info.find({system_name: 'a'})"), SLOW,
+                () -> { explains.incrementAndGet(); return collScanExplain(); }));
+        assertTrue(log.observe(plans.get("db.alarm_info.find({system_name: 'b'})"), SLOW,
+                () -> { explains.incrementAndGet(); return collScanExplain(); }));
+
+        assertEquals(1, explains.get());
+        List<Map<String, Object>> queries = (List<Map<String, Object>>) log.getStats().get("queries");
+        assertEquals(1, queries.size());
+        assertEquals(2L, queries.get(0).get("count"));
+        Map<String, Object> explain = (Map<String, Object>) queries.get(0).get("explain");
+        assertEquals("LIMIT <- COLLSCAN", explain.get("winningPlan"));
+        assertEquals(true, explain.get("collScan"));
+        assertEquals(5000.0, explain.get("docsExaminedPerReturned"));
+    }
+
+    @Test
+    void leastRecentlySeenShapeIsEvicted() {
+        SlowQueryLog log = log(2);
+        log.observe(plans.get("db.alarm_info.find({a: 1})"), SLOW, Document::new);
+        log.observe(plans.get("db.alarm_info.find({b: 1})"), SLOW, Document::new);
+        log.observe(plans.get("db.alarm_info.find({a: 2})"), SLOW, Document::new);
+        log.observe(plans.get("db.alarm_info.find({c: 1})"), SLOW, Document::new);
+
+        List<Map<String, Object>> queries = (List<Map<String, Object>>) log.getStats().get("queries");
+        assertEquals(2, queries.size());
+        assertEquals("find{c}", queries.get(0).get("shape"));
+        assertEquals("find{a}", queries.get(1).get("shape"));
+    }
+
+    @Test
+    void aggregateExplainReadsCursorStage() {
+        Document explain = Document.parse("{stages: [{$cursor: {queryPlanner: {winningPlan: {stage: 'PROJECTION_SIMPLE',"
+                + " inputStage: {stage: 'FETCH', inputStage: {stage: 'IXSCAN', indexName: 'end_time_1'}}}},"
+                + " executionStats: {nReturned: 100, totalDocsExamined: 100, totalKeysExamined: 100}}}, {$group: {}}]}");
+
+        SlowQueryLog.ExplainSummary summary = SlowQueryLog.ExplainSummary.of(explain);
+
+        assertEquals("PROJECTION_SIMPLE <- FETCH <- IXSCAN(end_time_1)", summary.winningPlan);
+        assertFalse(summary.collScan);
+        assertEquals(100L, summary.docsExamined);
+    }
+
+    /**
+     * 在调用线程上直接执行explain任务
+     */
+    private static final class DirectExecutor extends AbstractExecutorService {
+        @Override
+        public void execute(Runnable command) { command.run(); }
+
+        @Override
+        public void shutdown() { }
+
+        @Override
+        public List<Runnable> shutdownNow() { return Collections.emptyList(); }
+
+        @Override
+        public boolean isShutdown() { return false; }
+
+        @Override
+        public boolean isTerminated() { return false; }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) { return true; }
+    }
+}
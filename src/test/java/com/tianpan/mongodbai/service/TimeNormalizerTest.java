@@ -0,0 +1,112 @@
+package com.tianpan.mongodbai.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TimeNormalizerTest {
+
+    private static final List<String> INPUTS = Arrays.asList(
+            "2025-06-30 9.05:44.123",
+            "2025-06-30 23.30:44.000",
+            "2025-06-30 23:30:44.123",
+            "2025-06-30 23:30:44",
+            "2025-06-30 23:30",
+            "2025-06-30 08:05",
+            "2025/6/30 23:30",
+            "2025/06/30 8:05",
+            "Mon Jun 30 23:30:44 CST 2025",
+            "Mon Jun 30 23:30:44 GMT 2025",
+            "2025-13-30 23:30:44",
+            "2025-02-30 23:30:44",
+            "2025-06-30 24:00",
+            "2025-06-30T23:30:44",
+            "+12025-06-30 23:30",
+            "2025-06-30 123.30:44.000",
+            "2025-6-30 23:30:44",
+            "  2025-06-30 23:30:44",
+            "2025-06-30 23:30:44 ",
+            "UTC",
+            "未处理",
+            "12:30:44",
+            "abc",
+            " ",
+            "");
+
+    @Test
+    void formatsLikeTheLegacyImplementation() {
+        for (String input : INPUTS) {
+            assertEquals(legacyFormatTimeForExcel(input), TimeNormalizer.formatForExcel(input), input);
+            // 第二次调用走缓存
+            assertEquals(legacyFormatTimeForExcel(input), TimeNormalizer.formatForExcel(input), input);
+        }
+        assertEquals("", TimeNormalizer.formatForExcel(null));
+    }
+
+    @Test
+    void detectsDateTimeLikeTheLegacyRegex() {
+        Pattern legacy = Pattern.compile(".*\\d{4}[-/]\\d{1,2}[-/]\\d{1,2}.*\\d{1,2}:\\d{2}:\\d{2}.*");
+        List<String> extra = Arrays.asList(
+                "告警时间 2025-06-30 23:30:44 (CST)",
+                "2025/6/3 1:02:03",
+                "2025-06-30\n23:30:44",
+                "2025-06-30 23:30:44\n",
+                "2025-06-30 23:30",
+                "x2025-1-1y1:00:00z",
+                "12025-06-30 23:3:44",
+                "2025--06-30 23:30:44",
+                "2025-06-30 23:30:4");
+        for (String input : INPUTS) {
+            assertEquals(legacy.matcher(input).matches(), TimeNormalizer.looksLikeDateTime(input), input);
+        }
+        for (String input : extra) {
+            assertEquals(legacy.matcher(input).matches(), TimeNormalizer.looksLikeDateTime(input), input);
+        }
+    }
+
+    @Test
+    void formatsDatesInSystemZone() {
+        Date date = new Date(1751297444000L);
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd HH:mm").format(date), TimeNormalizer.formatDate(date));
+    }
+
+    /**
+     * 原 MongoService.formatTimeForExcel 的逐格式尝试实现，作为对照
+     */
+    private static String legacyFormatTimeForExcel(String timeStr) {
+        if (timeStr == null || timeStr.trim().isEmpty()) {
+            return "";
+        }
+        if (timeStr.matches("\\d{4}/\\d{1,2}/\\d{1,2} \\d{1,2}:\\d{2}$")) {
+            return timeStr;
+        }
+        for (String pattern : new String[]{"yyyy-MM-dd H.mm:ss.SSS", "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm"}) {
+            try {
+                return LocalDateTime.parse(timeStr, DateTimeFormatter.ofPattern(pattern))
+                        .format(DateTimeFormatter.ofPattern("yyyy/M/d H:mm"));
+            } catch (Exception ignored) {
+                // 尝试下一个格式
+            }
+        }
+        if (timeStr.contains("CST") || timeStr.contains("GMT") || timeStr.contains("UTC")) {
+            try {
+                Date date = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.ENGLISH).parse(timeStr);
+                return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime()
+                        .format(DateTimeFormatter.ofPattern("yyyy/M/d H:mm"));
+            } catch (Exception e) {
+                return timeStr;
+            }
+        }
+        return timeStr;
+    }
+}
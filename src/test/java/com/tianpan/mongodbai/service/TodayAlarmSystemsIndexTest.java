@@ -0,0 +1,148 @@
+package com.tianpan.mongodbai.service;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.DistinctIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+class TodayAlarmSystemsIndexTest {
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-06-30T02:00:00Z"));
+    private final MongoCollection<Document> collection = mock(MongoCollection.class);
+    private final List<BsonDocument> filters = new ArrayList<>();
+
+    private Date latestEndTime;
+    private List<String> systemNames;
+    private TodayAlarmSystemsIndex index;
+
+    @BeforeEach
+    void setUp() {
+        FindIterable<Document> find = mock(FindIterable.class);
+        when(collection.find(any(Bson.class))).thenAnswer(invocation -> {
+            filters.add(((Bson) invocation.getArgument(0)).toBsonDocument(BsonDocument.class,
+                    MongoClientSettings.getDefaultCodecRegistry()));
+            return find;
+        });
+        when(find.projection(any())).thenReturn(find);
+        when(find.sort(any())).thenReturn(find);
+        when(find.first()).thenAnswer(invocation -> latestEndTime == null ? null : new Document("end_time", latestEndTime));
+
+        DistinctIterable<BsonValue> distinct = mock(DistinctIterable.class);
+        when(collection.distinct(eq("system_name"), any(Bson.class), eq(BsonValue.class))).thenReturn(distinct);
+        when(distinct.iterator()).thenAnswer(invocation -> cursor(systemNames));
+
+        index = new TodayAlarmSystemsIndex(() -> collection, clock, Duration.ofSeconds(5), Duration.ofMinutes(5));
+    }
+
+    @Test
+    void servesFromMemoryWithinRefreshInterval() {
+        answer("2025-06-30T01:00:00Z", "OA", "CRM");
+
+        assertEquals(Arrays.asList("OA", "CRM"), index.getNames());
+        clock.advance(Duration.ofSeconds(4));
+        answer("2025-06-30T01:30:00Z", "ERP");
+        assertEquals(Arrays.asList("OA", "CRM"), index.getNames());
+
+        assertEquals(1, filters.size());
+    }
+
+    @Test
+    void refreshesIncrementallyFromWatermarkMinusOverlap() {
+        answer("2025-06-30T01:00:00Z", "OA", "CRM");
+        index.getNames();
+        assertEquals(Instant.parse("2025-06-29T16:00:00Z"), lowerBound(0));
+
+        clock.advance(Duration.ofSeconds(5));
+        answer("2025-06-30T01:30:00Z", "CRM", "ERP");
+
+        assertEquals(Arrays.asList("OA", "CRM", "ERP"), index.getNames());
+        assertEquals(Instant.parse("2025-06-30T00:55:00Z"), lowerBound(1));
+    }
+
+    @Test
+    void rollsOverAtShanghaiMidnight() {
+        clock.set(Instant.parse("2025-06-30T15:59:00Z"));
+        answer("2025-06-30T15:58:00Z", "OA");
+        assertEquals(Arrays.asList("OA"), index.getNames());
+
+        clock.set(Instant.parse("2025-06-30T16:00:01Z"));
+        answer(null);
+
+        assertEquals(Arrays.asList(), index.getNames());
+        assertEquals(Instant.parse("2025-06-30T16:00:00Z"), lowerBound(1));
+    }
+
+    private void answer(String endTime, String... names) {
+        latestEndTime = endTime == null ? null : Date.from(Instant.parse(endTime));
+        systemNames = Arrays.asList(names);
+    }
+
+    private Instant lowerBound(int query) {
+        BsonDocument endTime = filters.get(query).getArray("$and").get(0).asDocument().getDocument("end_time");
+        return Instant.ofEpochMilli(endTime.getDateTime("$gte").getValue());
+    }
+
+    private static MongoCursor<BsonValue> cursor(List<String> names) {
+        Iterator<String> iterator = names.iterator();
+        MongoCursor<BsonValue> cursor = mock(MongoCursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> new BsonString(iterator.next()));
+        return cursor;
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void set(Instant instant) {
+            now = instant;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.tianpan.mongodbai.service.admission;
+
+import com.tianpan.mongodbai.config.AdmissionProperties;
+import com.tianpan.mongodbai.config.QueryProperties;
+import com.tianpan.mongodbai.service.QueryDeadline;
+import com.tianpan.mongodbai.service.QueryExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryAdmissionTest {
+
+    private static final QueryCost CHEAP = QueryCost.cheap("test");
+    private static final QueryCost EXPENSIVE = QueryCost.expensive("test");
+
+    private final AtomicLong now = new AtomicLong();
+    private final QueryExecutor executor = new QueryExecutor(new QueryProperties(), new SimpleMeterRegistry());
+
+    private final List<QueryAdmission> admissions = new ArrayList<>();
+
+    private QueryAdmission admission(AdmissionProperties properties) {
+        QueryAdmission admission = new QueryAdmission(properties, executor, (plan, pageSort) -> CHEAP, new SimpleMeterRegistry(), now::get);
+        admissions.add(admission);
+        return admission;
+    }
+
+    @AfterEach
+    void tearDown() {
+        admissions.forEach(QueryAdmission::close);
+        executor.close();
+    }
+
+    @Test
+    void clientBucketLimitsBurstAndRefills() {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.getClient().setRate(1);
+        properties.getClient().setBurst(5);
+        properties.getClient().setExpensiveCost(5);
+        QueryAdmission admission = admission(properties);
+
+        admission.submit("workflow-a", EXPENSIVE, QueryDeadline.none(), () -> 1);
+        AdmissionRejectedException rejected = assertThrows(AdmissionRejectedException.class,
+                () -> admission.submit("workflow-a", CHEAP, QueryDeadline.none(), () -> 1));
+        assertEquals(Duration.ofSeconds(1), rejected.getRetryAfter());
+
+        // 其他调用方不受影响
+        admission.submit("workflow-b", CHEAP, QueryDeadline.none(), () -> 1);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        admission.submit("workflow-a", CHEAP, QueryDeadline.none(), () -> 1);
+    }
+
+    @Test
+    void fullLaneQueuesThenRejectsWithoutAffectingOtherClass() throws Exception {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.getExpensive().setPermits(1);
+        properties.getExpensive().setQueueCapacity(1);
+        properties.getClient().setBurst(100);
+        QueryAdmission admission = admission(properties);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> running = admission.submit("a", EXPENSIVE, QueryDeadline.none(), () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "running";
+        });
+        CompletableFuture<String> queued = admission.submit("a", EXPENSIVE, QueryDeadline.none(), () -> "queued");
+
+        assertThrows(AdmissionRejectedException.class, () -> admission.submit("a", EXPENSIVE, QueryDeadline.none(), () -> "rejected"));
+        assertEquals("cheap", admission.submit("a", CHEAP, QueryDeadline.none(), () -> "cheap").get(5, TimeUnit.SECONDS));
+        assertFalse(queued.isDone());
+
+        release.countDown();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void expiredAndCancelledWaitersFreeTheirQueueSlots() throws Exception {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.getExpensive().setPermits(1);
+        properties.getExpensive().setQueueCapacity(2);
+        properties.getClient().setBurst(100);
+        QueryAdmission admission = admission(properties);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> running = admission.submit("a", EXPENSIVE, QueryDeadline.none(), () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "running";
+        });
+        CompletableFuture<String> expiring = admission.submit("a", EXPENSIVE, QueryDeadline.after(Duration.ofMillis(50)), () -> "expired");
+        QueryDeadline cancelled = QueryDeadline.after(Duration.ofSeconds(30));
+        CompletableFuture<String> abandoned = admission.submit("a", EXPENSIVE, cancelled, () -> "cancelled");
+        assertThrows(AdmissionRejectedException.class, () -> admission.submit("a", EXPENSIVE, QueryDeadline.none(), () -> "rejected"));
+
+        // 许可仍被占用，等待者在截止时间或取消时即结束并让出排队名额
+        cancelled.cancel();
+        assertThrows(CancellationException.class, () -> abandoned.get(5, TimeUnit.SECONDS));
+        assertThrows(CancellationException.class, () -> expiring.get(5, TimeUnit.SECONDS));
+        assertFalse(running.isDone());
+
+        CompletableFuture<String> first = admission.submit("a", EXPENSIVE, QueryDeadline.none(), () -> "first");
+        CompletableFuture<String> second = admission.submit("a", EXPENSIVE, QueryDeadline.none(), () -> "second");
+        release.countDown();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,77 @@
+package com.tianpan.mongodbai.service.admission;
+
+import com.tianpan.mongodbai.service.query.Keyset;
+import com.tianpan.mongodbai.service.query.QueryPlan;
+import com.tianpan.mongodbai.service.query.QueryPlanCache;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueryCostTest {
+
+    private final QueryPlanCache plans = new QueryPlanCache(100, Collections.emptyMap());
+    private final List<Document> indexKeys = Arrays.asList(new Document("_id", 1), new Document("end_time", 1),
+            new Document("alarm_type", 1), new Document("level", 1).append("_id", 1));
+
+    private QueryCost.Level level(String query, Integer defaultLimit) {
+        return QueryCost.estimate(plans.get(query), null, defaultLimit, indexKeys, 1000).getLevel();
+    }
+
+    private QueryCost.Level pageLevel(String query) {
+        QueryPlan plan = plans.get(query);
+        return QueryCost.estimate(plan, Keyset.page(plan, Collections.singletonList(new Document("_id", 1))).getSort(),
+                null, indexKeys, 1000).getLevel();
+    }
+
+    @Test
+    void findNeedsLimitAndIndexedFilter() {
+        assertEquals(QueryCost.Level.EXPENSIVE, level("db.alarm_info.find({alarm_type: 'business'})", null));
+        assertEquals(QueryCost.Level.CHEAP, level("db.alarm_info.find({alarm_type: 'business'})", 100));
+        assertEquals(QueryCost.Level.CHEAP, level("db.alarm_info.find({end_time: {$gte: '2025-06-30'}}).limit(50)", null));
+        assertEquals(QueryCost.Level.EXPENSIVE, level("db.alarm_info.find({system_name: 'a'}).limit(50)", null));
+        assertEquals(QueryCost.Level.EXPENSIVE, level("db.alarm_info.find({alarm_type: 'business'}).limit(5000)", null));
+
+        assertEquals(QueryCost.Level.CHEAP, level("db.alarm_info.find().sort({end_time: -1}).limit(10)", null));
+        assertEquals(QueryCost.Level.EXPENSIVE, level("db.alarm_info.find().sort({system_name: 1}).limit(10)", null));
+    }
+
+    @Test
+    void pagedFindNeedsAnIndexForTheWholePageSort() {
+        // {end_time: -1, _id: -1} 不能由 {end_time: 1} 提供
+        assertEquals(QueryCost.Level.CHEAP, level("db.alarm_info.find().sort({end_time: -1}).limit(10)", null));
+        assertEquals(QueryCost.Level.EXPENSIVE, pageLevel("db.alarm_info.find().sort({end_time: -1}).limit(10)"));
+
+        assertEquals(QueryCost.Level.CHEAP, pageLevel("db.alarm_info.find().limit(10)"));
+        assertEquals(QueryCost.Level.CHEAP, pageLevel("db.alarm_info.find().sort({level: -1}).limit(10)"));
+        assertEquals(QueryCost.Level.EXPENSIVE, pageLevel("db.alarm_info.find().sort({level: 1, _id: -1}).limit(10)"));
+    }
+
+    @Test
+    void unselectiveConditionsDoNotBoundTheScan() {
+        assertEquals(QueryCost.Level.EXPENSIVE, level("db.alarm_info.find({alarm_type: {$ne: 'business'}}).limit(10)", null));
+        assertEquals(QueryCost.Level.EXPENSIVE, level("db.alarm_info.find({alarm_type: /busi/}).limit(10)", null));
+        assertEquals(QueryCost.Level.CHEAP, level("db.alarm_info.find({alarm_type: /^busi/}).limit(10)", null));
+        assertEquals(QueryCost.Level.CHEAP,
+                level("db.alarm_info.find({$or: [{alarm_type: 'a'}, {end_time: {$gt: 'x'}}]}).limit(10)", null));
+        assertEquals(QueryCost.Level.EXPENSIVE,
+                level("db.alarm_info.find({$or: [{alarm_type: 'a'}, {system_name: 'b'}]}).limit(10)", null));
+    }
+
+    @Test
+    void countAndAggregate() {
+        assertEquals(QueryCost.Level.CHEAP, level("db.alarm_info.count()", null));
+        assertEquals(QueryCost.Level.EXPENSIVE, level("db.alarm_info.countDocuments()", null));
+        assertEquals(QueryCost.Level.CHEAP, level("db.alarm_info.count({alarm_type: 'business'})", null));
+        assertEquals(QueryCost.Level.CHEAP,
+                level("db.alarm_info.aggregate([{$match: {alarm_type: 'business'}}, {$group: {_id: '$system_name', n: {$sum: 1}}}])", null));
+        assertEquals(QueryCost.Level.EXPENSIVE,
+                level("db.alarm_info.aggregate([{$group: {_id: '$system_name', n: {$sum: 1}}}])", null));
+        assertEquals(QueryCost.Level.EXPENSIVE,
+                level("db.alarm_info.aggregate([{$match: {alarm_type: 'business'}}, {$lookup: {from: 'alarm_ignore', localField: 'a', foreignField: 'b', as: 'c'}}])", null));
+    }
+}
@@ -0,0 +1,105 @@
+package com.tianpan.mongodbai.service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class QueryResultCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private QueryResultCache cache(long maxBytes, QueryResultCache.EvictionPolicy policy) {
+        return new QueryResultCache(maxBytes, policy, Duration.ofSeconds(30),
+                Collections.singletonMap("alarm_ignore", Duration.ofSeconds(5)), now::get);
+    }
+
+    @Test
+    void expiresEntriesByCollectionTtl() {
+        QueryResultCache cache = cache(1 << 20, QueryResultCache.EvictionPolicy.LRU);
+        cache.put("info", "alarm_info", "{}", cache.generation("alarm_info"));
+        cache.put("ignore", "alarm_ignore", "{}", cache.generation("alarm_ignore"));
+
+        now.addAndGet(6000);
+
+        assertEquals("{}", cache.get("info"));
+        assertNull(cache.get("ignore"));
+        assertEquals(1L, cache.getStats().get("expirations"));
+    }
+
+    @Test
+    void invalidationSourceDropsEntriesOfChangedCollection() {
+        QueryResultCache cache = cache(1 << 20, QueryResultCache.EvictionPolicy.LRU);
+        InMemoryInvalidationSource source = new InMemoryInvalidationSource();
+        source.start(cache::invalidateCollection);
+
+        cache.put("db.alarm_info.count()", "alarm_info", "{\"data\":1}", cache.generation("alarm_info"));
+        cache.put("db.alarm_itsc.count()", "alarm_itsc", "{\"data\":2}", cache.generation("alarm_itsc"));
+        source.publish("alarm_info");
+
+        assertNull(cache.get("db.alarm_info.count()"));
+        assertEquals("{\"data\":2}", cache.get("db.alarm_itsc.count()"));
+        assertEquals(1L, cache.getStats().get("invalidations"));
+    }
+
+    @Test
+    void skipsResultsOfQueriesThatRacedWithInvalidation() {
+        QueryResultCache cache = cache(1 << 20, QueryResultCache.EvictionPolicy.LRU);
+        long generation = cache.generation("alarm_info");
+
+        cache.invalidateCollection("alarm_info");
+
+        assertFalse(cache.put("q", "alarm_info", "stale", generation));
+        assertNull(cache.get("q"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenOverBudget() {
+        QueryResultCache cache = cache(3 * entrySize(), QueryResultCache.EvictionPolicy.LRU);
+        put(cache, "a");
+        put(cache, "b");
+        put(cache, "c");
+        cache.get("a");
+
+        put(cache, "d");
+
+        assertNull(cache.get("b"));
+        assertEquals("a", cache.get("a"));
+        assertEquals(1L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    void evictsLeastFrequentlyUsedWhenOverBudget() {
+        QueryResultCache cache = cache(3 * entrySize(), QueryResultCache.EvictionPolicy.LFU);
+        put(cache, "a");
+        put(cache, "b");
+        put(cache, "c");
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        cache.get("c");
+        cache.get("b");
+
+        put(cache, "d");
+
+        assertNull(cache.get("c"));
+        assertEquals("a", cache.get("a"));
+        assertEquals("b", cache.get("b"));
+    }
+
+    private static void put(QueryResultCache cache, String key) {
+        cache.put(key, "alarm_info", key, cache.generation("alarm_info"));
+    }
+
+    private static long entrySize() {
+        QueryResultCache probe = new QueryResultCache(1 << 20, QueryResultCache.EvictionPolicy.LRU,
+                Duration.ofSeconds(30), null);
+        put(probe, "x");
+        return (Long) probe.getStats().get("bytes");
+    }
+}
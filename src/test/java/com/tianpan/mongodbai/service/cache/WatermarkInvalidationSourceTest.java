@@ -0,0 +1,60 @@
+package com.tianpan.mongodbai.service.cache;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+class WatermarkInvalidationSourceTest {
+
+    private final MongoDatabase database = mock(MongoDatabase.class);
+    private final MongoCollection<Document> alarmInfo = mock(MongoCollection.class);
+    private final MongoCollection<Document> alarmIgnore = mock(MongoCollection.class);
+    private final FindIterable<Document> find = mock(FindIterable.class);
+
+    WatermarkInvalidationSourceTest() {
+        when(database.getCollection("alarm_info")).thenReturn(alarmInfo);
+        when(database.getCollection("alarm_ignore")).thenReturn(alarmIgnore);
+        when(alarmInfo.find(any(Bson.class))).thenReturn(find);
+        when(find.sort(any())).thenReturn(find);
+        when(find.projection(any())).thenReturn(find);
+    }
+
+    @Test
+    void pollsOnlyIndexedCollectionsAndInvalidatesWhenWatermarkMoves() {
+        AtomicBoolean indexed = new AtomicBoolean(false);
+        WatermarkInvalidationSource source = new WatermarkInvalidationSource(database,
+                Arrays.asList("alarm_info", "alarm_ignore"), "end_time", 5000,
+                collection -> collection.equals("alarm_info") && indexed.get());
+        List<String> invalidated = new ArrayList<>();
+
+        source.poll(invalidated::add);
+        verify(alarmInfo, never()).find(any(Bson.class));
+
+        indexed.set(true);
+        when(find.first()).thenReturn(new Document("end_time", 1), new Document("end_time", 1), new Document("end_time", 2));
+        source.poll(invalidated::add);
+        source.poll(invalidated::add);
+        assertEquals(Collections.emptyList(), invalidated);
+        source.poll(invalidated::add);
+
+        assertEquals(Collections.singletonList("alarm_info"), invalidated);
+        verify(alarmIgnore, never()).find(any(Bson.class));
+    }
+}
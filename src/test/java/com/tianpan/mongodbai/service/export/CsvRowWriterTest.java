@@ -0,0 +1,27 @@
+package com.tianpan.mongodbai.service.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvRowWriterTest {
+
+    @Test
+    void quotesOnlyWhenNeeded() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RowWriter writer = new CsvRowWriter(out, Arrays.asList("itsc_id", "系统"));
+        writer.writeRow(Arrays.asList("T1", "核心,账务"));
+        writer.writeRow(Arrays.asList("T2", "说\"明\"\n第二行"));
+        writer.writeRow(Arrays.asList(null, " 空格"));
+        writer.finish();
+
+        assertEquals("\uFEFFitsc_id,系统\r\n"
+                + "T1,\"核心,账务\"\r\n"
+                + "T2,\"说\"\"明\"\"\n第二行\"\r\n"
+                + ",\" 空格\"\r\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,73 @@
+package com.tianpan.mongodbai.service.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XlsxRowWriterTest {
+
+    private static Map<String, String> unzip(byte[] bytes) throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int n = zip.read(buffer); n > 0; n = zip.read(buffer)) {
+                    content.write(buffer, 0, n);
+                }
+                entries.put(entry.getName(), new String(content.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    void writesInlineStringCellsWithEscaping() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RowWriter writer = new XlsxRowWriter(out, Arrays.asList("itsc_id", "content"));
+        writer.writeRow(Arrays.asList("T1", "a<b & \u0001c"));
+        writer.finish();
+
+        Map<String, String> entries = unzip(out.toByteArray());
+        assertTrue(entries.keySet().containsAll(Arrays.asList("[Content_Types].xml", "_rels/.rels",
+                "xl/workbook.xml", "xl/_rels/workbook.xml.rels", "xl/worksheets/sheet1.xml")));
+        String sheet = entries.get("xl/worksheets/sheet1.xml");
+        assertTrue(sheet.contains("<row r=\"2\"><c r=\"A2\" t=\"inlineStr\"><is><t xml:space=\"preserve\">T1</t></is></c>"
+                + "<c r=\"B2\" t=\"inlineStr\"><is><t xml:space=\"preserve\">a&lt;b &amp; c</t></is></c></row>"), sheet);
+    }
+
+    @Test
+    void continuesOnNewSheetWhenRowLimitIsReached() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RowWriter writer = new XlsxRowWriter(out, Arrays.asList("n"), 3);
+        for (int i = 1; i <= 5; i++) {
+            writer.writeRow(Arrays.asList(String.valueOf(i)));
+        }
+        writer.finish();
+
+        Map<String, String> entries = unzip(out.toByteArray());
+        assertTrue(entries.get("xl/worksheets/sheet3.xml").contains("<row r=\"1\"><c r=\"A1\" t=\"inlineStr\"><is><t xml:space=\"preserve\">n</t>"));
+        assertTrue(entries.get("xl/worksheets/sheet3.xml").contains(">5</t>"));
+        assertTrue(entries.get("xl/workbook.xml").contains("<sheet name=\"Sheet3\" sheetId=\"3\" r:id=\"rId3\"/>"));
+        assertTrue(entries.get("[Content_Types].xml").contains("/xl/worksheets/sheet3.xml"));
+    }
+
+    @Test
+    void columnNames() {
+        assertEquals("A", XlsxRowWriter.columnName(0));
+        assertEquals("Z", XlsxRowWriter.columnName(25));
+        assertEquals("AA", XlsxRowWriter.columnName(26));
+        assertEquals("AZ", XlsxRowWriter.columnName(51));
+        assertEquals("BA", XlsxRowWriter.columnName(52));
+    }
+}
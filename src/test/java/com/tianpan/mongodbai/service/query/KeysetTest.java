@@ -0,0 +1,118 @@
+package com.tianpan.mongodbai.service.query;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KeysetTest {
+
+    private static final List<Document> UNIQUE_KEYS = Arrays.asList(new Document("_id", 1), new Document("alert_id", 1));
+
+    private final QueryPlanCache plans = new QueryPlanCache(100, Collections.emptyMap());
+
+    private Keyset.Page page(String query) {
+        return Keyset.page(plans.get(query), UNIQUE_KEYS);
+    }
+
+    @Test
+    void pageSortAppendsIdOnlyWhenSortIsNotUnique() {
+        assertEquals(BsonDocument.parse("{end_time: -1, _id: -1}"),
+                page("db.alarm_info.find({alarm_type: 'business'}).sort({end_time: -1}).limit(2)").getSort());
+        assertEquals(BsonDocument.parse("{_id: 1}"), page("db.alarm_info.find().limit(2)").getSort());
+
+        assertEquals(BsonDocument.parse("{_id: -1}"), page("db.alarm_info.find().sort({_id: -1}).limit(2)").getSort());
+        assertEquals(BsonDocument.parse("{end_time: 1, _id: 1}"), page("db.alarm_info.find().sort({end_time: 1, _id: 1}).limit(2)").getSort());
+        assertEquals(BsonDocument.parse("{alert_id: 1}"), page("db.alarm_info.find().sort({alert_id: 1}).limit(2)").getSort());
+        assertEquals(BsonDocument.parse("{system_name: 1, alert_id: -1}"),
+                page("db.alarm_info.find().sort({system_name: 1, alert_id: -1}).limit(2)").getSort());
+
+        assertNull(page("db.alarm_info.count()"));
+    }
+
+    @Test
+    void pageProjectionKeepsSortFieldsAndStripsThemFromRows() {
+        Keyset.Page inclusion = page("db.alarm_info.find({}, {system_name: 1, _id: 0}).sort({end_time: -1}).limit(2)");
+        assertEquals(BsonDocument.parse("{system_name: 1, end_time: 1}"), inclusion.getProjection());
+        Document row = new Document("_id", 7).append("system_name", "a").append("end_time", "2025-06-30 10:00:00");
+        String token = inclusion.token(row.toBsonDocument());
+        inclusion.strip(row);
+        assertEquals(new Document("system_name", "a"), row);
+        assertEquals(Keyset.filter(inclusion, token), inclusion.filter(token));
+
+        Keyset.Page exclusion = page("db.alarm_info.find({}, {content: 0, end_time: 0}).sort({end_time: -1}).limit(2)");
+        assertEquals(BsonDocument.parse("{content: 0}"), exclusion.getProjection());
+        BsonDocument raw = BsonDocument.parse("{_id: 1, end_time: 'x', detail: {level: 1}}");
+        exclusion.strip(raw);
+        assertEquals(BsonDocument.parse("{_id: 1, detail: {level: 1}}"), raw);
+
+        Keyset.Page nested = page("db.alarm_info.find({}, {'detail.level': 0}).sort({'detail.level': 1}).limit(2)");
+        assertEquals(BsonDocument.parse("{}"), nested.getProjection());
+        BsonDocument nestedRow = BsonDocument.parse("{_id: 1, detail: {level: 1, source: 'x'}}");
+        nested.strip(nestedRow);
+        assertEquals(BsonDocument.parse("{_id: 1, detail: {source: 'x'}}"), nestedRow);
+
+        Keyset.Page unchanged = page("db.alarm_info.find({}, {system_name: 1, end_time: 1}).sort({end_time: -1}).limit(2)");
+        assertFalse(unchanged.hasInjectedFields());
+    }
+
+    @Test
+    void continuationResumesAfterLastSortKey() {
+        Keyset.Page page = page("db.alarm_info.find({alarm_type: 'business'}).sort({end_time: -1}).limit(2)");
+        BsonDocument last = BsonDocument.parse("{_id: {$oid: '665f1c2e8f1b2a3c4d5e6f70'}, end_time: '2025-06-30 10:00:00', system_name: 'a'}");
+
+        String token = page.token(last);
+        BsonDocument filter = page.filter(token);
+
+        assertEquals(BsonDocument.parse("{$and: [{alarm_type: 'business'}, {$or: ["
+                + "{end_time: {$lt: '2025-06-30 10:00:00'}},"
+                + "{end_time: null},"
+                + "{end_time: '2025-06-30 10:00:00', _id: {$lt: {$oid: '665f1c2e8f1b2a3c4d5e6f70'}}}]}]}"), filter);
+    }
+
+    @Test
+    void missingDescendingSortValuesAreNotSkipped() {
+        Keyset.Page page = page("db.alarm_info.find().sort({reaction_time: -1}).limit(2)");
+
+        // 降序中null和缺失排在所有非null值之后，非null值之后的一页仍要包含它们
+        String token = page.token(BsonDocument.parse("{_id: 7, reaction_time: 30}"));
+        assertEquals(BsonDocument.parse("{$or: [{reaction_time: {$lt: 30}}, {reaction_time: null},"
+                + " {reaction_time: 30, _id: {$lt: 7}}]}"), page.filter(token));
+
+        // 已进入null段，之后只剩同为null的更小 _id
+        String missing = page.token(BsonDocument.parse("{_id: 5}"));
+        assertEquals(BsonDocument.parse("{reaction_time: null, _id: {$lt: 5}}"), page.filter(missing));
+    }
+
+    @Test
+    void missingAscendingSortValueResumesWithNonNullValues() {
+        Keyset.Page page = page("db.alarm_info.find().sort({reaction_time: 1}).limit(2)");
+        String token = page.token(BsonDocument.parse("{_id: 7}"));
+
+        assertEquals(BsonDocument.parse("{$or: [{reaction_time: {$ne: null}}, {reaction_time: null, _id: {$gt: 7}}]}"),
+                page.filter(token));
+    }
+
+    @Test
+    void tokenFromAnotherQueryIsRejected() {
+        Keyset.Page first = page("db.alarm_info.find().sort({end_time: -1}).limit(2)");
+        Keyset.Page other = page("db.alarm_info.find({alarm_type: 'system'}).sort({end_time: -1}).limit(2)");
+        String token = first.token(BsonDocument.parse("{_id: 1, end_time: 'x'}"));
+
+        assertThrows(IllegalArgumentException.class, () -> other.filter(token));
+        assertThrows(IllegalArgumentException.class, () -> first.filter("not-a-token"));
+
+        // end_time 上建了唯一索引后分页排序不再含 _id，旧令牌按不匹配拒绝
+        Keyset.Page unique = Keyset.page(plans.get("db.alarm_info.find().sort({end_time: -1}).limit(2)"),
+                Collections.singletonList(new Document("end_time", 1)));
+        assertThrows(IllegalArgumentException.class, () -> unique.filter(token));
+    }
+}
@@ -0,0 +1,146 @@
+package com.tianpan.mongodbai.service.query;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryParserTest {
+
+    private static QueryPlan compile(String query) {
+        return QueryCompiler.compile(QueryParser.parse(query), QueryLexer.normalize(query));
+    }
+
+    @Test
+    void parsesFindWithSortAndLimit() {
+        QueryPlan plan = compile("db.alarm_info.find({alarm_type: 'business'}).sort({end_time: -1}).limit(10)");
+
+        assertEquals("alarm_info", plan.getCollection());
+        assertEquals(QueryPlan.Operation.FIND, plan.getOperation());
+        assertEquals("business", plan.getFilter().getString("alarm_type").getValue());
+        assertEquals(-1, plan.getSort().getInt32("end_time").getValue());
+        assertEquals(Integer.valueOf(10), plan.getLimit());
+    }
+
+    @Test
+    void keepsParenthesesInsideStringLiterals() {
+        QueryPlan plan = compile("db.alarm_info.find({content: 'timeout (3)', system_name: \"a)b\"}).limit(5)");
+
+        assertEquals("timeout (3)", plan.getFilter().getString("content").getValue());
+        assertEquals("a)b", plan.getFilter().getString("system_name").getValue());
+        assertEquals(Integer.valueOf(5), plan.getLimit());
+    }
+
+    @Test
+    void parsesNestedExpressions() {
+        QueryPlan plan = compile("db.alarm_info.find({$or: [{level: {$in: [1, 2]}}, {end_time: {$gte: ISODate('2025-06-30T00:00:00Z')}}]})");
+
+        assertEquals(2, plan.getFilter().getArray("$or").size());
+        assertNull(plan.getSort());
+        assertNull(plan.getLimit());
+    }
+
+    @Test
+    void parsesProjectionArgumentAndChainedProjection() {
+        QueryPlan plan = compile("db.alarm_info.find({alarm_type: 'business'}, {system_name: 1, _id: 0})");
+        assertEquals(1, plan.getProjection().getInt32("system_name").getValue());
+
+        QueryPlan chained = compile("db.alarm_info.find({}, {system_name: 1}).projection({end_time: 1}).limit(1)");
+        assertEquals(1, chained.getProjection().size());
+        assertEquals(1, chained.getProjection().getInt32("end_time").getValue());
+
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.count().projection({a: 1})"));
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.find({}, 1)"));
+    }
+
+    @Test
+    void appliesDefaultProjectionOnlyWhenNoneGiven() {
+        QueryPlanCache cache = new QueryPlanCache(10, Collections.singletonMap("alarm_info", "{payload: 0}"));
+
+        assertEquals(0, cache.get("db.alarm_info.find()").getProjection().getInt32("payload").getValue());
+        assertTrue(cache.get("db.alarm_info.find({}, {system_name: 1})").getProjection().containsKey("system_name"));
+        assertNull(cache.get("db.alarm_itsc.find()").getProjection());
+        assertNull(cache.get("db.alarm_info.count()").getProjection());
+    }
+
+    @Test
+    void parsesAggregatePipelineAndOptions() {
+        QueryPlan plan = compile("db.alarm_info.aggregate([{$match: {alarm_type: 'business'}}, "
+                + "{$group: {_id: '$system_name', n: {$sum: 1}}}, {$sort: {n: -1}}], "
+                + "{allowDiskUse: false, maxTimeMS: 5000, cursor: {batchSize: 200}})");
+
+        assertEquals(QueryPlan.Operation.AGGREGATE, plan.getOperation());
+        assertEquals(3, plan.getPipeline().size());
+        assertEquals("$group", plan.getPipeline().get(1).getFirstKey());
+        assertEquals(Boolean.FALSE, plan.getAllowDiskUse());
+        assertEquals(Long.valueOf(5000), plan.getMaxTimeMS());
+        assertEquals(Integer.valueOf(200), plan.getBatchSize());
+
+        QueryPlan defaults = compile("db.alarm_info.aggregate([]).toArray()");
+        assertTrue(defaults.getPipeline().isEmpty());
+        assertNull(defaults.getAllowDiskUse());
+        assertNull(defaults.getMaxTimeMS());
+    }
+
+    @Test
+    void rejectsWritingOrMalformedAggregates() {
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.aggregate([{$out: 'copy'}])"));
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.aggregate([{$merge: {into: 'copy'}}])"));
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.aggregate({$match: {}})"));
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.aggregate([{$match: {}, $limit: 1}])"));
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.aggregate([], {explain: true})"));
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.aggregate([]).limit(1)"));
+    }
+
+    @Test
+    void parsesCountAndEmptyFind() {
+        assertEquals(QueryPlan.Operation.COUNT, compile("db.alarm_info.count()").getOperation());
+        assertTrue(compile("db.alarm_info.find();").getFilter().isEmpty());
+    }
+
+    @Test
+    void distinguishesEstimatedAndExactCounts() {
+        assertTrue(compile("db.alarm_info.count()").isEstimatedCount());
+        assertTrue(compile("db.alarm_info.estimatedDocumentCount()").isEstimatedCount());
+        assertFalse(compile("db.alarm_info.countDocuments()").isEstimatedCount());
+
+        QueryPlan filtered = compile("db.alarm_info.count({alarm_type: 'business'})");
+        assertFalse(filtered.isEstimatedCount());
+        assertEquals("business", filtered.getFilter().getString("alarm_type").getValue());
+        assertEquals("countDocuments{alarm_type}", filtered.getShape());
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.estimatedDocumentCount({a: 1})"));
+    }
+
+    @Test
+    void normalizesWhitespaceOutsideLiterals() {
+        assertEquals(QueryLexer.normalize("db.alarm_info.find({a: 'x  y'})"),
+                QueryLexer.normalize("  db . alarm_info.find( { a :  'x  y' } )"));
+        assertEquals("db.c.find({d:new Date(0)})", QueryLexer.normalize("db.c.find({d: new Date(0)})"));
+    }
+
+    @Test
+    void rejectsInvalidQueries() {
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.find({a: 1}"));
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.find({a: 'x)"));
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.drop()"));
+        assertThrows(IllegalArgumentException.class, () -> compile("db.alarm_info.find().limit('x')"));
+        assertThrows(IllegalArgumentException.class, () -> compile("alarm_info.find()"));
+    }
+
+    @Test
+    void cachesPlansByNormalizedQuery() {
+        QueryPlanCache cache = new QueryPlanCache(10, Collections.emptyMap());
+        QueryPlan first = cache.get("db.alarm_info.find({a: 1}).limit(3)");
+        QueryPlan second = cache.get("db.alarm_info.find( {a : 1} ) .limit(3)");
+
+        assertSame(first, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+}
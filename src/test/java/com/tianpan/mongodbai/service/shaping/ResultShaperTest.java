@@ -0,0 +1,150 @@
+package com.tianpan.mongodbai.service.shaping;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultShaperTest {
+
+    private final ResultShaper shaper = new ResultShaper(new String[]{"system_name", "alarm_type"}, "end_time", 20);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static List<Document> alarms(int count) {
+        List<Document> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new Document("_id", i)
+                    .append("alert_id", String.format("ALM-%04d", i))
+                    .append("system_name", i % 3 == 0 ? "支付核心系统" : "渠道网关")
+                    .append("alarm_type", "business")
+                    .append("content", "交易成功率低于阈值，当前值 95.1%，阈值 99%")
+                    .append("end_time", new Date(1751297444000L + i * 60_000L)));
+        }
+        return rows;
+    }
+
+    private JsonNode json(ResultShaper.Shaped shaped) throws Exception {
+        return objectMapper.readTree(objectMapper.writeValueAsString(shaped.getData()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void overBudgetReturnsRowsThatFitAndSummarizesAll() throws Exception {
+        ResultShape shape = new ResultShape();
+        shape.setMaxBytes(1000);
+
+        ResultShaper.Shaped shaped = shaper.shape(alarms(30), shape, 1);
+
+        String data = objectMapper.writeValueAsString(shaped.getData());
+        assertTrue(data.getBytes(StandardCharsets.UTF_8).length <= 1000);
+        assertEquals(shaped.getData().size(), json(shaped).size());
+        Map<String, Object> report = shaped.getReport();
+        assertEquals(30, report.get("totalRows"));
+        assertTrue((Integer) report.get("returnedRows") < 30);
+        assertEquals(true, ((Map<String, Object>) report.get("budget")).get("exceeded"));
+        assertEquals((long) data.getBytes(StandardCharsets.UTF_8).length,
+                ((Map<String, Object>) report.get("budget")).get("usedBytes"));
+
+        Map<String, Object> summary = (Map<String, Object>) report.get("summary");
+        assertEquals(30, summary.get("rows"));
+        Map<String, Object> systems = (Map<String, Object>) summary.get("system_name");
+        assertEquals(2, systems.get("distinct"));
+        assertEquals(Arrays.asList("渠道网关", "支付核心系统"),
+                new ArrayList<>(((Map<String, Object>) systems.get("top")).keySet()));
+        assertEquals(20, ((Map<String, Object>) systems.get("top")).get("渠道网关"));
+        Map<String, Object> range = (Map<String, Object>) summary.get("timeRange");
+        assertEquals("2025-06-30T23:30:44.000+08:00", range.get("from"));
+        assertEquals("2025-06-30T23:59:44.000+08:00", range.get("to"));
+    }
+
+    @Test
+    void withinBudgetHasNoSummary() {
+        ResultShape shape = new ResultShape();
+        shape.setMaxTokens(100_000);
+
+        ResultShaper.Shaped shaped = shaper.shape(alarms(5), shape, 1);
+
+        assertEquals(5, shaped.getData().size());
+        assertFalse(shaped.getReport().containsKey("summary"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void prunesFieldsByRelevanceAndTruncatesStrings() throws Exception {
+        ResultShape shape = new ResultShape();
+        shape.setFields(Arrays.asList("content", "system_name", "tags"));
+        shape.setMaxStringLength(4);
+        List<Document> rows = alarms(1);
+        rows.get(0).append("tags", Arrays.asList("production", "sla"));
+
+        ResultShaper.Shaped shaped = shaper.shape(rows, shape, 1);
+
+        JsonNode row = json(shaped).get(0);
+        List<String> names = new ArrayList<>();
+        row.fieldNames().forEachRemaining(names::add);
+        assertEquals(Arrays.asList("content", "system_name", "tags"), names);
+        assertEquals("交易成功…", row.get("content").asText());
+        assertEquals("支付核心…", row.get("system_name").asText());
+        assertEquals("prod…", row.get("tags").get(0).asText());
+        assertEquals("sla", row.get("tags").get(1).asText());
+        assertEquals(3, shaped.getReport().get("truncatedStrings"));
+        assertEquals(Arrays.asList("_id", "alarm_type", "alert_id", "end_time"),
+                shaped.getReport().get("prunedFields"));
+        // 原结果不被修改
+        assertEquals("交易成功率低于阈值，当前值 95.1%，阈值 99%", rows.get(0).getString("content"));
+        assertEquals("production", ((List<String>) rows.get(0).get("tags")).get(0));
+    }
+
+    @Test
+    void samplingIsDeterministicAndKeepsOrder() {
+        List<Document> rows = alarms(100);
+
+        List<Document> first = ResultShaper.sample(rows, 10, new Random(7));
+        List<Document> second = ResultShaper.sample(rows, 10, new Random(7));
+
+        assertEquals(first, second);
+        assertEquals(10, first.size());
+        for (int i = 1; i < first.size(); i++) {
+            assertTrue(first.get(i - 1).getInteger("_id") < first.get(i).getInteger("_id"));
+        }
+
+        ResultShape shape = new ResultShape();
+        shape.setSample(10);
+        shape.setSummary(true);
+        ResultShaper.Shaped shaped = shaper.shape(rows, shape, 7);
+        assertEquals(10, shaped.getReport().get("sampledRows"));
+        assertEquals(10, shaped.getReport().get("returnedRows"));
+        assertTrue(shaped.getReport().containsKey("summary"));
+    }
+
+    @Test
+    void estimatesTokensPerCjkCharacterAndFourAsciiCharacters() {
+        assertEquals(2, ResultShaper.estimateTokens("{\"a\":1}"));
+        assertEquals(4, ResultShaper.estimateTokens("支付核心"));
+    }
+
+    @Test
+    void rejectsInvalidShape() {
+        ResultShape shape = new ResultShape();
+        shape.setMaxBytes(0);
+        assertThrows(IllegalArgumentException.class, shape::validate);
+
+        ResultShape fields = new ResultShape();
+        fields.setFields(Collections.singletonList(" "));
+        assertThrows(IllegalArgumentException.class, fields::validate);
+    }
+}